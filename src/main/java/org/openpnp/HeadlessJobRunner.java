@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+ *
+ * This file is part of OpenPnP.
+ *
+ * OpenPnP is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * OpenPnP is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with OpenPnP. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.openpnp.machine.reference.ReferencePnpJobProcessor;
+import org.openpnp.machine.reference.SimulationModeMachine;
+import org.openpnp.machine.reference.SimulationModeMachine.SimulationMode;
+import org.openpnp.machine.reference.driver.NullDriver;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Job;
+import org.openpnp.spi.Driver;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.PnpJobProcessor;
+import org.openpnp.spi.PnpJobProcessor.JobPlacement;
+import org.pmw.tinylog.Configurator;
+import org.pmw.tinylog.Level;
+import org.pmw.tinylog.Logger;
+import org.pmw.tinylog.writers.ConsoleWriter;
+
+/**
+ * Runs a job without the GUI, for throughput benchmarking and automated regression runs. The
+ * configuration directory is loaded, the machine is enabled and homed, and the job is run through
+ * the ReferencePnpJobProcessor to completion. Timing statistics are printed at the end.
+ *
+ * Nothing on this path creates Swing components or the MainFrame, i.e. MainFrame.get() stays null
+ * throughout, which the machine and job processor code already tolerates. The runner refuses to run
+ * on a machine that is not simulated: the machine must either be a SimulationModeMachine with a
+ * simulation mode other than Off, or all its drivers must be NullDrivers.
+ *
+ * Usage:
+ *
+ * <pre>
+ * java -Djava.awt.headless=true -cp openpnp-gui.jar org.openpnp.HeadlessJobRunner
+ *     [--config &lt;dir&gt;] [--repeat &lt;n&gt;] [--log-level &lt;level&gt;] &lt;job.xml&gt;
+ * </pre>
+ *
+ * The configuration directory defaults to the same directory the GUI uses, including the
+ * -DconfigDir override. The process exit code is 0 if all runs finished without errored
+ * placements, 1 if any placement errored, and 2 on a fatal error.
+ */
+public class HeadlessJobRunner {
+    private File configurationDirectory;
+    private File jobFile;
+    private int repeat = 1;
+    private Level logLevel = Level.WARNING;
+
+    /**
+     * Accumulated wall clock time per Step class, in insertion order.
+     */
+    private Map<String, StepTiming> stepTimings = new LinkedHashMap<>();
+
+    private static class StepTiming {
+        int count;
+        long totalNs;
+        long maxNs;
+    }
+
+    public static void main(String[] args) {
+        // Time since JVM start, before we load anything of our own.
+        long launchMs = ManagementFactory.getRuntimeMXBean().getUptime();
+        System.setProperty("java.awt.headless", "true");
+
+        HeadlessJobRunner runner = new HeadlessJobRunner();
+        int exitCode;
+        try {
+            runner.parseArguments(args);
+            exitCode = runner.run(launchMs);
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(
+                    "Usage: HeadlessJobRunner [--config <dir>] [--repeat <n>] [--log-level <level>] <job.xml>");
+            exitCode = 2;
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            exitCode = 2;
+        }
+        // Machine and camera threads are not all daemons, so exit explicitly.
+        System.exit(exitCode);
+    }
+
+    private void parseArguments(String[] args) {
+        configurationDirectory = new File(System.getProperty("user.home"), ".openpnp2");
+        if (System.getProperty("configDir") != null) {
+            configurationDirectory = new File(System.getProperty("configDir"));
+        }
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--config") && i + 1 < args.length) {
+                configurationDirectory = new File(args[++i]);
+            }
+            else if (arg.equals("--repeat") && i + 1 < args.length) {
+                repeat = Integer.parseInt(args[++i]);
+                if (repeat < 1) {
+                    throw new IllegalArgumentException("--repeat must be at least 1.");
+                }
+            }
+            else if (arg.equals("--log-level") && i + 1 < args.length) {
+                logLevel = Level.valueOf(args[++i].toUpperCase(Locale.ROOT));
+            }
+            else if (!arg.startsWith("--") && jobFile == null) {
+                jobFile = new File(arg);
+            }
+            else {
+                throw new IllegalArgumentException("Unknown or incomplete argument " + arg);
+            }
+        }
+        if (jobFile == null) {
+            throw new IllegalArgumentException("No job file given.");
+        }
+        if (!configurationDirectory.isDirectory()) {
+            throw new IllegalArgumentException(
+                    "Configuration directory " + configurationDirectory + " does not exist.");
+        }
+    }
+
+    private int run(long launchMs) throws Exception {
+        Configurator.currentConfig()
+            .writer(new ConsoleWriter())
+            .level(logLevel)
+            .formatPattern("{date:yyyy-MM-dd HH:mm:ss.SSS} {class_name} {level}: {message}")
+            .activate();
+
+        long t0 = System.nanoTime();
+        Configuration.initialize(configurationDirectory);
+        Configuration.get().load();
+        long configurationNs = System.nanoTime() - t0;
+
+        Machine machine = Configuration.get().getMachine();
+        checkSimulatedMachine(machine);
+        PnpJobProcessor pnpJobProcessor = machine.getPnpJobProcessor();
+        if (!(pnpJobProcessor instanceof ReferencePnpJobProcessor)) {
+            throw new Exception("The machine's job processor is not a ReferencePnpJobProcessor.");
+        }
+        ReferencePnpJobProcessor jobProcessor = (ReferencePnpJobProcessor) pnpJobProcessor;
+        jobProcessor.addTextStatusListener((text) -> {
+            Logger.info(text);
+        });
+
+        t0 = System.nanoTime();
+        Job job = Configuration.get().loadJob(jobFile);
+        long jobLoadNs = System.nanoTime() - t0;
+
+        t0 = System.nanoTime();
+        machine.setEnabled(true);
+        long enableNs = System.nanoTime() - t0;
+
+        t0 = System.nanoTime();
+        machine.execute(() -> {
+            machine.home();
+            return null;
+        }, true, 0, -1);
+        long homeNs = System.nanoTime() - t0;
+
+        System.out.println(String.format(Locale.ROOT, "Launch (JVM start to main)    %10.1f ms", (double) launchMs));
+        System.out.println(String.format(Locale.ROOT, "Configuration load            %10.1f ms", configurationNs / 1e6));
+        System.out.println(String.format(Locale.ROOT, "Job load                      %10.1f ms", jobLoadNs / 1e6));
+        System.out.println(String.format(Locale.ROOT, "Machine enable                %10.1f ms", enableNs / 1e6));
+        System.out.println(String.format(Locale.ROOT, "Machine home                  %10.1f ms", homeNs / 1e6));
+        System.out.println(String.format(Locale.ROOT, "Startup total                 %10.1f ms",
+                launchMs + (configurationNs + jobLoadNs + enableNs + homeNs) / 1e6));
+
+        int exitCode = 0;
+        try {
+            for (int run = 1; run <= repeat; run++) {
+                // Make sure every run places the whole job again.
+                job.removeAllPlacedStatus();
+                ReferencePnpJobProcessor.deleteJournal(job);
+                stepTimings.clear();
+
+                t0 = System.nanoTime();
+                machine.execute(() -> {
+                    jobProcessor.initialize(job);
+                    while (true) {
+                        String stepName = jobProcessor.getCurrentStepName();
+                        long t1 = System.nanoTime();
+                        boolean more = jobProcessor.next();
+                        recordStep(stepName, System.nanoTime() - t1);
+                        if (!more) {
+                            break;
+                        }
+                    }
+                    return null;
+                }, true, 0, -1);
+                long jobNs = System.nanoTime() - t0;
+
+                if (!printRunStatistics(run, jobProcessor, jobNs)) {
+                    exitCode = 1;
+                }
+            }
+        }
+        finally {
+            machine.setEnabled(false);
+            machine.close();
+        }
+        return exitCode;
+    }
+
+    private void checkSimulatedMachine(Machine machine) throws Exception {
+        if (machine instanceof SimulationModeMachine
+                && ((SimulationModeMachine) machine).getSimulationMode() != SimulationMode.Off) {
+            return;
+        }
+        for (Driver driver : machine.getDrivers()) {
+            if (!(driver instanceof NullDriver)) {
+                throw new Exception("The headless job runner only runs simulated machines, but driver "
+                        + driver.getName() + " is a " + driver.getClass().getSimpleName()
+                        + ". Use a SimulationModeMachine or NullDriver configuration.");
+            }
+        }
+    }
+
+    private void recordStep(String stepName, long ns) {
+        if (stepName == null) {
+            return;
+        }
+        StepTiming timing = stepTimings.computeIfAbsent(stepName, (name) -> new StepTiming());
+        timing.count++;
+        timing.totalNs += ns;
+        timing.maxNs = Math.max(timing.maxNs, ns);
+    }
+
+    /**
+     * Prints the statistics of one job run.
+     *
+     * @return true if no placements errored.
+     */
+    private boolean printRunStatistics(int run, ReferencePnpJobProcessor jobProcessor, long jobNs) {
+        int complete = 0;
+        int errored = 0;
+        for (JobPlacement jobPlacement : jobProcessor.getJobPlacements()) {
+            if (jobPlacement.getStatus() == JobPlacement.Status.Complete) {
+                complete++;
+            }
+            else if (jobPlacement.getStatus() == JobPlacement.Status.Errored) {
+                errored++;
+            }
+        }
+        double jobSec = jobNs / 1e9;
+        int placed = jobProcessor.getTotalPartsPlaced();
+
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "Run %d of %d", run, repeat));
+        System.out.println(String.format(Locale.ROOT, "Job time                      %10.3f s", jobSec));
+        System.out.println(String.format(Locale.ROOT, "Parts placed                  %10d", placed));
+        System.out.println(String.format(Locale.ROOT, "Placements complete/errored   %6d/%d", complete, errored));
+        System.out.println(String.format(Locale.ROOT, "Throughput                    %10.1f CPH",
+                jobSec > 0 ? placed / (jobSec / 3600.0) : 0.0));
+        System.out.println(String.format(Locale.ROOT, "%-28s %7s %12s %10s %10s", "Step", "Count", "Total ms", "Mean ms", "Max ms"));
+        for (Map.Entry<String, StepTiming> entry : stepTimings.entrySet()) {
+            StepTiming timing = entry.getValue();
+            System.out.println(String.format(Locale.ROOT, "%-28s %7d %12.1f %10.2f %10.2f",
+                    entry.getKey(), timing.count, timing.totalNs / 1e6,
+                    timing.totalNs / 1e6 / timing.count, timing.maxNs / 1e6));
+        }
+        return errored == 0;
+    }
+}
@@ -0,0 +1,520 @@
+/*
+ * Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+ *
+ * This file is part of OpenPnP.
+ *
+ * OpenPnP is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * OpenPnP is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with OpenPnP. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.openpnp.model.AbstractVisionSettings;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Length;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.spi.Camera;
+import org.openpnp.util.VisionUtils;
+import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.CvStage;
+import org.openpnp.vision.pipeline.CvStage.Result;
+import org.openpnp.vision.pipeline.stages.ImageCapture;
+import org.openpnp.vision.pipeline.stages.ImageRead;
+import org.pmw.tinylog.Configurator;
+import org.pmw.tinylog.Level;
+import org.pmw.tinylog.writers.ConsoleWriter;
+
+/**
+ * Runs a vision pipeline without the GUI over a directory of captured images, for tuning the
+ * pipeline for speed. The images are handed to the ImageCapture stages one by one, as if the camera
+ * had captured them, i.e. the stages still convert and crop them like in production. Each image is
+ * processed in a number of warmup and measurement iterations. The per-stage latency percentiles,
+ * the native memory use and the stability of the results across the iterations are printed at the
+ * end.
+ *
+ * The pipeline is either given as an XML file, or as the id of a BottomVisionSettings or
+ * FiducialVisionSettings in the configuration. In the latter case the configuration is loaded and
+ * the pipeline parameter assignments of the vision settings are applied, but the machine is not
+ * enabled, i.e. no camera is opened.
+ *
+ * The benchmark does not run the preparation of bottom vision or fiducial locator, so none of the
+ * properties derived from the nozzle, part, package or footprint are set, and no region of interest
+ * is applied. Stages with such property overrides fall back to their own settings, the unset
+ * properties are listed in the report. Stages that convert lengths or areas to pixels, like the
+ * parameters of the stock bottom vision pipelines, are given a stand-in camera that only knows the
+ * units per pixel given with --units-per-pixel. Pipelines that need more of the machine context,
+ * e.g. to render a footprint template, are rejected with exit code 2. Averaging over multiple camera
+ * frames is not emulated either.
+ *
+ * Usage:
+ *
+ * <pre>
+ * java -Djava.awt.headless=true -cp openpnp-gui.jar org.openpnp.HeadlessPipelineBenchmark
+ *     [--config &lt;dir&gt;] [--warmup &lt;n&gt;] [--iterations &lt;n&gt;] [--log-level &lt;level&gt;]
+ *     [--units-per-pixel &lt;length&gt;]
+ *     (--pipeline &lt;pipeline.xml&gt; | --vision-settings &lt;id&gt;) &lt;image dir&gt;
+ * </pre>
+ *
+ * The units per pixel are given as a length, e.g. 0.025mm, in millimeters if no unit is given.
+ *
+ * The process exit code is 0 if the results were stable for all the images, 1 if any image gave
+ * different results across the iterations, and 2 on a fatal error.
+ */
+public class HeadlessPipelineBenchmark {
+    private static final Set<String> imageExtensions = new LinkedHashSet<>(
+            Arrays.asList("png", "jpg", "jpeg", "bmp", "tif", "tiff"));
+
+    /**
+     * The pipeline properties that only the machine context provides. A pipeline asking for them
+     * cannot be benchmarked meaningfully.
+     */
+    private static final Set<String> machineContextProperties = new LinkedHashSet<>(
+            Arrays.asList("camera", "nozzle", "part", "package", "footprint", "feeder"));
+
+    private File configurationDirectory;
+    private File pipelineFile;
+    private String visionSettingsId;
+    private File imageDirectory;
+    private int warmup = 3;
+    private int iterations = 10;
+    private Level logLevel = Level.WARNING;
+    private Length unitsPerPixel;
+    private PrintStream out;
+
+    /**
+     * Latency samples per stage, in pipeline order.
+     */
+    private Map<String, List<Long>> stageSamples = new LinkedHashMap<>();
+    private List<Long> totalSamples = new ArrayList<>();
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args, System.out));
+    }
+
+    /**
+     * Runs the benchmark with the given command line arguments.
+     *
+     * @param args
+     * @param out Where to print the report.
+     * @return The exit code.
+     */
+    public static int run(String[] args, PrintStream out) {
+        HeadlessPipelineBenchmark benchmark = new HeadlessPipelineBenchmark();
+        benchmark.out = out;
+        try {
+            benchmark.parseArguments(args);
+            return benchmark.run();
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: HeadlessPipelineBenchmark [--config <dir>] [--warmup <n>] [--iterations <n>] "
+                    + "[--log-level <level>] [--units-per-pixel <length>] (--pipeline <pipeline.xml> | --vision-settings <id>) <image dir>");
+            return 2;
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            return 2;
+        }
+    }
+
+    private void parseArguments(String[] args) {
+        configurationDirectory = new File(System.getProperty("user.home"), ".openpnp2");
+        if (System.getProperty("configDir") != null) {
+            configurationDirectory = new File(System.getProperty("configDir"));
+        }
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--config") && i + 1 < args.length) {
+                configurationDirectory = new File(args[++i]);
+            }
+            else if (arg.equals("--pipeline") && i + 1 < args.length) {
+                pipelineFile = new File(args[++i]);
+            }
+            else if (arg.equals("--vision-settings") && i + 1 < args.length) {
+                visionSettingsId = args[++i];
+            }
+            else if (arg.equals("--warmup") && i + 1 < args.length) {
+                warmup = Integer.parseInt(args[++i]);
+                if (warmup < 0) {
+                    throw new IllegalArgumentException("--warmup must not be negative.");
+                }
+            }
+            else if (arg.equals("--iterations") && i + 1 < args.length) {
+                iterations = Integer.parseInt(args[++i]);
+                if (iterations < 1) {
+                    throw new IllegalArgumentException("--iterations must be at least 1.");
+                }
+            }
+            else if (arg.equals("--log-level") && i + 1 < args.length) {
+                logLevel = Level.valueOf(args[++i].toUpperCase(Locale.ROOT));
+            }
+            else if (arg.equals("--units-per-pixel") && i + 1 < args.length) {
+                unitsPerPixel = Length.parse(args[++i]);
+                if (unitsPerPixel == null || unitsPerPixel.getValue() <= 0) {
+                    throw new IllegalArgumentException("--units-per-pixel must be a positive length.");
+                }
+                if (unitsPerPixel.getUnits() == null) {
+                    unitsPerPixel.setUnits(LengthUnit.Millimeters);
+                }
+            }
+            else if (!arg.startsWith("--") && imageDirectory == null) {
+                imageDirectory = new File(arg);
+            }
+            else {
+                throw new IllegalArgumentException("Unknown or incomplete argument " + arg);
+            }
+        }
+        if ((pipelineFile == null) == (visionSettingsId == null)) {
+            throw new IllegalArgumentException("Either --pipeline or --vision-settings must be given.");
+        }
+        if (imageDirectory == null || !imageDirectory.isDirectory()) {
+            throw new IllegalArgumentException("Image directory " + imageDirectory + " does not exist.");
+        }
+        if (visionSettingsId != null && !configurationDirectory.isDirectory()) {
+            throw new IllegalArgumentException(
+                    "Configuration directory " + configurationDirectory + " does not exist.");
+        }
+    }
+
+    private int run() throws Exception {
+        Configurator.currentConfig()
+            .writer(new ConsoleWriter())
+            .level(logLevel)
+            .formatPattern("{date:yyyy-MM-dd HH:mm:ss.SSS} {class_name} {level}: {message}")
+            .activate();
+
+        List<File> images = listImages();
+        if (images.isEmpty()) {
+            throw new Exception("No images found in " + imageDirectory + ".");
+        }
+        try (BenchmarkPipeline pipeline = loadPipeline()) {
+            if (unitsPerPixel != null) {
+                pipeline.setProperty("camera", pipeline.createCamera(unitsPerPixel));
+            }
+            List<ImageRead> imageReads = prepareImageInput(pipeline);
+            long rssStart = readProcStatus("VmRSS");
+
+            boolean stable = true;
+            out.println(String.format(Locale.ROOT, "%-32s %10s %10s  %s", "Image", "Median ms", "Outcomes", "Result"));
+            for (File image : images) {
+                for (ImageRead imageRead : imageReads) {
+                    imageRead.setFile(image);
+                }
+                pipeline.setFrame(Imgcodecs.imread(image.getAbsolutePath()));
+                for (int i = 0; i < warmup; i++) {
+                    process(pipeline);
+                }
+                Set<String> outcomes = new LinkedHashSet<>();
+                List<Long> imageTotals = new ArrayList<>();
+                for (int i = 0; i < iterations; i++) {
+                    outcomes.add(process(pipeline));
+                    for (CvStage stage : pipeline.getStages()) {
+                        Result result = pipeline.getResult(stage);
+                        if (result != null) {
+                            stageSamples.computeIfAbsent(stage.getName(), (name) -> new ArrayList<>())
+                                .add(result.processingTimeNs);
+                        }
+                    }
+                    imageTotals.add(pipeline.getTotalProcessingTimeNs());
+                }
+                totalSamples.addAll(imageTotals);
+                if (outcomes.size() > 1) {
+                    stable = false;
+                }
+                out.println(String.format(Locale.ROOT, "%-32s %10.2f %10d  %s", image.getName(),
+                        percentile(imageTotals, 50) / 1e6, outcomes.size(), abbreviate(outcomes.iterator().next())));
+            }
+            pipeline.setFrame(null);
+            long rssEnd = readProcStatus("VmRSS");
+            long rssPeak = readProcStatus("VmHWM");
+
+            out.println();
+            out.println(String.format(Locale.ROOT, "%d images, %d warmup and %d measurement iterations each",
+                    images.size(), warmup, iterations));
+            out.println(String.format(Locale.ROOT, "%-28s %10s %10s %10s %10s %10s",
+                    "Stage", "p50 ms", "p90 ms", "p99 ms", "Max ms", "Mean ms"));
+            for (Map.Entry<String, List<Long>> entry : stageSamples.entrySet()) {
+                printLatencies(entry.getKey(), entry.getValue());
+            }
+            printLatencies("Total", totalSamples);
+            out.println();
+            out.println(String.format(Locale.ROOT, "Retained result images        %10d kB", pipeline.getRetainedImageBytes() / 1024));
+            out.println(String.format(Locale.ROOT, "Pooled free images            %10d kB", pipeline.getMatPool().getFreeBytes() / 1024));
+            out.println(String.format(Locale.ROOT, "Pooled allocations/reuses     %10d/%d",
+                    pipeline.getMatPool().getAllocations(), pipeline.getMatPool().getReuses()));
+            if (rssEnd > 0) {
+                out.println(String.format(Locale.ROOT, "Resident set start/end/peak   %10d/%d/%d kB", rssStart, rssEnd, rssPeak));
+            }
+            if (!pipeline.unsetProperties.isEmpty()) {
+                out.println(String.format(Locale.ROOT, "Unset pipeline properties     %10s",
+                        String.join(", ", pipeline.unsetProperties)));
+            }
+            out.println(String.format(Locale.ROOT, "Results                       %10s",
+                    stable ? "stable" : "UNSTABLE"));
+            return stable ? 0 : 1;
+        }
+    }
+
+    private List<File> listImages() {
+        List<File> images = new ArrayList<>();
+        File[] files = imageDirectory.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName();
+                int dot = name.lastIndexOf('.');
+                if (file.isFile() && dot > 0
+                        && imageExtensions.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+                    images.add(file);
+                }
+            }
+        }
+        return images;
+    }
+
+    private BenchmarkPipeline loadPipeline() throws Exception {
+        if (pipelineFile != null) {
+            return new BenchmarkPipeline(new String(Files.readAllBytes(pipelineFile.toPath()), StandardCharsets.UTF_8));
+        }
+        Configuration.initialize(configurationDirectory);
+        Configuration.get().load();
+        AbstractVisionSettings visionSettings = Configuration.get().getVisionSettings(visionSettingsId);
+        if (visionSettings == null) {
+            throw new Exception("Vision settings " + visionSettingsId + " not found.");
+        }
+        BenchmarkPipeline pipeline = new BenchmarkPipeline(visionSettings.getPipeline().toXmlString());
+        pipeline.addProperties(visionSettings.getPipelineParameterAssignments());
+        return pipeline;
+    }
+
+    /**
+     * Finds where the pipeline takes its image from. The ImageCapture stages are handed the images 
+     * by the {@link BenchmarkPipeline}. If the pipeline has no ImageCapture stages, its ImageRead 
+     * stages are given the image files instead. If it neither captures nor reads an image, an 
+     * ImageCapture stage is inserted first.
+     *
+     * @param pipeline
+     * @return The ImageRead stages, to be given the image files.
+     */
+    private List<ImageRead> prepareImageInput(CvPipeline pipeline) {
+        List<ImageRead> imageReads = new ArrayList<>();
+        boolean capturing = false;
+        for (CvStage stage : pipeline.getStages()) {
+            if (stage instanceof ImageCapture) {
+                capturing = true;
+            }
+            else if (stage instanceof ImageRead) {
+                imageReads.add((ImageRead) stage);
+            }
+        }
+        if (capturing) {
+            imageReads.clear();
+        }
+        else if (imageReads.isEmpty()) {
+            pipeline.insert("image", new ImageCapture(), 0);
+        }
+        return imageReads;
+    }
+
+    /**
+     * Processes the pipeline once.
+     *
+     * @param pipeline
+     * @return A description of the outcome, i.e. the model of the results stage or the error.
+     * @throws Exception if the pipeline needs the machine context.
+     */
+    private String process(BenchmarkPipeline pipeline) throws Exception {
+        try {
+            pipeline.process();
+        }
+        catch (Exception e) {
+            return e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+        finally {
+            Set<String> missing = new LinkedHashSet<>(pipeline.unsetProperties);
+            missing.retainAll(machineContextProperties);
+            if (missing.contains("camera")) {
+                throw new Exception("The pipeline needs the camera, give its --units-per-pixel.");
+            }
+            if (!missing.isEmpty()) {
+                throw new Exception("The pipeline needs the machine context " + missing 
+                        + ", which the benchmark cannot provide.");
+            }
+            if (!pipeline.unsupportedCameraMethods.isEmpty()) {
+                throw new Exception("The pipeline needs the camera " + pipeline.unsupportedCameraMethods
+                        + ", which the benchmark cannot provide. Only the units per pixel are known.");
+            }
+        }
+        Result result = pipeline.getResult(VisionUtils.PIPELINE_RESULTS_NAME);
+        if (result == null && !pipeline.getStages().isEmpty()) {
+            List<CvStage> stages = pipeline.getStages();
+            result = pipeline.getResult(stages.get(stages.size() - 1));
+        }
+        if (result == null) {
+            return "null";
+        }
+        if (result.model instanceof Exception) {
+            Exception e = (Exception) result.model;
+            return e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+        return String.valueOf(result.model);
+    }
+
+    /**
+     * The pipeline as benchmarked. Hands a copy of the current frame to each ImageCapture stage, as 
+     * if the camera had captured it, and records the pipeline properties that were asked for, but
+     * not set, and the methods of the stand-in camera that it cannot answer.
+     */
+    private static class BenchmarkPipeline extends CvPipeline {
+        private Mat frame;
+        private Set<String> unsetProperties = new LinkedHashSet<>();
+        private Set<String> unsupportedCameraMethods = new LinkedHashSet<>();
+
+        BenchmarkPipeline(String xmlPipeline) {
+            super(xmlPipeline);
+        }
+
+        /**
+         * @param frame The frame to be captured from now on, owned by the pipeline. 
+         */
+        void setFrame(Mat frame) {
+            if (this.frame != null) {
+                this.frame.release();
+            }
+            this.frame = frame;
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            if (name.equals(ImageCapture.CAPTURED_IMAGE_PROPERTY) && frame != null) {
+                // Taken over by the stage.
+                return frame.clone();
+            }
+            Object value = super.getProperty(name);
+            if (value == null) {
+                unsetProperties.add(name);
+            }
+            return value;
+        }
+
+        /**
+         * Creates the stand-in camera, that only knows its name and units per pixel.
+         *
+         * @param unitsPerPixel
+         * @return The camera.
+         */
+        Camera createCamera(Length unitsPerPixel) {
+            Location location = new Location(unitsPerPixel.getUnits(), unitsPerPixel.getValue(),
+                    unitsPerPixel.getValue(), 0, 0);
+            return (Camera) Proxy.newProxyInstance(Camera.class.getClassLoader(),
+                    new Class<?>[] { Camera.class }, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getUnitsPerPixel":
+                            case "getUnitsPerPixelAtZ":
+                                return location;
+                            case "getName":
+                            case "toString":
+                                return "Benchmark";
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            default:
+                                unsupportedCameraMethods.add(method.getName() + "()");
+                                throw new UnsupportedOperationException(
+                                        "The benchmark camera does not support " + method.getName() + "().");
+                        }
+                    });
+        }
+
+        @Override
+        public void close() throws IOException {
+            setFrame(null);
+            super.close();
+        }
+    }
+
+    private void printLatencies(String name, List<Long> samples) {
+        if (samples.isEmpty()) {
+            return;
+        }
+        double sum = 0;
+        for (long sample : samples) {
+            sum += sample;
+        }
+        out.println(String.format(Locale.ROOT, "%-28s %10.3f %10.3f %10.3f %10.3f %10.3f", name,
+                percentile(samples, 50) / 1e6, percentile(samples, 90) / 1e6, percentile(samples, 99) / 1e6,
+                percentile(samples, 100) / 1e6, sum / samples.size() / 1e6));
+    }
+
+    /**
+     * @param samples
+     * @param percent
+     * @return The nearest-rank percentile of the samples.
+     */
+    static long percentile(List<Long> samples, double percent) {
+        long[] sorted = new long[samples.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private static String abbreviate(String text) {
+        text = text.replaceAll("\\s+", " ");
+        return text.length() > 100 ? text.substring(0, 97) + "..." : text;
+    }
+
+    /**
+     * @param key
+     * @return The value in kB of the given key of /proc/self/status, or 0 if not available.
+     */
+    private static long readProcStatus(String key) {
+        File status = new File("/proc/self/status");
+        if (!status.exists()) {
+            return 0;
+        }
+        try {
+            for (String line : Files.readAllLines(status.toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith(key + ":")) {
+                    return Long.parseLong(line.substring(key.length() + 1).replace("kB", "").trim());
+                }
+            }
+        }
+        catch (IOException | NumberFormatException e) {
+            // Not available.
+        }
+        return 0;
+    }
+}
@@ -91,6 +91,7 @@ import org.openpnp.gui.support.RotationCellValue;
 import org.openpnp.gui.support.TableUtils;
 import org.openpnp.gui.tablemodel.PlacementsHolderLocationsTableModel;
 import org.openpnp.gui.viewers.PlacementsHolderLocationViewerDialog;
+import org.openpnp.machine.reference.ReferencePnpJobProcessor;
 import org.openpnp.model.Board;
 import org.openpnp.model.Abstract2DLocatable.Side;
 import org.openpnp.model.Configuration.TablesLinked;
@@ -559,6 +560,7 @@ public class JobPanel extends JPanel {
             this.job.removePropertyChangeListener("dirty", titlePropertyChangeListener); //$NON-NLS-1$
             this.job.removePropertyChangeListener("file", titlePropertyChangeListener); //$NON-NLS-1$
             this.job.getRootPanelLocation().getPanel().removeAllChildren();
+            this.job.getPlacementLocationCache().invalidateAll();
         }
         this.job = job;
         jobTableModel.setJob(job);
@@ -914,6 +916,7 @@ public class JobPanel extends JPanel {
                     JOptionPane.WARNING_MESSAGE);
             if (ret == JOptionPane.YES_OPTION) {
                 job.removeAllPlacedStatus();
+                ReferencePnpJobProcessor.deleteJournal(job);
                 jobPlacementsPanel.refresh();
             }
         }
@@ -1112,6 +1115,7 @@ public class JobPanel extends JPanel {
         @Override
         public void actionPerformed(ActionEvent arg0) {
             job.removeAllPlacedStatus();
+            ReferencePnpJobProcessor.deleteJournal(job);
             jobPlacementsPanel.refresh();
         }
     };
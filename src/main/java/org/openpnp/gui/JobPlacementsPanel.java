@@ -81,6 +81,7 @@ import org.openpnp.gui.support.RotationCellValue;
 import org.openpnp.gui.support.TableUtils;
 import org.openpnp.gui.tablemodel.PlacementsHolderPlacementsTableModel;
 import org.openpnp.gui.tablemodel.PlacementsHolderPlacementsTableModel.Status;
+import org.openpnp.machine.reference.ReferencePnpJobProcessor;
 import org.openpnp.model.Abstract2DLocatable.Side;
 import org.openpnp.model.BoardLocation;
 import org.openpnp.model.Configuration;
@@ -596,6 +597,7 @@ public class JobPlacementsPanel extends JPanel {
                 .post(new DefinitionStructureChangedEvent(boardOrPanelLocation.getPlacementsHolder().getDefinition(), 
                         "placements", JobPlacementsPanel.this)); //$NON-NLS-1$
             jobPanel.getJob().removePlacedStatus(boardOrPanelLocation, placement.getId());
+            ReferencePnpJobProcessor.deleteJournal(jobPanel.getJob());
             tableModel.fireTableDataChanged();
             Helpers.selectObjectTableRow(table, placement);
             
@@ -23,8 +23,11 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Dimension;
+import java.awt.DisplayMode;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
 import java.awt.Insets;
 import java.awt.Point;
 import java.awt.Rectangle;
@@ -43,6 +46,7 @@ import java.awt.event.MouseWheelListener;
 import java.awt.font.TextLayout;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
 import java.io.File;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -58,6 +62,8 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.prefs.Preferences;
 
 import javax.imageio.ImageIO;
@@ -68,6 +74,7 @@ import javax.swing.SwingUtilities;
 import org.openpnp.CameraListener;
 import org.openpnp.gui.MainFrame;
 import org.openpnp.gui.components.reticle.Reticle;
+import org.openpnp.gui.components.reticle.ReticleCache;
 import org.openpnp.gui.support.LengthConverter;
 import org.openpnp.machine.reference.camera.AbstractBroadcastingCamera;
 import org.openpnp.model.Configuration;
@@ -226,6 +233,34 @@ public class CameraView extends JComponent implements CameraListener {
     long lastFrameReceivedTime = 0;
     MovingAverage fpsAverage = new MovingAverage(24);
     double fps = 0;
+
+    /**
+     * The visible part of the scaled frame, cached in (normally accelerated) video memory, so repaints
+     * that do not bring a new frame, or repaints of the overlays, are a plain blit.
+     */
+    private VolatileImage frameCache;
+    private List<Object> frameCacheKey;
+    /**
+     * Counts the frames received, as cameras may reuse the same image for the next frame.
+     */
+    private volatile long framesReceived;
+    /**
+     * The reticles, cached until the zoom, the view or the reticles change. Dynamic reticles are
+     * drawn directly.
+     */
+    private final ReticleCache reticleCache = new ReticleCache();
+    private volatile int reticlesModified;
+
+    /**
+     * Set when a repaint for a new frame is requested, cleared when painted. Frames received 
+     * in the meantime are coalesced.
+     */
+    private final AtomicBoolean framePaintPending = new AtomicBoolean();
+    private final AtomicLong coalescedFrames = new AtomicLong();
+    private volatile long lastPaintTimeNs;
+    private volatile double paintTimeMs;
+    private static long displayRefreshIntervalNs;
+
     public enum RenderingQuality {
         Low, High, BestScale
     }
@@ -354,6 +389,8 @@ public class CameraView extends JComponent implements CameraListener {
         }
         else {
             reticles.put(key, reticle);
+            // The reticle properties may have changed in place.
+            reticlesModified++;
         }
     }
 
@@ -362,6 +399,7 @@ public class CameraView extends JComponent implements CameraListener {
     }
 
     public Reticle removeReticle(Object key) {
+        reticlesModified++;
         return reticles.remove(key);
     }
 
@@ -553,7 +591,61 @@ public class CameraView extends JComponent implements CameraListener {
         }
         fps = 1000.0 / fpsAverage.next(System.currentTimeMillis() - lastFrameReceivedTime);
         lastFrameReceivedTime = System.currentTimeMillis();
-        repaint();
+        framesReceived++;
+        requestFramePaint();
+    }
+
+    /**
+     * Requests painting a new frame. Frames arriving while the paint is still pending, or faster than
+     * the display refreshes, are coalesced, i.e. only the newest is painted and the EDT is not flooded.
+     */
+    private void requestFramePaint() {
+        if (!framePaintPending.compareAndSet(false, true)) {
+            coalescedFrames.incrementAndGet();
+            return;
+        }
+        long wait = lastPaintTimeNs + getDisplayRefreshIntervalNs() - System.nanoTime();
+        if (wait > 0) {
+            scheduledExecutor.schedule(() -> repaint(), wait, TimeUnit.NANOSECONDS);
+        }
+        else {
+            repaint();
+        }
+    }
+
+    private static synchronized long getDisplayRefreshIntervalNs() {
+        if (displayRefreshIntervalNs == 0) {
+            int refreshRate = 60;
+            try {
+                if (!GraphicsEnvironment.isHeadless()) {
+                    DisplayMode displayMode = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                            .getDefaultScreenDevice().getDisplayMode();
+                    if (displayMode.getRefreshRate() != DisplayMode.REFRESH_RATE_UNKNOWN) {
+                        refreshRate = displayMode.getRefreshRate();
+                    }
+                }
+            }
+            catch (Exception e) {
+                Logger.debug(e, "Display refresh rate unknown.");
+            }
+            displayRefreshIntervalNs = 1_000_000_000L/Math.max(1, refreshRate);
+        }
+        return displayRefreshIntervalNs;
+    }
+
+    /**
+     * @return The time spent painting the view on the EDT, averaged over the recent paints, in 
+     * milliseconds.
+     */
+    public double getPaintTimeMs() {
+        return paintTimeMs;
+    }
+
+    /**
+     * @return The number of frames received, but never painted, because a newer frame arrived first.
+     */
+    public long getCoalescedFrames() {
+        return coalescedFrames.get();
     }
 
     /**
@@ -624,6 +716,9 @@ public class CameraView extends JComponent implements CameraListener {
 
     @Override
     protected synchronized void paintComponent(Graphics g) {
+        long t0 = System.nanoTime();
+        lastPaintTimeNs = t0;
+        framePaintPending.set(false);
         super.paintComponent(g);
         if (lastFrame == null) {
             frameReceived(AbstractBroadcastingCamera.getCaptureErrorImage());
@@ -637,30 +732,17 @@ public class CameraView extends JComponent implements CameraListener {
         g2d.fillRect(ins.left, ins.top, width, height);
         if (image != null) {
             // Only render if there is a valid image.
-            if (renderingQuality == RenderingQuality.Low) {
-                g2d.drawImage(lastFrame, imageX, imageY, scaledWidth, scaledHeight, null);
+            if (!drawCachedFrame(g2d, image, ins, width, height)) {
+                drawFrame(g2d, image);
             }
-            else {
-                g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-                g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                AffineTransform t = new AffineTransform();
-                double scaleW = ((double)scaledWidth)/image.getWidth();
-                double scaleH = ((double)scaledHeight)/image.getHeight();
-                // Scaled
-                t.translate(imageX, imageY);
-                t.scale(scaleW, scaleH);
-                g2d.drawImage(lastFrame, t, null);
+            if (renderingQuality != RenderingQuality.Low) {
+                setQualityRenderingHints(g2d);
             }
 
             double c = MainFrame.get().getMachineControls().getSelectedTool().getLocation()
                     .getRotation();
 
-            for (Reticle reticle : reticles.values()) {
-                reticle.draw(g2d, camera.getUnitsPerPixelAtZ().getUnits(), scaledUnitsPerPixelX,
-                        scaledUnitsPerPixelY, ins.left + (width / 2), ins.top + (height / 2),
-                        scaledWidth, scaledHeight, c);
-            }
+            drawReticles(g2d, ins, width, height, c);
 
             if (text != null) {
                 drawTextOverlay(g2d, 10, 10, text);
@@ -709,6 +791,110 @@ public class CameraView extends JComponent implements CameraListener {
             g2d.setColor(new Color(1f, 1f, 1f, alpha));
             g2d.fillRect(0, 0, getWidth(), getHeight());
         }
+        double ms = (System.nanoTime() - t0)/1e6;
+        paintTimeMs = (paintTimeMs == 0 ? ms : (paintTimeMs*7 + ms)/8);
+    }
+
+    private static void setQualityRenderingHints(Graphics2D g2d) {
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    }
+
+    private void drawFrame(Graphics2D g2d, BufferedImage image) {
+        if (renderingQuality == RenderingQuality.Low) {
+            g2d.drawImage(image, imageX, imageY, scaledWidth, scaledHeight, null);
+        }
+        else {
+            setQualityRenderingHints(g2d);
+            AffineTransform t = new AffineTransform();
+            double scaleW = ((double)scaledWidth)/image.getWidth();
+            double scaleH = ((double)scaledHeight)/image.getHeight();
+            // Scaled
+            t.translate(imageX, imageY);
+            t.scale(scaleW, scaleH);
+            g2d.drawImage(image, t, null);
+        }
+    }
+
+    /**
+     * @return true if the Graphics maps 1:1 to device pixels, i.e. a cached image can be blitted 
+     * without losing sharpness (this is not the case on HiDPI displays).
+     */
+    private static boolean isDevicePixelGraphics(Graphics2D g2d) {
+        int type = g2d.getTransform().getType();
+        return (type & ~AffineTransform.TYPE_TRANSLATION) == 0;
+    }
+
+    /**
+     * Draws the scaled frame through the VolatileImage cache. The frame is only scaled again, when a 
+     * new frame was received, or the view changed.
+     * 
+     * @return false if the cache cannot be used.
+     */
+    private boolean drawCachedFrame(Graphics2D g2d, BufferedImage image, Insets ins, int width, int height) {
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        if (gc == null || !isDevicePixelGraphics(g2d)) {
+            return false;
+        }
+        // Only the visible part of the (possibly zoomed) frame is cached.
+        Rectangle visible = new Rectangle(imageX, imageY, scaledWidth, scaledHeight)
+                .intersection(new Rectangle(ins.left, ins.top, width, height));
+        if (visible.isEmpty()) {
+            return true;
+        }
+        List<Object> key = Arrays.asList(image, framesReceived, visible, imageX, imageY, scaledWidth, scaledHeight, 
+                renderingQuality);
+        for (int attempt = 0; attempt < 3; attempt++) {
+            int validation = (frameCache == null 
+                    || frameCache.getWidth() != visible.width || frameCache.getHeight() != visible.height) ?
+                            VolatileImage.IMAGE_INCOMPATIBLE
+                            : frameCache.validate(gc);
+            if (validation == VolatileImage.IMAGE_INCOMPATIBLE) {
+                if (frameCache != null) {
+                    frameCache.flush();
+                }
+                frameCache = gc.createCompatibleVolatileImage(visible.width, visible.height);
+                frameCacheKey = null;
+            }
+            else if (validation == VolatileImage.IMAGE_RESTORED) {
+                frameCacheKey = null;
+            }
+            if (!key.equals(frameCacheKey)) {
+                Graphics2D g = frameCache.createGraphics();
+                g.setColor(getBackground());
+                g.fillRect(0, 0, visible.width, visible.height);
+                g.translate(-visible.x, -visible.y);
+                drawFrame(g, image);
+                g.dispose();
+                frameCacheKey = key;
+            }
+            g2d.drawImage(frameCache, visible.x, visible.y, null);
+            if (!frameCache.contentsLost()) {
+                return true;
+            }
+            frameCacheKey = null;
+        }
+        return false;
+    }
+
+    private void drawReticles(Graphics2D g2d, Insets ins, int width, int height, double c) {
+        if (reticles.isEmpty()) {
+            return;
+        }
+        LengthUnit units = camera.getUnitsPerPixelAtZ().getUnits();
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        if (gc == null || !isDevicePixelGraphics(g2d)) {
+            for (Reticle reticle : reticles.values()) {
+                reticle.draw(g2d, units, scaledUnitsPerPixelX,
+                        scaledUnitsPerPixelY, ins.left + (width / 2), ins.top + (height / 2),
+                        scaledWidth, scaledHeight, c);
+            }
+            return;
+        }
+        reticleCache.draw(g2d, gc, getWidth(), getHeight(), reticles.values(), reticlesModified, 
+                units, scaledUnitsPerPixelX, scaledUnitsPerPixelY, ins.left + (width / 2), 
+                ins.top + (height / 2), scaledWidth, scaledHeight, c);
     }
     
     private boolean isPointInsideRectangle(int pointX, int pointY, int rectX1, int rectY1, int rectX2, int rectY2) {
@@ -1140,11 +1326,12 @@ public class CameraView extends JComponent implements CameraListener {
         if (image == null) {
             return;
         }
-        String text = String.format("Resolution: %d x %d\nZoom: %d%%\nFPS: %.1f\nHistogram:", 
+        String text = String.format("Resolution: %d x %d\nZoom: %d%%\nFPS: %.1f\nPaint: %.1f ms\nHistogram:", 
                 image.getWidth(),
                 image.getHeight(), 
                 (int) (zoom * 100),
-                fps);
+                fps,
+                paintTimeMs);
         Insets insets = new Insets(10, 10, 10, 10);
         int interLineSpacing = 4;
         int cornerRadius = 8;
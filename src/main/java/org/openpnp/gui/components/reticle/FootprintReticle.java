@@ -39,6 +39,12 @@ public class FootprintReticle implements Reticle {
         this.color = Color.yellow;
     }
 
+    @Override
+    public boolean isDynamic() {
+        // The footprint is edited in place.
+        return true;
+    }
+
     @Override
     public void draw(Graphics2D g2d, LengthUnit cameraUnitsPerPixelUnits,
             double cameraUnitsPerPixelX, double cameraUnitsPerPixelY, double viewPortCenterX,
@@ -28,4 +28,12 @@ public interface Reticle {
     public void draw(Graphics2D g2d, LengthUnit cameraUnitsPerPixelUnits,
             double cameraUnitsPerPixelX, double cameraUnitsPerPixelY, double viewPortCenterX,
             double viewPortCenterY, int viewPortWidth, int viewPortHeight, double rotation);
+
+    /**
+     * @return True if the reticle draws state that can change without the reticle being set
+     * again, e.g. a footprint that is edited in place. Dynamic reticles are not cached.
+     */
+    public default boolean isDynamic() {
+        return false;
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+ * 
+ * This file is part of OpenPnP.
+ * 
+ * OpenPnP is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * OpenPnP is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with OpenPnP. If not, see
+ * <http://www.gnu.org/licenses/>.
+ * 
+ * For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.gui.components.reticle;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.openpnp.model.LengthUnit;
+
+/**
+ * Caches the reticles of a view in a translucent image, until the view or the reticles change.
+ * Reticles are only known to change when they are set again, which the caller counts as
+ * modifications. {@link Reticle#isDynamic()} reticles are drawn directly on every paint instead.
+ */
+public class ReticleCache {
+    private BufferedImage image;
+    private List<Object> key;
+    private long renders;
+
+    /**
+     * Draws the reticles, with the arguments of {@link Reticle#draw}.
+     * 
+     * @param g2d The view graphics, in device pixels.
+     * @param gc The configuration to create the cache image with.
+     * @param width The width of the view.
+     * @param height The height of the view.
+     * @param reticles The reticles, in drawing order.
+     * @param modifications Counts the modifications of the reticles.
+     */
+    public void draw(Graphics2D g2d, GraphicsConfiguration gc, int width, int height, 
+            Collection<Reticle> reticles, int modifications, LengthUnit cameraUnitsPerPixelUnits,
+            double cameraUnitsPerPixelX, double cameraUnitsPerPixelY, double viewPortCenterX,
+            double viewPortCenterY, int viewPortWidth, int viewPortHeight, double rotation) {
+        List<Reticle> cached = new ArrayList<>();
+        List<Reticle> dynamic = new ArrayList<>();
+        for (Reticle reticle : reticles) {
+            (reticle.isDynamic() ? dynamic : cached).add(reticle);
+        }
+        if (!cached.isEmpty()) {
+            List<Object> key = Arrays.asList(cached, modifications, cameraUnitsPerPixelUnits, 
+                    cameraUnitsPerPixelX, cameraUnitsPerPixelY, viewPortCenterX, viewPortCenterY,
+                    viewPortWidth, viewPortHeight, rotation, g2d.getRenderingHints(), g2d.getFont());
+            if (image == null || image.getWidth() != width || image.getHeight() != height) {
+                image = gc.createCompatibleImage(Math.max(1, width), Math.max(1, height), 
+                        Transparency.TRANSLUCENT);
+                this.key = null;
+            }
+            if (!key.equals(this.key)) {
+                Graphics2D g = image.createGraphics();
+                g.setComposite(AlphaComposite.Clear);
+                g.fillRect(0, 0, image.getWidth(), image.getHeight());
+                g.setComposite(AlphaComposite.SrcOver);
+                g.setRenderingHints(g2d.getRenderingHints());
+                g.setFont(g2d.getFont());
+                for (Reticle reticle : cached) {
+                    reticle.draw(g, cameraUnitsPerPixelUnits, cameraUnitsPerPixelX,
+                            cameraUnitsPerPixelY, viewPortCenterX, viewPortCenterY,
+                            viewPortWidth, viewPortHeight, rotation);
+                }
+                g.dispose();
+                this.key = key;
+                renders++;
+            }
+            g2d.drawImage(image, 0, 0, null);
+        }
+        for (Reticle reticle : dynamic) {
+            reticle.draw(g2d, cameraUnitsPerPixelUnits, cameraUnitsPerPixelX,
+                    cameraUnitsPerPixelY, viewPortCenterX, viewPortCenterY,
+                    viewPortWidth, viewPortHeight, rotation);
+        }
+    }
+
+    /**
+     * @return The number of times the cached reticles were rendered.
+     */
+    public long getRenders() {
+        return renders;
+    }
+}
@@ -806,6 +806,17 @@ public class PlacementsHolderLocationViewer extends JPanel implements PropertyCh
         renderPlacementsHolderImage();
     }
 
+    /**
+     * Gets the global location of a placement, from the job's cache if this is the job viewer
+     */
+    private Location getGlobalLocation(PlacementsHolderLocation<?> placementsHolderLocation, Placement placement) {
+        if (isJob) {
+            return MainFrame.get().getJobTab().getJob().getPlacementLocationCache()
+                    .getGlobalLocation(placementsHolderLocation, placement);
+        }
+        return Utils2D.calculateBoardPlacementLocation(placementsHolderLocation, placement);
+    }
+
     public void generateGraphicalObjects(PlacementsHolderLocation<?> placementsHolderLocation) {
         
         if (placementsHolderLocation == null || placementsHolderLocation.getPlacementsHolder() == null) {
@@ -840,7 +851,7 @@ public class PlacementsHolderLocationViewer extends JPanel implements PropertyCh
                 placements.addAll(((PanelLocation) placementsHolderLocation).getPanel().getPseudoPlacements()); 
             }
             for (Placement placement : placements) {
-                Location loc = Utils2D.calculateBoardPlacementLocation(placementsHolderLocation, placement).
+                Location loc = getGlobalLocation(placementsHolderLocation, placement).
                         convertToUnits(units);
                 graphicsBounds.add(new Point2D.Double(loc.getX(), loc.getY()));
                 
@@ -1480,7 +1491,7 @@ public class PlacementsHolderLocationViewer extends JPanel implements PropertyCh
                 @Override
                 public void actionPerformed(ActionEvent e) {
                     UiUtils.submitUiMachineTask(() -> {
-                        Location location = Utils2D.calculateBoardPlacementLocation(phl, plmt);
+                        Location location = getGlobalLocation(phl, plmt);
 
                         Camera camera = MainFrame.get().getMachineControls().getSelectedTool().getHead()
                                 .getDefaultCamera();
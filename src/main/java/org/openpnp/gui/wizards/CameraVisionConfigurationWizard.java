@@ -131,6 +131,16 @@ public class CameraVisionConfigurationWizard extends AbstractConfigurationWizard
         panelVision.add(settleTimeMs, "10, 2, fill, center");
         settleTimeMs.setColumns(10);
 
+        lblExposureLatencyMs = new JLabel(Translations.getString(
+                "CameraVisionConfigurationWizard.VisionPanel.ExposureLatencyLabel.text")); //$NON-NLS-1$
+        lblExposureLatencyMs.setToolTipText(Translations.getString(
+                "CameraVisionConfigurationWizard.VisionPanel.ExposureLatencyLabel.toolTipText")); //$NON-NLS-1$
+        panelVision.add(lblExposureLatencyMs, "8, 2, right, center");
+
+        exposureLatencyMs = new JTextField();
+        panelVision.add(exposureLatencyMs, "10, 2, fill, center");
+        exposureLatencyMs.setColumns(10);
+
         lblSettleTimeoutMs = new JLabel(Translations.getString(
                 "CameraVisionConfigurationWizard.VisionPanel.SettleTimeOutLabel.text")); //$NON-NLS-1$
         panelVision.add(lblSettleTimeoutMs, "8, 4, right, default");
@@ -275,39 +285,45 @@ public class CameraVisionConfigurationWizard extends AbstractConfigurationWizard
     private void adaptDialog() {
         AbstractSettlingCamera.SettleMethod method = (SettleMethod) settleMethod.getSelectedItem();
         boolean fixedTime = (method == SettleMethod.FixedTime);
+        boolean plannedStillstand = (method == SettleMethod.PlannedStillstand);
+        boolean imageBased = !(fixedTime || plannedStillstand);
 
-        lblSettleTimeMs.setVisible(fixedTime);
-        settleTimeMs.setVisible(fixedTime);
+        // Cameras that cannot time their frames fall back to the fixed settle time.
+        boolean settleTime = fixedTime || (plannedStillstand && !camera.isExposureTimed());
+        lblSettleTimeMs.setVisible(settleTime);
+        settleTimeMs.setVisible(settleTime);
         lblSettleTimeoutMs.setVisible(!fixedTime);
         settleTimeoutMs.setVisible(!fixedTime);
+        lblExposureLatencyMs.setVisible(plannedStillstand);
+        exposureLatencyMs.setVisible(plannedStillstand);
 
-        lblSettleThreshold.setVisible(!fixedTime);
-        settleThreshold.setVisible(!fixedTime);
+        lblSettleThreshold.setVisible(imageBased);
+        settleThreshold.setVisible(imageBased);
 
-        lblSettleDebounce.setVisible(!fixedTime);
-        settleDebounce.setVisible(!fixedTime);
+        lblSettleDebounce.setVisible(imageBased);
+        settleDebounce.setVisible(imageBased);
 
-        lblSettleFullColor.setVisible(!fixedTime);
-        settleFullColor.setVisible(!fixedTime);
+        lblSettleFullColor.setVisible(imageBased);
+        settleFullColor.setVisible(imageBased);
 
-        lblSettleGaussianBlur.setVisible(!fixedTime);
-        settleGaussianBlur.setVisible(!fixedTime);
+        lblSettleGaussianBlur.setVisible(imageBased);
+        settleGaussianBlur.setVisible(imageBased);
 
-        lblSettleGradient.setVisible(!fixedTime);
-        settleGradients.setVisible(!fixedTime);
+        lblSettleGradient.setVisible(imageBased);
+        settleGradients.setVisible(imageBased);
 
-        lblSettleMaskCircle.setVisible(!fixedTime);
-        settleMaskCircle.setVisible(!fixedTime);
+        lblSettleMaskCircle.setVisible(imageBased);
+        settleMaskCircle.setVisible(imageBased);
 
-        lblContrastEnhance.setVisible(!fixedTime);
-        settleContrastEnhance.setVisible(!fixedTime);
+        lblContrastEnhance.setVisible(imageBased);
+        settleContrastEnhance.setVisible(imageBased);
 
-        lblSettleDiagnostics.setVisible(!fixedTime);
-        settleDiagnostics.setVisible(!fixedTime);
+        lblSettleDiagnostics.setVisible(imageBased);
+        settleDiagnostics.setVisible(imageBased);
 
-        lblSettleGraph.setVisible(settleDiagnostics.isSelected() && !fixedTime);
-        settleGraph.setVisible(settleDiagnostics.isSelected() && !fixedTime);
-        panelSettleTest.setVisible(settleDiagnostics.isSelected() && !fixedTime);
+        lblSettleGraph.setVisible(settleDiagnostics.isSelected() && imageBased);
+        settleGraph.setVisible(settleDiagnostics.isSelected() && imageBased);
+        panelSettleTest.setVisible(settleDiagnostics.isSelected() && imageBased);
     }
 
     @Override
@@ -320,6 +336,7 @@ public class CameraVisionConfigurationWizard extends AbstractConfigurationWizard
         addWrappedBinding(camera, "settleMethod", settleMethod, "selectedItem");
         addWrappedBinding(camera, "settleTimeMs", settleTimeMs, "text", longConverter);
         addWrappedBinding(camera, "settleTimeoutMs", settleTimeoutMs, "text", longConverter);
+        addWrappedBinding(camera, "exposureLatencyMs", exposureLatencyMs, "text", longConverter);
         addWrappedBinding(camera, "settleDebounce", settleDebounce, "text", intConverter);
         addWrappedBinding(camera, "settleThreshold", settleThreshold, "text", doubleConverter);
         addWrappedBinding(camera, "settleFullColor", settleFullColor, "selected");
@@ -333,6 +350,7 @@ public class CameraVisionConfigurationWizard extends AbstractConfigurationWizard
         ComponentDecorators.decorateWithAutoSelect(settleTimeMs);
         ComponentDecorators.decorateWithAutoSelect(settleTimeMs);
         ComponentDecorators.decorateWithAutoSelect(settleTimeoutMs);
+        ComponentDecorators.decorateWithAutoSelect(exposureLatencyMs);
         ComponentDecorators.decorateWithAutoSelect(settleDebounce);
         ComponentDecorators.decorateWithAutoSelect(settleThreshold);
         ComponentDecorators.decorateWithAutoSelect(settleGaussianBlur);
@@ -493,6 +511,8 @@ public class CameraVisionConfigurationWizard extends AbstractConfigurationWizard
     private JLabel lblSettleMethod;
     private JComboBox settleMethod;
     private JLabel lblSettleTimeoutMs;
+    private JLabel lblExposureLatencyMs;
+    private JTextField exposureLatencyMs;
     private JTextField settleTimeoutMs;
     private JTextField settleThreshold;
     private JLabel lblSettleThreshold;
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2023 Jason von Nieda <jason@vonnieda.org>
+ *
+ * This file is part of OpenPnP.
+ *
+ * OpenPnP is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * OpenPnP is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with OpenPnP. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.machine.reference;
+
+import java.awt.geom.AffineTransform;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.model.PlacementsHolderLocation;
+import org.openpnp.spi.PnpJobProcessor.JobPlacement;
+import org.openpnp.spi.PnpJobProcessor.JobPlacement.Status;
+import org.pmw.tinylog.Logger;
+
+/**
+ * An append-only journal of the progress of a job, so that the job can be resumed after the
+ * JVM died, without placing parts twice and without checking fiducials again.
+ *
+ * The journal records the JobPlacement status transitions and the placements transforms measured
+ * by the fiducial checks, one tab separated line per record. Records are queued by the job
+ * processor and written by a background thread, which forces them to disk once per batch, so the
+ * job processor never waits for the disk. A torn last line after a crash is simply ignored on
+ * reading.
+ *
+ * The journal is deleted when the job finishes or is stopped, and when the placed status is
+ * reset. Each process session that opens the journal records its session id, so that a journal
+ * left behind in the same session is never taken for crash recovery: a journal is only resumed
+ * from, if it was last written by an earlier session, i.e. one that died.
+ */
+public class JobJournal {
+    static final String HEADER = "OpenPnP-Job-Journal";
+    static final int VERSION = 1;
+
+    static final String PLACEMENT_STATUS = "P";
+    static final String FIDUCIAL_RESULT = "F";
+    static final String SESSION = "S";
+
+    /**
+     * Identifies this process session.
+     */
+    static final String SESSION_ID = UUID.randomUUID().toString();
+
+    private static final String SEPARATOR = "\t";
+    private static final String CLOSE = new String("close");
+
+    /**
+     * The state recovered from an existing journal.
+     */
+    public static class Replay {
+        private final Map<String, Status> placementStatus = new HashMap<>();
+        private final Map<String, FiducialResult> fiducialResults = new HashMap<>();
+        private String session;
+
+        /**
+         * @param uniqueId - the unique id of the PlacementsHolderLocation
+         * @param placementId
+         * @return the last journaled status of the placement, or null if none was journaled.
+         */
+        public Status getPlacementStatus(String uniqueId, String placementId) {
+            return placementStatus.get(uniqueId + SEPARATOR + placementId);
+        }
+
+        /**
+         * @param uniqueId - the unique id of the PlacementsHolderLocation
+         * @return the last journaled fiducial result, or null if none was journaled.
+         */
+        public FiducialResult getFiducialResult(String uniqueId) {
+            return fiducialResults.get(uniqueId);
+        }
+
+        /**
+         * @return true if the journal was last written by an earlier process session, i.e. it was
+         * left behind by a crash, rather than by a job run in this session.
+         */
+        public boolean isFromEarlierSession() {
+            return !SESSION_ID.equals(session);
+        }
+
+        public boolean isEmpty() {
+            return placementStatus.isEmpty() && fiducialResults.isEmpty();
+        }
+    }
+
+    /**
+     * A journaled fiducial check result. The location of the PlacementsHolderLocation at the time
+     * of the check is kept, so that a result is not reused after the board or panel was moved.
+     */
+    public static class FiducialResult {
+        private final Location location;
+        private final AffineTransform localToParentTransform;
+
+        FiducialResult(Location location, AffineTransform localToParentTransform) {
+            this.location = location;
+            this.localToParentTransform = localToParentTransform;
+        }
+
+        public AffineTransform getLocalToParentTransform() {
+            return new AffineTransform(localToParentTransform);
+        }
+
+        /**
+         * @param placementsHolderLocation
+         * @return true if the result was measured with the PlacementsHolderLocation at its current
+         * location.
+         */
+        public boolean isValidFor(PlacementsHolderLocation<?> placementsHolderLocation) {
+            return location.equals(placementsHolderLocation.getLocation()
+                    .convertToUnits(LengthUnit.Millimeters));
+        }
+    }
+
+    private final File file;
+    private final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>();
+    private volatile Thread writer;
+    private volatile boolean failed;
+
+    public JobJournal(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads the journal file, if it exists. Unreadable records are skipped.
+     *
+     * @return the Replay, or null if there is no valid journal.
+     * @throws IOException
+     */
+    public Replay read() throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        Replay replay = new Replay();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.equals(HEADER + SEPARATOR + VERSION)) {
+                Logger.warn("Ignoring job journal {} with unknown header.", file);
+                return null;
+            }
+            while ((line = reader.readLine()) != null) {
+                try {
+                    parse(replay, line.split(SEPARATOR, -1));
+                }
+                catch (Exception e) {
+                    Logger.warn("Ignoring broken job journal record \"{}\".", line);
+                }
+            }
+        }
+        return replay;
+    }
+
+    private void parse(Replay replay, String[] fields) {
+        if (fields[0].equals(PLACEMENT_STATUS) && fields.length == 4) {
+            replay.placementStatus.put(fields[1] + SEPARATOR + fields[2], Status.valueOf(fields[3]));
+        }
+        else if (fields[0].equals(FIDUCIAL_RESULT) && fields.length == 12) {
+            double[] values = new double[10];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Double.parseDouble(fields[i + 2]);
+            }
+            Location location = new Location(LengthUnit.Millimeters,
+                    values[0], values[1], values[2], values[3]);
+            AffineTransform tx = new AffineTransform(values[4], values[5], values[6],
+                    values[7], values[8], values[9]);
+            replay.fiducialResults.put(fields[1], new FiducialResult(location, tx));
+        }
+        else if (fields[0].equals(SESSION) && fields.length == 2) {
+            replay.session = fields[1];
+        }
+        else {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Opens the journal for appending, creating it if needed, and starts the writer thread.
+     *
+     * @throws IOException
+     */
+    public synchronized void open() throws IOException {
+        if (writer != null) {
+            return;
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (channel.size() == 0) {
+            write(channel, HEADER + SEPARATOR + VERSION + "\n");
+        }
+        write(channel, SESSION + SEPARATOR + SESSION_ID + "\n");
+        channel.force(false);
+        queue.clear();
+        failed = false;
+        writer = new Thread(() -> {
+            writeLoop(channel);
+        }, "JobJournal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues the current status of the JobPlacement.
+     *
+     * @param jobPlacement
+     */
+    public void placementStatus(JobPlacement jobPlacement) {
+        append(PLACEMENT_STATUS,
+                jobPlacement.getBoardLocation().getUniqueId(),
+                jobPlacement.getPlacement().getId(),
+                jobPlacement.getStatus().name());
+    }
+
+    /**
+     * Queues the placements transform of the PlacementsHolderLocation, as just set by the
+     * fiducial check.
+     *
+     * @param placementsHolderLocation
+     */
+    public void fiducialResult(PlacementsHolderLocation<?> placementsHolderLocation) {
+        Location location = placementsHolderLocation.getLocation().convertToUnits(LengthUnit.Millimeters);
+        double[] matrix = new double[6];
+        placementsHolderLocation.getLocalToParentTransform().getMatrix(matrix);
+        append(FIDUCIAL_RESULT,
+                placementsHolderLocation.getUniqueId(),
+                Double.toString(location.getX()),
+                Double.toString(location.getY()),
+                Double.toString(location.getZ()),
+                Double.toString(location.getRotation()),
+                Double.toString(matrix[0]),
+                Double.toString(matrix[1]),
+                Double.toString(matrix[2]),
+                Double.toString(matrix[3]),
+                Double.toString(matrix[4]),
+                Double.toString(matrix[5]));
+    }
+
+    private void append(String... fields) {
+        if (writer == null || failed) {
+            return;
+        }
+        queue.add(String.join(SEPARATOR, fields) + "\n");
+    }
+
+    /**
+     * Writes all queued records and stops the writer thread.
+     */
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        queue.add(CLOSE);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
+    /**
+     * Closes and deletes the journal.
+     */
+    public synchronized void delete() {
+        close();
+        if (file.exists() && !file.delete()) {
+            Logger.warn("Could not delete job journal {}.", file);
+        }
+    }
+
+    private void writeLoop(FileChannel channel) {
+        List<String> batch = new ArrayList<>();
+        boolean closing = false;
+        try {
+            while (!closing) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                StringBuilder sb = new StringBuilder();
+                for (String record : batch) {
+                    if (record == CLOSE) {
+                        closing = true;
+                    }
+                    else {
+                        sb.append(record);
+                    }
+                }
+                batch.clear();
+                if (sb.length() > 0) {
+                    write(channel, sb.toString());
+                    // One fsync per batch, records that queue up meanwhile go with the next one.
+                    channel.force(false);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e) {
+            Logger.error(e, "Job journal {} write failed, journaling stopped.", file);
+            // Stop queuing. The journal is incomplete, so it must never be resumed from.
+            failed = true;
+            queue.clear();
+        }
+        finally {
+            try {
+                channel.close();
+            }
+            catch (IOException e) {
+                Logger.warn(e);
+            }
+            if (failed && file.exists() && !file.delete()) {
+                Logger.warn("Could not delete incomplete job journal {}.", file);
+            }
+        }
+    }
+
+    private static void write(FileChannel channel, String s) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
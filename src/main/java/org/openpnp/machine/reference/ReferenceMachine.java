@@ -117,6 +117,7 @@ import org.openpnp.spi.base.AbstractMachine;
 import org.openpnp.spi.base.SimplePropertySheetHolder;
 import org.openpnp.util.Collect;
 import org.openpnp.util.MovableUtils;
+import org.openpnp.util.TravellingSalesman;
 import org.openpnp.util.UiUtils;
 import org.pmw.tinylog.Logger;
 import org.simpleframework.xml.Attribute;
@@ -159,6 +160,12 @@ public class ReferenceMachine extends AbstractMachine {
     @Element(required = false)
     private boolean autoLoadMostRecentJob = false;
 
+    /**
+     * The solver used to optimize the travel of feeder and vision routes.
+     */
+    @Attribute(required = false)
+    private TravellingSalesman.Solver travellingSalesmanSolver = TravellingSalesman.Solver.SimulatedAnnealing;
+
     @Element(required = false)
     private Solutions solutions = new Solutions();
 
@@ -355,6 +362,16 @@ public class ReferenceMachine extends AbstractMachine {
     public void setAutoLoadMostRecentJob(boolean autoLoadMostRecentJob) {
         this.autoLoadMostRecentJob = autoLoadMostRecentJob;
     }
+
+    public TravellingSalesman.Solver getTravellingSalesmanSolver() {
+        return travellingSalesmanSolver;
+    }
+
+    public void setTravellingSalesmanSolver(TravellingSalesman.Solver travellingSalesmanSolver) {
+        Object oldValue = this.travellingSalesmanSolver;
+        this.travellingSalesmanSolver = travellingSalesmanSolver;
+        firePropertyChange("travellingSalesmanSolver", oldValue, travellingSalesmanSolver);
+    }
     
     @Override
     public Wizard getConfigurationWizard() {
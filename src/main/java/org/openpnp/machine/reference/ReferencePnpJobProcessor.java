@@ -19,13 +19,20 @@
 
 package org.openpnp.machine.reference;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -45,6 +52,8 @@ import org.openpnp.model.Location;
 import org.openpnp.model.PanelLocation;
 import org.openpnp.model.Part;
 import org.openpnp.model.Placement;
+import org.openpnp.model.PlacementsHolderLocation;
+import org.openpnp.model.PlacementsHolderLocation.PlacementsTransformStatus;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.Feeder;
 import org.openpnp.spi.FiducialLocator;
@@ -62,7 +71,6 @@ import org.openpnp.spi.base.AbstractPnpJobProcessor;
 import org.openpnp.util.MovableUtils;
 import org.openpnp.util.TravellingSalesman;
 import org.openpnp.util.UiUtils;
-import org.openpnp.util.Utils2D;
 import org.openpnp.util.VisionUtils;
 import org.pmw.tinylog.Logger;
 import org.simpleframework.xml.Attribute;
@@ -95,6 +103,9 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
     @Attribute(required = false)
     boolean allowImmediateNozzleTipCalibration = false;
 
+    @Attribute(required = false)
+    boolean journalEnabled = true;
+
     @Element(required = false)
     public PnpJobPlanner planner = new SimplePnpJobPlanner();
 
@@ -111,6 +122,13 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
     protected List<JobPlacement> jobPlacements = new ArrayList<>();
 
     private Step currentStep = null;
+
+    protected JobJournal journal;
+
+    /**
+     * PlacementsHolderLocations whose fiducial check result was taken from the journal.
+     */
+    protected Set<PlacementsHolderLocation<?>> resumedFiducials = new HashSet<>();
     
     long startTime;
     int totalPartsPlaced;
@@ -152,10 +170,48 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
             // we can do. We have to end the job.
             Logger.error(e);
         }
+        deleteJournal();
         this.fireJobState(Configuration.get().getMachine().getSignalers(), AbstractJobProcessor.State.STOPPED);
         currentStep = null;
     }
 
+    /**
+     * @param job
+     * @return the journal file of the job, next to the job file, or null for a job that was never
+     * saved, as it could not be told apart from other unsaved jobs on resume.
+     */
+    public static File getJournalFile(Job job) {
+        if (job.getFile() == null) {
+            return null;
+        }
+        return new File(job.getFile().getAbsoluteFile().getParentFile(), job.getFile().getName() + ".journal");
+    }
+
+    /**
+     * Deletes the journal of the job. Must be called whenever the placed status of the job is reset,
+     * as the journal would otherwise mark the placements placed again, when resumed after a crash.
+     * 
+     * @param job
+     */
+    public static void deleteJournal(Job job) {
+        File journalFile = getJournalFile(job);
+        if (journalFile != null) {
+            new JobJournal(journalFile).delete();
+        }
+    }
+
+    /**
+     * Deletes the journal of the current job run, which ended normally, i.e. was finished or 
+     * stopped. Only a journal left behind by a crash is resumed from.
+     */
+    protected void deleteJournal() {
+        if (journal == null) {
+            return;
+        }
+        journal.delete();
+        journal = null;
+    }
+
     /**
      * Create some internal shortcuts to various buried objects.
      * 
@@ -189,6 +245,8 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
             alignLocator = new AlignLocator();
             placeLocator = new PlaceLocator();
             
+            openJournal();
+
             checkSetupErrors();
             
             prepMachine();
@@ -237,11 +295,84 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
 
                     checkJobPlacement(jobPlacement);
 
+                    if (journal != null) {
+                        final JobJournal journal = ReferencePnpJobProcessor.this.journal;
+                        jobPlacement.addPropertyChangeListener("status", e -> {
+                            journal.placementStatus(jobPlacement);
+                        });
+                    }
+
                     jobPlacements.add(jobPlacement);
                 }
             }
         }
         
+        /**
+         * Opens the job journal and resumes the job from it, if the journal was left behind by a
+         * crashed earlier session: placements journaled as complete are marked placed and the
+         * journaled fiducial results are applied, unless the board or panel was moved since. A 
+         * journal left behind in this session is deleted, the boards may have been swapped since.
+         */
+        private void openJournal() {
+            deleteJournal();
+            resumedFiducials.clear();
+            File journalFile = getJournalFile(job);
+            if (!journalEnabled || journalFile == null) {
+                return;
+            }
+            journal = new JobJournal(journalFile);
+            try {
+                JobJournal.Replay replay = journal.read();
+                if (replay != null) {
+                    if (replay.isFromEarlierSession()) {
+                        resume(replay);
+                    }
+                    else {
+                        journal.delete();
+                    }
+                }
+                journal.open();
+            }
+            catch (IOException e) {
+                Logger.warn(e, "Job journal {} not available, the job is not journaled.", journal.getFile());
+                journal = null;
+            }
+        }
+
+        private void resume(JobJournal.Replay replay) {
+            int resumedPlacements = 0;
+            for (BoardLocation boardLocation : job.getBoardLocations()) {
+                for (Placement placement : boardLocation.getBoard().getPlacements()) {
+                    if (replay.getPlacementStatus(boardLocation.getUniqueId(), placement.getId()) == Status.Complete
+                            && !job.retrievePlacedStatus(boardLocation, placement.getId())) {
+                        job.storePlacedStatus(boardLocation, placement.getId(), true);
+                        resumedPlacements++;
+                    }
+                }
+            }
+            List<PlacementsHolderLocation<?>> placementsHolderLocations = new ArrayList<>();
+            placementsHolderLocations.addAll(job.getPanelLocations());
+            placementsHolderLocations.addAll(job.getBoardLocations());
+            for (PlacementsHolderLocation<?> placementsHolderLocation : placementsHolderLocations) {
+                if (!placementsHolderLocation.isEnabled() || !placementsHolderLocation.isCheckFiducials()) {
+                    continue;
+                }
+                JobJournal.FiducialResult fiducialResult = 
+                        replay.getFiducialResult(placementsHolderLocation.getUniqueId());
+                if (fiducialResult != null && fiducialResult.isValidFor(placementsHolderLocation)) {
+                    placementsHolderLocation.setLocalToParentTransform(fiducialResult.getLocalToParentTransform());
+                    placementsHolderLocation.setPlacementsTransformStatus(PlacementsTransformStatus.LocallySet);
+                    resumedFiducials.add(placementsHolderLocation);
+                }
+            }
+            if (resumedPlacements > 0 || !resumedFiducials.isEmpty()) {
+                fireTextStatus("Resuming job from journal, %d placements already placed, %d fiducial checks done.",
+                        resumedPlacements, resumedFiducials.size());
+                Logger.info("Resumed job from journal {}, {} placements already placed, {} fiducial checks done.",
+                        journal.getFile(), resumedPlacements, resumedFiducials.size());
+            }
+        }
+
         private void checkJobPlacement(JobPlacement jobPlacement) throws JobProcessorException {
             BoardLocation boardLocation = jobPlacement.getBoardLocation();
             Placement placement = jobPlacement.getPlacement();
@@ -420,6 +551,9 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
                 if (!panelLocation.isCheckFiducials()) {
                     continue;
                 }
+                if (resumedFiducials.contains(panelLocation)) {
+                    continue;
+                }
                 fireTextStatus("Panel fiducial check on %s", panelLocation);
                 try {
                     locator.locatePlacementsHolder(panelLocation);
@@ -427,6 +561,9 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
                 catch (Exception e) {
                     throw new JobProcessorException(panelLocation, e);
                 }
+                if (journal != null) {
+                    journal.fiducialResult(panelLocation);
+                }
             }
             return new BoardLocationFiducialCheck();
         }
@@ -448,6 +585,9 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
                 if (completed.contains(boardLocation)) {
                     continue;
                 }
+                if (resumedFiducials.contains(boardLocation)) {
+                    continue;
+                }
                 
                 fireTextStatus("Fiducial check for %s", boardLocation);
                 try {
@@ -456,6 +596,9 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
                 catch (Exception e) {
                     throw new JobProcessorException(boardLocation, e);
                 }
+                if (journal != null) {
+                    journal.fiducialResult(boardLocation);
+                }
                 
                 completed.add(boardLocation);
                 return this;
@@ -765,7 +908,8 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
                         jobPlacement.getPlacement().getId(), nozzle.getName());
 
                 // Prepare the Nozzle for pick-to-place articulation.
-                Location placementLocation = Utils2D.calculateBoardPlacementLocation(jobPlacement.getBoardLocation(), jobPlacement.getPlacement().getLocation());
+                Location placementLocation = job.getPlacementLocationCache()
+                        .getGlobalLocation(jobPlacement.getBoardLocation(), jobPlacement.getPlacement());
                 nozzle.prepareForPickAndPlaceArticulation(feeder.getPickLocation(), placementLocation);
 
                 // Move to pick location.
@@ -1078,7 +1222,7 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
 
             // Check if there is a fiducial override for the board location and if so, use it.
             Location placementLocation =
-                    Utils2D.calculateBoardPlacementLocation(boardLocation, placement.getLocation());
+                    job.getPlacementLocationCache().getGlobalLocation(boardLocation, placement);
 
             // If there are alignment offsets update the placement location with them
             if (plannedPlacement.alignmentOffsets != null) {
@@ -1193,6 +1337,8 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
                 throw new JobProcessorException(null, e);
             }
 
+            deleteJournal();
+
             if (!erroredPlacements.isEmpty()) {
                 fireTextStatus("Job finished with %d errors, placed %s parts in %s sec. (%s CPH)",
                         erroredPlacements.size(),
@@ -1220,6 +1366,8 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
         public Step step() throws JobProcessorException {
             new Cleanup().step();
             
+            deleteJournal();
+
             fireTextStatus("Aborted.");
             
             return null;
@@ -1274,6 +1422,33 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
         this.optimizeMultipleNozzles = optimizeMultipleNozzles;
     }
 
+    public boolean isJournalEnabled() {
+        return journalEnabled;
+    }
+
+    public void setJournalEnabled(boolean journalEnabled) {
+        this.journalEnabled = journalEnabled;
+    }
+
+    /**
+     * @return The JobPlacements of the current (or last) job run, with their status.
+     */
+    public List<JobPlacement> getJobPlacements() {
+        return Collections.unmodifiableList(jobPlacements);
+    }
+
+    public int getTotalPartsPlaced() {
+        return totalPartsPlaced;
+    }
+
+    /**
+     * @return The simple name of the Step that the next call to {@link #next()} will execute, or null
+     * if the job is not running. Used for diagnostics and benchmarking.
+     */
+    public synchronized String getCurrentStepName() {
+        return currentStep == null ? null : currentStep.getClass().getSimpleName();
+    }
+
     /**
      * This class groups a step for step for multi-nozzle optimization
      */
@@ -1473,8 +1648,8 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
             final Placement placement = jobPlacement.getPlacement();
             final BoardLocation boardLocation = jobPlacement.getBoardLocation();
         
-            Location location = Utils2D.calculateBoardPlacementLocation(boardLocation,
-                    placement.getLocation());
+            Location location = job.getPlacementLocationCache().getGlobalLocation(boardLocation,
+                    placement);
         
             // convert location to where the head will move to to place the part
             return convertToHeadLocation(nozzle, location);
@@ -1661,14 +1836,36 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
      * 
      * The second pass allows nozzle tip changes while respecting any already used nozzle
      * tips for the cycle.
+     * 
+     * With the Minimize strategy, a nozzle tip schedule is planned for the whole job, when it
+     * starts. The job placements are partitioned by the nozzle tips that are to handle them, 
+     * choosing as few nozzle tips as possible, starting with the loaded ones. Both passes then 
+     * follow the schedule: the first pass prefers the placements scheduled for the loaded nozzle 
+     * tip, and the second pass changes to the next scheduled nozzle tip that no other nozzle is 
+     * working on yet. This avoids nozzle tip changes that only a view across the whole job can 
+     * tell apart, such as changing to a nozzle tip that handles the first pending placement but 
+     * few others.
      */
     @Root
     public static class SimplePnpJobPlanner implements PnpJobPlanner {
         @Attribute(required = false)
         protected Strategy strategy = Strategy.Minimize;
         
+        @Attribute(required = false)
+        protected boolean nozzleTipSchedule = true;
+        
         private boolean restart;
         
+        /**
+         * The scheduled sets of equivalent nozzle tips, in the order they were chosen.
+         */
+        private List<Set<NozzleTip>> schedule = new ArrayList<>();
+        
+        /**
+         * The set of equivalent nozzle tips each job placement is scheduled for.
+         */
+        private Map<JobPlacement, Set<NozzleTip>> scheduledNozzleTips = new IdentityHashMap<>();
+        
         @Override
         public Strategy getStrategy() {
             return strategy;
@@ -1679,6 +1876,14 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
             this.strategy = strategy;
         }
 
+        public boolean isNozzleTipSchedule() {
+            return nozzleTipSchedule;
+        }
+
+        public void setNozzleTipSchedule(boolean nozzleTipSchedule) {
+            this.nozzleTipSchedule = nozzleTipSchedule;
+        }
+
         @Override
         public void restart() {
             this.restart = true;
@@ -1686,6 +1891,14 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
         
         @Override
         public List<PlannedPlacement> plan(Head head, List<JobPlacement> jobPlacements) {
+            if (restart) {
+                schedule.clear();
+                scheduledNozzleTips.clear();
+                if (strategy == Strategy.Minimize && nozzleTipSchedule) {
+                    planNozzleTipSchedule(head, jobPlacements);
+                }
+            }
+
             /**
              * Create an empty List<PlannedPlacement> which will hold the results.
              */
@@ -1729,7 +1942,13 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
              * time we allow a nozzle tip change to happen.
              */
             for (Nozzle nozzle : new ArrayList<>(nozzles)) {
-                PlannedPlacement plannedPlacement = planWithNozzleTipChange(nozzle, jobPlacements, nozzleTips);
+                PlannedPlacement plannedPlacement;
+                if (scheduledNozzleTips.isEmpty()) {
+                    plannedPlacement = planWithNozzleTipChange(nozzle, jobPlacements, nozzleTips);
+                }
+                else {
+                    plannedPlacement = planWithScheduledNozzleTipChange(head, nozzle, jobPlacements, nozzleTips);
+                }
                 if (plannedPlacement != null) {
                     plannedPlacements.add(plannedPlacement);
                     jobPlacements.remove(plannedPlacement.jobPlacement);
@@ -1738,6 +1957,22 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
                 }
             }
 
+            /**
+             * If following the schedule left every nozzle idle, e.g. because the scheduled 
+             * nozzle tips are not loadable on the free nozzles, plan without it.
+             */
+            if (plannedPlacements.isEmpty() && !scheduledNozzleTips.isEmpty()) {
+                for (Nozzle nozzle : new ArrayList<>(nozzles)) {
+                    PlannedPlacement plannedPlacement = planWithNozzleTipChange(nozzle, jobPlacements, nozzleTips);
+                    if (plannedPlacement != null) {
+                        plannedPlacements.add(plannedPlacement);
+                        jobPlacements.remove(plannedPlacement.jobPlacement);
+                        nozzles.remove(plannedPlacement.nozzle);
+                        nozzleTips.remove(plannedPlacement.nozzleTip);
+                    }
+                }
+            }
+
             /**
              * Finally, we sort any planned placements by the nozzle name so that they are
              * performed in the order of nozzle name. This is not really necessary but some users
@@ -1763,6 +1998,14 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
             if (nozzle.getNozzleTip() == null) {
                 return null;
             }
+            // Prefer the placements scheduled for the loaded nozzle tip, leave the others to the
+            // nozzle tips they are scheduled for.
+            for (JobPlacement jobPlacement : jobPlacements) {
+                Set<NozzleTip> scheduled = scheduledNozzleTips.get(jobPlacement);
+                if (scheduled != null && scheduled.contains(nozzle.getNozzleTip())) {
+                    return new PlannedPlacement(nozzle, nozzle.getNozzleTip(), jobPlacement);
+                }
+            }
             for (JobPlacement jobPlacement : jobPlacements) {
                 Placement placement = jobPlacement.getPlacement();
                 Part part = placement.getPart();
@@ -1809,5 +2052,153 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
             }
             return null;
         }
+
+        /**
+         * Try to find a planning solution for the given nozzle that follows the nozzle tip 
+         * schedule. The nozzle changes to the first scheduled nozzle tip that has placements left
+         * and that no other nozzle has loaded. Only if there is none, it joins another nozzle 
+         * working on a scheduled set of equivalent nozzle tips, using one of the other nozzle 
+         * tips of the set. Placements that are not scheduled are planned as without schedule.
+         * @param head
+         * @param nozzle
+         * @param jobPlacements
+         * @param nozzleTips
+         * @return
+         */
+        protected PlannedPlacement planWithScheduledNozzleTipChange(Head head, Nozzle nozzle,
+                List<JobPlacement> jobPlacements,
+                List<NozzleTip> nozzleTips) {
+            Set<NozzleTip> loadedNozzleTips = new HashSet<>();
+            for (Nozzle otherNozzle : head.getNozzles()) {
+                if (otherNozzle != nozzle && otherNozzle.getNozzleTip() != null) {
+                    loadedNozzleTips.add(otherNozzle.getNozzleTip());
+                }
+            }
+            PlannedPlacement joiningPlacement = null;
+            for (Set<NozzleTip> scheduled : schedule) {
+                JobPlacement jobPlacement = jobPlacements
+                        .stream()
+                        .filter(jp -> scheduledNozzleTips.get(jp) == scheduled)
+                        .findFirst()
+                        .orElse(null);
+                if (jobPlacement == null) {
+                    continue;
+                }
+                NozzleTip nozzleTip = scheduled
+                        .stream()
+                        .filter(nt -> nozzleTips.contains(nt))
+                        .filter(nt -> nozzle.getCompatibleNozzleTips().contains(nt))
+                        .filter(nt -> !loadedNozzleTips.contains(nt))
+                        .findFirst()
+                        .orElse(null);
+                if (nozzleTip == null) {
+                    continue;
+                }
+                if (Collections.disjoint(scheduled, loadedNozzleTips)) {
+                    return new PlannedPlacement(nozzle, nozzleTip, jobPlacement);
+                }
+                if (joiningPlacement == null) {
+                    joiningPlacement = new PlannedPlacement(nozzle, nozzleTip, jobPlacement);
+                }
+            }
+            if (joiningPlacement != null) {
+                return joiningPlacement;
+            }
+            List<JobPlacement> unscheduledPlacements = jobPlacements
+                    .stream()
+                    .filter(jp -> !scheduledNozzleTips.containsKey(jp))
+                    .collect(Collectors.toList());
+            return planWithNozzleTipChange(nozzle, unscheduledPlacements, nozzleTips);
+        }
+
+        /**
+         * Plans the nozzle tip schedule for the whole job. Nozzle tips that can handle exactly the
+         * same job placements are grouped into sets of equivalent nozzle tips, so multiple 
+         * nozzles can work on them in parallel. The sets are then chosen greedily, like a set
+         * cover: first the sets with nozzle tips that are already loaded, as they need no 
+         * change, then the set that handles the most placements not yet scheduled, and so on. 
+         * Each placement is scheduled for the first set chosen that can handle it.
+         * @param head
+         * @param jobPlacements
+         */
+        protected void planNozzleTipSchedule(Head head, List<JobPlacement> jobPlacements) {
+            Set<NozzleTip> loadableNozzleTips = new LinkedHashSet<>();
+            Set<NozzleTip> loadedNozzleTips = new HashSet<>();
+            for (Nozzle nozzle : head.getNozzles()) {
+                loadableNozzleTips.addAll(nozzle.getCompatibleNozzleTips());
+                if (nozzle.getNozzleTip() != null) {
+                    loadedNozzleTips.add(nozzle.getNozzleTip());
+                }
+            }
+            
+            // Group the nozzle tips by the placements they can handle.
+            Map<Set<JobPlacement>, Set<NozzleTip>> equivalentNozzleTips = new LinkedHashMap<>();
+            for (NozzleTip nozzleTip : head.getMachine().getNozzleTips()) {
+                if (!loadableNozzleTips.contains(nozzleTip)) {
+                    continue;
+                }
+                Set<JobPlacement> handled = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (JobPlacement jobPlacement : jobPlacements) {
+                    if (jobPlacement.getPlacement().getPart().getPackage()
+                            .getCompatibleNozzleTips().contains(nozzleTip)) {
+                        handled.add(jobPlacement);
+                    }
+                }
+                if (!handled.isEmpty()) {
+                    equivalentNozzleTips.computeIfAbsent(handled, k -> new LinkedHashSet<>())
+                        .add(nozzleTip);
+                }
+            }
+            
+            List<Map.Entry<Set<JobPlacement>, Set<NozzleTip>>> candidates = 
+                    new ArrayList<>(equivalentNozzleTips.entrySet());
+            while (!candidates.isEmpty()) {
+                Map.Entry<Set<JobPlacement>, Set<NozzleTip>> best = null;
+                long bestCount = 0;
+                boolean bestLoaded = false;
+                for (Map.Entry<Set<JobPlacement>, Set<NozzleTip>> candidate : candidates) {
+                    long count = candidate.getKey()
+                            .stream()
+                            .filter(jp -> !scheduledNozzleTips.containsKey(jp))
+                            .count();
+                    boolean loaded = !Collections.disjoint(candidate.getValue(), loadedNozzleTips);
+                    if (count == 0) {
+                        continue;
+                    }
+                    if (best == null 
+                            || (loaded && !bestLoaded)
+                            || (loaded == bestLoaded && count > bestCount)
+                            || (loaded == bestLoaded && count == bestCount 
+                                && candidate.getValue().size() > best.getValue().size())) {
+                        best = candidate;
+                        bestCount = count;
+                        bestLoaded = loaded;
+                    }
+                }
+                if (best == null) {
+                    break;
+                }
+                candidates.remove(best);
+                Set<NozzleTip> scheduled = best.getValue();
+                schedule.add(scheduled);
+                for (JobPlacement jobPlacement : best.getKey()) {
+                    scheduledNozzleTips.putIfAbsent(jobPlacement, scheduled);
+                }
+            }
+            
+            if (!schedule.isEmpty()) {
+                Logger.debug("Nozzle tip schedule: {}", schedule
+                        .stream()
+                        .map(scheduled -> scheduled
+                                .stream()
+                                .map(NozzleTip::getName)
+                                .collect(Collectors.joining("|")) 
+                            + " (" + scheduledNozzleTips.values()
+                                .stream()
+                                .filter(s -> s == scheduled)
+                                .count() + ")")
+                        .collect(Collectors.joining(", ")));
+            }
+        }
     }
 }
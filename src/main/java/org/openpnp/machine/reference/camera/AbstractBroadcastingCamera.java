@@ -27,7 +27,9 @@ import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.openpnp.CameraListener;
@@ -43,6 +45,8 @@ import org.openpnp.spi.Machine;
 import org.openpnp.spi.MachineListener;
 import org.openpnp.spi.base.AbstractActuator;
 import org.openpnp.util.MovableUtils;
+import org.openpnp.util.NanosecondTime;
+import org.openpnp.util.SharedFrame;
 import org.pmw.tinylog.Logger;
 import org.simpleframework.xml.Attribute;
 
@@ -50,10 +54,8 @@ import org.simpleframework.xml.Attribute;
  * AbstractPreviewCamera handles the preview capture broadcasting aspects of a Camera. 
  *
  */
-public abstract class AbstractBroadcastingCamera extends AbstractSettlingCamera implements Runnable {
-    // Calling notifyAll on this object will wake the stream thread for one loop to broadcast
-    // a new image.
-    protected Object captureNotifier = new Object();
+public abstract class AbstractBroadcastingCamera extends AbstractSettlingCamera 
+implements Runnable, CaptureScheduler.Client {
 
     @Attribute(required = false)
     protected double fps = 5;
@@ -61,7 +63,32 @@ public abstract class AbstractBroadcastingCamera extends AbstractSettlingCamera
     @Attribute(required = false)
     protected boolean suspendPreviewInTasks = false;
 
-    private volatile Thread thread;
+    /**
+     * Number of recent frames kept with their exposure time, for the PlannedStillstand settle method.
+     */
+    @Attribute(required = false)
+    protected int frameBufferSize = 4;
+
+    /**
+     * The registration with the CaptureScheduler, while the camera is open.
+     */
+    private volatile CaptureScheduler.Entry captureEntry;
+
+    /**
+     * Notified with every new image, along with the CaptureScheduler.
+     * 
+     * @deprecated The camera no longer has its own thread waiting on this object. Use notifyCapture() to 
+     * have a new image broadcast.
+     */
+    @Deprecated
+    protected Object captureNotifier = new Object();
+
+    /**
+     * Cameras captured by a machine task in this time are given priority by the CaptureScheduler.
+     */
+    private static final double TASK_PRIORITY_SECONDS = 2.0;
+
+    volatile private double taskCaptureTime = Double.NEGATIVE_INFINITY;
 
     private static BufferedImage CAPTURE_ERROR_IMAGE = null;
 
@@ -72,6 +99,40 @@ public abstract class AbstractBroadcastingCamera extends AbstractSettlingCamera
 
     volatile private boolean cameraViewDirty;
 
+    /**
+     * A recent frame with the runtime in seconds when its exposure started.
+     */
+    public static class TimestampedFrame {
+        private final BufferedImage image;
+        private final double exposureTime;
+
+        public TimestampedFrame(BufferedImage image, double exposureTime) {
+            this.image = image;
+            this.exposureTime = exposureTime;
+        }
+
+        public BufferedImage getImage() {
+            return image;
+        }
+
+        public double getExposureTime() {
+            return exposureTime;
+        }
+    }
+
+    /**
+     * The ring buffer of recent frames, oldest first. Every transformed frame passes through it, 
+     * so this is where the Mats of frames nobody took over are released, see {@link SharedFrame}.
+     */
+    private final ArrayDeque<TimestampedFrame> recentFrames = new ArrayDeque<>();
+
+    /**
+     * The time the raw image was captured, handed from captureRaw() to transformImage() on the same thread.
+     */
+    private final ThreadLocal<Double> captureTime = new ThreadLocal<>();
+
+    volatile private double actuatorActivityTime = Double.NEGATIVE_INFINITY;
+
     AbstractBroadcastingCamera() {
         if (isBroadcasting()) {
             Configuration.get().addListener(new ConfigurationListener.Adapter() {
@@ -90,6 +151,12 @@ public abstract class AbstractBroadcastingCamera extends AbstractSettlingCamera
                             notifyCapture();
                         }
 
+                        @Override
+                        public void machineActuatorActivity(Machine machine, Actuator actuator) {
+                            // Lights etc. might have changed the view.
+                            actuatorActivityTime = NanosecondTime.getRuntimeSeconds();
+                        }
+
                         @Override 
                         public void machineBusy(Machine machine, boolean busy) {
                             if (!busy) {
@@ -157,8 +224,33 @@ public abstract class AbstractBroadcastingCamera extends AbstractSettlingCamera
         firePropertyChange("suspendPreviewInTasks", oldValue, suspendPreviewInTasks);
     }
 
+    public int getFrameBufferSize() {
+        return frameBufferSize;
+    }
+
+    public void setFrameBufferSize(int frameBufferSize) {
+        this.frameBufferSize = frameBufferSize;
+    }
+
+    /**
+     * @return true if the camera is registered with the CaptureScheduler. Unlike isOpen(), this is
+     * not synchronized.
+     */
+    protected boolean isScheduled() {
+        CaptureScheduler.Entry entry = captureEntry;
+        return entry != null && entry.isActive();
+    }
+
+    /**
+     * @return The CaptureScheduler worker thread currently broadcasting for this camera, or null.
+     * 
+     * @deprecated The camera no longer has its own thread, the captures are run by the shared workers of 
+     * the CaptureScheduler. Use isOpen() to check whether the camera is broadcasting.
+     */
+    @Deprecated
     protected Thread getThread() {
-        return thread;
+        CaptureScheduler.Entry entry = captureEntry;
+        return entry != null ? CaptureScheduler.get().getRunner(entry) : null;
     }
 
     protected BufferedImage getLastTransformedImage() {
@@ -167,15 +259,158 @@ public abstract class AbstractBroadcastingCamera extends AbstractSettlingCamera
 
     protected void setLastTransformedImage(BufferedImage lastTransformedImage) {
         this.lastTransformedImage.set(lastTransformedImage);
+        addRecentFrame(lastTransformedImage);
+        Machine machine = Configuration.get().getMachine();
+        if (machine != null && machine.isTask(Thread.currentThread())) {
+            taskCaptureTime = NanosecondTime.getRuntimeSeconds();
+        }
         notifyCapture();
     }
 
+    /**
+     * Marks the time a raw image was captured on this thread, i.e. now. The next frame transformed on 
+     * this thread is stamped with it, minus the exposure latency.
+     */
+    protected void markCaptureTime() {
+        markCaptureTime(NanosecondTime.getRuntimeSeconds());
+    }
+
+    /**
+     * Marks the given runtime in seconds as the time a raw image was captured on this thread. 
+     * 
+     * @param time
+     */
+    protected void markCaptureTime(double time) {
+        captureTime.set(time);
+    }
+
+    protected void addRecentFrame(BufferedImage image) {
+        Double time = captureTime.get();
+        captureTime.remove();
+        if (time == null) {
+            time = NanosecondTime.getRuntimeSeconds();
+        }
+        TimestampedFrame frame = new TimestampedFrame(image, time - getExposureLatencyMs()*0.001);
+        List<TimestampedFrame> evicted = new ArrayList<>();
+        synchronized (recentFrames) {
+            recentFrames.addLast(frame);
+            while (recentFrames.size() > Math.max(1, frameBufferSize)) {
+                evicted.add(recentFrames.removeFirst());
+            }
+        }
+        releaseFrames(evicted);
+    }
+
+    /**
+     * Releases the Mats of the frames, unless taken over. Consumers still holding the images can 
+     * use them as BufferedImages, or get a copy as a Mat.
+     * 
+     * @param frames
+     */
+    private static void releaseFrames(List<TimestampedFrame> frames) {
+        for (TimestampedFrame frame : frames) {
+            SharedFrame sharedFrame = SharedFrame.getFrame(frame.getImage());
+            if (sharedFrame != null) {
+                sharedFrame.release();
+            }
+        }
+    }
+
+    /**
+     * Empties the ring buffer of recent frames, releasing them.
+     */
+    protected void clearRecentFrames() {
+        List<TimestampedFrame> evicted;
+        synchronized (recentFrames) {
+            evicted = new ArrayList<>(recentFrames);
+            recentFrames.clear();
+        }
+        releaseFrames(evicted);
+    }
+
+    /**
+     * Gets a recent frame by the time its exposure started. This is not measured. The frame is stamped by 
+     * markCaptureTime() with the time internalCapture() returned it, minus the fixed exposureLatencyMs. 
+     * The latency must therefore cover the exposure, readout and transfer of the frame. Frames not marked 
+     * are stamped with the time they were transformed.
+     * 
+     * @param time
+     * @return The oldest recent frame whose exposure started at or after the given runtime in seconds, 
+     * or null if none is buffered.
+     */
+    public TimestampedFrame getFrameExposedAfter(double time) {
+        synchronized (recentFrames) {
+            for (TimestampedFrame frame : recentFrames) {
+                if (frame.getExposureTime() >= time) {
+                    return frame;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isExposureTimed() {
+        return true;
+    }
+
+    @Override
+    protected BufferedImage captureAtPlannedStillstand() throws Exception {
+        double stillstandTime = getPlannedStillstandTime();
+        if (actuatorActivityTime >= stillstandTime) {
+            // Actuators like lights are not planned, only their completion is known, which is now.
+            stillstandTime = NanosecondTime.getRuntimeSeconds();
+        }
+        TimestampedFrame frame = getFrameExposedAfter(stillstandTime);
+        if (frame != null) {
+            Logger.trace(getName()+" settled on a recent frame, exposed "
+                    +String.format("%.1f", (frame.getExposureTime() - stillstandTime)*1000)+"ms after stillstand");
+            return frame.getImage();
+        }
+        long timeout = System.currentTimeMillis() + getSettleTimeoutMs();
+        while (true) {
+            BufferedImage image = capture();
+            frame = getFrameExposedAfter(stillstandTime);
+            if (frame != null) {
+                Logger.trace(getName()+" settled on a new frame, exposed "
+                        +String.format("%.1f", (frame.getExposureTime() - stillstandTime)*1000)+"ms after stillstand");
+                return frame.getImage();
+            }
+            if (System.currentTimeMillis() > timeout) {
+                Logger.warn(getName()+" got no frame exposed after stillstand within "+getSettleTimeoutMs()+"ms");
+                return image;
+            }
+        }
+    }
+
+    /**
+     * Wakes the CaptureScheduler to broadcast a new image.
+     */
     protected void notifyCapture() {
+        CaptureScheduler.Entry entry = captureEntry;
+        if (entry != null) {
+            CaptureScheduler.get().wake(entry);
+        }
         synchronized(captureNotifier) {
             captureNotifier.notifyAll();
         }
     }
 
+    @Override
+    public boolean isCapturePriority() {
+        return NanosecondTime.getRuntimeSeconds() - taskCaptureTime < TASK_PRIORITY_SECONDS;
+    }
+
+    @Override
+    public Object getCaptureGroup() {
+        return null;
+    }
+
+    @Override
+    public boolean isCaptureGroupActive() {
+        return true;
+    }
+
     /**
      * Whenever a user action deliberately changes the Camera view via its position, subject, or other action,
      * this method should be called to trigger a new image capture. 
@@ -264,19 +499,17 @@ public abstract class AbstractBroadcastingCamera extends AbstractSettlingCamera
     }
 
     protected synchronized void stop() {
-        if (isOpen()) {
-            thread.interrupt();
-            try {
-                thread.join(200);
-            }
-            catch (Exception e) {
-            }
+        CaptureScheduler.Entry entry = captureEntry;
+        captureEntry = null;
+        if (entry != null) {
+            CaptureScheduler.get().unregister(entry, 200);
+            Logger.trace("Camera "+getName()+" unscheduled.");
         }
-        thread = null;
+        clearRecentFrames();
     }
 
     protected synchronized boolean isOpen() {
-        return (thread != null && thread.isAlive());
+        return isScheduled();
     }
 
     protected synchronized boolean ensureOpen() {
@@ -309,58 +542,42 @@ public abstract class AbstractBroadcastingCamera extends AbstractSettlingCamera
 
     protected synchronized void start() {
         if (!isOpen()) {
-            thread = new Thread(this);
-            thread.setDaemon(true);
-            thread.start();
+            captureEntry = CaptureScheduler.get().register(this);
+            Logger.trace("Camera "+getName()+" scheduled.");
         }
     }
 
+    /**
+     * Broadcasts one image. Called by the CaptureScheduler at the preview fps or when notified.
+     */
     @Override
     public void run() {
-        Logger.trace("Camera "+getName()+" thread "+Thread.currentThread().getId()+" started.");
-        while (!Thread.interrupted()) {
-            if (thread == null
-                    ||thread.getId()!= Thread.currentThread().getId()) {
-                // The interrupt must have missed. We're not the running thread.
-                Logger.trace("Camera "+getName()+" thread "+Thread.currentThread().getId()+" interrupt failed, closing anyway.");
-                break;
-            }
-            try {
-                // The camera should reuse images recently captures by on-going computer vision as 
-                // every call to captureTransformed() may consume the frame and make it unavailable 
-                // to computer vision.  
-                // Note, by using the atomic getAndSet() we make sure not to miss the last image.
-                BufferedImage img = lastTransformedImage.getAndSet(null);
-                if (img == null && !isPreviewSuspended()) {
-                    if (hasNewFrame()){
-                        // None available, try capture a new frame.
-                        captureTransformed();
-                        // Void the last image, so a new one will be triggered next time.
-                        img = lastTransformedImage.getAndSet(null);
-                    }
-                }
-                if (img != null) {
-                    broadcastCapture(img);
-                }
-            }
-            catch (Exception e) {
-                e.printStackTrace();
-            }
-            try {
-                synchronized(captureNotifier) {
-                    if (fps == 0) {
-                        captureNotifier.wait();
-                    }
-                    else {
-                        captureNotifier.wait((long) (1000. / fps));
-                    }
+        try {
+            // The camera should reuse images recently captures by on-going computer vision as 
+            // every call to captureTransformed() may consume the frame and make it unavailable 
+            // to computer vision.  
+            // Note, by using the atomic getAndSet() we make sure not to miss the last image.
+            BufferedImage img = lastTransformedImage.getAndSet(null);
+            if (img == null && !isPreviewSuspended()) {
+                if (hasNewFrame()){
+                    // None available, try capture a new frame.
+                    captureTransformed();
+                    // Void the last image, so a new one will be triggered next time.
+                    img = lastTransformedImage.getAndSet(null);
                 }
             }
-            catch (InterruptedException e) {
-                break;
+            if (img != null) {
+                broadcastCapture(img);
             }
         }
-        Logger.trace("Camera "+getName()+" thread "+Thread.currentThread().getId()+" bye-bye.");
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void runCapture() {
+        run();
     }
 
     public boolean isPreviewSuspended() {
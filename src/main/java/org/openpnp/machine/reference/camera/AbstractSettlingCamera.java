@@ -41,10 +41,15 @@ import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 import org.openpnp.gui.MainFrame;
 import org.openpnp.model.Configuration;
+import org.openpnp.model.Motion;
+import org.openpnp.model.Motion.MotionOption;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.MotionPlanner;
 import org.openpnp.spi.MotionPlanner.CompletionType;
 import org.openpnp.spi.base.AbstractCamera;
 import org.openpnp.util.NanosecondTime;
 import org.openpnp.util.OpenCvUtils;
+import org.openpnp.util.SharedFrame;
 import org.openpnp.util.SimpleGraph;
 import org.pmw.tinylog.Logger;
 import org.simpleframework.xml.Attribute;
@@ -57,7 +62,8 @@ public abstract class AbstractSettlingCamera extends AbstractCamera {
         Mean,
         Euclidean,
         Square,
-        Motion;
+        Motion,
+        PlannedStillstand;
 
         protected int getNorm() {
             switch(this) {
@@ -179,6 +185,13 @@ public abstract class AbstractSettlingCamera extends AbstractCamera {
     @Attribute(required = false)
     protected long settleTimeoutMs = 500;
 
+    /**
+     * Time from the start of the exposure of a frame until it is returned by the camera, used by
+     * the PlannedStillstand settle method.
+     */
+    @Attribute(required = false)
+    protected long exposureLatencyMs = 0;
+
     @Attribute(required = false)
     protected double settleThreshold = 0.0;
 
@@ -297,10 +310,18 @@ public abstract class AbstractSettlingCamera extends AbstractCamera {
                     settleGraph.getRow(BOOLEAN, CAPTURE).recordDataPoint(settleGraph.getT(), 0);
                 }
 
-                // Convert to Mat and if not full color, convert to gray.
-                Mat mat = OpenCvUtils.toMat(image);
-                if (!settleFullColor) {
-                    Imgproc.cvtColor(mat, mat, Imgproc.COLOR_BGR2GRAY);
+                // Convert to Mat and if not full color, convert to gray. The full color Mat is modified
+                // in place below, so it must be a copy. The gray conversion can read from a view on the 
+                // frame, which is then still passed on to the pipeline, without copying.
+                Mat mat;
+                if (settleFullColor) {
+                    mat = OpenCvUtils.toMat(image);
+                }
+                else {
+                    Mat view = SharedFrame.viewMat(image);
+                    mat = new Mat();
+                    Imgproc.cvtColor(view, mat, Imgproc.COLOR_BGR2GRAY);
+                    view.release();
                 }
 
                 // Gaussian blur is the most expensive operation, so if it is large, we rescale the image instead.
@@ -670,6 +691,9 @@ public abstract class AbstractSettlingCamera extends AbstractCamera {
                 }
                 return capture();
             }
+            else if (settleMethod == SettleMethod.PlannedStillstand) {
+                return captureAtPlannedStillstand();
+            }
             else {
                 return autoSettleAndCapture(settleOption == SettleOption.SettleFullArea ? 0 : settleMaskCircle);
             }
@@ -680,6 +704,53 @@ public abstract class AbstractSettlingCamera extends AbstractCamera {
         }
     }
 
+    /**
+     * @return True if the camera can tell when its frames were exposed, for the PlannedStillstand 
+     * settle method. If not, it falls back to the fixed settle time, which must then be configurable.
+     */
+    public boolean isExposureTimed() {
+        return false;
+    }
+
+    /**
+     * Captures the first frame that was exposed after the machine came to a stillstand, as planned 
+     * by the motion planner. Cameras that cannot tell when their frames were exposed just wait for 
+     * the fixed settle time. 
+     * 
+     * @return
+     * @throws Exception
+     */
+    protected BufferedImage captureAtPlannedStillstand() throws Exception {
+        Logger.trace(getName()+" settling fixed time "+getSettleTimeMs()+"ms");
+        Thread.sleep(getSettleTimeMs());
+        return capture();
+    }
+
+    /**
+     * @return The runtime in seconds from which on the machine stands still, according to the motion 
+     * planner's momentary motion. 
+     */
+    protected double getPlannedStillstandTime() {
+        double now = NanosecondTime.getRuntimeSeconds();
+        Machine machine = Configuration.get().getMachine();
+        MotionPlanner motionPlanner = (machine != null ? machine.getMotionPlanner() : null);
+        if (motionPlanner == null) {
+            return now;
+        }
+        Motion motion = motionPlanner.getMomentaryMotion(now);
+        if (!motion.hasOption(MotionOption.Stillstand)
+                && !motion.getLocation0().matches(motion.getLocation1())) {
+            // Still moving, as planned.
+            return Math.max(now, motion.getPlannedTime1());
+        }
+        Motion lastMotion = motionPlanner.getLastMotion();
+        if (lastMotion == null) {
+            // Never moved.
+            return Double.NEGATIVE_INFINITY;
+        }
+        return Math.min(now, lastMotion.getPlannedTime1());
+    }
+
     public SettleMethod getSettleMethod() {
         return settleMethod;
     }
@@ -704,6 +775,14 @@ public abstract class AbstractSettlingCamera extends AbstractCamera {
         this.settleTimeoutMs = settleTimeoutMs;
     }
 
+    public long getExposureLatencyMs() {
+        return exposureLatencyMs;
+    }
+
+    public void setExposureLatencyMs(long exposureLatencyMs) {
+        this.exposureLatencyMs = exposureLatencyMs;
+    }
+
     public double getSettleThreshold() {
         return settleThreshold;
     }
@@ -0,0 +1,459 @@
+/*
+ * Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+ *
+ * This file is part of OpenPnP.
+ *
+ * OpenPnP is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * OpenPnP is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with OpenPnP. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.machine.reference.camera;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pmw.tinylog.Logger;
+
+/**
+ * Schedules the preview captures of all the broadcasting cameras on a small, bounded pool of worker
+ * threads, instead of one thread per camera.<br/>
+ * <br/>
+ * Cameras involved in an active machine task take priority. The preview frame rate of the other
+ * cameras is degraded automatically, when the captures take more time than the workers have. Cameras
+ * sharing a capture device (such as the SwitcherCamera) are captured one at a time, and previews stay
+ * with the camera that is currently switched in for a while, so the switch is not thrashed.<br/>
+ * <br/>
+ * Some cameras block in a capture, e.g. while waiting for a frame from a disconnected device. A 
+ * capture that runs longer than {@link #BLOCKING_NS} no longer counts against the pool: a watchdog 
+ * starts a spare worker, so the other cameras keep being captured. Spare workers exit again after 
+ * idling for a while. 
+ */
+public class CaptureScheduler {
+    /**
+     * A camera scheduled for captures.
+     */
+    public interface Client {
+        String getName();
+
+        /**
+         * Captures and broadcasts one frame.
+         */
+        void runCapture();
+
+        /**
+         * @return The preview frame rate, or 0 to only capture when woken.
+         */
+        double getPreviewFps();
+
+        /**
+         * @return true if the camera is involved in an active machine task.
+         */
+        boolean isCapturePriority();
+
+        /**
+         * @return The group of cameras sharing a capture device, or null if not shared.
+         */
+        Object getCaptureGroup();
+
+        /**
+         * @return true if the camera is the one currently switched in, within its capture group.
+         */
+        boolean isCaptureGroupActive();
+    }
+
+    /**
+     * The registration of a client.
+     */
+    public static class Entry {
+        private final Client client;
+        private boolean active = true;
+        private boolean wakeRequested;
+        private long due;
+        private long lastRun;
+        private long runStart;
+        private double duration;
+        private Thread runner;
+
+        private Entry(Client client) {
+            this.client = client;
+        }
+
+        public Client getClient() {
+            return client;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+    }
+
+    /**
+     * @param entry
+     * @return The worker thread currently running the capture of the entry, or null if none is running.
+     */
+    public Thread getRunner(Entry entry) {
+        synchronized (lock) {
+            return entry.runner;
+        }
+    }
+
+    /**
+     * Target utilization of the workers, above which the previews are degraded.
+     */
+    private static final double TARGET_UTILIZATION = 0.75;
+    /**
+     * Maximum degradation of the preview frame rate.
+     */
+    private static final double MAX_DEGRADATION = 10;
+    /**
+     * Time the previews stay with the camera switched in, before switching to another one in the group.
+     */
+    private static final long GROUP_DWELL_NS = 1_000_000_000L;
+    /**
+     * Captures running longer than this are considered blocking.
+     */
+    static final long BLOCKING_NS = 250_000_000L;
+    /**
+     * Time a spare worker idles before it exits.
+     */
+    private static final long SPARE_IDLE_NS = 10_000_000_000L;
+
+    private static CaptureScheduler instance;
+
+    private final int workerCount;
+    private final Object lock = new Object();
+    private final List<Entry> entries = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private int workerNumber;
+    private Thread watchdog;
+    private boolean shutdown;
+
+    public static synchronized CaptureScheduler get() {
+        if (instance == null) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            instance = new CaptureScheduler(Math.max(2, Math.min(4, processors/2)));
+        }
+        return instance;
+    }
+
+    public CaptureScheduler(int workerCount) {
+        this.workerCount = Math.max(1, workerCount);
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Registers the client. The first capture is due immediately.
+     *
+     * @param client
+     * @return The entry to wake or unregister the client.
+     */
+    public Entry register(Client client) {
+        synchronized (lock) {
+            Entry entry = new Entry(client);
+            entry.due = System.nanoTime();
+            entries.add(entry);
+            if (!shutdown) {
+                while (workers.size() < workerCount) {
+                    startWorker();
+                }
+                if (watchdog == null) {
+                    watchdog = new Thread(() -> watch(), "CaptureScheduler-Watchdog");
+                    watchdog.setDaemon(true);
+                    watchdog.start();
+                }
+            }
+            lock.notifyAll();
+            return entry;
+        }
+    }
+
+    /**
+     * Unregisters the client. If a capture is in progress, it is interrupted and waited for.
+     *
+     * @param entry
+     * @param timeoutMs Maximum time to wait for the capture in progress.
+     */
+    public void unregister(Entry entry, long timeoutMs) {
+        synchronized (lock) {
+            entry.active = false;
+            entries.remove(entry);
+            lock.notifyAll();
+            if (entry.runner != null && entry.runner != Thread.currentThread()) {
+                entry.runner.interrupt();
+                long deadline = System.currentTimeMillis() + timeoutMs;
+                try {
+                    while (entry.runner != null) {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        lock.wait(remaining);
+                    }
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Requests a capture as soon as possible, or right after the one in progress.
+     *
+     * @param entry
+     */
+    public void wake(Entry entry) {
+        synchronized (lock) {
+            entry.wakeRequested = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Stops the workers.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return The factor by which the preview frame intervals of cameras without priority are
+     * currently stretched.
+     */
+    public double getDegradation() {
+        synchronized (lock) {
+            return computeDegradation();
+        }
+    }
+
+    /**
+     * Starts a worker. Guarded by lock.
+     */
+    private void startWorker() {
+        Thread worker = new Thread(() -> work(), "CaptureScheduler-"+(workerNumber++));
+        worker.setDaemon(true);
+        worker.start();
+        workers.add(worker);
+    }
+
+    /**
+     * @return The number of workers that are not stuck in a blocking capture. Guarded by lock.
+     */
+    private int getAvailableWorkers(long now) {
+        int available = workers.size();
+        for (Entry entry : entries) {
+            if (entry.runner != null && now - entry.runStart > BLOCKING_NS) {
+                available--;
+            }
+        }
+        return available;
+    }
+
+    /**
+     * @return The number of workers currently running, including the spare ones.
+     */
+    public int getRunningWorkers() {
+        synchronized (lock) {
+            return workers.size();
+        }
+    }
+
+    /**
+     * Starts a spare worker for each capture that blocks, so the pool keeps its size.
+     */
+    private void watch() {
+        synchronized (lock) {
+            while (!shutdown) {
+                long now = System.nanoTime();
+                if (getAvailableWorkers(now) < workerCount) {
+                    startWorker();
+                }
+                // Wake up when the next running capture would become blocking.
+                long next = Long.MAX_VALUE;
+                for (Entry entry : entries) {
+                    if (entry.runner != null && now - entry.runStart <= BLOCKING_NS) {
+                        next = Math.min(next, entry.runStart + BLOCKING_NS + 1);
+                    }
+                }
+                try {
+                    if (next == Long.MAX_VALUE) {
+                        lock.wait();
+                    }
+                    else {
+                        long wait = next - now;
+                        lock.wait(wait/1000000, (int) (wait%1000000));
+                    }
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static long getPeriod(Entry entry) {
+        double fps = entry.client.getPreviewFps();
+        if (fps <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return (long) (1e9/fps);
+    }
+
+    private double computeDegradation() {
+        double utilization = 0;
+        for (Entry entry : entries) {
+            long period = getPeriod(entry);
+            if (period != Long.MAX_VALUE && entry.duration <= BLOCKING_NS) {
+                // Blocking cameras run on spare workers, they do not load the pool.
+                utilization += entry.duration/period;
+            }
+        }
+        utilization /= workerCount;
+        return Math.min(MAX_DEGRADATION, Math.max(1.0, utilization/TARGET_UTILIZATION));
+    }
+
+    private boolean isGroupBusy(Entry entry, long now) {
+        Object group = entry.client.getCaptureGroup();
+        if (group == null) {
+            return false;
+        }
+        for (Entry other : entries) {
+            if (other != entry && group.equals(other.client.getCaptureGroup())) {
+                if (other.runner != null) {
+                    // One at a time.
+                    return true;
+                }
+                if (!entry.wakeRequested
+                        && other.client.isCaptureGroupActive()
+                        && !entry.client.isCaptureGroupActive()
+                        && now - other.lastRun < GROUP_DWELL_NS) {
+                    // Stay with the camera switched in.
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The next entry to capture, or null if none is due. Guarded by lock.
+     */
+    private Entry pickDue(long now, long [] nextDue) {
+        Entry best = null;
+        boolean bestPriority = false;
+        nextDue[0] = Long.MAX_VALUE;
+        for (Entry entry : entries) {
+            if (entry.runner != null) {
+                continue;
+            }
+            long due = entry.wakeRequested ? now : entry.due;
+            if (due > now) {
+                nextDue[0] = Math.min(nextDue[0], due);
+                continue;
+            }
+            if (isGroupBusy(entry, now)) {
+                // Check again later.
+                nextDue[0] = Math.min(nextDue[0], now + GROUP_DWELL_NS/10);
+                continue;
+            }
+            boolean priority = entry.client.isCapturePriority();
+            if (best == null
+                    || (priority && !bestPriority)
+                    || (priority == bestPriority && due < (best.wakeRequested ? now : best.due))) {
+                best = entry;
+                bestPriority = priority;
+            }
+        }
+        return best;
+    }
+
+    private void work() {
+        long [] nextDue = new long[1];
+        while (true) {
+            Entry entry;
+            synchronized (lock) {
+                long idleSince = System.nanoTime();
+                while (true) {
+                    if (shutdown) {
+                        workers.remove(Thread.currentThread());
+                        return;
+                    }
+                    long now = System.nanoTime();
+                    entry = pickDue(now, nextDue);
+                    if (entry != null) {
+                        break;
+                    }
+                    if (getAvailableWorkers(now) > workerCount) {
+                        // A spare, no longer needed.
+                        if (now - idleSince >= SPARE_IDLE_NS) {
+                            workers.remove(Thread.currentThread());
+                            return;
+                        }
+                        nextDue[0] = Math.min(nextDue[0], idleSince + SPARE_IDLE_NS);
+                    }
+                    try {
+                        if (nextDue[0] == Long.MAX_VALUE) {
+                            lock.wait();
+                        }
+                        else {
+                            long wait = nextDue[0] - now;
+                            lock.wait(wait/1000000, (int) (wait%1000000));
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        // Stale interrupt from an unregistered capture.
+                    }
+                }
+                entry.runner = Thread.currentThread();
+                entry.runStart = System.nanoTime();
+                entry.wakeRequested = false;
+                // Let the watchdog time the capture.
+                lock.notifyAll();
+            }
+            long t0 = System.nanoTime();
+            try {
+                entry.client.runCapture();
+            }
+            catch (Throwable e) {
+                Logger.warn(e, "Camera {} capture failed", entry.client.getName());
+            }
+            // Clear a stale interrupt from unregister().
+            Thread.interrupted();
+            long t1 = System.nanoTime();
+            synchronized (lock) {
+                entry.runner = null;
+                entry.lastRun = t1;
+                entry.duration = (entry.duration == 0 ?
+                        t1 - t0
+                        : (entry.duration*3 + (t1 - t0))/4);
+                long period = getPeriod(entry);
+                if (period == Long.MAX_VALUE) {
+                    entry.due = Long.MAX_VALUE;
+                }
+                else {
+                    if (!entry.client.isCapturePriority()) {
+                        period = (long) (period*computeDegradation());
+                    }
+                    entry.due = t1 + period;
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+ *
+ * This file is part of OpenPnP.
+ *
+ * OpenPnP is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * OpenPnP is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with OpenPnP. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.machine.reference.camera;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import org.pmw.tinylog.Logger;
+
+/**
+ * Grabs frames from a camera driver that can only be polled for new frames, on a dedicated thread.
+ * Consumers wait for the next frame without spinning. The driver is only polled while a consumer
+ * is waiting, parking for most of the learned frame interval after each frame, and then backing
+ * off adaptively until the next frame arrives.
+ */
+public class FrameGrabber {
+    private static final long MIN_BACKOFF_NS = 250_000;
+    private static final long MAX_BACKOFF_NS = 4_000_000;
+    /**
+     * Gaps longer than this are not taken as the frame interval.
+     */
+    private static final long MAX_FRAME_INTERVAL_NS = 1_000_000_000;
+
+    private final BooleanSupplier hasNewFrame;
+    private final Supplier<BufferedImage> capture;
+    private final Thread thread;
+    private final Object lock = new Object();
+
+    // Guarded by lock.
+    private int waiting;
+    private long sequence;
+    private BufferedImage frame;
+
+    private volatile boolean stopped;
+    private long lastFrameTime;
+    private long frameInterval;
+
+    /**
+     * Creates and starts the frame grabber.
+     *
+     * @param name The name of the grabber thread.
+     * @param hasNewFrame Polls the driver for a new frame.
+     * @param capture Captures the new frame from the driver.
+     */
+    public FrameGrabber(String name, BooleanSupplier hasNewFrame, Supplier<BufferedImage> capture) {
+        this.hasNewFrame = hasNewFrame;
+        this.capture = capture;
+        thread = new Thread(() -> run(), name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits for the next frame from the driver. The driver is only polled while a consumer waits, so 
+     * a frame that is already pending in the driver is grabbed right away, but a frame grabbed for an
+     * earlier call is never returned again, i.e. this always waits for a new frame sequence.
+     *
+     * @param timeoutMs
+     * @return The frame, or null if the driver did not deliver one within the timeout.
+     * @throws InterruptedException
+     */
+    public BufferedImage grab(long timeoutMs) throws InterruptedException {
+        synchronized (lock) {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            long waitSequence = sequence;
+            waiting++;
+            lock.notifyAll();
+            try {
+                while (sequence == waitSequence) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0 || stopped) {
+                        return null;
+                    }
+                    lock.wait(remaining);
+                }
+                return frame;
+            }
+            finally {
+                waiting--;
+            }
+        }
+    }
+
+    /**
+     * @return The newest frame grabbed, or null if none was grabbed yet.
+     */
+    public BufferedImage getFrame() {
+        synchronized (lock) {
+            return frame;
+        }
+    }
+
+    /**
+     * @return The learned frame interval in milliseconds, or 0 if not yet known.
+     */
+    public double getFrameIntervalMs() {
+        return frameInterval/1e6;
+    }
+
+    /**
+     * Stops the grabber thread. The driver is no longer polled once this returns.
+     */
+    public void stop() {
+        stopped = true;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        thread.interrupt();
+        if (thread != Thread.currentThread()) {
+            try {
+                thread.join(500);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    protected void run() {
+        long backoff = MIN_BACKOFF_NS;
+        while (!stopped) {
+            try {
+                synchronized (lock) {
+                    if (waiting == 0) {
+                        // Nobody waiting, no need to poll the driver. The gap until the next frame is not
+                        // a frame interval.
+                        lastFrameTime = 0;
+                        while (waiting == 0 && !stopped) {
+                            lock.wait();
+                        }
+                        backoff = MIN_BACKOFF_NS;
+                    }
+                }
+                if (stopped) {
+                    break;
+                }
+                if (hasNewFrame.getAsBoolean()) {
+                    BufferedImage image = capture.get();
+                    long t = System.nanoTime();
+                    if (lastFrameTime != 0 && t - lastFrameTime < MAX_FRAME_INTERVAL_NS) {
+                        frameInterval = (frameInterval == 0 ?
+                                t - lastFrameTime
+                                : (frameInterval*3 + (t - lastFrameTime))/4);
+                    }
+                    lastFrameTime = t;
+                    backoff = MIN_BACKOFF_NS;
+                    if (image != null) {
+                        synchronized (lock) {
+                            frame = image;
+                            sequence++;
+                            lock.notifyAll();
+                        }
+                    }
+                }
+                else {
+                    // Sleep most of the frame interval, then back off adaptively.
+                    long park = backoff;
+                    if (lastFrameTime != 0 && frameInterval != 0) {
+                        park = Math.max(park, lastFrameTime + frameInterval*3/4 - System.nanoTime());
+                    }
+                    LockSupport.parkNanos(park);
+                    backoff = Math.min(backoff*2, MAX_BACKOFF_NS);
+                }
+            }
+            catch (InterruptedException e) {
+                break;
+            }
+            catch (Exception e) {
+                Logger.trace(e, "{} failed to grab a frame", thread.getName());
+                LockSupport.parkNanos(MAX_BACKOFF_NS);
+            }
+        }
+    }
+}
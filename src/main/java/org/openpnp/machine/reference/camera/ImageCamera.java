@@ -22,13 +22,19 @@ package org.openpnp.machine.reference.camera;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ConvolveOp;
+import java.awt.image.DataBufferInt;
 import java.awt.image.Kernel;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
 import java.util.stream.IntStream;
 
 import javax.imageio.ImageIO;
@@ -63,6 +69,22 @@ import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.Element;
 
 public class ImageCamera extends ReferenceCamera {
+    public enum SimulatedInterpolation {
+        Bicubic(RenderingHints.VALUE_INTERPOLATION_BICUBIC),
+        Bilinear(RenderingHints.VALUE_INTERPOLATION_BILINEAR),
+        NearestNeighbor(RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+
+        final private Object hint;
+
+        SimulatedInterpolation(Object hint) {
+            this.hint = hint;
+        }
+
+        Object getRenderingHint() {
+            return hint;
+        }
+    }
+
     @Element
     private String sourceUri = "classpath://samples/pnp-test/pnp-test.png";
 
@@ -129,8 +151,36 @@ public class ImageCamera extends ReferenceCamera {
     @Attribute(required = false)
     private boolean subPixelRendering = true;
 
+    /**
+     * Interpolation used to render the source image. The faster modes are mostly for benchmarking.
+     */
+    @Attribute(required = false)
+    private SimulatedInterpolation simulatedInterpolation = SimulatedInterpolation.Bicubic;
+
     private double projectionFactor;
 
+    /**
+     * Reuse the rendered scene, the converted source and the scratch buffers across captures.
+     */
+    @Attribute(required = false)
+    private boolean cachedRendering = true;
+
+    /**
+     * The source converted to an integer pixel format, which Java2D transforms fastest.
+     */
+    private BufferedImage renderSource;
+    private BufferedImage renderSourceOf;
+    /**
+     * The last rendered scene, before the camera exposure is simulated.
+     */
+    private BufferedImage sceneCache;
+    private List<Object> sceneKey;
+    private BufferedImage undistortedBuffer;
+    private BufferedImage blurBuffer;
+    private ConvolveOp blurOp;
+    private double blurOpRadius;
+    private long renders;
+
     public ImageCamera() {
         setUnitsPerPixel(new Location(LengthUnit.Millimeters, 0.04233, 0.04233, 0, 0));
     }
@@ -191,6 +241,29 @@ public class ImageCamera extends ReferenceCamera {
         this.simulatedFlipped = simulatedFlipped;
     }
 
+    public SimulatedInterpolation getSimulatedInterpolation() {
+        return simulatedInterpolation;
+    }
+
+    public void setSimulatedInterpolation(SimulatedInterpolation simulatedInterpolation) {
+        this.simulatedInterpolation = simulatedInterpolation;
+    }
+
+    public boolean isCachedRendering() {
+        return cachedRendering;
+    }
+
+    public void setCachedRendering(boolean cachedRendering) {
+        this.cachedRendering = cachedRendering;
+    }
+
+    /**
+     * @return The number of times the scene was rendered, i.e. captures not served from the scene cache.
+     */
+    public synchronized long getRenders() {
+        return renders;
+    }
+
     public Location getImageUnitsPerPixel() {
         if (imageUnitsPerPixel == null) {
             imageUnitsPerPixel = getUnitsPerPixel();
@@ -275,9 +348,9 @@ public class ImageCamera extends ReferenceCamera {
         return frame;
     }
 
-    protected BufferedImage locationCapture(Location location, int width, int height, boolean simulation) {
+    protected synchronized BufferedImage locationCapture(Location location, int width, int height, boolean simulation) {
         /*
-         * Create a buffer that we will render the image view.
+         * Create a buffer that we will render the image view. It is handed out, so it cannot be reused.
          */
         BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
 
@@ -294,11 +367,29 @@ public class ImageCamera extends ReferenceCamera {
         double pixelX = locationX / upp.getX();
         double pixelY = locationY / upp.getY();
 
+        List<Object> key = null;
+        if (simulation && cachedRendering) {
+            // The scene only needs rendering again, when the camera moved or the settings changed.
+            key = Arrays.asList(location, width, height, source, imageLocation, upp, 
+                    simulatedRotation, simulatedScale, simulatedFlipped, simulatedDistortion, simulatedYRotation,
+                    getFocalLength().convertToUnits(LengthUnit.Millimeters).getValue(), 
+                    getSensorDiagonal().convertToUnits(LengthUnit.Millimeters).getValue(), 
+                    primaryFiducial, secondaryFiducial, simulatedInterpolation);
+            if (key.equals(sceneKey)) {
+                copyPixels(sceneCache, frame);
+                gFrame.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                SimulationModeMachine.simulateCameraExposure(this, gFrame, width, height);
+                gFrame.dispose();
+                return frame;
+            }
+        }
+
+        renders++;
         // Draw the image with sub-pixel rendering.
         double dx = (pixelX - (width / 2.0));
         double dy = (source.getHeight() - (pixelY + (height / 2.0)));
         gFrame.clearRect(0, 0, width, height);
-        gFrame.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);//VALUE_INTERPOLATION_BILINEAR);
+        gFrame.setRenderingHint(RenderingHints.KEY_INTERPOLATION, simulatedInterpolation.getRenderingHint());
         gFrame.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
         gFrame.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         double zRotRad = Math.toRadians(getSimulatedRotation());
@@ -312,7 +403,12 @@ public class ImageCamera extends ReferenceCamera {
         }
         AffineTransform t = new AffineTransform();
         t.translate(-dx, -dy); // x/y set here
-        gFrame.drawImage(source, t, null);
+        if (cachedRendering) {
+            drawVisibleSource(gFrame, t, width, height);
+        }
+        else {
+            gFrame.drawImage(source, t, null);
+        }
 
         double cameraViewDiagonal = Math.sqrt(Math.pow(upp.getX()*width, 2) + Math.pow(upp.getY()*height, 2));
         double sensorDiagonal = getSensorDiagonal().convertToUnits(AxesLocation.getUnits()).getValue();
@@ -336,7 +432,20 @@ public class ImageCamera extends ReferenceCamera {
 
         if (getSimulatedDistortion() != 0.0 || getSimulatedYRotation() != 0.0) {
             // Simulate camera lens distortion and mounting y rotation.
-            BufferedImage undistorted  = ImageUtils.clone(frame);
+            BufferedImage undistorted;
+            if (cachedRendering) {
+                if (undistortedBuffer == null 
+                        || undistortedBuffer.getWidth() != width || undistortedBuffer.getHeight() != height) {
+                    undistortedBuffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+                }
+                undistorted = undistortedBuffer;
+                copyPixels(frame, undistorted);
+            }
+            else {
+                undistorted  = ImageUtils.clone(frame);
+            }
+            final int[] undistortedPixels = ((DataBufferInt) undistorted.getRaster().getDataBuffer()).getData();
+            final int[] framePixels = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
             double xo = 0.5 - width/2;
             double yo = 0.5 - height/2;
             double radius = Math.hypot(width, height)/2;
@@ -363,7 +472,12 @@ public class ImageCamera extends ReferenceCamera {
                 final int x1 = pass == 0 ? 3 : width-1; //width : width-1;
                 final int y1 = pass == 0 ? height : height-1;
                 final int passf = pass;
-                IntStream.range(0, x1).parallel().forEach(xi -> {
+                IntStream range = IntStream.range(0, x1);
+                if (pass > 0) {
+                    // The first pass adjusts the projectionFactor as it goes, so it must be sequential.
+                    range = range.parallel();
+                }
+                range.forEach(xi -> {
                     int x = xi*xStep;
                 //for (int x = 0; x <= x1; x += xStep) {
                     for (int y = 0; y <= y1; y += yStep) {
@@ -416,7 +530,7 @@ public class ImageCamera extends ReferenceCamera {
                                 double norm = 0;
                                 for (int ix = x0; ix <= x0+kernel_r; ix++) {
                                     for (int iy = y0; iy <= y0+kernel_r; iy++) {
-                                        int rgb = undistorted.getRGB(ix, iy);
+                                        int rgb = undistortedPixels[iy*width + ix];
                                         int r = (rgb >> 16) & 0xff;
                                         int g = (rgb >> 8) & 0xff;
                                         int b = (rgb >> 0) & 0xff;
@@ -434,10 +548,10 @@ public class ImageCamera extends ReferenceCamera {
                                 int g = Math.max(0, Math.min(255, (int)(green/norm)));
                                 int b = Math.max(0, Math.min(255, (int)(blue/norm)));
                                 int newRGB = baseRGB|(r<<16)|(g<<8)|(b<<0);
-                                frame.setRGB(x, y, newRGB);
+                                framePixels[y*width + x] = newRGB;
                             }
                             else {
-                                frame.setRGB(x, y, grayRGB);
+                                framePixels[y*width + x] = grayRGB;
                             }
                         }
                     }
@@ -445,6 +559,15 @@ public class ImageCamera extends ReferenceCamera {
             }
         }
 
+        if (key != null) {
+            if (sceneCache == null 
+                    || sceneCache.getWidth() != width || sceneCache.getHeight() != height) {
+                sceneCache = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            }
+            copyPixels(frame, sceneCache);
+            sceneKey = key;
+        }
+
         if (simulation) {
             gFrame.setTransform(tx);
             SimulationModeMachine.simulateCameraExposure(this, gFrame, width, height);
@@ -454,10 +577,90 @@ public class ImageCamera extends ReferenceCamera {
         return frame;
     }
 
+    /**
+     * Draws only the part of the source that is visible in the view, i.e. only the pixels the 
+     * interpolation needs are touched, however large the source image is.
+     */
+    protected void drawVisibleSource(Graphics2D gFrame, AffineTransform t, int width, int height) {
+        if (renderSourceOf != source) {
+            // Convert once into an integer pixel format.
+            int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+            if (source.getType() == type) {
+                renderSource = source;
+            }
+            else {
+                renderSource = new BufferedImage(source.getWidth(), source.getHeight(), type);
+                Graphics2D g = renderSource.createGraphics();
+                g.drawImage(source, 0, 0, null);
+                g.dispose();
+            }
+            renderSourceOf = source;
+        }
+        AffineTransform full = new AffineTransform(gFrame.getTransform());
+        full.concatenate(t);
+        Rectangle region;
+        try {
+            region = full.createInverse()
+                    .createTransformedShape(new Rectangle(0, 0, width, height))
+                    .getBounds();
+        }
+        catch (NoninvertibleTransformException e) {
+            return;
+        }
+        // Margin for the interpolation kernel.
+        region.grow(3, 3);
+        region = region.intersection(new Rectangle(0, 0, renderSource.getWidth(), renderSource.getHeight()));
+        if (region.isEmpty()) {
+            return;
+        }
+        AffineTransform tRegion = new AffineTransform(t);
+        tRegion.translate(region.x, region.y);
+        gFrame.drawImage(renderSource.getSubimage(region.x, region.y, region.width, region.height), tRegion, null);
+    }
+
+    /**
+     * Copies the pixels between two TYPE_INT_ARGB images of the same size.
+     */
+    protected static void copyPixels(BufferedImage from, BufferedImage to) {
+        int[] fromPixels = ((DataBufferInt) from.getRaster().getDataBuffer()).getData();
+        int[] toPixels = ((DataBufferInt) to.getRaster().getDataBuffer()).getData();
+        System.arraycopy(fromPixels, 0, toPixels, 0, fromPixels.length);
+    }
+
     protected void blurObjectIntoView(Graphics2D gView, BufferedImage frame) {
         AffineTransform tx = gView.getTransform();
         gView.setTransform(new AffineTransform());
+        gView.drawImage(frame, createBlurOp(), 0, 0);
+        gView.setTransform(tx);
+    }
+
+    /**
+     * Blurs only the region of the frame, where the object was drawn.
+     */
+    protected void blurObjectIntoView(Graphics2D gView, BufferedImage frame, Rectangle region) {
+        ConvolveOp op = createBlurOp();
+        if (op != null) {
+            // Include the kernel reach, and beyond that the border left alone by the EDGE_NO_OP. 
+            int r = (op.getKernel().getWidth()/2)*2 + 1;
+            region = new Rectangle(region);
+            region.grow(r, r);
+        }
+        region = region.intersection(new Rectangle(0, 0, frame.getWidth(), frame.getHeight()));
+        if (region.isEmpty()) {
+            return;
+        }
+        AffineTransform tx = gView.getTransform();
+        gView.setTransform(new AffineTransform());
+        gView.drawImage(frame.getSubimage(region.x, region.y, region.width, region.height), 
+                op, region.x, region.y);
+        gView.setTransform(tx);
+    }
+
+    protected ConvolveOp createBlurOp() {
         double radius = 0.2/getImageUnitsPerPixel().convertToUnits(LengthUnit.Millimeters).getX();
+        if (cachedRendering && radius == blurOpRadius) {
+            return blurOp;
+        }
         ConvolveOp op = null;
         if (radius > 0.01) {
             int size = (int)Math.ceil(radius) * 2 + 1;
@@ -485,8 +688,9 @@ public class ImageCamera extends ReferenceCamera {
                 op = new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, null);
             }
         }
-        gView.drawImage(frame, op, 0, 0);
-        gView.setTransform(tx);
+        blurOp = op;
+        blurOpRadius = radius;
+        return op;
     }
 
     protected void drawFiducial(Graphics2D gFrame, int cameraWidth, int cameraHeight, Location uppDefault,
@@ -515,6 +719,25 @@ public class ImageCamera extends ReferenceCamera {
             gFrame.setColor(Color.WHITE);
             gFrame.fillOval(0, 0, (int)w, (int)h);
         }
+        else if (cachedRendering) {
+            // Simulate focal blur, using the scratch buffer and only the region of the fiducial.
+            if (blurBuffer == null 
+                    || blurBuffer.getWidth() != cameraWidth || blurBuffer.getHeight() != cameraHeight) {
+                blurBuffer = new BufferedImage(cameraWidth, cameraHeight, BufferedImage.TYPE_INT_ARGB);
+            }
+            Graphics2D g = blurBuffer.createGraphics();
+            g.setTransform(tx);
+            g.fillOval(0, 0, (int)w, (int)h);
+            Rectangle region = tx.createTransformedShape(new Rectangle2D.Double(0, 0, (int)w, (int)h))
+                    .getBounds();
+            region.grow(1, 1);
+            blurObjectIntoView(gFrame, blurBuffer, region);
+            // Clear with transparent background for the next use.
+            g.setTransform(new AffineTransform());
+            g.setBackground(new Color(0, 0, 0, 0));
+            g.clearRect(region.x, region.y, region.width, region.height);
+            g.dispose();
+        }
         else {
             // Simulate focal blur
             BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
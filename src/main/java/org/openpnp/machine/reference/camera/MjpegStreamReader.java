@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+ *
+ * This file is part of OpenPnP.
+ *
+ * OpenPnP is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * OpenPnP is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with OpenPnP. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.machine.reference.camera;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Reads an MJPEG (multipart JPEG) stream. The stream is read in bulk and the JPEG frames are
+ * found by the Content-Length of the part header, if given. Otherwise the JPEG segments are walked
+ * from the start of image marker to the end of image marker, so markers inside of segments (such as
+ * an EXIF thumbnail) are skipped. Frames that are corrupt or larger than the maximum frame size are
+ * dropped, and the reader resyncs on the next start of image marker.<br/>
+ * <br/>
+ * A reader thread keeps reading the stream, so it never backs up. Only the newest complete frame
+ * is kept, and only decoded when grabbed, i.e. frames are dropped without decoding, when the
+ * consumer is behind. Decoding goes straight into a BGR Mat.
+ */
+public class MjpegStreamReader implements Closeable {
+    private static final String CONTENT_LENGTH = "content-length:";
+    private static final int INITIAL_BUFFER_SIZE = 256*1024;
+    /**
+     * Maximum size of garbage or headers before a frame.
+     */
+    private static final int MAX_HEADER_SIZE = 64*1024;
+    /**
+     * Default maximum size of a frame.
+     */
+    public static final int MAX_FRAME_SIZE = 16*1024*1024;
+
+    private final InputStream in;
+    private final int maxFrameSize;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int start;
+    private int end;
+
+    private final Object lock = new Object();
+    private Thread thread;
+    // Guarded by lock.
+    private byte[] newestFrame;
+    private long newestFrameTime;
+    private long sequence;
+    private long consumedSequence;
+    private long frames;
+    private long droppedFrames;
+    private IOException error;
+
+    private volatile boolean closed;
+    private volatile double decodeLatencyMs;
+
+    public MjpegStreamReader(InputStream in) {
+        this(in, MAX_FRAME_SIZE);
+    }
+
+    public MjpegStreamReader(InputStream in, int maxFrameSize) {
+        this.in = in;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Starts the reader thread.
+     *
+     * @param name The name of the reader thread.
+     */
+    public synchronized void start(String name) {
+        if (thread == null) {
+            thread = new Thread(() -> run(), name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Reads the next JPEG frame from the stream.
+     *
+     * @return The JPEG data.
+     * @throws IOException
+     */
+    public byte[] readFrame() throws IOException {
+        while (true) {
+            // Find the start of image marker, skipping the boundary and part headers. Positions are 
+            // kept relative to start, as fill() shifts the buffer.
+            int scanned = 0;
+            int soi;
+            while ((soi = indexOf((byte) 0xFF, (byte) 0xD8, start + scanned)) < 0) {
+                if (end - start > MAX_HEADER_SIZE) {
+                    // Not a header, skip it, but keep a last 0xFF.
+                    start = end - 1;
+                }
+                scanned = Math.max(0, end - 1 - start);
+                fill();
+            }
+            int contentLength = parseContentLength(start, soi);
+            start = soi;
+            int length;
+            if (contentLength > 0 && contentLength <= maxFrameSize) {
+                require(contentLength);
+                length = contentLength;
+            }
+            else {
+                length = scanFrameLength();
+            }
+            if (length < 0) {
+                // Corrupt or too large, resync on the next start of image marker.
+                start += 2;
+                continue;
+            }
+            byte[] frame = Arrays.copyOfRange(buffer, start, start + length);
+            start += length;
+            return frame;
+        }
+    }
+
+    /**
+     * Walks the JPEG segments of the frame at start, up to the end of image marker.
+     *
+     * @return The length of the frame, or -1 if it is corrupt or larger than the maximum frame size.
+     * @throws IOException
+     */
+    private int scanFrameLength() throws IOException {
+        int pos = 2;
+        boolean entropyCoded = false;
+        while (pos < maxFrameSize) {
+            require(pos + 2);
+            if (buffer[start + pos] != (byte) 0xFF) {
+                if (!entropyCoded) {
+                    return -1;
+                }
+                pos++;
+                continue;
+            }
+            int marker = buffer[start + pos + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // Fill byte.
+                pos++;
+            }
+            else if (entropyCoded && (marker == 0x00 || (marker >= 0xD0 && marker <= 0xD7))) {
+                // Stuffed byte or restart marker within the entropy-coded data.
+                pos += 2;
+            }
+            else if (marker == 0xD9) {
+                return pos + 2;
+            }
+            else if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                // Markers without a segment.
+                pos += 2;
+            }
+            else if (marker == 0x00 || marker == 0xD8) {
+                return -1;
+            }
+            else {
+                // Skip the segment, e.g. an APP1 segment with an EXIF thumbnail.
+                require(pos + 4);
+                int segmentLength = ((buffer[start + pos + 2] & 0xFF) << 8)
+                        | (buffer[start + pos + 3] & 0xFF);
+                if (segmentLength < 2) {
+                    return -1;
+                }
+                pos += 2 + segmentLength;
+                // The entropy-coded data follows the start of scan segment.
+                entropyCoded = (marker == 0xDA);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads from the stream, until at least length bytes are available from start.
+     *
+     * @param length
+     * @throws IOException
+     */
+    private void require(int length) throws IOException {
+        while (end - start < length) {
+            fill();
+        }
+    }
+
+    private int indexOf(byte b0, byte b1, int from) {
+        for (int i = from, n = end - 1; i < n; i++) {
+            if (buffer[i] == b0 && buffer[i + 1] == b1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int parseContentLength(int from, int to) {
+        if (to <= from) {
+            return 0;
+        }
+        String headers = new String(buffer, from, to - from, StandardCharsets.ISO_8859_1)
+                .toLowerCase(Locale.ROOT);
+        int index = headers.lastIndexOf(CONTENT_LENGTH);
+        if (index < 0) {
+            return 0;
+        }
+        int i = index + CONTENT_LENGTH.length();
+        while (i < headers.length() && headers.charAt(i) == ' ') {
+            i++;
+        }
+        int length = 0;
+        while (i < headers.length() && Character.isDigit(headers.charAt(i))) {
+            length = length*10 + (headers.charAt(i++) - '0');
+        }
+        return length;
+    }
+
+    /**
+     * Reads more data from the stream, in bulk. Everything before start is discarded, i.e. the
+     * positions are shifted by start.
+     *
+     * @throws IOException
+     */
+    private void fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if (end == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length*2);
+        }
+        int read = in.read(buffer, end, buffer.length - end);
+        if (read < 0) {
+            throw new EOFException("End of MJPEG stream");
+        }
+        end += read;
+    }
+
+    protected void run() {
+        try {
+            while (!closed) {
+                byte[] frame = readFrame();
+                synchronized (lock) {
+                    if (sequence != consumedSequence) {
+                        // Never grabbed.
+                        droppedFrames++;
+                    }
+                    newestFrame = frame;
+                    newestFrameTime = System.nanoTime();
+                    sequence++;
+                    frames++;
+                    lock.notifyAll();
+                }
+            }
+        }
+        catch (IOException e) {
+            synchronized (lock) {
+                if (!closed) {
+                    error = e;
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits for a frame that was not grabbed yet, and decodes it.
+     *
+     * @param timeoutMs
+     * @return The BGR Mat, owned by the caller, or null if no new frame arrived within the timeout.
+     * @throws IOException if the stream failed.
+     * @throws InterruptedException
+     */
+    public Mat grab(long timeoutMs) throws IOException, InterruptedException {
+        byte[] frame;
+        long frameTime;
+        synchronized (lock) {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            while (sequence == consumedSequence) {
+                if (error != null) {
+                    throw error;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || closed) {
+                    return null;
+                }
+                lock.wait(remaining);
+            }
+            frame = newestFrame;
+            frameTime = newestFrameTime;
+            consumedSequence = sequence;
+        }
+        Mat mat = decode(frame);
+        double latencyMs = (System.nanoTime() - frameTime)/1e6;
+        decodeLatencyMs = (decodeLatencyMs == 0 ? latencyMs : (decodeLatencyMs*3 + latencyMs)/4);
+        return mat;
+    }
+
+    /**
+     * Decodes the JPEG data into a BGR Mat.
+     *
+     * @param jpeg
+     * @return The Mat, or null if it could not be decoded.
+     */
+    public static Mat decode(byte[] jpeg) {
+        MatOfByte data = new MatOfByte(jpeg);
+        try {
+            Mat mat = Imgcodecs.imdecode(data, Imgcodecs.IMREAD_COLOR);
+            if (mat.empty()) {
+                mat.release();
+                return null;
+            }
+            return mat;
+        }
+        finally {
+            data.release();
+        }
+    }
+
+    /**
+     * @return The time from the arrival of a complete frame until it was decoded, averaged over the
+     * recent frames, in milliseconds.
+     */
+    public double getDecodeLatencyMs() {
+        return decodeLatencyMs;
+    }
+
+    /**
+     * @return The number of frames read from the stream.
+     */
+    public long getFrames() {
+        synchronized (lock) {
+            return frames;
+        }
+    }
+
+    /**
+     * @return The number of frames dropped without decoding, because a newer one arrived before
+     * they were grabbed.
+     */
+    public long getDroppedFrames() {
+        synchronized (lock) {
+            return droppedFrames;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        in.close();
+    }
+}
@@ -21,20 +21,18 @@
 package org.openpnp.machine.reference.camera;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.StringWriter;
 import java.net.URL;
 import java.net.URLConnection;
 
-import javax.imageio.ImageIO;
-
+import org.opencv.core.Mat;
 import org.openpnp.gui.support.Wizard;
 import org.openpnp.machine.reference.camera.wizards.MjpgCaptureCameraWizard;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 import org.openpnp.spi.PropertySheetHolder;
+import org.openpnp.util.SharedFrame;
+import org.pmw.tinylog.Logger;
 import org.simpleframework.xml.Attribute;
 
 
@@ -58,15 +56,10 @@ public class MjpgCaptureCamera extends ReferenceCamera {
     @Attribute(required = false)
     private int timeout = 3000;
 
-    private InputStream mjpgStream; // BufferedInputStream mjpgStream;
-    private StringWriter lineBuilder;
+    private volatile MjpegStreamReader mjpgStream;
 
     private boolean dirty = false;
 
-    // private static final String BOUNDARY_PREFIX = "--";
-    // private static final String CONTENT_TYPE_STRING = "Content-Type: ";
-    private static final String CONTENT_LENGTH_STRING = "Content-Length: ";
-
 
     public MjpgCaptureCamera() {
         setUnitsPerPixel(new Location(LengthUnit.Millimeters, 0.04233, 0.04233, 0, 0));
@@ -136,8 +129,8 @@ public class MjpgCaptureCamera extends ReferenceCamera {
             urlcon.setConnectTimeout(getTimeout());
             urlcon.setReadTimeout(getTimeout());
 
-            mjpgStream = urlcon.getInputStream(); // new BufferedInputStream(url.openStream());
-            lineBuilder = new StringWriter(256);
+            mjpgStream = new MjpegStreamReader(urlcon.getInputStream());
+            mjpgStream.start("MjpgCaptureCamera-"+getName());
         }
         catch (Exception e) {
             System.err.println("Unknown error communicating with MJPG stream at " + mjpgURL + ": "
@@ -164,108 +157,38 @@ public class MjpgCaptureCamera extends ReferenceCamera {
         if (! ensureOpen()) {
             return null;
         }
-        int image_size = 0;
-        String inputLine;
-        lineBuilder.flush();
-        lineBuilder.getBuffer()
-                   .setLength(0);
-
-        // Read header until we know how big the next image will be
-        while (image_size == 0) {
-            int next_byte = 0;
-            try {
-                next_byte = mjpgStream.read();
-            }
-            catch (IOException e) {
-                System.err.println("IOException reading from MJPG stream: " + e.toString());
-                e.printStackTrace();
-                return null;
-            }
-
-            if (next_byte == -1) {
-                System.err.println("Could not read header from MJPG stream: " + mjpgURL);
-                return null;
-            }
-            else {
-                lineBuilder.write(next_byte);
-                if (next_byte == '\n') {
-                    inputLine = lineBuilder.toString();
-                    if (inputLine.startsWith(CONTENT_LENGTH_STRING)) {
-                        // pull the number of bytes out of the content length string
-                        String content_len_string =
-                                inputLine.substring(CONTENT_LENGTH_STRING.length());
-                        content_len_string = content_len_string.replaceAll("(\\r|\\n)", "");
-                        try {
-                            image_size = Integer.parseInt(content_len_string);
-                        }
-                        catch (Exception e) {
-                            System.err.println("Invalid image size");
-                            return null;
-                        }
-                    }
-                    lineBuilder.getBuffer()
-                               .setLength(0);
-                }
-            }
-        }
-
-        // We got what we needed from the header, now just read the stream until we see a 255 which
-        // is the beginning of the JPG image
         try {
-            while (mjpgStream.read() != 255) {
+            // The reader keeps reading the stream, we only decode the newest frame.
+            Mat mat = mjpgStream.grab(getTimeout());
+            if (mat == null) {
+                Logger.warn("No frame from MJPG stream: {}", mjpgURL);
+                return null;
             }
+            return SharedFrame.toBufferedImage(mat);
         }
         catch (IOException e) {
-            System.err.println(
-                    "Incomplete header in MJPG stream: " + mjpgURL + "\r\n" + e.toString());
-            e.printStackTrace();
+            Logger.warn(e, "IOException reading from MJPG stream: {}", mjpgURL);
             return null;
         }
-
-        // Read the jpg image and create a BufferedImage
-        byte[] jpg_buffer = new byte[image_size + 1];
-        jpg_buffer[0] = (byte) 255;
-        int write_cursor = 1;
-        boolean got_image = false;
-        boolean done = false;
-
-        try {
-            while (!done) {
-                int bytes_read =
-                        mjpgStream.read(jpg_buffer, write_cursor, image_size - write_cursor);
-                if (bytes_read > 0) {
-                    write_cursor += bytes_read;
-                    got_image = (write_cursor >= image_size);
-                    done = got_image;
-                }
-                else {
-                    // got -1 (EOF)
-                    done = true;
-                }
-            }
-        }
-        catch (IOException e) {
-            e.printStackTrace();
+        catch (InterruptedException e) {
+            return null;
         }
+    }
 
-        if (got_image) {
-            ByteArrayInputStream jpg_stream = new ByteArrayInputStream(jpg_buffer);
-            BufferedImage frame = null;
-            try {
-                frame = ImageIO.read(jpg_stream);
-            }
-            catch (IOException e) {
-                System.err.println(
-                        "Invalid JPG frame in MJPG steram: " + mjpgURL + "\r\n" + e.toString());
-                e.printStackTrace();
-            }
+    /**
+     * @return The time from the arrival of a complete frame until it was decoded, in milliseconds.
+     */
+    public double getDecodeLatencyMs() {
+        MjpegStreamReader mjpgStream = this.mjpgStream;
+        return mjpgStream != null ? mjpgStream.getDecodeLatencyMs() : 0;
+    }
 
-            return frame;
-        }
-        else {
-            System.err.println("Incomplete JPG frame in MJPG stream: " + mjpgURL);
-            return null;
-        }
+    /**
+     * @return The number of frames dropped without decoding, because the consumer was behind.
+     */
+    public long getDroppedFrames() {
+        MjpegStreamReader mjpgStream = this.mjpgStream;
+        return mjpgStream != null ? mjpgStream.getDroppedFrames() : 0;
     }
 
     @Override
@@ -30,7 +30,7 @@ import org.opencv.videoio.Videoio;
 import org.openpnp.gui.support.Wizard;
 import org.openpnp.machine.reference.camera.wizards.OpenCvCameraConfigurationWizard;
 import org.openpnp.spi.PropertySheetHolder;
-import org.openpnp.util.OpenCvUtils;
+import org.openpnp.util.SharedFrame;
 import org.pmw.tinylog.Logger;
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.ElementList;
@@ -67,15 +67,15 @@ public class OpenCvCamera extends ReferenceCamera implements Runnable {
         Mat mat = new Mat();
         try {
             if (!fg.read(mat)) {
+                mat.release();
                 return null;
             }
-            return OpenCvUtils.toBufferedImage(mat);
+            // The frame takes over the Mat, so it can be transformed without copying.
+            return SharedFrame.toBufferedImage(mat);
         }
         catch (Exception e) {
-            return null;
-        }
-        finally {
             mat.release();
+            return null;
         }
     }
 
@@ -43,7 +43,13 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
 
     private CaptureDevice device;
     private CaptureFormat format;
-    private CaptureStream stream;
+    private volatile CaptureStream stream;
+    private volatile FrameGrabber grabber;
+    /**
+     * Serializes the native calls on the stream, which come from the grabber thread, the preview 
+     * and the camera itself. Unlike the camera monitor, it is never held while waiting for a frame.
+     */
+    private final Object streamLock = new Object();
 
     @Attribute(required = false)
     private String uniqueId;
@@ -98,24 +104,27 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
     }
 
     @Override
-    public synchronized BufferedImage internalCapture() {
+    protected BufferedImage safeInternalCapture() {
+        // Not synchronized, so the camera is not blocked while waiting for the next frame. The
+        // grabber and the streamLock serialize the native calls.
+        return retryInternalCapture();
+    }
+
+    @Override
+    public BufferedImage internalCapture() {
         if (! ensureOpen()) {
             return null;
         }
+        FrameGrabber grabber = this.grabber;
+        if (grabber == null) {
+            return null;
+        }
         try {
             /**
              * The timeout is only needed if the stream is somehow in error and not producing frames (anymore) 
              * which can happen, if you disconnect the USB port and then try to capture from a pipeline.  
              */
-            long timeout = System.currentTimeMillis()+500;
-            while (!stream.hasNewFrame()) {
-                Thread.yield();
-                if (System.currentTimeMillis() > timeout) {
-                    return null;
-                }
-            }
-            BufferedImage img = stream.capture();
-            return img;
+            return grabber.grab(500);
         }
         catch (Exception e) {
             return null;
@@ -129,26 +138,22 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
     }
     
     @Override
-    public synchronized boolean hasNewFrame() {
-        if (isOpen()) {
-            return stream.hasNewFrame();
-        }        
+    public boolean hasNewFrame() {
+        // Not synchronized, so it is not blocked by a capture waiting for the next frame.
+        synchronized (streamLock) {
+            CaptureStream stream = this.stream;
+            if (isScheduled() && stream != null) {
+                return stream.hasNewFrame();
+            }
+        }
         return false;
     }
 
     @Override
     public synchronized void open() throws Exception {
         stop();
-
-        if (stream != null) {
-            try {
-                stream.close();
-            }
-            catch (Exception e) {
-                e.printStackTrace();
-            }
-            stream = null;
-        }
+        stopGrabber();
+        closeStream();
         setPropertiesStream(stream);
 
         clearCalibrationCache();
@@ -202,6 +207,23 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
 
             stream = device.openStream(format);
             setPropertiesStream(stream);
+            final CaptureStream grabbedStream = stream;
+            grabber = new FrameGrabber("OpenPnpCapture-"+getName(), 
+                    () -> {
+                        synchronized (streamLock) {
+                            return grabbedStream.hasNewFrame();
+                        }
+                    }, 
+                    () -> {
+                        try {
+                            synchronized (streamLock) {
+                                return grabbedStream.capture();
+                            }
+                        }
+                        catch (Exception e) {
+                            return null;
+                        }
+                    });
         }
         catch (Exception e) {
             e.printStackTrace();
@@ -216,7 +238,7 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
         if (stream == null || format == null) {
             throw new Exception("Camera stream not properly initialized."); 
         }
-        // Stop the broadcasting thread.
+        // Stop broadcasting.
         stop();
         // Start warmup capture timer for 1 second.
         boolean warmup = true;
@@ -225,10 +247,16 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
         long t1 = 0;
         int capturedFrames = 0;
         for (int frames = 0; frames < 480; frames++) {
-            stream.capture();
+            synchronized (streamLock) {
+                stream.capture();
+            }
             while (true) {
                 t1 = System.currentTimeMillis();
-                if (stream.hasNewFrame()) {
+                boolean hasNewFrame;
+                synchronized (streamLock) {
+                    hasNewFrame = stream.hasNewFrame();
+                }
+                if (hasNewFrame) {
                     capturedFrames++;
                     break;
                 }
@@ -250,7 +278,7 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
                 }
             }
         }
-        // Start the broadcasting thread.
+        // Start broadcasting.
         start();
         // Compute the fps.
         return capturedFrames*1000./(t1-t0);
@@ -274,6 +302,27 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
         zoom.setCamera(this);
     }
 
+    private void stopGrabber() {
+        if (grabber != null) {
+            grabber.stop();
+            grabber = null;
+        }
+    }
+
+    private void closeStream() {
+        synchronized (streamLock) {
+            if (stream != null) {
+                try {
+                    stream.close();
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+                stream = null;
+            }
+        }
+    }
+
     private void setPropertiesStream(CaptureStream stream) {
         backLightCompensation.setStream(stream);
         brightness.setStream(stream);
@@ -293,16 +342,8 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
     @Override
     public synchronized void close() throws IOException {
         super.close();
-
-        if (stream != null) {
-            try {
-                stream.close();
-            }
-            catch (Exception e) {
-                e.printStackTrace();
-            }
-            stream = null;
-        }
+        stopGrabber();
+        closeStream();
 
         capture.close();
     }
@@ -25,19 +25,21 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.JOptionPane;
 
-import org.opencv.calib3d.Calib3d;
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
+import org.opencv.core.Range;
 import org.opencv.core.Rect;
 import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 import org.openpnp.ConfigurationListener;
@@ -52,6 +54,7 @@ import org.openpnp.machine.reference.ReferenceHeadMountable;
 import org.openpnp.machine.reference.ReferenceNozzleTipCalibration;
 import org.openpnp.machine.reference.camera.calibration.AdvancedCalibration;
 import org.openpnp.machine.reference.camera.calibration.LensCalibrationParams;
+import org.openpnp.machine.reference.camera.calibration.UndistortionMapCache;
 import org.openpnp.machine.reference.camera.wizards.ReferenceCameraWhiteBalanceConfigurationWizard;
 import org.openpnp.machine.reference.solutions.CameraSolutions;
 import org.openpnp.machine.reference.wizards.ReferenceCameraCalibrationConfigurationWizard;
@@ -68,7 +71,7 @@ import org.openpnp.spi.FocusProvider;
 import org.openpnp.spi.Head;
 import org.openpnp.spi.Machine;
 import org.openpnp.util.Collect;
-import org.openpnp.util.OpenCvUtils;
+import org.openpnp.util.SharedFrame;
 import org.openpnp.util.SimpleGraph;
 import org.openpnp.util.VisionUtils;
 import org.openpnp.vision.LensCalibration;
@@ -186,6 +189,20 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
     private Mat undistortionMap2;
     private Mat lut;
 
+    /**
+     * Crop, undistortion, scale, rotation, offset and flip folded into one fixed-point remap, see 
+     * {@link #fusedTransform(Mat, boolean)}. Rebuilt when the key of relevant properties changes.
+     */
+    private Mat fusedMap1;
+    private Mat fusedMap2;
+    private List<Object> fusedMapKey;
+
+    /**
+     * Transform the image in one remap pass, rather than one pass per transform.
+     */
+    @Attribute(required = false)
+    private boolean fusedTransforms = true;
+
     private LensCalibration lensCalibration;
 
     private Actuator lightActuator;
@@ -211,8 +228,39 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
                     }
                 }
             }
+
+            @Override
+            public void configurationComplete(Configuration configuration) throws Exception {
+                preloadUndistortionMaps();
+            }
         });
     }
+
+    /**
+     * Loads the advanced calibration undistortion maps in the background, while the machine 
+     * initializes, so the first capture doesn't have to. Mostly, they will be loaded from the 
+     * {@link UndistortionMapCache}.
+     */
+    protected void preloadUndistortionMaps() {
+        if (advancedCalibration.isOverridingOldTransformsAndDistortionCorrectionSettings()
+                && advancedCalibration.isEnabled()) {
+            Thread thread = new Thread(() -> {
+                try {
+                    long t = System.nanoTime();
+                    synchronized (this) {
+                        initAdvancedUndistortionMaps();
+                    }
+                    Logger.debug("{} undistortion maps preloaded in {}ms", getName(), 
+                            (System.nanoTime() - t)/1000000);
+                }
+                catch (Exception e) {
+                    Logger.warn(e, "{} undistortion maps could not be preloaded", getName());
+                }
+            }, "UndistortionMaps-"+getName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
     
     /**
      * Captures an image using captureTransformed() and performs scripting and lighting events
@@ -265,6 +313,16 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
      * @return
      */
     protected synchronized BufferedImage safeInternalCapture() {
+        return retryInternalCapture();
+    }
+
+    /**
+     * The retrying capture of {@link #safeInternalCapture()}, without holding the camera monitor. 
+     * For drivers that serialize the access to their device themselves, so they can wait for a 
+     * frame without blocking the camera.
+     * @return
+     */
+    protected BufferedImage retryInternalCapture() {
         if (! ensureOpen()) {
             return getCaptureErrorImage();
         }
@@ -274,6 +332,7 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
             BufferedImage image = internalCapture();
             i++;
             if (image != null) {
+                markCaptureTime();
                 return image;
             }
             if (i >= getCaptureTryCount()) {
@@ -576,13 +635,19 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
                 //Skip all the old style image transforms and distortion corrections except for 
                 //deinterlacing, cropping, and white balancing
                 if (isDeinterlaced() || isCropped() || isWhiteBalanced() || advancedCalibration.isEnabled()) {
-                    Mat mat = OpenCvUtils.toMat(image);
+                    Mat mat = SharedFrame.toMat(image);
                     mat = deinterlace(mat);
-                    mat = crop(mat);
-                    mat = whiteBalance(mat);
-                    mat = advancedUndistort(mat);
-                    image = OpenCvUtils.toBufferedImage(mat);
-                    mat.release();
+                    Mat fused = fusedTransform(mat, true);
+                    if (fused != null) {
+                        mat = fused;
+                    }
+                    else {
+                        mat = crop(mat);
+                        mat = whiteBalance(mat);
+                        mat = advancedUndistort(mat);
+                    }
+                    // The frame takes over the Mat, so it can be passed on to the pipeline without copying.
+                    image = SharedFrame.toBufferedImage(mat);
                 }
             }
             // Old style of image transforms and distortion correction
@@ -598,29 +663,34 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
                 || isFlipped()
                 || isWhiteBalanced()) {
 
-                Mat mat = OpenCvUtils.toMat(image);
+                Mat mat = SharedFrame.toMat(image);
 
                 mat = deinterlace(mat);
 
-                mat = crop(mat);
+                Mat fused = fusedTransform(mat, false);
+                if (fused != null) {
+                    mat = fused;
+                }
+                else {
+                    mat = crop(mat);
 
-                mat = whiteBalance(mat);
+                    mat = whiteBalance(mat);
 
-                mat = calibrate(mat);
+                    mat = calibrate(mat);
 
-                mat = undistort(mat);
+                    mat = undistort(mat);
 
-                // apply affine transformations
-                mat = scale(mat);
+                    // apply affine transformations
+                    mat = scale(mat);
 
-                mat = rotate(mat);
+                    mat = rotate(mat);
 
-                mat = offset(mat);
+                    mat = offset(mat);
 
-                mat = flip(mat);
+                    mat = flip(mat);
+                }
 
-                image = OpenCvUtils.toBufferedImage(mat);
-                mat.release();
+                image = SharedFrame.toBufferedImage(mat);
             }
             if (image != null) {
                 // save the new image dimensions
@@ -653,7 +723,15 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
         if (!advancedCalibration.isEnabled()) {
             return mat;
         }
-        Mat dst = mat.clone();
+        initAdvancedUndistortionMaps();
+        Mat dst = new Mat();
+        Imgproc.remap(mat, dst, undistortionMap1, undistortionMap2, Imgproc.INTER_LINEAR);
+        mat.release();
+
+        return dst;
+    }
+
+    private void initAdvancedUndistortionMaps() {
         if (undistortionMap1 == null || undistortionMap2 == null) {
             if (undistortionMap1 == null) {
                 undistortionMap1 = new Mat();
@@ -661,14 +739,191 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
             if (undistortionMap2 == null) {
                 undistortionMap2 = new Mat();
             }
-            advancedCalibration.initUndistortRectifyMap(undistortionMap1, undistortionMap2);
+            advancedCalibration.initUndistortRectifyMap(getId(), undistortionMap1, undistortionMap2);
+        }
+    }
+
+    public boolean isFusedTransforms() {
+        return fusedTransforms;
+    }
+
+    public void setFusedTransforms(boolean fusedTransforms) {
+        this.fusedTransforms = fusedTransforms;
+    }
+
+    /**
+     * Transforms the image in one remap pass, with the crop, undistortion, scale, rotation, offset
+     * and flip folded into one fixed-point map. The crop is just a view on the source image, and a white 
+     * balance is applied to it using the LUT, before the remap, like in the separate transforms. 
+     * The result is interpolated only once, so it is slightly sharper than with the separate 
+     * transforms.
+     * 
+     * @param mat
+     * @param advanced True for the advanced calibration transforms.
+     * @return The transformed image, with mat released, or null if the transforms cannot be fused, or 
+     * if there is nothing to resample. 
+     */
+    private synchronized Mat fusedTransform(Mat mat, boolean advanced) {
+        if (!fusedTransforms) {
+            return null;
+        }
+        if (advanced) {
+            if (!advancedCalibration.isEnabled()) {
+                return null;
+            }
+        }
+        else if (isCalibrating() 
+                || !(isUndistorted() || isScaled() || isRotated() || isOffset())
+                || (isScaled() && (scaleWidth == 0 || scaleHeight == 0))) {
+            // Needs the intermediate image, or just crop/flip/white balance, which is cheaper done separately.
+            return null;
+        }
+        Rect roi = getCropRect(mat.size());
+        if (advanced) {
+            initAdvancedUndistortionMaps();
+        }
+        else if (isUndistorted()) {
+            initUndistortionMaps(roi.size());
+        }
+        List<Object> key = Arrays.asList(advanced, roi.width, roi.height, 
+                (advanced || isUndistorted()) ? undistortionMap1 : null,
+                scaleWidth, scaleHeight, rotation, offsetX, offsetY, flipX, flipY);
+        if (fusedMap1 == null || fusedMap2 == null || !key.equals(fusedMapKey)) {
+            releaseFusedMaps();
+            fusedMap1 = new Mat();
+            fusedMap2 = new Mat();
+            if (advanced) {
+                // Already the fixed-point maps, share them.
+                fusedMap1 = new Mat(undistortionMap1, Range.all());
+                fusedMap2 = new Mat(undistortionMap2, Range.all());
+            }
+            else {
+                buildFusedMaps(roi.size());
+            }
+            fusedMapKey = key;
         }
-        Imgproc.remap(mat, dst, undistortionMap1, undistortionMap2, Imgproc.INTER_LINEAR);
-        mat.release();
 
+        Mat src = mat.submat(roi);
+        if (isWhiteBalanced() && src.channels() == 3) {
+            initWhiteBalanceLut();
+            Mat whiteBalanced = new Mat();
+            Core.LUT(src, lut, whiteBalanced);
+            src.release();
+            src = whiteBalanced;
+        }
+        Mat dst = new Mat();
+        Imgproc.remap(src, dst, fusedMap1, fusedMap2, Imgproc.INTER_LINEAR);
+        src.release();
+        mat.release();
         return dst;
     }
 
+    /**
+     * Builds the fused map by going backwards from each destination pixel through the flip, offset, 
+     * rotation and scale transforms, i.e. the inverse of what the separate transforms do, and finally 
+     * looking up the undistortion map.
+     * 
+     * @param size The size of the cropped image.
+     */
+    private void buildFusedMaps(Size size) {
+        int width = (int) size.width;
+        int height = (int) size.height;
+        // Scale.
+        int scaledWidth = isScaled() ? scaleWidth : width;
+        int scaledHeight = isScaled() ? scaleHeight : height;
+        double scaleX = (double) width / scaledWidth;
+        double scaleY = (double) height / scaledHeight;
+        // Rotation, same as rotate().
+        int rotatedWidth = scaledWidth;
+        int rotatedHeight = scaledHeight;
+        double[] inverseRotation = null;
+        if (isRotated()) {
+            Point center = new Point(scaledWidth / 2D, scaledHeight / 2D);
+            Mat mapMatrix = Imgproc.getRotationMatrix2D(center, rotation, 1.0);
+            Rect bbox = new RotatedRect(center, new Size(scaledWidth, scaledHeight), rotation).boundingRect();
+            double[] cx = mapMatrix.get(0, 2);
+            double[] cy = mapMatrix.get(1, 2);
+            cx[0] += bbox.width / 2D - center.x;
+            cy[0] += bbox.height / 2D - center.y;
+            mapMatrix.put(0, 2, cx);
+            mapMatrix.put(1, 2, cy);
+            Mat inverseMatrix = new Mat();
+            Imgproc.invertAffineTransform(mapMatrix, inverseMatrix);
+            inverseRotation = new double[6];
+            inverseMatrix.get(0, 0, inverseRotation);
+            inverseMatrix.release();
+            mapMatrix.release();
+            rotatedWidth = bbox.width;
+            rotatedHeight = bbox.height;
+        }
+
+        float[] mapX = new float[rotatedWidth*rotatedHeight];
+        float[] mapY = new float[rotatedWidth*rotatedHeight];
+        for (int v = 0, i = 0; v < rotatedHeight; v++) {
+            for (int u = 0; u < rotatedWidth; u++, i++) {
+                double x = u;
+                double y = v;
+                // Flip, see flip() on the meaning of flipX and flipY.
+                if (flipX) {
+                    y = rotatedHeight - 1 - y;
+                }
+                if (flipY) {
+                    x = rotatedWidth - 1 - x;
+                }
+                if (isOffset()) {
+                    x -= offsetX;
+                    y -= offsetY;
+                }
+                if (inverseRotation != null) {
+                    double xr = inverseRotation[0]*x + inverseRotation[1]*y + inverseRotation[2];
+                    double yr = inverseRotation[3]*x + inverseRotation[4]*y + inverseRotation[5];
+                    x = xr;
+                    y = yr;
+                }
+                // Pixel center aligned, like Imgproc.resize(). 
+                mapX[i] = (float) ((x + 0.5)*scaleX - 0.5);
+                mapY[i] = (float) ((y + 0.5)*scaleY - 0.5);
+            }
+        }
+        Mat map1 = new Mat(rotatedHeight, rotatedWidth, CvType.CV_32FC1);
+        Mat map2 = new Mat(rotatedHeight, rotatedWidth, CvType.CV_32FC1);
+        map1.put(0, 0, mapX);
+        map2.put(0, 0, mapY);
+        if (isUndistorted()) {
+            // Look up the undistortion at the transformed location. Outside, point far outside.
+            // The undistortion maps are fixed-point, interpolating needs them as float.
+            Mat undistortion1 = new Mat();
+            Mat undistortion2 = new Mat();
+            Imgproc.convertMaps(undistortionMap1, undistortionMap2, undistortion1, undistortion2, CvType.CV_32FC1);
+            Mat undistorted1 = new Mat();
+            Mat undistorted2 = new Mat();
+            Scalar outside = new Scalar(-1e6);
+            Imgproc.remap(undistortion1, undistorted1, map1, map2, Imgproc.INTER_LINEAR, Core.BORDER_CONSTANT, outside);
+            Imgproc.remap(undistortion2, undistorted2, map1, map2, Imgproc.INTER_LINEAR, Core.BORDER_CONSTANT, outside);
+            undistortion1.release();
+            undistortion2.release();
+            map1.release();
+            map2.release();
+            map1 = undistorted1;
+            map2 = undistorted2;
+        }
+        Imgproc.convertMaps(map1, map2, fusedMap1, fusedMap2, CvType.CV_16SC2);
+        map1.release();
+        map2.release();
+    }
+
+    private void releaseFusedMaps() {
+        if (fusedMap1 != null) {
+            fusedMap1.release();
+            fusedMap1 = null;
+        }
+        if (fusedMap2 != null) {
+            fusedMap2.release();
+            fusedMap2 = null;
+        }
+        fusedMapKey = null;
+    }
+
     private Mat whiteBalance(Mat mat) {
         if (isWhiteBalanced() && mat.channels() == 3) {
             initWhiteBalanceLut();
@@ -963,15 +1218,19 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
         }
     }
 
+    private Rect getCropRect(Size size) {
+        int cw = (cropWidth != 0 && cropWidth < (int) size.width) ? cropWidth : (int) size.width;
+        int ch = (cropHeight != 0 && cropHeight < (int) size.height) ? cropHeight : (int) size.height;
+        return new Rect(
+                (int) ((size.width / 2) - (cw / 2)),
+                (int) ((size.height / 2) - (ch / 2)),
+                cw,
+                ch);
+    }
+
     private Mat crop(Mat mat) {
         if (isCropped()) {
-            int cw = (cropWidth != 0 && cropWidth < (int) mat.size().width) ? cropWidth : (int) mat.size().width;
-            int ch = (cropHeight != 0 && cropHeight < (int) mat.size().height) ? cropHeight : (int) mat.size().height;
-            Rect roi = new Rect(
-                    (int) ((mat.size().width / 2) - (cw / 2)),
-                    (int) ((mat.size().height / 2) - (ch / 2)),
-                    cw,
-                    ch);
+            Rect roi = getCropRect(mat.size());
             Mat tmp = new Mat(mat, roi);
             tmp.copyTo(mat);
             tmp.release();
@@ -1077,22 +1336,26 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
             return mat;
         }
 
+        initUndistortionMaps(mat.size());
+
+        Mat dst = new Mat();
+        Imgproc.remap(mat, dst, undistortionMap1, undistortionMap2, Imgproc.INTER_LINEAR);
+        mat.release();
+
+        return dst;
+    }
+
+    private void initUndistortionMaps(Size size) {
         if (undistortionMap1 == null || undistortionMap2 == null) {
             undistortionMap1 = new Mat();
             undistortionMap2 = new Mat();
             Mat rectification = Mat.eye(3, 3, CvType.CV_32F);
-            Calib3d.initUndistortRectifyMap(calibration.getCameraMatrixMat(),
+            UndistortionMapCache.initUndistortRectifyMap(getId(), calibration.getCameraMatrixMat(),
                     calibration.getDistortionCoefficientsMat(), rectification,
-                    calibration.getCameraMatrixMat(), mat.size(), CvType.CV_32FC1, undistortionMap1,
+                    calibration.getCameraMatrixMat(), size, CvType.CV_16SC2, undistortionMap1,
                     undistortionMap2);
             rectification.release();
         }
-
-        Mat dst = mat.clone();
-        Imgproc.remap(mat, dst, undistortionMap1, undistortionMap2, Imgproc.INTER_LINEAR);
-        mat.release();
-
-        return dst;
     }
 
     public void setUndistorted(boolean undistorted) {
@@ -1186,6 +1449,7 @@ public abstract class ReferenceCamera extends AbstractBroadcastingCamera impleme
             undistortionMap2.release();
             undistortionMap2 = null;
         }
+        releaseFusedMaps();
     }
 
     public void startCalibration(CalibrationCallback callback) {
@@ -3,6 +3,7 @@ package org.openpnp.machine.reference.camera;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
@@ -93,13 +94,29 @@ public class SimulatedUpCamera extends ReferenceCamera {
     @Attribute(required=false)
     protected BackgroundScenario backgroundScenario = BackgroundScenario.Dark;
 
+    /**
+     * Reuse the focal blur scratch buffer and kernel across captures, and only blur the region drawn.
+     */
+    @Attribute(required=false)
+    private boolean cachedRendering = true;
+
+    /**
+     * Scratch buffer for the focal blur, reused across captures. Only the region where the nozzle and 
+     * part were drawn is blurred and cleared again, so the work follows the nozzle rather than the view.
+     */
+    private BufferedImage blurBuffer;
+    private Rectangle blurRegion;
+    private ConvolveOp blurOp;
+    private double blurOpRadius;
+    private long blurredPixels;
+
     public SimulatedUpCamera() {
         setUnitsPerPixel(new Location(LengthUnit.Millimeters, 0.0234375D, 0.0234375D, 0, 0));
         setLooking(Looking.Up);
     }
 
     @Override
-    public BufferedImage internalCapture() {
+    public synchronized BufferedImage internalCapture() {
         if (!ensureOpen()) {
             return null;
         }
@@ -162,7 +179,19 @@ public class SimulatedUpCamera extends ReferenceCamera {
         Graphics2D g;
         Color bg = getBackgroundScenario().getShadeColor();
         bg = new Color(bg.getRed(), bg.getGreen(), bg.getBlue(), 0);
-        if (isSimulateFocalBlur()) {
+        blurRegion = null;
+        if (isSimulateFocalBlur() && cachedRendering) {
+            if (blurBuffer == null 
+                    || blurBuffer.getWidth() != width || blurBuffer.getHeight() != height) {
+                blurBuffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+            }
+            frame = blurBuffer;
+            g = frame.createGraphics();
+            g.setTransform(gView.getTransform());
+            g.setBackground(bg);
+            blurRegion = new Rectangle();
+        }
+        else if (isSimulateFocalBlur()) {
             frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
             g = frame.createGraphics();
             g.setTransform(gView.getTransform());
@@ -192,8 +221,7 @@ public class SimulatedUpCamera extends ReferenceCamera {
                 blurObjectIntoView(gView, frame, nozzle, l);
 
                 // Clear with transparent background
-                g.setBackground(bg);
-                g.clearRect(-width/2, -height/2, width, height);
+                clearBlurBuffer(g);
             }
 
             // Draw the part
@@ -240,6 +268,7 @@ public class SimulatedUpCamera extends ReferenceCamera {
                 blurObjectIntoView(gView, frame, nozzle, 
                         partUndersideLocation);
 
+                clearBlurBuffer(g);
                 g.dispose();
             }
         }
@@ -250,13 +279,51 @@ public class SimulatedUpCamera extends ReferenceCamera {
         }
     }
 
+    private void clearBlurBuffer(Graphics2D g) {
+        AffineTransform tx = g.getTransform();
+        if (blurRegion != null) {
+            g.setTransform(new AffineTransform());
+            g.clearRect(blurRegion.x, blurRegion.y, blurRegion.width, blurRegion.height);
+            blurRegion = new Rectangle();
+        }
+        else {
+            g.clearRect(-width/2, -height/2, width, height);
+        }
+        g.setTransform(tx);
+    }
+
     protected void blurObjectIntoView(Graphics2D gView, BufferedImage frame, Nozzle nozzle, Location l) {
         // Blur according to Z coordinate
-        AffineTransform tx = gView.getTransform();
-        gView.setTransform(new AffineTransform());
         double distanceMm = Math.abs(l.subtract(getSimulatedLocation()).convertToUnits(LengthUnit.Millimeters).getZ());
         final double bokeh = 0.01/getSimulatedUnitsPerPixel().convertToUnits(LengthUnit.Millimeters).getX();
         double radius = Math.min(distanceMm*bokeh, 5); // Be reasonable.
+        ConvolveOp op = createBlurOp(radius);
+        AffineTransform tx = gView.getTransform();
+        gView.setTransform(new AffineTransform());
+        if (blurRegion != null) {
+            // Only blur the region drawn, including the kernel reach, and beyond that the border left 
+            // alone by the EDGE_NO_OP.
+            Rectangle region = new Rectangle(blurRegion);
+            int r = (op != null ? op.getKernel().getWidth()/2 : 0)*2 + 1;
+            region.grow(r, r);
+            region = region.intersection(new Rectangle(0, 0, frame.getWidth(), frame.getHeight()));
+            if (!region.isEmpty()) {
+                blurredPixels += region.width*region.height;
+                gView.drawImage(frame.getSubimage(region.x, region.y, region.width, region.height), 
+                        op, region.x, region.y);
+            }
+        }
+        else {
+            blurredPixels += frame.getWidth()*frame.getHeight();
+            gView.drawImage(frame, op, 0, 0);
+        }
+        gView.setTransform(tx);
+    }
+
+    private ConvolveOp createBlurOp(double radius) {
+        if (cachedRendering && radius == blurOpRadius) {
+            return blurOp;
+        }
         ConvolveOp op = null;
         if (radius > 0.01) {
             int size = (int)Math.ceil(radius) * 2 + 1;
@@ -284,8 +351,9 @@ public class SimulatedUpCamera extends ReferenceCamera {
                 op = new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, null);
             }
         }
-        gView.drawImage(frame, op, 0, 0);
-        gView.setTransform(tx);
+        blurOp = op;
+        blurOpRadius = radius;
+        return op;
     }
 
     private boolean fillShape(Graphics2D g, Shape shape, Color color, Location unitsPerPixel, Location offsets, boolean addError) {
@@ -319,6 +387,12 @@ public class SimulatedUpCamera extends ReferenceCamera {
                     (int)Math.min(255, color.getBlue()/shade));
             g.setColor(colorShade);
             g.fill(shape);
+            if (blurRegion != null) {
+                // Track the region drawn, with a pixel to spare for the antialiasing.
+                Rectangle bounds = g.getTransform().createTransformedShape(shape).getBounds();
+                bounds.grow(1, 1);
+                blurRegion = blurRegion.isEmpty() ? bounds : blurRegion.union(bounds);
+            }
             return true;
         }
         return false;
@@ -394,6 +468,21 @@ public class SimulatedUpCamera extends ReferenceCamera {
         this.simulateFocalBlur = simulateFocalBlur;
     }
 
+    public boolean isCachedRendering() {
+        return cachedRendering;
+    }
+
+    public void setCachedRendering(boolean cachedRendering) {
+        this.cachedRendering = cachedRendering;
+    }
+
+    /**
+     * @return The number of pixels run through the focal blur so far.
+     */
+    public synchronized long getBlurredPixels() {
+        return blurredPixels;
+    }
+
     public Location getErrorOffsets() {
         return errorOffsets;
     }
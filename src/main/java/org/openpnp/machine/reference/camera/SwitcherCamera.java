@@ -71,7 +71,7 @@ public class SwitcherCamera extends ReferenceCamera {
                 }
                 if (switchers.get(switcher) != this) {
                     // If we're in a machine task already, take the opportunity to switch the camera over, if necessary.
-                    // Note if we'd just let the notified camera thread do the actuator switching, it would timeout and 
+                    // Note if we'd just let the scheduled camera capture do the actuator switching, it would timeout and 
                     // produce an ugly error frame, because our machine thread is likely still running.
                     Machine machine = Configuration.get().getMachine();
                     if (machine.isTask(Thread.currentThread())) {
@@ -184,6 +184,26 @@ public class SwitcherCamera extends ReferenceCamera {
         return false;
     }
 
+    @Override
+    public Object getCaptureGroup() {
+        // All the cameras on the same switcher share the capture device.
+        return SwitcherCamera.class.getSimpleName()+switcher;
+    }
+
+    @Override
+    public boolean isCaptureGroupActive() {
+        if (switchingLock.tryLock()) {
+            try {
+                return switchers.get(switcher) == this;
+            }
+            finally {
+                switchingLock.unlock();
+            }
+        }
+        // Currently switching.
+        return false;
+    }
+
     @Override
     protected synchronized boolean ensureOpen() {
         if (getCamera() == null || getActuator() == null) {
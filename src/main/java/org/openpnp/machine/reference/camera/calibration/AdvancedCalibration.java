@@ -1371,11 +1371,12 @@ public class AdvancedCalibration extends LensCalibrationParams {
     
     /**
      * Initializes the tables used to map the pixels from the distorted/rotated images to the 
-     * undistorted images
-     * @param undistortionMap1 - output X pixel mapping
-     * @param undistortionMap2 - output Y pixel mapping
+     * undistorted images, in the fixed-point representation used by remap()
+     * @param cacheOwner - the owner of the maps in the {@link UndistortionMapCache}, i.e. the camera id
+     * @param undistortionMap1 - output CV_16SC2 X, Y pixel mapping
+     * @param undistortionMap2 - output CV_16UC1 interpolation table indices
      */
-    public void initUndistortRectifyMap(Mat undistortionMap1, Mat undistortionMap2) {
+    public void initUndistortRectifyMap(String cacheOwner, Mat undistortionMap1, Mat undistortionMap2) {
         Size size = new Size(rawCroppedImageWidth, rawCroppedImageHeight);
         Size virCamSize = new Size();
         if (virtualCameraMatrix != null) {
@@ -1392,9 +1393,9 @@ public class AdvancedCalibration extends LensCalibrationParams {
         setVirtualWidthFov(fovx[0]);
         setVirtualHeightFov(fovy[0]);
         
-        Calib3d.initUndistortRectifyMap(cameraMatrix,
+        UndistortionMapCache.initUndistortRectifyMap(cacheOwner, cameraMatrix,
                 distortionCoefficients, rectificationMatrix,
-                virtualCameraMatrix, virCamSize, CvType.CV_32FC1,
+                virtualCameraMatrix, virCamSize, CvType.CV_16SC2,
                 undistortionMap1, undistortionMap2);
     }
     
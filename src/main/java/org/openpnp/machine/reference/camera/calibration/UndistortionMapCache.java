@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+ *
+ * This file is part of OpenPnP.
+ *
+ * OpenPnP is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * OpenPnP is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with OpenPnP. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.machine.reference.camera.calibration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.openpnp.model.Configuration;
+import org.openpnp.spi.Camera;
+import org.openpnp.spi.Machine;
+import org.pmw.tinylog.Logger;
+
+/**
+ * Caches the undistortion maps computed by Calib3d.initUndistortRectifyMap() on disk, so they
+ * don't need to be computed again on each start. The cache files are keyed by a hash of the
+ * calibration parameters and the resolution, and are memory-mapped when loaded.<br/>
+ * <br/>
+ * The maps are large, so callers should ask for the fixed-point CV_16SC2 maps that remap() uses 
+ * anyway, rather than the float maps. Each file is named after its owner, i.e. the camera, and a 
+ * new file supersedes the owner's previous one, which is deleted. So there is one current file per 
+ * camera, however many cameras there are. The files of cameras that are no longer in the machine 
+ * are deleted. 
+ */
+public class UndistortionMapCache {
+    private static final int VERSION = 2;
+    private static final int MAGIC = 0x4F504D43; // "OPMC"
+    /**
+     * Limits the files without owner, which are never superseded.
+     */
+    private static final int MAX_UNOWNED_FILES = 4;
+    private static final String SUFFIX = ".map";
+    private static final int KEY_LENGTH = 64;
+
+    /**
+     * Same as Calib3d.initUndistortRectifyMap(), but loaded from the cache, if available.
+     * 
+     * @param owner The owner of the maps, i.e. the camera id, or null if the maps never supersede 
+     * others. 
+     */
+    public static void initUndistortRectifyMap(String owner, Mat cameraMatrix, Mat distCoeffs, Mat rectification,
+            Mat newCameraMatrix, Size size, int m1type, Mat map1, Mat map2) {
+        File file = null;
+        String prefix = getPrefix(owner);
+        try {
+            File directory = getDirectory();
+            if (directory != null) {
+                String key = getKey(cameraMatrix, distCoeffs, rectification, newCameraMatrix, size, m1type);
+                file = new File(directory, prefix + key + SUFFIX);
+                if (file.exists() && load(file, map1, map2)) {
+                    return;
+                }
+            }
+        }
+        catch (Exception e) {
+            Logger.warn(e, "Cannot load undistortion map cache file {}", file);
+        }
+        Calib3d.initUndistortRectifyMap(cameraMatrix, distCoeffs, rectification, newCameraMatrix,
+                size, m1type, map1, map2);
+        if (file != null) {
+            try {
+                save(file, map1, map2);
+                deleteSuperseded(file, prefix);
+                prune(file.getParentFile(), getOwnerPrefixes());
+            }
+            catch (Exception e) {
+                Logger.warn(e, "Cannot save undistortion map cache file {}", file);
+            }
+        }
+    }
+
+    /**
+     * @param owner
+     * @return The file name prefix of the owner's files, which is empty without owner.
+     */
+    protected static String getPrefix(String owner) {
+        if (owner == null) {
+            return "";
+        }
+        return owner.replaceAll("[^A-Za-z0-9_.]", "_") + "-";
+    }
+
+    /**
+     * @return The cache directory, or null if there is no configuration, i.e. no caching.
+     */
+    protected static File getDirectory() {
+        File configurationDirectory;
+        try {
+            configurationDirectory = Configuration.get().getConfigurationDirectory();
+        }
+        catch (Error e) {
+            // Configuration not initialized.
+            return null;
+        }
+        if (configurationDirectory == null) {
+            return null;
+        }
+        File directory = new File(configurationDirectory, "undistortion-cache");
+        directory.mkdirs();
+        return directory;
+    }
+
+    protected static String getKey(Mat cameraMatrix, Mat distCoeffs, Mat rectification,
+            Mat newCameraMatrix, Size size, int m1type) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        ByteBuffer header = ByteBuffer.allocate(16);
+        header.putInt(VERSION);
+        header.putInt((int) size.width);
+        header.putInt((int) size.height);
+        header.putInt(m1type);
+        digest.update(header.array());
+        for (Mat mat : new Mat[] { cameraMatrix, distCoeffs, rectification, newCameraMatrix }) {
+            updateDigest(digest, mat);
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    private static void updateDigest(MessageDigest digest, Mat mat) {
+        if (mat == null || mat.empty()) {
+            digest.update(new byte[] { -1 });
+            return;
+        }
+        Mat doubles = new Mat();
+        mat.convertTo(doubles, CvType.CV_64F);
+        double[] values = new double[(int) (doubles.total()*doubles.channels())];
+        doubles.get(0, 0, values);
+        doubles.release();
+        ByteBuffer buffer = ByteBuffer.allocate(12 + values.length*8);
+        buffer.putInt(mat.rows());
+        buffer.putInt(mat.cols());
+        buffer.putInt(mat.channels());
+        buffer.asDoubleBuffer().put(values);
+        digest.update(buffer.array());
+    }
+
+    /**
+     * Loads the maps from the memory-mapped file. The data is copied into the maps natively, so they
+     * are independent of the mapping.
+     *
+     * @return true if loaded.
+     * @throws IOException
+     */
+    protected static boolean load(File file, Mat map1, Mat map2) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.nativeOrder());
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return false;
+            }
+            for (Mat map : new Mat[] { map1, map2 }) {
+                if (buffer.remaining() < 12) {
+                    return false;
+                }
+                int rows = buffer.getInt();
+                int cols = buffer.getInt();
+                int type = buffer.getInt();
+                long bytes = (long) rows*cols*CvType.ELEM_SIZE(type);
+                if (rows < 0 || cols < 0 || bytes > buffer.remaining()) {
+                    return false;
+                }
+                if (bytes == 0) {
+                    map.release();
+                    continue;
+                }
+                ByteBuffer data = buffer.slice();
+                data.limit((int) bytes);
+                Mat view = new Mat(rows, cols, type, data);
+                map.create(rows, cols, type);
+                view.copyTo(map);
+                view.release();
+                buffer.position(buffer.position() + (int) bytes);
+            }
+        }
+        // Most recently used.
+        file.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    protected static void save(File file, Mat map1, Mat map2) throws IOException {
+        File tmpFile = File.createTempFile("map", ".tmp", file.getParentFile());
+        try {
+            try (FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                header.flip();
+                channel.write(header);
+                for (Mat map : new Mat[] { map1, map2 }) {
+                    int bytes = (int) (map.total()*map.elemSize());
+                    header = ByteBuffer.allocate(12).order(ByteOrder.nativeOrder());
+                    header.putInt(map.rows());
+                    header.putInt(map.cols());
+                    header.putInt(map.type());
+                    header.flip();
+                    channel.write(header);
+                    if (bytes > 0) {
+                        ByteBuffer data = ByteBuffer.allocateDirect(bytes);
+                        Mat view = new Mat(map.rows(), map.cols(), map.type(), data);
+                        map.copyTo(view);
+                        view.release();
+                        while (data.hasRemaining()) {
+                            channel.write(data);
+                        }
+                    }
+                }
+            }
+            // Atomic, in case another camera with the same calibration saves it at the same time.
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Deletes the other files of the same owner, which the file supersedes. 
+     */
+    protected static void deleteSuperseded(File file, String prefix) {
+        if (prefix.isEmpty()) {
+            return;
+        }
+        File[] files = file.getParentFile().listFiles((dir, name) -> name.startsWith(prefix) 
+                && name.length() == prefix.length() + KEY_LENGTH + SUFFIX.length()
+                && name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        for (File other : files) {
+            if (!other.equals(file)) {
+                other.delete();
+            }
+        }
+    }
+
+    /**
+     * @return The file name prefixes of the cameras of the machine, or null if there is no machine.
+     */
+    protected static Set<String> getOwnerPrefixes() {
+        Machine machine;
+        try {
+            machine = Configuration.get().getMachine();
+        }
+        catch (Error e) {
+            // Configuration not initialized.
+            return null;
+        }
+        if (machine == null) {
+            return null;
+        }
+        Set<String> prefixes = new HashSet<>();
+        for (Camera camera : machine.getAllCameras()) {
+            prefixes.add(getPrefix(camera.getId()));
+        }
+        return prefixes;
+    }
+
+    /**
+     * Deletes the files of owners that are gone, and the least recently used files without owner, 
+     * when there are too many.
+     * 
+     * @param directory
+     * @param ownerPrefixes The prefixes of the current owners, or null if not known, i.e. all owned 
+     * files are kept.
+     */
+    protected static void prune(File directory, Set<String> ownerPrefixes) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        List<File> unowned = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            int prefixLength = name.length() - KEY_LENGTH - SUFFIX.length();
+            if (prefixLength == 0) {
+                unowned.add(file);
+            }
+            else if (ownerPrefixes != null && prefixLength > 0
+                    && !ownerPrefixes.contains(name.substring(0, prefixLength))) {
+                file.delete();
+            }
+        }
+        if (unowned.size() > MAX_UNOWNED_FILES) {
+            unowned.sort(Comparator.comparingLong(File::lastModified));
+            for (int i = 0; i < unowned.size() - MAX_UNOWNED_FILES; i++) {
+                unowned.get(i).delete();
+            }
+        }
+    }
+}
@@ -1,12 +1,21 @@
 package org.openpnp.machine.reference.vision;
 
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.IOUtils;
+import org.opencv.core.Mat;
 import org.opencv.core.Point;
+import org.opencv.core.Rect;
 import org.opencv.core.RotatedRect;
 import org.opencv.core.Size;
 import org.openpnp.ConfigurationListener;
@@ -24,6 +33,7 @@ import org.openpnp.model.AbstractVisionSettings;
 import org.openpnp.model.BoardLocation;
 import org.openpnp.model.BottomVisionSettings;
 import org.openpnp.model.Configuration;
+import org.openpnp.model.Footprint;
 import org.openpnp.model.Length;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
@@ -40,12 +50,13 @@ import org.openpnp.spi.NozzleTip;
 import org.openpnp.spi.PartAlignment;
 import org.openpnp.spi.PropertySheetHolder;
 import org.openpnp.util.MovableUtils;
-import org.openpnp.util.OpenCvUtils;
 import org.openpnp.util.Utils2D;
 import org.openpnp.util.VisionUtils;
 import org.openpnp.vision.pipeline.CvPipeline;
 import org.openpnp.vision.pipeline.CvPipeline.PipelineShot;
+import org.openpnp.vision.pipeline.CvStage;
 import org.openpnp.vision.pipeline.CvStage.Result;
+import org.openpnp.vision.pipeline.stages.ImageCapture;
 import org.pmw.tinylog.Logger;
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.Element;
@@ -84,6 +95,15 @@ public class ReferenceBottomVision extends AbstractPartAlignment {
     @ElementMap(required = false)
     protected Map<String, PartSettings> partSettingsByPartId = null;
 
+    /**
+     * Process the shots of a composite in the background, while the nozzle already moves on to 
+     * the next shot.
+     */
+    @Attribute(required = false)
+    protected boolean backgroundShotProcessing = true;
+
+    private static ExecutorService shotExecutor;
+
     public ReferenceBottomVision() {
         Configuration.get().addListener(new ConfigurationListener.Adapter() {
             @Override
@@ -276,7 +296,7 @@ public class ReferenceBottomVision extends AbstractPartAlignment {
             // subtract visionCenterOffset
             offsets = offsets.subtract(bottomVisionSettings.getVisionOffset().rotateXy(wantedAngle));
 
-            displayResult(OpenCvUtils.toBufferedImage(pipeline.getWorkingImage()), part, offsets, camera, nozzle);
+            displayResult(pipeline.getFullFrameWorkingBufferedImage(), part, offsets, camera, nozzle);
             offsetsCheck(part, nozzle, offsets);
 
             partSizeCheck(part, bottomVisionSettings, rect, camera);
@@ -321,7 +341,7 @@ public class ReferenceBottomVision extends AbstractPartAlignment {
             // subtract visionCenterOffset
             offsets = offsets.subtract(bottomVisionSettings.getVisionOffset().rotateXy(offsets.getRotation()));
 
-            displayResult(OpenCvUtils.toBufferedImage(pipeline.getWorkingImage()), part, offsets, camera, nozzle);
+            displayResult(pipeline.getFullFrameWorkingBufferedImage(), part, offsets, camera, nozzle);
             offsetsCheck(part, nozzle, offsets);
 
             return new PartAlignmentOffset(offsets, false);
@@ -434,6 +454,24 @@ public class ReferenceBottomVision extends AbstractPartAlignment {
         }
     }
 
+    /**
+     * @param footprint
+     * @return The radius of the circle around the footprint origin that contains the whole
+     * footprint at any rotation, or null if there is no footprint.
+     */
+    private static Length getPartRadius(Footprint footprint) {
+        if (footprint == null || footprint.getShape() == null) {
+            return null;
+        }
+        Rectangle2D bounds = footprint.getShape().getBounds2D();
+        if (bounds.isEmpty()) {
+            return null;
+        }
+        double x = Math.max(Math.abs(bounds.getMinX()), Math.abs(bounds.getMaxX()));
+        double y = Math.max(Math.abs(bounds.getMinY()), Math.abs(bounds.getMaxY()));
+        return new Length(Math.hypot(x, y), footprint.getUnits());
+    }
+
     public void preparePipeline(CvPipeline pipeline, Map<String, Object> pipelineParameterAssignments, 
             Camera camera, Package pkg, Nozzle nozzle, NozzleTip nozzleTip, Location wantedLocation, 
             Location adjustedNozzleLocation, BottomVisionSettings bottomVisionSettings) throws Exception {
@@ -497,6 +535,25 @@ public class ReferenceBottomVision extends AbstractPartAlignment {
                 // but that's to be expected anyways.
                 samplingSize = upp.getLengthX().multiply(2);
             }
+            Rect regionOfInterest = null;
+            if (bottomVisionSettings.isCropToRegionOfInterest()) {
+                // Crop the image to the mask or to the part, whichever is smaller, with a margin 
+                // for the pick tolerance, blurring and edge detection. 
+                Length radius = new Length(shot.getMaxMaskRadius(), composite.getUnits());
+                Length partRadius = getPartRadius(composite.getFootprint());
+                if (partRadius != null) {
+                    partRadius = partRadius
+                            .add(new Length(Math.hypot(shot.getX(), shot.getY()), composite.getUnits()))
+                            .add(new Length(composite.getTolerance(), composite.getUnits()));
+                    if (partRadius.compareTo(radius) < 0) {
+                        radius = partRadius;
+                    }
+                }
+                regionOfInterest = VisionUtils.getRegionOfInterest(camera, camera.getLocation(), 
+                        radius.add(samplingSize.multiply(4)));
+            }
+            // Always set, the pipeline might be shared with other uses.
+            pipeline.setProperty(CvPipeline.REGION_OF_INTEREST_PROPERTY, regionOfInterest);
             pipeline.setProperty("BlurGaussian.kernelSize", samplingSize);
             pipeline.setProperty("DetectRectlinearSymmetry.subSampling", samplingSize);
             // Add a margin for edge detection.
@@ -556,44 +613,174 @@ public class ReferenceBottomVision extends AbstractPartAlignment {
 
     private RotatedRect processPipelineAndGetResult(CvPipeline pipeline, Camera camera,
             Part part, Nozzle nozzle, Location wantedLocation, Location adjustedNozzleLocation, BottomVisionSettings bottomVisionSettings) throws Exception {
-        preparePipeline(pipeline, bottomVisionSettings.getPipelineParameterAssignments(), camera, part.getPackage(), 
-                nozzle, nozzle.getNozzleTip(), wantedLocation, adjustedNozzleLocation, bottomVisionSettings);
-        for (PipelineShot pipelineShot : pipeline.getPipelineShots()) {
-            pipelineShot.apply();
-
-            pipeline.process();
-            Result result = pipeline.getResult(VisionUtils.PIPELINE_RESULTS_NAME);
-
-            // Fall back to the old name of "result" instead of "results" for backwards
-            // compatibility.
-            if (result == null) {
-                result = pipeline.getResult("result");
+        try {
+            preparePipeline(pipeline, bottomVisionSettings.getPipelineParameterAssignments(), camera, part.getPackage(), 
+                    nozzle, nozzle.getNozzleTip(), wantedLocation, adjustedNozzleLocation, bottomVisionSettings);
+            ImageCapture imageCapture = getBackgroundShotImageCapture(pipeline);
+            if (imageCapture != null) {
+                return processPipelineShotsInBackground(pipeline, imageCapture, camera, part, nozzle);
             }
-
-            if (result == null) {
-                throw new Exception(String.format(
-                        "ReferenceBottomVision (%s): Pipeline error. Pipeline must contain a result named '%s'.",
-                        part.getId(), VisionUtils.PIPELINE_RESULTS_NAME));
+            for (PipelineShot pipelineShot : pipeline.getPipelineShots()) {
+                pipelineShot.apply();
+
+                pipeline.process();
+                Result result = getPipelineResult(pipeline, part);
+                pipelineShot.processResult(result);
+                // Display the shot result.   
+                displayResult(pipeline.getFullFrameWorkingBufferedImage(), part, null, camera, nozzle);
             }
+            return (RotatedRect) pipeline.getCurrentPipelineShot().processCompositeResult().getModel();
+        }
+        finally {
+            // Do not leave the crop to other users of the pipeline, e.g. the pipeline editor.
+            pipeline.setProperty(CvPipeline.REGION_OF_INTEREST_PROPERTY, null);
+        }
+    }
+
+    private Result getPipelineResult(CvPipeline pipeline, Part part) throws Exception {
+        Result result = pipeline.getResult(VisionUtils.PIPELINE_RESULTS_NAME);
+
+        // Fall back to the old name of "result" instead of "results" for backwards
+        // compatibility.
+        if (result == null) {
+            result = pipeline.getResult("result");
+        }
+
+        if (result == null) {
+            throw new Exception(String.format(
+                    "ReferenceBottomVision (%s): Pipeline error. Pipeline must contain a result named '%s'.",
+                    part.getId(), VisionUtils.PIPELINE_RESULTS_NAME));
+        }
+
+        if (result.model == null) {
+            throw new Exception(String.format(
+                    "ReferenceBottomVision (%s): No result found.",
+                    part.getId()));
+        }
+
+        if (!(result.model instanceof RotatedRect)) {
+            throw new Exception(String.format(
+                    "ReferenceBottomVision (%s): Incorrect pipeline result type (%s). Expected RotatedRect.",
+                    part.getId(), result.model.getClass().getSimpleName()));
+        }
+        return result;
+    }
 
-            if (result.model == null) {
-                throw new Exception(String.format(
-                        "ReferenceBottomVision (%s): No result found.",
-                        part.getId()));
+    /**
+     * @param pipeline
+     * @return The ImageCapture stage, if the composite shots of the pipeline can be processed in the 
+     * background, otherwise null. This needs more than one shot and exactly one ImageCapture stage, 
+     * and no other stage with side effects, such as actuators, that must happen on the machine task.
+     */
+    private ImageCapture getBackgroundShotImageCapture(CvPipeline pipeline) {
+        if (!backgroundShotProcessing || pipeline.getPipelineShots().size() < 2) {
+            return null;
+        }
+        ImageCapture imageCapture = null;
+        for (CvStage stage : pipeline.getStages()) {
+            if (stage.isEnabled() && stage.isSequential()) {
+                if (imageCapture != null || !(stage instanceof ImageCapture)) {
+                    return null;
+                }
+                imageCapture = (ImageCapture) stage;
             }
+        }
+        return imageCapture;
+    }
 
-            if (!(result.model instanceof RotatedRect)) {
-                throw new Exception(String.format(
-                        "ReferenceBottomVision (%s): Incorrect pipeline result type (%s). Expected RotatedRect.",
-                        part.getId(), result.model.getClass().getSimpleName()));
+    /**
+     * Processes the composite shots with the capture and the processing pipelined: as soon as the 
+     * image of a shot is captured, the nozzle moves on to the next shot, while the image is processed 
+     * in the background, by a clone of the pipeline. The last shot is processed by the pipeline 
+     * itself, so it holds the final working image, like when processed one by one. The shot results 
+     * are then joined in shot order, so the composite result is the same for the same images.
+     */
+    private RotatedRect processPipelineShotsInBackground(CvPipeline pipeline, ImageCapture imageCapture, 
+            Camera camera, Part part, Nozzle nozzle) throws Exception {
+        List<PipelineShot> pipelineShots = pipeline.getPipelineShots();
+        List<CvPipeline> shotPipelines = new ArrayList<>();
+        List<Future<Result>> shotResults = new ArrayList<>();
+        try {
+            for (PipelineShot pipelineShot : pipelineShots) {
+                // Move to the shot and capture on the machine task.
+                pipelineShot.apply();
+                Mat image = imageCapture.capture(pipeline);
+                CvPipeline shotPipeline;
+                if (pipelineShot == pipelineShots.get(pipelineShots.size() - 1)) {
+                    shotPipeline = pipeline;
+                }
+                else {
+                    shotPipeline = pipeline.clone();
+                    shotPipeline.addProperties(pipeline.getProperties());
+                }
+                shotPipelines.add(shotPipeline);
+                shotPipeline.setProperty(ImageCapture.CAPTURED_IMAGE_PROPERTY, image);
+                shotResults.add(getShotExecutor().submit(() -> {
+                    shotPipeline.process();
+                    return getPipelineResult(shotPipeline, part);
+                }));
+            }
+            for (int i = 0; i < pipelineShots.size(); i++) {
+                Result result;
+                try {
+                    result = shotResults.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                pipelineShots.get(i).processResult(result);
+                // Display the shot result.   
+                CvPipeline shotPipeline = shotPipelines.get(i);
+                displayResult(shotPipeline.getFullFrameWorkingBufferedImage(), part, null, camera, nozzle);
+            }
+        }
+        finally {
+            // Wait for any shots still being processed, then close the clones, freeing their buffers.
+            for (Future<Result> shotResult : shotResults) {
+                try {
+                    shotResult.get();
+                }
+                catch (Exception e) {
+                    // Already handled above, or superseded by an earlier error.
+                }
+            }
+            for (CvPipeline shotPipeline : shotPipelines) {
+                if (shotPipeline != pipeline) {
+                    shotPipeline.close();
+                }
             }
-            pipelineShot.processResult(result);
-            // Display the shot result.   
-            displayResult(OpenCvUtils.toBufferedImage(pipeline.getWorkingImage()), part, null, camera, nozzle);
         }
         return (RotatedRect) pipeline.getCurrentPipelineShot().processCompositeResult().getModel();
     }
 
+    /**
+     * @return The pool processing the composite shots in the background. It is separate from the 
+     * pipeline branch executor, as the shot pipelines themselves use that one.
+     */
+    private static synchronized ExecutorService getShotExecutor() {
+        if (shotExecutor == null) {
+            int threads = Math.max(2, Runtime.getRuntime().availableProcessors()/2);
+            AtomicInteger count = new AtomicInteger();
+            shotExecutor = Executors.newFixedThreadPool(threads, (runnable) -> {
+                Thread thread = new Thread(runnable, "BottomVisionShot-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return shotExecutor;
+    }
+
+    public boolean isBackgroundShotProcessing() {
+        return backgroundShotProcessing;
+    }
+
+    public void setBackgroundShotProcessing(boolean backgroundShotProcessing) {
+        this.backgroundShotProcessing = backgroundShotProcessing;
+    }
+
     @Override
     public boolean canHandle(PartSettingsHolder settingsHolder, boolean allowDisabled) {
         BottomVisionSettings visionSettings = getInheritedVisionSettings(settingsHolder);
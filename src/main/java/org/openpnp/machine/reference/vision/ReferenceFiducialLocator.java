@@ -46,7 +46,6 @@ import org.openpnp.spi.FiducialLocator;
 import org.openpnp.spi.PropertySheetHolder;
 import org.openpnp.util.IdentifiableList;
 import org.openpnp.util.MovableUtils;
-import org.openpnp.util.OpenCvUtils;
 import org.openpnp.util.QuickHull;
 import org.openpnp.util.TravellingSalesman;
 import org.openpnp.util.Utils2D;
@@ -520,6 +519,16 @@ public class ReferenceFiducialLocator extends AbstractPartSettingsHolder impleme
         try {
             pipeline.setProperty("fiducial.center", location);
             pipeline.setProperty("MaskCircle.center", location);
+            if (getInheritedVisionSettings(partSettingsHolder).isCropToRegionOfInterest()) {
+                // Crop the image to the search distance, with a margin of one fiducial diameter.
+                Length radius = getMaxDistance();
+                Object diameter = pipeline.getProperty("fiducial.diameter");
+                if (diameter instanceof Length) {
+                    radius = radius.add((Length) diameter);
+                }
+                pipeline.setProperty(CvPipeline.REGION_OF_INTEREST_PROPERTY, 
+                        VisionUtils.getRegionOfInterest(camera, location, radius));
+            }
             pipeline.process();
 
             // Get the results
@@ -551,7 +560,7 @@ public class ReferenceFiducialLocator extends AbstractPartSettingsHolder impleme
                 CameraView cameraView = frame.getCameraViews().getCameraView(camera);
                 if (cameraView != null) {
                     LengthConverter lengthConverter = new LengthConverter();
-                    cameraView.showFilteredImage(OpenCvUtils.toBufferedImage(pipeline.getWorkingImage()),
+                    cameraView.showFilteredImage(pipeline.getFullFrameWorkingBufferedImage(),
                             lengthConverter.convertForward(newLocation.getLengthX())+", "
                                     +lengthConverter.convertForward(newLocation.getLengthY())+" "
                                     +newLocation.getUnits().getShortName(),
@@ -565,6 +574,7 @@ public class ReferenceFiducialLocator extends AbstractPartSettingsHolder impleme
         finally {
             pipeline.setProperty("fiducial.center", null);
             pipeline.setProperty("MaskCircle.center", null);
+            pipeline.setProperty(CvPipeline.REGION_OF_INTEREST_PROPERTY, null);
         }
     }
 
@@ -62,6 +62,7 @@ public class BottomVisionSettingsConfigurationWizard extends AbstractConfigurati
 
     private JPanel panel;
     private JCheckBox enabledCheckbox;
+    private JCheckBox cropToRegionOfInterest;
     private JComboBox comboBoxPreRotate;
     private JComboBox comboBoxCheckPartSizeMethod;
     private JTextField textPartSizeTolerance;
@@ -240,6 +241,15 @@ public class BottomVisionSettingsConfigurationWizard extends AbstractConfigurati
         enabledCheckbox = new JCheckBox("");
         panel.add(enabledCheckbox, "4, 8");
 
+        JLabel lblCropToRegionOfInterest = new JLabel(Translations.getString(
+                "BottomVisionSettingsConfigurationWizard.CropToRegionOfInterestLabel.text")); //$NON-NLS-1$
+        lblCropToRegionOfInterest.setToolTipText(Translations.getString(
+                "BottomVisionSettingsConfigurationWizard.CropToRegionOfInterestLabel.toolTipText")); //$NON-NLS-1$
+        panel.add(lblCropToRegionOfInterest, "6, 8, right, default");
+
+        cropToRegionOfInterest = new JCheckBox("");
+        panel.add(cropToRegionOfInterest, "8, 8");
+
         JLabel lblPrerotate = new JLabel(Translations.getString(
                 "BottomVisionSettingsConfigurationWizard.PreRotateLabel.text")); //$NON-NLS-1$
         panel.add(lblPrerotate, "2, 10, right, default");
@@ -442,6 +452,7 @@ public class BottomVisionSettingsConfigurationWizard extends AbstractConfigurati
         bind(UpdateStrategy.READ, visionSettings, "usedBottomVisionIn", usedIn, "text", 
                 new AbstractVisionSettings.ListConverter(true, settingsHolder));
         addWrappedBinding(visionSettings, "enabled", enabledCheckbox, "selected");
+        addWrappedBinding(visionSettings, "cropToRegionOfInterest", cropToRegionOfInterest, "selected");
         addWrappedBinding(visionSettings, "preRotateUsage", comboBoxPreRotate, "selectedItem");
         addWrappedBinding(visionSettings, "checkPartSizeMethod", comboBoxCheckPartSizeMethod, "selectedItem");
         addWrappedBinding(visionSettings, "checkSizeTolerancePercent", textPartSizeTolerance, "text", intConverter);
@@ -66,6 +66,8 @@ public class FiducialVisionSettingsConfigurationWizard extends AbstractConfigura
     private JTextField maxVisionPasses;
     private JLabel lblMaxLinearOffset;
     private JTextField maxLinearOffset;
+    private JLabel lblCropToRegionOfInterest;
+    private JCheckBox cropToRegionOfInterest;
 
     public FiducialVisionSettingsConfigurationWizard(FiducialVisionSettings visionSettings, 
             PartSettingsHolder settingsHolder) {
@@ -312,6 +314,13 @@ public class FiducialVisionSettingsConfigurationWizard extends AbstractConfigura
         panelAlign.add(parallaxAngle, "10, 4, fill, default");
         parallaxAngle.setColumns(10);
         
+        lblCropToRegionOfInterest = new JLabel(Translations.getString("FiducialVisionSettingsConfigurationWizard.lblCropToRegionOfInterest.text")); //$NON-NLS-1$
+        lblCropToRegionOfInterest.setToolTipText(Translations.getString("FiducialVisionSettingsConfigurationWizard.lblCropToRegionOfInterest.toolTipText")); //$NON-NLS-1$
+        panelAlign.add(lblCropToRegionOfInterest, "2, 6, right, default");
+        
+        cropToRegionOfInterest = new JCheckBox("");
+        panelAlign.add(cropToRegionOfInterest, "4, 6");
+        
         JButton btnTestFiducialLocator = new JButton(Translations.getString(
                 "FiducialVisionSettingsConfigurationWizard.TestFiducialLocatorPanel.TestFiducialLocatorButton.text" //$NON-NLS-1$
                 ));
@@ -358,6 +367,7 @@ public class FiducialVisionSettingsConfigurationWizard extends AbstractConfigura
 
         addWrappedBinding(visionSettings, "parallaxDiameter", parallaxDiameter, "text", lengthConverter);
         addWrappedBinding(visionSettings, "parallaxAngle", parallaxAngle, "text", doubleConverter);
+        addWrappedBinding(visionSettings, "cropToRegionOfInterest", cropToRegionOfInterest, "selected");
 
         ComponentDecorators.decorateWithAutoSelect(maxVisionPasses);
         ComponentDecorators.decorateWithAutoSelectAndLengthConversion(maxLinearOffset);
@@ -20,6 +20,7 @@ import org.openpnp.gui.support.MutableLocationProxy;
 import org.openpnp.machine.reference.ReferenceMachine;
 import org.openpnp.model.Configuration;
 import org.openpnp.spi.MotionPlanner;
+import org.openpnp.util.TravellingSalesman;
 
 import com.jgoodies.forms.layout.ColumnSpec;
 import com.jgoodies.forms.layout.FormLayout;
@@ -49,6 +50,7 @@ public class ReferenceMachineConfigurationWizard extends AbstractConfigurationWi
     private JCheckBox parkAfterHomed;
     private JCheckBox poolScriptingEngines;
     private JCheckBox autoLoadMostRecentJob;
+    private JComboBox travellingSalesmanSolver;
 
     public ReferenceMachineConfigurationWizard(ReferenceMachine machine) {
         this.machine = machine;
@@ -81,6 +83,8 @@ public class ReferenceMachineConfigurationWizard extends AbstractConfigurationWi
                 FormSpecs.RELATED_GAP_ROWSPEC,
                 FormSpecs.DEFAULT_ROWSPEC,
                 FormSpecs.RELATED_GAP_ROWSPEC,
+                FormSpecs.DEFAULT_ROWSPEC,
+                FormSpecs.RELATED_GAP_ROWSPEC,
                 FormSpecs.DEFAULT_ROWSPEC,}));
         
         JLabel lblHomeAfterEnabled = new JLabel(Translations.getString(
@@ -144,6 +148,15 @@ public class ReferenceMachineConfigurationWizard extends AbstractConfigurationWi
         autoLoadMostRecentJob = new JCheckBox("");
         panelGeneral.add(autoLoadMostRecentJob, "4, 16");
 
+        JLabel lblTravellingSalesmanSolver = new JLabel("Route optimization");
+        lblTravellingSalesmanSolver.setToolTipText("<html>The solver used to optimize the travel of feeder and vision routes.<br/>\n"
+                + "<strong>LocalSearch</strong> is much faster than <strong>SimulatedAnnealing</strong> on routes with many<br/>\n"
+                + "locations, and usually finds a slightly shorter route.</html>");
+        panelGeneral.add(lblTravellingSalesmanSolver, "2, 18, right, default");
+
+        travellingSalesmanSolver = new JComboBox(TravellingSalesman.Solver.values());
+        panelGeneral.add(travellingSalesmanSolver, "4, 18, fill, default");
+
         JPanel panelLocations = new JPanel();
         panelLocations.setBorder(new TitledBorder(null, Translations.getString(
                 "ReferenceMachineConfigurationWizard.PanelLocations.Border.title"), //$NON-NLS-1$
@@ -253,6 +266,7 @@ public class ReferenceMachineConfigurationWizard extends AbstractConfigurationWi
 
         addWrappedBinding(machine, "poolScriptingEngines", poolScriptingEngines, "selected");
         addWrappedBinding(machine, "autoLoadMostRecentJob", autoLoadMostRecentJob, "selected");
+        addWrappedBinding(machine, "travellingSalesmanSolver", travellingSalesmanSolver, "selectedItem");
 
         MutableLocationProxy discardLocation = new MutableLocationProxy();
         bind(UpdateStrategy.READ_WRITE, machine, "discardLocation", discardLocation, "location");
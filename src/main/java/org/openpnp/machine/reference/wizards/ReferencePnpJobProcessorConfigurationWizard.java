@@ -48,6 +48,7 @@ public class ReferencePnpJobProcessorConfigurationWizard extends AbstractConfigu
     private JTextField maxVisionRetriesTextField;
     private JCheckBox steppingToNextMotion;
     private JCheckBox optimizeMultipleNozzles;
+    private JCheckBox journalEnabled;
     
     public ReferencePnpJobProcessorConfigurationWizard(ReferencePnpJobProcessor jobProcessor) {
         this.jobProcessor = jobProcessor;
@@ -72,6 +73,8 @@ public class ReferencePnpJobProcessorConfigurationWizard extends AbstractConfigu
                         FormSpecs.RELATED_GAP_ROWSPEC,
                         FormSpecs.DEFAULT_ROWSPEC,
                         FormSpecs.RELATED_GAP_ROWSPEC,
+                        FormSpecs.DEFAULT_ROWSPEC,
+                        FormSpecs.RELATED_GAP_ROWSPEC,
                         FormSpecs.DEFAULT_ROWSPEC,}));
 
         JLabel lblJobOrder = new JLabel(Translations.getString("MachineSetup.JobProcessors.ReferencePnpJobProcessor.Label.JobOrder")); //$NON-NLS-1$
@@ -107,6 +110,13 @@ public class ReferencePnpJobProcessorConfigurationWizard extends AbstractConfigu
 
         optimizeMultipleNozzles = new JCheckBox(); 
         panelGeneral.add(optimizeMultipleNozzles, "4, 10");
+
+        JLabel lblJournalEnabled = new JLabel(Translations.getString("ReferencePnpJobProcessorConfigurationWizard.lblJournalEnabled.text")); //$NON-NLS-1$
+        lblJournalEnabled.setToolTipText(Translations.getString("ReferencePnpJobProcessorConfigurationWizard.lblJournalEnabled.toolTipText")); //$NON-NLS-1$
+        panelGeneral.add(lblJournalEnabled, "2, 12, right, default");
+
+        journalEnabled = new JCheckBox(); 
+        panelGeneral.add(journalEnabled, "4, 12");
     }
 
     @Override
@@ -118,6 +128,7 @@ public class ReferencePnpJobProcessorConfigurationWizard extends AbstractConfigu
         addWrappedBinding(jobProcessor, "maxVisionRetries", maxVisionRetriesTextField, "text", intConverter);
         addWrappedBinding(jobProcessor, "steppingToNextMotion", steppingToNextMotion, "selected");
         addWrappedBinding(jobProcessor, "optimizeMultipleNozzles", optimizeMultipleNozzles, "selected");
+        addWrappedBinding(jobProcessor, "journalEnabled", journalEnabled, "selected");
         
         ComponentDecorators.decorateWithAutoSelect(maxVisionRetriesTextField);
     }
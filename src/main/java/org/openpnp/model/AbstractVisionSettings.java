@@ -38,6 +38,9 @@ public abstract class AbstractVisionSettings extends AbstractModelObject impleme
     @Attribute
     protected boolean enabled;
 
+    @Attribute(required = false)
+    protected boolean cropToRegionOfInterest;
+
     @Element
     private CvPipeline cvPipeline;
 
@@ -105,6 +108,21 @@ public abstract class AbstractVisionSettings extends AbstractModelObject impleme
         firePropertyChange("enabled", oldValue, enabled);
     }
 
+    /**
+     * @return True if the captured images are cropped to the region of interest, right after 
+     * capture, so the pipeline only processes the pixels that matter. Requires a pipeline that 
+     * masks anything outside the region anyway. 
+     */
+    public boolean isCropToRegionOfInterest() {
+        return cropToRegionOfInterest;
+    }
+
+    public void setCropToRegionOfInterest(boolean cropToRegionOfInterest) {
+        Object oldValue = this.cropToRegionOfInterest;
+        this.cropToRegionOfInterest = cropToRegionOfInterest;
+        firePropertyChange("cropToRegionOfInterest", oldValue, cropToRegionOfInterest);
+    }
+
     public String toString() {
         return getName();
     }
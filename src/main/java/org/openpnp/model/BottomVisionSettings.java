@@ -130,6 +130,7 @@ public class BottomVisionSettings extends AbstractVisionSettings {
 
     public void setValues(BottomVisionSettings another) {
         setEnabled(another.isEnabled());
+        setCropToRegionOfInterest(another.isCropToRegionOfInterest());
         try {
             setPipeline(another.getPipeline().clone());
         }
@@ -85,6 +85,7 @@ public class FiducialVisionSettings extends AbstractVisionSettings {
 
     public void setValues(FiducialVisionSettings another) {
         setEnabled(another.isEnabled());
+        setCropToRegionOfInterest(another.isCropToRegionOfInterest());
         setMaxVisionPasses(another.getMaxVisionPasses());
         setMaxLinearOffset(another.getMaxLinearOffset());
         setParallaxDiameter(another.getParallaxDiameter());
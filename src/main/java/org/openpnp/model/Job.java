@@ -80,6 +80,7 @@ public class Job extends AbstractModelObject implements PropertyChangeListener {
     protected transient File file;
     protected transient boolean dirty;
     protected transient final PanelLocation rootPanelLocation;
+    protected transient final PlacementLocationCache placementLocationCache = new PlacementLocationCache();
     
     public Job() {
         rootPanelLocation = new PanelLocation(rootPanel);
@@ -127,12 +128,21 @@ public class Job extends AbstractModelObject implements PropertyChangeListener {
         return Collections.unmodifiableList(retList);
     }
     
+    /**
+     * 
+     * @return the cache of global placement locations of this job
+     */
+    public PlacementLocationCache getPlacementLocationCache() {
+        return placementLocationCache;
+    }
+
     /**
      * Adds a BoardLocation or PanelLocation to the job
      * @param boardOrPanelLocation - the BoardLocation or PanelLocation
      */
     public void addBoardOrPanelLocation(PlacementsHolderLocation<?> boardOrPanelLocation) {
         rootPanelLocation.addChild(boardOrPanelLocation);
+        placementLocationCache.invalidate(boardOrPanelLocation);
         firePropertyChange("rootPanelLocation", null, rootPanelLocation);
     }
 
@@ -141,6 +151,8 @@ public class Job extends AbstractModelObject implements PropertyChangeListener {
      * @param boardOrPanelLocation - the BoardLocation or PanelLocation
      */
     public void removeBoardOrPanelLocation(PlacementsHolderLocation<?> boardOrPanelLocation) {
+        // Invalidate first, while the descendants are still attached.
+        placementLocationCache.invalidate(boardOrPanelLocation);
         rootPanelLocation.removeChild(boardOrPanelLocation);
         firePropertyChange("rootPanelLocation", null, rootPanelLocation);
     }
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2023 Jason von Nieda <jason@vonnieda.org>, Tony Luken <tonyluken62+openpnp@gmail.com>
+ *
+ * This file is part of OpenPnP.
+ *
+ * OpenPnP is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * OpenPnP is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with OpenPnP. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.model;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.openpnp.events.PlacementsHolderLocationChangedEvent;
+import org.openpnp.util.Utils2D;
+
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+
+/**
+ * A job level cache of the global (machine) locations of placements, as computed by
+ * {@link Utils2D#calculateBoardPlacementLocation(PlacementsHolderLocation, Abstract2DLocatable)}.
+ * The computation concatenates the affine transforms of the whole parent chain, which adds up
+ * for deeply nested panels and large jobs, when done over and over again by the job processor
+ * and the viewers.
+ *
+ * Cached locations are invalidated for a PlacementsHolderLocation and all its descendants, when
+ * a {@link PlacementsHolderLocationChangedEvent} is posted for it, or when it or one of its
+ * ancestors changes its location, side or transform, which includes the transform set by the
+ * fiducial check. A changed placement location is detected by identity, as Locations are
+ * immutable.
+ *
+ * Only the PlacementsHolderLocations with cached locations, their ancestors and their
+ * PlacementsHolders are listened to. The listeners are removed, when the locations are
+ * invalidated, e.g. when a board is removed from the job, or when the job is closed.
+ */
+public class PlacementLocationCache implements PropertyChangeListener {
+    /**
+     * Property names of PlacementsHolderLocations and PlacementsHolders that affect the global
+     * placement locations.
+     */
+    private static final Set<String> relevantProperties = new HashSet<>(Arrays.asList(
+            "location", "side", "localToParentTransform", "placementsTransformStatus",
+            "placementsHolder", "dimensions"));
+
+    private static class Entry {
+        final Location placementLocation;
+        final Location globalLocation;
+
+        Entry(Location placementLocation, Location globalLocation) {
+            this.placementLocation = placementLocation;
+            this.globalLocation = globalLocation;
+        }
+    }
+
+    private final Map<PlacementsHolderLocation<?>, Map<Placement, Entry>> cache = new IdentityHashMap<>();
+    private final Set<AbstractModelObject> watched = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private long hits;
+    private long misses;
+
+    /**
+     * The Configuration bus holds its subscribers strongly, so a single static subscriber
+     * dispatches the events to all the caches still alive.
+     */
+    private static final Set<PlacementLocationCache> instances =
+            Collections.newSetFromMap(new WeakHashMap<>());
+    private static EventBus subscribedBus;
+
+    private static class BusSubscriber {
+        @Subscribe
+        public void placementsHolderLocationChanged(PlacementsHolderLocationChangedEvent evt) {
+            List<PlacementLocationCache> caches;
+            synchronized (instances) {
+                caches = new ArrayList<>(instances);
+            }
+            for (PlacementLocationCache cache : caches) {
+                if (evt.placementsHolderLocation == null) {
+                    cache.invalidateAll();
+                }
+                else {
+                    cache.invalidate(evt.placementsHolderLocation);
+                }
+            }
+        }
+    }
+
+    public PlacementLocationCache() {
+        synchronized (instances) {
+            instances.add(this);
+        }
+    }
+
+    /**
+     * Returns the global location of the placement, i.e. the same as
+     * Utils2D.calculateBoardPlacementLocation(placementsHolderLocation, placement), but from the
+     * cache, if still valid.
+     *
+     * @param placementsHolderLocation
+     * @param placement
+     * @return
+     */
+    public synchronized Location getGlobalLocation(PlacementsHolderLocation<?> placementsHolderLocation,
+            Placement placement) {
+        subscribe();
+        Map<Placement, Entry> placements = cache.get(placementsHolderLocation);
+        if (placements == null) {
+            placements = new IdentityHashMap<>();
+            cache.put(placementsHolderLocation, placements);
+            watch(placementsHolderLocation);
+        }
+        Location placementLocation = placement.getLocation();
+        Entry entry = placements.get(placement);
+        if (entry != null && entry.placementLocation == placementLocation) {
+            hits++;
+            return entry.globalLocation;
+        }
+        misses++;
+        Location globalLocation = Utils2D.calculateBoardPlacementLocation(placementsHolderLocation, placement);
+        placements.put(placement, new Entry(placementLocation, globalLocation));
+        return globalLocation;
+    }
+
+    /**
+     * Invalidates the cached locations of the PlacementsHolderLocation and all its descendants.
+     *
+     * @param placementsHolderLocation
+     */
+    public synchronized void invalidate(PlacementsHolderLocation<?> placementsHolderLocation) {
+        for (Iterator<PlacementsHolderLocation<?>> iterator = cache.keySet().iterator(); iterator.hasNext(); ) {
+            PlacementsHolderLocation<?> cached = iterator.next();
+            if (cached == placementsHolderLocation || cached.isDescendantOf(placementsHolderLocation)) {
+                iterator.remove();
+            }
+        }
+        unwatchUnused();
+    }
+
+    /**
+     * Invalidates all the cached locations, and stops listening to the PlacementsHolderLocations.
+     */
+    public synchronized void invalidateAll() {
+        cache.clear();
+        unwatchUnused();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Watches the PlacementsHolderLocation and its ancestors, including their PlacementsHolders,
+     * for changes.
+     *
+     * @param placementsHolderLocation
+     */
+    private void watch(PlacementsHolderLocation<?> placementsHolderLocation) {
+        for (PlacementsHolderLocation<?> phl = placementsHolderLocation; phl != null; phl = phl.getParent()) {
+            if (watched.add(phl)) {
+                phl.addPropertyChangeListener(this);
+            }
+            PlacementsHolder<?> placementsHolder = phl.getPlacementsHolder();
+            if (placementsHolder != null && watched.add(placementsHolder)) {
+                placementsHolder.addPropertyChangeListener(this);
+            }
+        }
+    }
+
+    /**
+     * Stops listening to the objects that no cached location depends on anymore.
+     */
+    private void unwatchUnused() {
+        Set<AbstractModelObject> used = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (PlacementsHolderLocation<?> cached : cache.keySet()) {
+            for (PlacementsHolderLocation<?> phl = cached; phl != null; phl = phl.getParent()) {
+                used.add(phl);
+                used.add(phl.getPlacementsHolder());
+            }
+        }
+        for (Iterator<AbstractModelObject> iterator = watched.iterator(); iterator.hasNext(); ) {
+            AbstractModelObject object = iterator.next();
+            if (!used.contains(object)) {
+                // Disposed objects have already dropped their listeners.
+                if (object.isListener(this)) {
+                    object.removePropertyChangeListener(this);
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    private static synchronized void subscribe() {
+        if (Configuration.isInstanceInitialized()
+                && Configuration.get().getBus() != subscribedBus) {
+            subscribedBus = Configuration.get().getBus();
+            subscribedBus.register(new BusSubscriber());
+        }
+    }
+
+    @Override
+    public void propertyChange(PropertyChangeEvent evt) {
+        if (!relevantProperties.contains(evt.getPropertyName())) {
+            return;
+        }
+        if (evt.getSource() instanceof PlacementsHolderLocation) {
+            invalidate((PlacementsHolderLocation<?>) evt.getSource());
+        }
+        else {
+            // A PlacementsHolder may be shared by many PlacementsHolderLocations, this is rare
+            // enough to just invalidate all.
+            invalidateAll();
+        }
+    }
+}
@@ -12,15 +12,19 @@ import java.io.File;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.TreeSet;
 
 import javax.imageio.ImageIO;
 
 import org.opencv.core.Core;
+import org.opencv.core.Core.MinMaxLocResult;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
+import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
@@ -436,6 +440,141 @@ public class OpenCvUtils {
         return template;
     }
 
+    /**
+     * Templates smaller than this on the coarsest pyramid level have too little detail left to be
+     * matched reliably.
+     */
+    private static final int MIN_PYRAMID_TEMPLATE_SIZE = 8;
+
+    /**
+     * Matches a template using the TM_CCOEFF_NORMED method, optionally coarse-to-fine on an image
+     * pyramid. The image and template are first matched at a resolution reduced by 
+     * 2^pyramidLevels. The best pyramidCandidates coarse matches are then refined in a small 
+     * window at full resolution. Only these windows are computed in the result, the rest is set 
+     * to -1. If none of the refined matches reaches minScore, or if the template is too small to 
+     * be matched at the coarse resolution, the whole image is matched exhaustively at full 
+     * resolution instead.
+     * 
+     * @param image
+     * @param template
+     * @param result Receives the match scores, with the size of an exhaustive match.
+     * @param pyramidLevels Number of pyramid levels, 0 for exhaustive matching.
+     * @param pyramidCandidates Number of coarse matches to refine.
+     * @param minScore Minimum refined score, below which exhaustive matching is used.
+     * @param windows Receives the refined windows in the result, or is left empty if matched 
+     * exhaustively. Pass it to {@link #matMaxima(Mat, double, double, List)}. 
+     * @return The maximum score.
+     */
+    public static double matchTemplate(Mat image, Mat template, Mat result, int pyramidLevels,
+            int pyramidCandidates, double minScore, List<Rect> windows) {
+        windows.clear();
+        int levels = pyramidLevels;
+        while (levels > 0 
+                && (Math.min(template.cols(), template.rows()) >> levels) < MIN_PYRAMID_TEMPLATE_SIZE) {
+            levels--;
+        }
+        if (levels > 0 && pyramidCandidates > 0) {
+            Mat coarseImage = image;
+            Mat coarseTemplate = template;
+            for (int i = 0; i < levels; i++) {
+                Mat downImage = new Mat();
+                Mat downTemplate = new Mat();
+                Imgproc.pyrDown(coarseImage, downImage);
+                Imgproc.pyrDown(coarseTemplate, downTemplate);
+                if (coarseImage != image) {
+                    coarseImage.release();
+                    coarseTemplate.release();
+                }
+                coarseImage = downImage;
+                coarseTemplate = downTemplate;
+            }
+            Mat coarse = new Mat();
+            Imgproc.matchTemplate(coarseImage, coarseTemplate, coarse, Imgproc.TM_CCOEFF_NORMED);
+            // Matches closer than half a template are considered the same.
+            int radius = Math.max(1, Math.min(coarseTemplate.cols(), coarseTemplate.rows())/2);
+            coarseImage.release();
+            coarseTemplate.release();
+
+            int scale = 1 << levels;
+            int resultCols = image.cols() - template.cols() + 1;
+            int resultRows = image.rows() - template.rows() + 1;
+            result.create(resultRows, resultCols, CvType.CV_32FC1);
+            result.setTo(new Scalar(-1));
+            Mat refined = new Mat();
+            for (int k = 0; k < pyramidCandidates; k++) {
+                MinMaxLocResult mmr = Core.minMaxLoc(coarse);
+                if (mmr.maxVal <= -1) {
+                    break;
+                }
+                int cx = (int) mmr.maxLoc.x;
+                int cy = (int) mmr.maxLoc.y;
+                // The coarse location is accurate to about one coarse pixel, allow for two.
+                int x0 = Math.max(0, (cx - 2)*scale);
+                int y0 = Math.max(0, (cy - 2)*scale);
+                int x1 = Math.min(resultCols, (cx + 2)*scale + 1);
+                int y1 = Math.min(resultRows, (cy + 2)*scale + 1);
+                if (x1 > x0 && y1 > y0) {
+                    Rect window = new Rect(x0, y0, x1 - x0, y1 - y0);
+                    Mat imageWindow = image.submat(y0, y1 + template.rows() - 1, x0, x1 + template.cols() - 1);
+                    Imgproc.matchTemplate(imageWindow, template, refined, Imgproc.TM_CCOEFF_NORMED);
+                    Mat resultWindow = result.submat(window);
+                    refined.copyTo(resultWindow);
+                    resultWindow.release();
+                    imageWindow.release();
+                    windows.add(window);
+                }
+                Mat suppressed = coarse.submat(Math.max(0, cy - radius), Math.min(coarse.rows(), cy + radius + 1), 
+                        Math.max(0, cx - radius), Math.min(coarse.cols(), cx + radius + 1));
+                suppressed.setTo(new Scalar(-1));
+                suppressed.release();
+            }
+            refined.release();
+            coarse.release();
+            double maxVal = Core.minMaxLoc(result).maxVal;
+            if (maxVal >= minScore) {
+                return maxVal;
+            }
+            Logger.trace("Coarse-to-fine template match score {} below {}, matching exhaustively.", maxVal, minScore);
+            windows.clear();
+        }
+        Imgproc.matchTemplate(image, template, result, Imgproc.TM_CCOEFF_NORMED);
+        return Core.minMaxLoc(result).maxVal;
+    }
+
+    /**
+     * Like {@link #matMaxima(Mat, double, double)} but only looks for maxima inside the given 
+     * windows, as computed by {@link #matchTemplate(Mat, Mat, Mat, int, int, double, List)}. 
+     * Maxima on the border of a window are rejected, unless it is also the border of the mat, 
+     * as they may just be the slope of a peak outside the window.
+     * 
+     * @param mat
+     * @param rangeMin
+     * @param rangeMax
+     * @param windows The windows, or an empty list to search the whole mat.
+     * @return The maxima in row-major order.
+     */
+    public static List<java.awt.Point> matMaxima(Mat mat, double rangeMin, double rangeMax, List<Rect> windows) {
+        if (windows == null || windows.isEmpty()) {
+            return matMaxima(mat, rangeMin, rangeMax);
+        }
+        TreeSet<java.awt.Point> locations = new TreeSet<>(
+                Comparator.comparingInt((java.awt.Point p) -> p.y).thenComparingInt(p -> p.x));
+        for (Rect window : windows) {
+            Mat view = mat.submat(window);
+            for (java.awt.Point p : matMaxima(view, rangeMin, rangeMax)) {
+                if ((p.x == 0 && window.x > 0)
+                        || (p.y == 0 && window.y > 0)
+                        || (p.x == window.width - 1 && window.x + window.width < mat.cols())
+                        || (p.y == window.height - 1 && window.y + window.height < mat.rows())) {
+                    continue;
+                }
+                locations.add(new java.awt.Point(p.x + window.x, p.y + window.y));
+            }
+            view.release();
+        }
+        return new ArrayList<>(locations);
+    }
+
     /**
      * Ported from the C++ version in FireSight by Karl Lew, which is licensed under the 
      * MIT license.
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+ *
+ * This file is part of OpenPnP.
+ *
+ * OpenPnP is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * OpenPnP is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with OpenPnP. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.util;
+
+import java.awt.image.BufferedImage;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Range;
+
+/**
+ * A camera frame that is both a BufferedImage and an OpenCV Mat. The frame is created from the
+ * Mat that results from capturing or transforming the image, and it rides along with the
+ * BufferedImage that is handed through the Camera API, so the consumers on the capture →
+ * transform → pipeline path can get the Mat back, without copying the image from the
+ * BufferedImage again.<br/>
+ * <br/>
+ * Ownership is explicit: the frame owns its Mat, until one consumer takes it over using
+ * {@link #toMat(BufferedImage)}. Other consumers can get a read-only view on the same pixels using
+ * {@link #viewMat(BufferedImage)}, the view is reference counted by OpenCV, so it stays valid even
+ * if the Mat is taken over or released meanwhile. A frame that is never taken over is released
+ * by the camera, once it drops out of its buffer of recent frames. Consumers that still hold the
+ * image then get a copy from {@link #toMat(BufferedImage)}.<br/>
+ * <br/>
+ * The BufferedImage holds its own copy of the pixels, as Java2D can only render images backed by a
+ * Java array fast. Frames are therefore immutable once published, i.e. neither the BufferedImage
+ * nor a view must be modified.
+ */
+public class SharedFrame {
+    static {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    /**
+     * The BufferedImage property under which the frame is attached.
+     */
+    public static final String PROPERTY = SharedFrame.class.getName();
+
+    private static final AtomicLong sharedBytes = new AtomicLong();
+
+    private Mat mat;
+
+    private SharedFrame(Mat mat) {
+        this.mat = mat;
+    }
+
+    /**
+     * Creates a frame from the given Mat. The frame takes over the ownership of the Mat, i.e. the
+     * caller must not release or modify it.
+     *
+     * @param mat
+     * @return The BufferedImage with the frame attached.
+     */
+    public static BufferedImage toBufferedImage(Mat mat) {
+        if (mat.type() != CvType.CV_8UC1 && mat.type() != CvType.CV_8UC3) {
+            // Needs conversion, no sharing.
+            BufferedImage image = OpenCvUtils.toBufferedImage(mat);
+            mat.release();
+            return image;
+        }
+        BufferedImage converted = OpenCvUtils.toBufferedImage(mat);
+        Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(PROPERTY, new SharedFrame(mat));
+        return new BufferedImage(converted.getColorModel(), converted.getRaster(), false, properties);
+    }
+
+    /**
+     * @param image
+     * @return The frame attached to the image, or null if none is.
+     */
+    public static SharedFrame getFrame(BufferedImage image) {
+        if (image == null) {
+            return null;
+        }
+        Object frame = image.getProperty(PROPERTY);
+        if (frame instanceof SharedFrame) {
+            return (SharedFrame) frame;
+        }
+        return null;
+    }
+
+    /**
+     * Converts the image to a Mat, that is owned by the caller. If the image is a frame that still
+     * owns its Mat, it is taken over, without copying. Otherwise it is copied like
+     * {@link OpenCvUtils#toMat(BufferedImage)}.
+     *
+     * @param image
+     * @return
+     */
+    public static Mat toMat(BufferedImage image) {
+        SharedFrame frame = getFrame(image);
+        if (frame != null) {
+            Mat mat = frame.take();
+            if (mat != null) {
+                sharedBytes.addAndGet(mat.total()*mat.elemSize());
+                return mat;
+            }
+        }
+        return OpenCvUtils.toMat(image);
+    }
+
+    /**
+     * Converts the image to a read-only Mat. If the image is a frame that still owns its Mat, this
+     * is a view on the same pixels, without copying. Otherwise it is copied like
+     * {@link OpenCvUtils#toMat(BufferedImage)}. Either way, the caller must release it.
+     *
+     * @param image
+     * @return
+     */
+    public static Mat viewMat(BufferedImage image) {
+        SharedFrame frame = getFrame(image);
+        if (frame != null) {
+            Mat mat = frame.view();
+            if (mat != null) {
+                sharedBytes.addAndGet(mat.total()*mat.elemSize());
+                return mat;
+            }
+        }
+        return OpenCvUtils.toMat(image);
+    }
+
+    /**
+     * @return The number of bytes that were shared, rather than copied, since the start.
+     */
+    public static long getSharedBytes() {
+        return sharedBytes.get();
+    }
+
+    public synchronized boolean isOwningMat() {
+        return mat != null;
+    }
+
+    protected synchronized Mat take() {
+        Mat mat = this.mat;
+        this.mat = null;
+        return mat;
+    }
+
+    protected synchronized Mat view() {
+        if (mat == null) {
+            return null;
+        }
+        return new Mat(mat, Range.all());
+    }
+
+    /**
+     * Releases the Mat, if still owned by the frame. Views remain valid.
+     */
+    public synchronized void release() {
+        if (mat != null) {
+            mat.release();
+            mat = null;
+        }
+    }
+}
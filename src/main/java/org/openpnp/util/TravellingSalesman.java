@@ -20,9 +20,14 @@
 package org.openpnp.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
+import java.util.stream.IntStream;
 
+import org.openpnp.machine.reference.ReferenceMachine;
+import org.openpnp.model.Configuration;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 
@@ -36,12 +41,19 @@ import org.openpnp.model.Location;
  * and/or a Location for the next task after that, as the end Location. These Locations can also be the same, to form 
  * a loop. If left open (null) the solver will choose the best start and/or end Location for the route freely.
  * 
- * The solver uses Simulated Annealing.
+ * Two solvers are available, see {@link Solver}. 
  * 
- * The implementation is a bit extended from the typical school book examples to not only use "swaps" of two Locations 
- * but also "twists", that reverse the travel direction between the swapped out Locations. The latter really improves the 
- * solutions a lot, because it allows the solver to quickly "untwist" routes at (or near) crossing points. These crossing 
- * points appear frequently for the rectangularly arrayed Location patterns assumed to be typically found on a PNP machine. 
+ * The Simulated Annealing solver is a bit extended from the typical school book examples to not only use "swaps" of two 
+ * Locations but also "twists", that reverse the travel direction between the swapped out Locations. The latter really 
+ * improves the solutions a lot, because it allows the solver to quickly "untwist" routes at (or near) crossing points. 
+ * These crossing points appear frequently for the rectangularly arrayed Location patterns assumed to be typically found 
+ * on a PNP machine. 
+ * 
+ * The Local Search solver constructs a route by nearest neighbor, then improves it with 2-opt (the "twist" above) and 
+ * Or-opt (moving short sub-routes elsewhere) moves, only considering the k nearest neighbors of each Location. It then 
+ * perturbs the local optimum with random double-bridge "kicks" and repeats the local search (Iterated Local Search). 
+ * Several independently seeded restarts run in parallel on the common fork-join pool. The solution is nevertheless 
+ * repeatable, as each restart is seeded by its index and the best restart is selected deterministically.
  * 
  * @param <T> The class of the objects to be travelled to. Use a Locator<T> to query the Location from these objects.  
  */
@@ -75,6 +87,45 @@ public class TravellingSalesman<T> {
         public Location getLocation(T locatable);
     }
 
+    public enum Solver {
+        /**
+         * Single-threaded Simulated Annealing. Slow beyond a few hundred Locations.
+         */
+        SimulatedAnnealing,
+        /**
+         * Nearest neighbor construction, 2-opt and Or-opt on k-nearest neighbor lists, iterated with kicks, 
+         * parallel restarts.
+         */
+        LocalSearch
+    }
+
+    /**
+     * The solver used by {@link #solve()}. Defaults to the machine's setting, see {@link #getDefaultSolver()}.
+     */
+    private Solver solver = getDefaultSolver();
+
+    /**
+     * Number of nearest neighbors considered for each Location in the Local Search.
+     */
+    private static final int neighbors = 10;
+
+    /**
+     * Up to this size, the Local Search precomputes a full distance matrix. Beyond that, distances are computed on 
+     * demand from the primitive coordinate arrays. 
+     */
+    private static final int matrixSizeLimit = 1500;
+
+    /**
+     * Number of independently seeded Local Search restarts. Deliberately not derived from the number of processors, 
+     * so the solution is the same on every computer.
+     */
+    private static final int restarts = 8;
+
+    /**
+     * Maximum span of the positions in the route that are rearranged by a kick in the Iterated Local Search.  
+     */
+    private static final int kickWindow = 50;
+
     /**
      * Sets the debugLevel > 0 
      * level 0: no debugging 
@@ -285,11 +336,432 @@ public class TravellingSalesman<T> {
     }
 
     public double solve() {
+        if (solver == Solver.LocalSearch) {
+            // heuristic for the number of kicks per restart
+            return localSearch(restarts, Math.min(1000, Math.max(50, this.travelSize*2)));
+        }
         // heuristic for the simulated annealing params
         int size = Math.max(1, this.travelSize);
         return simulateAnnealing(getTravellingDistance()/size*2.0, 1.0-0.001/size, size*1000+10000000);
     }
 
+    /**
+     * Solves the problem using Iterated Local Search, see {@link Solver#LocalSearch}.
+     * 
+     * @param restarts Number of independently seeded restarts, run in parallel.
+     * @param kicks Number of perturbation kicks per restart, each followed by a local search.
+     * @return The travelling distance of the best solution.
+     */
+    public double localSearch(int restarts, int kicks) {
+        long startTime = System.currentTimeMillis();
+        if (this.travelSize > 1) {
+            final LocalSearchProblem problem = new LocalSearchProblem(this.travel, this.startLocation, this.endLocation);
+            int [] best = IntStream.range(0, Math.max(1, restarts))
+                    .parallel()
+                    .mapToObj(r -> new LocalSearchRestart(problem, r).solve(kicks))
+                    // deterministic selection: shortest, then lowest restart index
+                    .min(Comparator.comparingDouble((LocalSearchRestart lsr) -> lsr.distance)
+                            .thenComparingInt(lsr -> lsr.seed))
+                    .get()
+                    .tour;
+            List<TravelLocation> travel = new ArrayList<>(this.travelSize);
+            for (int city : best) {
+                travel.add(this.travel.get(city));
+            }
+            this.travel.clear();
+            this.travel.addAll(travel);
+        }
+        double bestDistance = getTravellingDistance();
+        if (debugLevel > 0) {
+            System.out.println("Local Search, size: "+this.travelSize+", restarts: "+restarts+", kicks: "+kicks
+                    +", distance of travel: "+bestDistance);
+        }
+        this.solverDuration = System.currentTimeMillis() - startTime;
+        return bestDistance;
+    }
+
+    /**
+     * The immutable problem shared by all the Local Search restarts. Cities are indexed in the order of the current 
+     * travel list. The optional start and end Locations are handled as virtual cities with indices n and n+1. A 
+     * missing start or end has zero distance to everything, which lets the route end freely.  
+     */
+    private static class LocalSearchProblem {
+        final int n;
+        final double [] x;
+        final double [] y;
+        final double [] z;
+        final boolean [] virtual;
+        final double [] matrix;
+        final int [][] neighborLists;
+
+        LocalSearchProblem(List<TravelLocation> travel, TravelLocation startLocation, TravelLocation endLocation) {
+            n = travel.size();
+            x = new double [n + 2];
+            y = new double [n + 2];
+            z = new double [n + 2];
+            virtual = new boolean [n + 2];
+            for (int i = 0; i < n + 2; i++) {
+                TravelLocation l = (i < n ? travel.get(i) : (i == n ? startLocation : endLocation));
+                if (l == null) {
+                    virtual[i] = true;
+                }
+                else {
+                    x[i] = l.x;
+                    y[i] = l.y;
+                    z[i] = l.z;
+                }
+            }
+            if (n + 2 <= matrixSizeLimit) {
+                int m = n + 2;
+                matrix = new double [m*m];
+                IntStream.range(0, m).parallel().forEach(a -> {
+                    for (int b = 0; b < m; b++) {
+                        matrix[a*m + b] = computeDistance(a, b);
+                    }
+                });
+            }
+            else {
+                matrix = null;
+            }
+            // k nearest neighbors of each real city
+            int k = Math.min(neighbors, n - 1);
+            neighborLists = new int [n][];
+            IntStream.range(0, n).parallel().forEach(a -> {
+                int [] nearest = new int [k];
+                double [] nearestDistance = new double [k];
+                int count = 0;
+                for (int b = 0; b < n; b++) {
+                    if (b == a) {
+                        continue;
+                    }
+                    double d = distance(a, b);
+                    if (count < k || d < nearestDistance[count - 1]) {
+                        // insertion into the sorted list
+                        int i = (count < k ? count++ : count - 1);
+                        while (i > 0 && nearestDistance[i - 1] > d) {
+                            nearest[i] = nearest[i - 1];
+                            nearestDistance[i] = nearestDistance[i - 1];
+                            i--;
+                        }
+                        nearest[i] = b;
+                        nearestDistance[i] = d;
+                    }
+                }
+                neighborLists[a] = nearest;
+            });
+        }
+
+        private double computeDistance(int a, int b) {
+            if (virtual[a] || virtual[b]) {
+                return 0.0;
+            }
+            double dx = x[a] - x[b];
+            double dy = y[a] - y[b];
+            double dz = z[a] - z[b];
+            return Math.sqrt(dx*dx + dy*dy + dz*dz);
+        }
+
+        final double distance(int a, int b) {
+            if (matrix != null) {
+                return matrix[a*(n + 2) + b];
+            }
+            return computeDistance(a, b);
+        }
+    }
+
+    /**
+     * One Local Search restart, i.e. a nearest neighbor construction followed by Iterated Local Search. The route is 
+     * held in the tour array with pos being its inverse. 
+     */
+    private static class LocalSearchRestart {
+        final LocalSearchProblem p;
+        final int n;
+        final int seed;
+        final Random rnd;
+        final int [] tour;
+        final int [] pos;
+        final boolean [] dontLook;
+        final int [] queue;
+        int queueHead, queueSize;
+        double distance;
+
+        LocalSearchRestart(LocalSearchProblem problem, int seed) {
+            this.p = problem;
+            this.n = problem.n;
+            this.seed = seed;
+            this.rnd = new Random(seed);
+            this.tour = new int [n];
+            this.pos = new int [n];
+            this.dontLook = new boolean [n];
+            this.queue = new int [n];
+        }
+
+        /**
+         * @param i Position in the tour, -1 and n denoting the start and end Location respectively.
+         * @return The city at position i.
+         */
+        final int city(int i) {
+            return i < 0 ? n : (i >= n ? n + 1 : tour[i]);
+        }
+
+        final double d(int i, int j) {
+            return p.distance(city(i), city(j));
+        }
+
+        double tourDistance() {
+            double sum = 0.0;
+            for (int i = 0; i <= n; i++) {
+                sum += d(i - 1, i);
+            }
+            return sum;
+        }
+
+        LocalSearchRestart solve(int kicks) {
+            construct();
+            Arrays.fill(dontLook, true);
+            for (int i = 0; i < n; i++) {
+                push(tour[i]);
+            }
+            optimize();
+            distance = tourDistance();
+            int [] bestTour = tour.clone();
+            for (int kick = 0; kick < kicks && n >= 8; kick++) {
+                doubleBridge();
+                optimize();
+                double newDistance = tourDistance();
+                if (newDistance < distance - 1e-9) {
+                    distance = newDistance;
+                    System.arraycopy(tour, 0, bestTour, 0, n);
+                }
+                else {
+                    // revert to the best
+                    System.arraycopy(bestTour, 0, tour, 0, n);
+                    for (int i = 0; i < n; i++) {
+                        pos[tour[i]] = i;
+                    }
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Nearest neighbor construction. The first restart starts from the start Location (if given), the others from a 
+         * seeded random city.
+         */
+        void construct() {
+            boolean [] visited = new boolean [n];
+            int current;
+            int i = 0;
+            if (seed == 0 && !p.virtual[n]) {
+                current = n;
+            }
+            else {
+                current = rnd.nextInt(n);
+                visited[current] = true;
+                tour[i++] = current;
+            }
+            for (; i < n; i++) {
+                int next = -1;
+                // try the neighbor list first
+                if (current < n) {
+                    for (int c : p.neighborLists[current]) {
+                        if (!visited[c]) {
+                            next = c;
+                            break;
+                        }
+                    }
+                }
+                if (next < 0) {
+                    double best = Double.POSITIVE_INFINITY;
+                    for (int c = 0; c < n; c++) {
+                        if (!visited[c]) {
+                            double dc = p.distance(current, c);
+                            if (dc < best) {
+                                best = dc;
+                                next = c;
+                            }
+                        }
+                    }
+                }
+                visited[next] = true;
+                tour[i] = next;
+                current = next;
+            }
+            for (i = 0; i < n; i++) {
+                pos[tour[i]] = i;
+            }
+        }
+
+        void push(int city) {
+            if (city < n && dontLook[city]) {
+                dontLook[city] = false;
+                queue[(queueHead + queueSize++) % n] = city;
+            }
+        }
+
+        /**
+         * Improves the tour with 2-opt and Or-opt moves until no improving move is found. Only the cities queued (i.e. 
+         * with their don't-look bit cleared) and those touched by improvements are considered.  
+         */
+        void optimize() {
+            while (queueSize > 0) {
+                int a = queue[queueHead];
+                queueHead = (queueHead + 1) % n;
+                queueSize--;
+                dontLook[a] = true;
+                if (improveTwoOpt(a) || improveOrOpt(a)) {
+                    push(a);
+                }
+            }
+        }
+
+        /**
+         * Reverses the tour between positions l and r inclusive, i.e. 2-opt.
+         */
+        void reverse(int l, int r) {
+            for (; l < r; l++, r--) {
+                int t = tour[l];
+                tour[l] = tour[r];
+                tour[r] = t;
+                pos[tour[l]] = l;
+                pos[tour[r]] = r;
+            }
+        }
+
+        boolean improveTwoOpt(int a) {
+            int i = pos[a];
+            for (int c : p.neighborLists[a]) {
+                int j = pos[c];
+                int l, r;
+                if (j > i + 1) {
+                    // make c the successor of a
+                    l = i + 1;
+                    r = j;
+                }
+                else if (j < i - 1) {
+                    // make c the predecessor of a
+                    l = j;
+                    r = i - 1;
+                }
+                else {
+                    continue;
+                }
+                double delta = d(l - 1, r) + d(l, r + 1) - d(l - 1, l) - d(r, r + 1);
+                if (delta < -1e-9) {
+                    push(city(l - 1));
+                    push(city(l));
+                    push(city(r));
+                    push(city(r + 1));
+                    reverse(l, r);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Tries to move a segment of 1 to 3 cities starting or ending at a next to one of the nearest neighbors of 
+         * its end cities, optionally reversed, i.e. Or-opt.
+         */
+        boolean improveOrOpt(int a) {
+            int ia = pos[a];
+            for (int length = 1; length <= 3; length++) {
+                for (int s = ia - length + 1; s <= ia; s += Math.max(1, length - 1)) {
+                    int e = s + length - 1;
+                    if (s < 0 || e >= n) {
+                        continue;
+                    }
+                    double removeGain = d(s - 1, s) + d(e, e + 1) - d(s - 1, e + 1);
+                    if (removeGain <= 1e-9) {
+                        continue;
+                    }
+                    for (int end = 0; end < 2; end++) {
+                        int segmentCity = city(end == 0 ? s : e);
+                        for (int c : p.neighborLists[segmentCity]) {
+                            int q = pos[c];
+                            if (q >= s && q <= e) {
+                                continue;
+                            }
+                            // insert between q-1,q or q,q+1
+                            for (int g = q - 1; g <= q; g++) {
+                                if (g >= s - 1 && g <= e) {
+                                    continue;
+                                }
+                                double addCost = d(g, g + 1);
+                                double forward = d(g, s) + d(e, g + 1) - addCost;
+                                double reversed = d(g, e) + d(s, g + 1) - addCost;
+                                boolean reverse = reversed < forward;
+                                if (Math.min(forward, reversed) - removeGain < -1e-9) {
+                                    push(city(s - 1));
+                                    push(city(e + 1));
+                                    push(city(g));
+                                    push(city(g + 1));
+                                    moveSegment(s, e, g, reverse);
+                                    return true;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Moves the segment s..e to after position g, optionally reversing it.
+         */
+        void moveSegment(int s, int e, int g, boolean reverse) {
+            int length = e - s + 1;
+            int [] segment = new int [length];
+            for (int i = 0; i < length; i++) {
+                segment[i] = tour[reverse ? e - i : s + i];
+            }
+            int insert;
+            if (g > e) {
+                // shift the cities between the segment and the gap to the front
+                System.arraycopy(tour, e + 1, tour, s, g - e);
+                insert = g - length + 1;
+            }
+            else {
+                // shift the cities between the gap and the segment to the back
+                System.arraycopy(tour, g + 1, tour, g + 1 + length, s - g - 1);
+                insert = g + 1;
+            }
+            System.arraycopy(segment, 0, tour, insert, length);
+            int from = Math.min(s, insert);
+            int to = Math.max(e, g);
+            for (int i = from; i <= to && i < n; i++) {
+                pos[tour[i]] = i;
+            }
+        }
+
+        /**
+         * Random local double-bridge kick, i.e. the route A B C D is rearranged to A C B D, where B and C are short 
+         * sub-routes. The cities at the changed edges are queued for the next local search.
+         */
+        void doubleBridge() {
+            int window = Math.min(n - 1, kickWindow);
+            int c0 = rnd.nextInt(n - window) + 1;
+            int [] cut = new int [] { c0, c0 + rnd.nextInt(window), c0 + rnd.nextInt(window) };
+            Arrays.sort(cut);
+            if (cut[0] == cut[1] || cut[1] == cut[2]) {
+                return;
+            }
+            int [] b = Arrays.copyOfRange(tour, cut[0], cut[1]);
+            System.arraycopy(tour, cut[1], tour, cut[0], cut[2] - cut[1]);
+            System.arraycopy(b, 0, tour, cut[0] + cut[2] - cut[1], b.length);
+            for (int i = cut[0]; i < cut[2]; i++) {
+                pos[tour[i]] = i;
+            }
+            for (int i : cut) {
+                push(city(i - 1));
+                push(city(i));
+            }
+            push(city(cut[0] + cut[2] - cut[1] - 1));
+            push(city(cut[0] + cut[2] - cut[1]));
+        }
+    }
+
     public List<T> getTravel() {
         // convert the working list back to a list of the input objects using the now rearranged t.index order. 
         List<T> travelOutput = new ArrayList<>();
@@ -311,6 +783,25 @@ public class TravellingSalesman<T> {
         return solverDuration;
     }
 
+    public Solver getSolver() {
+        return solver;
+    }
+
+    public void setSolver(Solver solver) {
+        this.solver = solver;
+    }
+
+    /**
+     * @return The solver selected on the machine, or SimulatedAnnealing, if there is no such machine.
+     */
+    public static Solver getDefaultSolver() {
+        if (Configuration.isInstanceInitialized() 
+                && Configuration.get().getMachine() instanceof ReferenceMachine) {
+            return ((ReferenceMachine) Configuration.get().getMachine()).getTravellingSalesmanSolver();
+        }
+        return Solver.SimulatedAnnealing;
+    }
+
     public String asSvg() {
         double minX = Double.NaN, minY = Double.NaN;
         double maxX = Double.NaN, maxY = Double.NaN;
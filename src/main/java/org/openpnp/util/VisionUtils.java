@@ -233,6 +233,25 @@ public class VisionUtils {
         return new Point(location.getX(), location.getY());
     }
 
+    /**
+     * Get the region of interest that contains a circle of the given radius around the given 
+     * location, to be set as the {@link CvPipeline#REGION_OF_INTEREST_PROPERTY} pipeline property.
+     * The region is kept symmetric around the camera center, so stages that default to the image 
+     * center still see the same center in the cropped image. 
+     * 
+     * @param camera
+     * @param location
+     * @param radius
+     * @return The region of interest in camera pixels. 
+     */
+    public static org.opencv.core.Rect getRegionOfInterest(Camera camera, Location location, Length radius) {
+        Point center = getLocationPixelCenterOffsets(camera, location);
+        double r = toPixels(radius, camera);
+        int x0 = Math.max(0, (int) Math.floor(camera.getWidth()/2 - Math.abs(center.getX()) - r));
+        int y0 = Math.max(0, (int) Math.floor(camera.getHeight()/2 - Math.abs(center.getY()) - r));
+        return new org.opencv.core.Rect(x0, y0, camera.getWidth() - 2*x0, camera.getHeight() - 2*y0);
+    }
+
     /**
      * Using the given camera, try to find a QR code and return it's text. This is just a wrapper
      * for the generic scanBarcode(Camera) function. This one was added before the other and I don't
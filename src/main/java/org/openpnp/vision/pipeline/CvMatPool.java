@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2023 Jason von Nieda <jason@vonnieda.org>
+ *
+ * This file is part of OpenPnP.
+ *
+ * OpenPnP is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * OpenPnP is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with OpenPnP. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.vision.pipeline;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Mat;
+import org.openpnp.util.LogUtils;
+import org.pmw.tinylog.Logger;
+
+/**
+ * A pool of reusable native image buffers, owned by a CvPipeline. Stages borrow their destination
+ * Mats from the pool instead of allocating fresh ones, and the pipeline recycles them into the pool
+ * when they are replaced or when the results are released. As the same pipeline processes images
+ * of the same size over and over again, the buffers of one process() are reused by the next,
+ * saving the allocation and page faulting of multi-megabyte native buffers.
+ *
+ * The free buffers of all the pools together are limited to a global budget, the least recently
+ * recycled are released first. Closing the pipeline releases all the free buffers of its pool.
+ *
+ * If debug logging is enabled, the pool remembers where each outstanding buffer was borrowed, so
+ * that buffers that are never returned can be reported.
+ */
+public class CvMatPool {
+    private static long budgetBytes = 256L * 1024 * 1024;
+    private static final AtomicLong sequence = new AtomicLong();
+    private static final Set<CvMatPool> pools =
+            Collections.newSetFromMap(new WeakHashMap<CvMatPool, Boolean>());
+
+    private static class Key {
+        final int rows;
+        final int cols;
+        final int type;
+
+        Key(int rows, int cols, int type) {
+            this.rows = rows;
+            this.cols = cols;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return rows == other.rows && cols == other.cols && type == other.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(rows, cols, type);
+        }
+    }
+
+    private static class Entry {
+        final Mat mat;
+        final long bytes;
+        final long sequence;
+
+        Entry(Mat mat, long bytes, long sequence) {
+            this.mat = mat;
+            this.bytes = bytes;
+            this.sequence = sequence;
+        }
+    }
+
+    private final Map<Key, ArrayDeque<Entry>> free = new HashMap<>();
+    private final Set<Mat> freeMats = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<Mat> owned = Collections.newSetFromMap(new WeakHashMap<>());
+    private final Map<Mat, Throwable> outstanding = new IdentityHashMap<>();
+    private long freeBytes;
+    private long allocations;
+    private long reuses;
+
+    public CvMatPool() {
+        register(this);
+    }
+
+    private static synchronized void register(CvMatPool pool) {
+        pools.add(pool);
+    }
+
+    /**
+     * @return The maximum number of bytes kept in the free buffers of all the pools together.
+     */
+    public static synchronized long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public static synchronized void setBudgetBytes(long budgetBytes) {
+        CvMatPool.budgetBytes = budgetBytes;
+        evict();
+    }
+
+    /**
+     * Borrows a Mat of the given size and type. The content of the Mat is undefined. It should be
+     * given back using recycle(), when no longer needed.
+     *
+     * @param rows
+     * @param cols
+     * @param type
+     * @return
+     */
+    public Mat borrow(int rows, int cols, int type) {
+        Mat mat = null;
+        synchronized (this) {
+            ArrayDeque<Entry> entries = free.get(new Key(rows, cols, type));
+            if (entries != null && !entries.isEmpty()) {
+                // Take the most recently recycled, it is the most likely to be still cached.
+                Entry entry = entries.pollLast();
+                freeMats.remove(entry.mat);
+                freeBytes -= entry.bytes;
+                mat = entry.mat;
+                reuses++;
+            }
+            else {
+                mat = new Mat(rows, cols, type);
+                owned.add(mat);
+                allocations++;
+            }
+            if (LogUtils.isDebugEnabled()) {
+                outstanding.put(mat, new Throwable("Mat borrowed here"));
+            }
+        }
+        return mat;
+    }
+
+    /**
+     * Borrows a Mat of the same size and type as the given Mat. The content of the Mat is
+     * undefined.
+     *
+     * @param like
+     * @return
+     */
+    public Mat borrow(Mat like) {
+        return borrow(like.rows(), like.cols(), like.type());
+    }
+
+    /**
+     * Borrows a Mat and copies the given Mat into it.
+     *
+     * @param mat
+     * @return
+     */
+    public Mat borrowClone(Mat mat) {
+        Mat clone = borrow(mat);
+        mat.copyTo(clone);
+        return clone;
+    }
+
+    /**
+     * Gives a Mat back to the pool. Mats not borrowed from this pool are simply released, as they
+     * may still be referenced elsewhere. Recycling a Mat that is already in the pool does nothing.
+     *
+     * @param mat
+     */
+    public void recycle(Mat mat) {
+        if (mat == null) {
+            return;
+        }
+        synchronized (this) {
+            outstanding.remove(mat);
+            if (freeMats.contains(mat)) {
+                return;
+            }
+            if (owned.contains(mat) && !mat.empty() && mat.isContinuous() && !mat.isSubmatrix()) {
+                long bytes = mat.total() * mat.elemSize();
+                free.computeIfAbsent(new Key(mat.rows(), mat.cols(), mat.type()), k -> new ArrayDeque<>())
+                    .addLast(new Entry(mat, bytes, sequence.incrementAndGet()));
+                freeMats.add(mat);
+                freeBytes += bytes;
+            }
+            else {
+                owned.remove(mat);
+                mat.release();
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Releases a Mat instead of giving it back to the pool, i.e. because it may still be
+     * referenced elsewhere.
+     *
+     * @param mat
+     */
+    public void discard(Mat mat) {
+        if (mat == null) {
+            return;
+        }
+        synchronized (this) {
+            if (freeMats.contains(mat)) {
+                return;
+            }
+            outstanding.remove(mat);
+            owned.remove(mat);
+        }
+        mat.release();
+    }
+
+    /**
+     * Reports the Mats that were borrowed but never given back, if debug logging is enabled, and
+     * forgets about them.
+     */
+    public synchronized void reportLeaks() {
+        for (Map.Entry<Mat, Throwable> entry : outstanding.entrySet()) {
+            Mat mat = entry.getKey();
+            Logger.debug(entry.getValue(), "Pooled Mat {}x{} type {} was never recycled.",
+                    mat.cols(), mat.rows(), mat.type());
+        }
+        outstanding.clear();
+    }
+
+    /**
+     * Releases all the free buffers of the pool.
+     */
+    public synchronized void clear() {
+        for (ArrayDeque<Entry> entries : free.values()) {
+            for (Entry entry : entries) {
+                owned.remove(entry.mat);
+                entry.mat.release();
+            }
+        }
+        free.clear();
+        freeMats.clear();
+        freeBytes = 0;
+    }
+
+    public synchronized long getFreeBytes() {
+        return freeBytes;
+    }
+
+    /**
+     * @return The number of Mats newly allocated by borrow().
+     */
+    public synchronized long getAllocations() {
+        return allocations;
+    }
+
+    /**
+     * @return The number of Mats reused by borrow().
+     */
+    public synchronized long getReuses() {
+        return reuses;
+    }
+
+    public synchronized int getOutstandingCount() {
+        return outstanding.size();
+    }
+
+    private synchronized Entry oldestEntry() {
+        Entry oldest = null;
+        for (ArrayDeque<Entry> entries : free.values()) {
+            Entry entry = entries.peekFirst();
+            if (entry != null && (oldest == null || entry.sequence < oldest.sequence)) {
+                oldest = entry;
+            }
+        }
+        return oldest;
+    }
+
+    private synchronized boolean evict(Entry entry) {
+        ArrayDeque<Entry> entries = free.get(new Key(entry.mat.rows(), entry.mat.cols(), entry.mat.type()));
+        if (entries == null || !entries.remove(entry)) {
+            return false;
+        }
+        freeMats.remove(entry.mat);
+        owned.remove(entry.mat);
+        freeBytes -= entry.bytes;
+        entry.mat.release();
+        return true;
+    }
+
+    /**
+     * Releases the least recently recycled free buffers of all the pools, until the budget is met.
+     * The global lock is always taken before the pool locks, never the other way around. The
+     * pools of discarded pipelines drop out of the weak registry, their buffers are released by the
+     * garbage collector.
+     */
+    private static synchronized void evict() {
+        List<CvMatPool> candidates = new ArrayList<>(pools);
+        long freeBytesTotal = 0;
+        for (CvMatPool pool : candidates) {
+            freeBytesTotal += pool.getFreeBytes();
+        }
+        while (freeBytesTotal > budgetBytes) {
+            CvMatPool oldestPool = null;
+            Entry oldest = null;
+            for (CvMatPool pool : candidates) {
+                Entry entry = pool.oldestEntry();
+                if (entry != null && (oldest == null || entry.sequence < oldest.sequence)) {
+                    oldest = entry;
+                    oldestPool = pool;
+                }
+            }
+            if (oldest == null) {
+                break;
+            }
+            if (oldestPool.evict(oldest)) {
+                freeBytesTotal -= oldest.bytes;
+            }
+        }
+    }
+}
@@ -6,19 +6,40 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+import org.opencv.core.Core;
 import org.opencv.core.CvType;
+import org.opencv.core.KeyPoint;
 import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
 import org.opencv.core.Scalar;
+import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
+import org.openpnp.util.OpenCvUtils;
+import org.openpnp.util.VisionUtils;
 import org.openpnp.vision.FluentCv.ColorSpace;
 import org.openpnp.vision.pipeline.CvStage.Result;
 import org.pmw.tinylog.Logger;
+import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.ElementList;
 import org.simpleframework.xml.Root;
 import org.simpleframework.xml.Serializer;
@@ -53,15 +74,49 @@ public class CvPipeline implements AutoCloseable {
         nu.pattern.OpenCV.loadLocally();
     }
 
+    /**
+     * Determines which stage results keep a copy of their image after processing.
+     */
+    public enum ResultRetention {
+        /**
+         * Keep the images of all the stage results, as needed to show them in the pipeline editor.
+         */
+        All,
+        /**
+         * Keep only the images of the stage results that are referenced by name, i.e. by other
+         * stages, such as ImageRecall, or by the callers, such as the "results" stage. The
+         * other stage results still keep their model. Falls back to All, if a stage cannot tell
+         * which results it references, such as ScriptRun.
+         */
+        Referenced
+    }
+
+    /**
+     * Names of stages whose results are read by the callers of the pipeline.
+     */
+    private static final Set<String> callerResultNames = new HashSet<>(Arrays.asList(
+            VisionUtils.PIPELINE_RESULTS_NAME, "result", "OCR"));
+
+    /**
+     * Name of the pipeline property holding the region of interest, an org.opencv.core.Rect in 
+     * camera pixels. See {@link #applyRegionOfInterest(Mat)}.
+     */
+    public static final String REGION_OF_INTEREST_PROPERTY = "regionOfInterest";
+
     @ElementList
     private ArrayList<CvStage> stages = new ArrayList<>();
 
-    private Map<CvStage, Result> results = new HashMap<CvStage, Result>();
+    @Attribute(required = false)
+    private boolean parallel = true;
+
+    private Map<CvStage, Result> results = new ConcurrentHashMap<CvStage, Result>();
 
     private Map<String, Object> properties = new HashMap<String, Object>();
 
     private ArrayList<PipelineShot> compositeShots = new ArrayList<>();
 
+    private final CvMatPool matPool = new CvMatPool();
+
     private Mat workingImage;
     private Object workingModel;
     private Exception terminalException;
@@ -69,8 +124,22 @@ public class CvPipeline implements AutoCloseable {
 
     private long totalProcessingTimeNs;
 
+    private ResultRetention resultRetention = ResultRetention.Referenced;
+    private long retainedImageBytes;
+    private long skippedImageBytes;
+    private long retainedImageCopyTimeNs;
+
     private BufferedImage lastCapturedImage;
 
+    private volatile Point regionOfInterestOffset;
+    private volatile Size regionOfInterestFrameSize;
+
+    private static ExecutorService executor;
+    private final ThreadLocal<Branch> currentBranch = new ThreadLocal<>();
+    private List<Branch> branches;
+    private Map<CvStage, Branch> stageBranches = new HashMap<>();
+    private Exception[] stageTerminalExceptions;
+
     private int currentShot;
 
     public CvPipeline() {
@@ -210,6 +279,18 @@ public class CvPipeline implements AutoCloseable {
         if (stage == null) {
             return null;
         }
+        Branch branch = currentBranch.get();
+        if (branch != null) {
+            // Called by a stage while processing.
+            Branch other = stageBranches.get(stage);
+            if (other == null || stages.indexOf(stage) >= branch.currentStage) {
+                // Not processed before this stage.
+                return null;
+            }
+            if (other != branch) {
+                join(other);
+            }
+        }
         return results.get(stage);
     }
 
@@ -219,25 +300,48 @@ public class CvPipeline implements AutoCloseable {
      * @return
      */
     public Mat getWorkingImage() {
-        if (workingImage == null || (workingImage.cols() == 0 && workingImage.rows() == 0)) {
-            workingImage = new Mat(480, 640, CvType.CV_8UC3, new Scalar(0, 0, 0));
-            Imgproc.line(workingImage, new Point(0, 0), new Point(640, 480), new Scalar(0, 0, 255));
-            Imgproc.line(workingImage, new Point(640, 0), new Point(0, 480), new Scalar(0, 0, 255));
-            workingColorSpace = ColorSpace.Bgr;
+        Branch branch = currentBranch.get();
+        Mat image = (branch != null ? branch.getWorkingImageOrNull() : workingImage);
+        if (image == null || (image.cols() == 0 && image.rows() == 0)) {
+            image = new Mat(480, 640, CvType.CV_8UC3, new Scalar(0, 0, 0));
+            Imgproc.line(image, new Point(0, 0), new Point(640, 480), new Scalar(0, 0, 255));
+            Imgproc.line(image, new Point(640, 0), new Point(0, 480), new Scalar(0, 0, 255));
+            if (branch != null) {
+                branch.workingImage = image;
+            }
+            else {
+                workingImage = image;
+            }
+            setWorkingColorSpace(ColorSpace.Bgr);
         }
-        return workingImage;
+        return image;
     }
 
     public Object getWorkingModel() {
-      return workingModel;
+        Branch branch = currentBranch.get();
+        if (branch != null) {
+            return branch.getWorkingModel();
+        }
+        return workingModel;
     }
     
     public ColorSpace getWorkingColorSpace() {
+        Branch branch = currentBranch.get();
+        if (branch != null) {
+            return branch.getWorkingColorSpace();
+        }
         return workingColorSpace;
     }
     
     public void setWorkingColorSpace(ColorSpace colorSpace) {
-        workingColorSpace = colorSpace;
+        Branch branch = currentBranch.get();
+        if (branch != null) {
+            branch.workingColorSpace = colorSpace;
+            branch.colorSpaceSet = true;
+        }
+        else {
+            workingColorSpace = colorSpace;
+        }
     }
 
     Exception getTerminalException() {
@@ -256,82 +360,606 @@ public class CvPipeline implements AutoCloseable {
       this.totalProcessingTimeNs = totalProcessingTimeNs;
     }
 
+    /**
+     * @return True if independent branches of the pipeline are processed concurrently, see 
+     * process(ResultRetention). 
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public ResultRetention getResultRetention() {
+        return resultRetention;
+    }
+
+    public void setResultRetention(ResultRetention resultRetention) {
+        this.resultRetention = resultRetention;
+    }
+
+    /**
+     * @return The number of bytes of stage result images copied and retained by the last process().
+     */
+    public long getRetainedImageBytes() {
+        return retainedImageBytes;
+    }
+
+    /**
+     * @return The number of bytes of stage result images the last process() did not copy, due to 
+     * the ResultRetention.
+     */
+    public long getSkippedImageBytes() {
+        return skippedImageBytes;
+    }
+
+    /**
+     * @return The time the last process() spent copying stage result images.
+     */
+    public long getRetainedImageCopyTimeNs() {
+        return retainedImageCopyTimeNs;
+    }
+
+    /**
+     * @param resultRetention
+     * @return The names of the stages whose result images must be retained, or null if all must be.
+     */
+    protected Set<String> getRetainedResultNames(ResultRetention resultRetention) {
+        if (resultRetention == ResultRetention.All) {
+            return null;
+        }
+        Set<String> names = new HashSet<>(callerResultNames);
+        for (CvStage stage : stages) {
+            Collection<String> referencedStageNames = stage.getReferencedStageNames();
+            if (referencedStageNames == null) {
+                return null;
+            }
+            names.addAll(referencedStageNames);
+        }
+        return names;
+    }
+
+    /**
+     * Process the pipeline, retaining the stage result images according to the 
+     * ResultRetention set on the pipeline. 
+     * 
+     * @throws Exception
+     */
     public void process() throws Exception {
+        process(resultRetention);
+    }
+
+    /**
+     * Process the pipeline.
+     * 
+     * If parallel processing is enabled, the pipeline is split into branches, each starting with
+     * a stage that does not depend on the working state left by the stage before it, such as 
+     * CreateFootprintTemplateImage or ImageRecall. The branches are processed concurrently. 
+     * Whenever a stage reads the result of a stage in another branch, or the working state 
+     * left by the previous branch, it waits for that branch to complete. The results are 
+     * therefore exactly the same as when processing the stages one by one.
+     * 
+     * @param resultRetention Determines which stage results keep a copy of their image.
+     * @throws Exception
+     */
+    public void process(ResultRetention resultRetention) throws Exception {
         terminalException = null;
         totalProcessingTimeNs = 0;
+        retainedImageBytes = 0;
+        skippedImageBytes = 0;
+        retainedImageCopyTimeNs = 0;
+        regionOfInterestOffset = null;
+        regionOfInterestFrameSize = null;
         release();
         for (CvStage stage : stages) {
             stage.processPrepare(this);
         }
-        for (CvStage stage : stages) {
-            // Process and time the stage and get the result.
-            long processingTimeNs = System.nanoTime();
-            Result result = null;
-            try {
-                if (!stage.isEnabled()) {
-                    throw new Exception(String.format("Stage \"%s\"not enabled.", stage.getName()));
-                }
-                result = stage.process(this);
+        Set<String> retainedResultNames = getRetainedResultNames(resultRetention);
+        List<Branch> branches = createBranches(retainedResultNames);
+        stageTerminalExceptions = new Exception[stages.size()];
+        this.branches = branches;
+        try {
+            for (int i = 1; i < branches.size(); i++) {
+                getExecutor().execute(branches.get(i).task);
             }
-            catch (TerminalException e) {
-                result = new Result(null, e.getOriginalException());
-                setTerminalException(e.getOriginalException());
-                Logger.debug("Stage \""+stage.getName()+"\" throws "+e.getOriginalException());
+            for (Branch branch : branches) {
+                join(branch);
             }
-            catch (Exception e) {
-                result = new Result(null, e);
-                if (stage.isEnabled()) {
-                    Logger.debug("Stage \""+stage.getName()+"\" throws "+e);
-                }
+        }
+        finally {
+            this.branches = null;
+        }
+        // Take over the working state of the last branch.
+        Branch last = branches.get(branches.size() - 1);
+        workingImage = last.takeWorkingImage();
+        workingModel = last.getFinalWorkingModel();
+        workingColorSpace = last.getFinalWorkingColorSpace();
+        for (Branch branch : branches) {
+            if (branch.workingImage != null && branch.workingImage != workingImage) {
+                recycleWorkingImage(branch.workingImage, null);
+            }
+            totalProcessingTimeNs += branch.totalProcessingTimeNs;
+            retainedImageBytes += branch.retainedImageBytes;
+            skippedImageBytes += branch.skippedImageBytes;
+            retainedImageCopyTimeNs += branch.retainedImageCopyTimeNs;
+        }
+        for (Exception e : stageTerminalExceptions) {
+            if (e != null) {
+                terminalException = e;
             }
-            processingTimeNs = System.nanoTime() - processingTimeNs;
-            totalProcessingTimeNs += processingTimeNs;
+        }
+        if (regionOfInterestOffset != null) {
+            translateModels(regionOfInterestOffset);
+        }
+        Logger.trace("Pipeline processed in {} ms in {} branches, retained {} kB of stage result images in {} ms, skipped {} kB.",
+                totalProcessingTimeNs / 1000000.0, branches.size(), retainedImageBytes / 1024, 
+                retainedImageCopyTimeNs / 1000000.0, skippedImageBytes / 1024);
+        if (terminalException != null) {
+            throw (terminalException);
+        }
+    }
 
-            Mat image = null;
-            Object model = null;
-            ColorSpace colorSpace = null;
-            if (result != null) {
-                image = result.image;
-                model = result.model;
-                colorSpace = result.colorSpace;
+    /**
+     * Splits the stages into branches, see process(). Unless parallel processing is disabled 
+     * or a stage may read any result, such as a script, a new branch starts with each 
+     * stage that is independent of the working state, if it does not read the results of the 
+     * branch right before it, which would leave nothing to do in parallel.   
+     * 
+     * @param retainedResultNames
+     * @return
+     */
+    private List<Branch> createBranches(Set<String> retainedResultNames) {
+        List<Branch> branches = new ArrayList<>();
+        stageBranches = new HashMap<>();
+        Branch branch = new Branch(null, 0, retainedResultNames);
+        branch.workingColorSpace = workingColorSpace;
+        branch.imageSet = branch.modelSet = branch.colorSpaceSet = true;
+        branches.add(branch);
+        boolean parallel = isParallel() && stages.size() > 1;
+        Map<String, Integer> stageIndices = new HashMap<>();
+        for (int i = 0; parallel && i < stages.size(); i++) {
+            stageIndices.put(stages.get(i).getName(), i);
+            if (stages.get(i).getReferencedStageNames() == null) {
+                parallel = false;
             }
-            if(stage.isEnabled() && model != null) {
-                workingModel = model;
+        }
+        for (int i = 0; i < stages.size(); i++) {
+            CvStage stage = stages.get(i);
+            if (parallel && i > 0 && stage.isEnabled() && stage.isWorkingStateIndependent()) {
+                boolean readsPrevious = false;
+                for (String name : stage.getReferencedStageNames()) {
+                    Integer index = stageIndices.get(name);
+                    readsPrevious |= (index != null && index >= branch.first && index < i);
+                }
+                if (!readsPrevious) {
+                    branch = new Branch(branch, i, retainedResultNames);
+                    branches.add(branch);
+                }
+            }
+            branch.last = i + 1;
+            stageBranches.put(stage, branch);
+        }
+        return branches;
+    }
+
+    /**
+     * Processes a branch of the pipeline, or helps with it, if it is not yet started, and waits
+     * for it to complete.
+     * 
+     * @param branch
+     */
+    private void join(Branch branch) {
+        branch.task.run();
+        try {
+            branch.task.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
             }
-            if(stage.isEnabled() && colorSpace != null) {
-                workingColorSpace = colorSpace;
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
-            // If the result image is null and there is a working image,
-            // replace the result image with a clone of the working image.
-            if (image == null) {
-                if (workingImage != null) {
-                    image = workingImage.clone();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void processStage(Branch branch, int index) {
+        CvStage stage = stages.get(index);
+        branch.currentStage = index;
+        if (stage.isSequential()) {
+            // Side effects must happen in pipeline order.
+            for (Branch other : branches) {
+                if (other.first >= branch.first) {
+                    break;
                 }
+                join(other);
+            }
+        }
+        // Process and time the stage and get the result.
+        long processingTimeNs = System.nanoTime();
+        Result result = null;
+        try {
+            if (!stage.isEnabled()) {
+                throw new Exception(String.format("Stage \"%s\"not enabled.", stage.getName()));
+            }
+            result = stage.process(this);
+        }
+        catch (TerminalException e) {
+            result = new Result(null, e.getOriginalException());
+            stageTerminalExceptions[index] = e.getOriginalException();
+            Logger.debug("Stage \""+stage.getName()+"\" throws "+e.getOriginalException());
+        }
+        catch (Exception e) {
+            result = new Result(null, e);
+            if (stage.isEnabled()) {
+                Logger.debug("Stage \""+stage.getName()+"\" throws "+e);
+            }
+        }
+        processingTimeNs = System.nanoTime() - processingTimeNs;
+        branch.totalProcessingTimeNs += processingTimeNs;
+
+        Mat image = null;
+        Object model = null;
+        ColorSpace colorSpace = null;
+        if (result != null) {
+            image = result.image;
+            model = result.model;
+            colorSpace = result.colorSpace;
+        }
+        if(stage.isEnabled() && model != null) {
+            branch.workingModel = model;
+            branch.modelSet = true;
+        }
+        if(stage.isEnabled() && colorSpace != null) {
+            branch.workingColorSpace = colorSpace;
+            branch.colorSpaceSet = true;
+        }
+        // If the result image is not null:
+        // Recycle the working image if the result image is different.
+        // Replace the working image with the result image.
+        // Then clone the working image for storage, if the result image is to be retained.
+        if (image != null) {
+            if (branch.imageSet && branch.workingImage != null && branch.workingImage != image) {
+                recycleWorkingImage(branch.workingImage, image);
+            }
+            branch.workingImage = image;
+            branch.imageSet = true;
+        }
+        image = null;
+        Mat workingImage = branch.getWorkingImageOrNull();
+        if (workingImage != null) {
+            long bytes = workingImage.total() * workingImage.elemSize();
+            if (branch.retainedResultNames == null || branch.retainedResultNames.contains(stage.getName())) {
+                long t = System.nanoTime();
+                image = matPool.borrowClone(workingImage);
+                branch.retainedImageCopyTimeNs += System.nanoTime() - t;
+                branch.retainedImageBytes += bytes;
             }
-            // If the result image is not null:
-            // Release the working image if the result image is different.
-            // Replace the working image with the result image.
-            // Clone the result image for storage.
             else {
-                if (workingImage != null && workingImage != image) {
-                    workingImage.release();
-                }
-                workingImage = image;
-                image = image.clone();
+                branch.skippedImageBytes += bytes;
             }
+        }
+
+        // If the result colorSpace is null and there is a working colorSpace,
+        // replace the result colorSpace with the working colorSpace.
+        if (colorSpace == null) {
+            colorSpace = branch.getWorkingColorSpace();
+        }
 
-            // If the result colorSpace is null and there is a working colorSpace,
-            // replace the result colorSpace with the working colorSpace.
-            if (colorSpace == null) {
-                if (workingColorSpace != null) {
-                    colorSpace = workingColorSpace;
+        results.put(stage, new Result(image, colorSpace, model, processingTimeNs, stage));
+    }
+
+    /**
+     * A run of stages processed one after the other, with its own working state. The working 
+     * state is inherited from the previous branch, when first read.
+     */
+    private class Branch implements Runnable {
+        final Branch previous;
+        final int first;
+        int last;
+        final Set<String> retainedResultNames;
+        final FutureTask<Void> task = new FutureTask<>(this, null);
+        volatile int currentStage;
+
+        Mat workingImage;
+        Object workingModel;
+        ColorSpace workingColorSpace;
+        boolean imageSet;
+        boolean modelSet;
+        boolean colorSpaceSet;
+
+        long totalProcessingTimeNs;
+        long retainedImageBytes;
+        long skippedImageBytes;
+        long retainedImageCopyTimeNs;
+
+        Branch(Branch previous, int first, Set<String> retainedResultNames) {
+            this.previous = previous;
+            this.first = first;
+            this.currentStage = first;
+            this.retainedResultNames = retainedResultNames;
+        }
+
+        @Override
+        public void run() {
+            Branch outer = currentBranch.get();
+            currentBranch.set(this);
+            try {
+                for (int i = first; i < last; i++) {
+                    processStage(this, i);
                 }
+                currentStage = last;
+            }
+            finally {
+                currentBranch.set(outer);
             }
+        }
 
-            results.put(stage, new Result(image, colorSpace, model, processingTimeNs, stage));
+        Mat getWorkingImageOrNull() {
+            if (!imageSet) {
+                workingImage = previous.takeWorkingImage();
+                imageSet = true;
+            }
+            return workingImage;
         }
-        if (terminalException != null) {
-            throw (terminalException);
+
+        Object getWorkingModel() {
+            if (!modelSet) {
+                workingModel = previous.getFinalWorkingModel();
+                modelSet = true;
+            }
+            return workingModel;
+        }
+
+        ColorSpace getWorkingColorSpace() {
+            if (!colorSpaceSet) {
+                workingColorSpace = previous.getFinalWorkingColorSpace();
+                colorSpaceSet = true;
+            }
+            return workingColorSpace;
+        }
+
+        /**
+         * Waits for the branch to complete and hands its final working image over to the next 
+         * branch.
+         */
+        Mat takeWorkingImage() {
+            join(this);
+            Mat image = getWorkingImageOrNull();
+            workingImage = null;
+            return image;
+        }
+
+        Object getFinalWorkingModel() {
+            join(this);
+            return getWorkingModel();
+        }
+
+        ColorSpace getFinalWorkingColorSpace() {
+            join(this);
+            return getWorkingColorSpace();
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, (runnable) -> {
+                Thread thread = new Thread(runnable, "CvPipeline-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Recycles the working image when it is replaced by the given image. A working image that is
+     * also a stored result, i.e. through ComposeResult, is left alone, a working image that the 
+     * new image is a view into is only released.
+     * 
+     * @param workingImage
+     * @param image The new working image, or null when the working image is just dropped.
+     */
+    private void recycleWorkingImage(Mat workingImage, Mat image) {
+        for (Result result : results.values()) {
+            if (result.image == workingImage) {
+                return;
+            }
+        }
+        if (image != null && !workingImage.empty() && !image.empty()) {
+            long start = workingImage.dataAddr();
+            long end = start + workingImage.total() * workingImage.elemSize();
+            if (image.dataAddr() >= start && image.dataAddr() < end) {
+                matPool.discard(workingImage);
+                return;
+            }
+        }
+        matPool.recycle(workingImage);
+    }
+
+    /**
+     * Borrows a Mat from the pool of this pipeline, i.e. as the destination of a stage. The 
+     * content of the Mat is undefined. When returned as the result image of the stage, the 
+     * pipeline recycles it automatically, otherwise the stage should recycle it using 
+     * recycleMat(), when no longer needed. 
+     * 
+     * @param rows
+     * @param cols
+     * @param type
+     * @return
+     */
+    public Mat borrowMat(int rows, int cols, int type) {
+        return matPool.borrow(rows, cols, type);
+    }
+
+    /**
+     * Borrows a Mat of the same size and type as the given Mat from the pool of this pipeline.
+     * 
+     * @see #borrowMat(int, int, int)
+     * @param like
+     * @return
+     */
+    public Mat borrowMat(Mat like) {
+        return matPool.borrow(like);
+    }
+
+    /**
+     * Gives a Mat back to the pool of this pipeline.
+     * 
+     * @param mat
+     */
+    public void recycleMat(Mat mat) {
+        matPool.recycle(mat);
+    }
+
+    public CvMatPool getMatPool() {
+        return matPool;
+    }
+
+    /**
+     * Crops a camera frame to the region of interest, if one is set as the 
+     * {@link #REGION_OF_INTEREST_PROPERTY} pipeline property. Called by ImageCapture right after
+     * capture, so all the following stages only process the pixels that matter, instead of the
+     * full frame.
+     * 
+     * The stages work in the coordinates of the cropped image. Location pipeline properties are
+     * converted accordingly, and the result models are translated back to full frame coordinates
+     * after processing, so the callers of the pipeline do not need to know about the crop. 
+     * 
+     * @param frame The captured frame, released if it is cropped.
+     * @return The cropped image, borrowed from the pool, or the frame itself, if no (effective) 
+     * region of interest is set.
+     */
+    public Mat applyRegionOfInterest(Mat frame) {
+        Object property = getProperty(REGION_OF_INTEREST_PROPERTY);
+        if (!(property instanceof Rect)) {
+            return frame;
+        }
+        Rect regionOfInterest = (Rect) property;
+        int x0 = Math.max(0, regionOfInterest.x);
+        int y0 = Math.max(0, regionOfInterest.y);
+        int x1 = Math.min(frame.cols(), regionOfInterest.x + regionOfInterest.width);
+        int y1 = Math.min(frame.rows(), regionOfInterest.y + regionOfInterest.height);
+        if (x1 <= x0 || y1 <= y0 
+                || (x0 == 0 && y0 == 0 && x1 == frame.cols() && y1 == frame.rows())) {
+            return frame;
+        }
+        Mat view = frame.submat(y0, y1, x0, x1);
+        Mat image = matPool.borrowClone(view);
+        view.release();
+        regionOfInterestFrameSize = frame.size();
+        regionOfInterestOffset = new Point(x0, y0);
+        frame.release();
+        return image;
+    }
+
+    /**
+     * @return The offset of the image cropped to the region of interest, in full frame pixels, or 
+     * null if the last processed image was not cropped. 
+     */
+    public Point getRegionOfInterestOffset() {
+        return regionOfInterestOffset;
+    }
+
+    /**
+     * Places an image cropped to the region of interest back into a black full frame, i.e. to 
+     * display it on the camera view. 
+     * 
+     * @param image
+     * @return A new full frame image, or the image itself, if the last processed image was not 
+     * cropped.
+     */
+    public Mat toFullFrameImage(Mat image) {
+        Point offset = regionOfInterestOffset;
+        Size frameSize = regionOfInterestFrameSize;
+        if (offset == null || frameSize == null || image == null
+                || image.cols() + offset.x > frameSize.width || image.rows() + offset.y > frameSize.height) {
+            return image;
+        }
+        Mat frame = new Mat(frameSize, image.type(), Scalar.all(0));
+        Mat view = frame.submat(new Rect((int) offset.x, (int) offset.y, image.cols(), image.rows()));
+        image.copyTo(view);
+        view.release();
+        return frame;
+    }
+
+    /**
+     * Converts the working image for display, placed back into the full frame, see 
+     * {@link #toFullFrameImage(Mat)}. The intermediate full frame image is released right away.
+     * 
+     * @return The full frame working image.
+     */
+    public BufferedImage getFullFrameWorkingBufferedImage() {
+        Mat image = getWorkingImage();
+        Mat frame = toFullFrameImage(image);
+        try {
+            return OpenCvUtils.toBufferedImage(frame);
+        }
+        finally {
+            if (frame != image) {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * Translates the models of all the stage results and the working model from the coordinates 
+     * of the cropped image back to full frame coordinates. Models that are shared between results 
+     * are only translated once. Model types that are not known to carry pixel coordinates are left 
+     * alone.
+     * 
+     * @param offset
+     */
+    private void translateModels(Point offset) {
+        Set<Object> translated = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Result result : results.values()) {
+            translateModel(result.model, offset, translated);
+        }
+        translateModel(workingModel, offset, translated);
+    }
+
+    private static void translateModel(Object model, Point offset, Set<Object> translated) {
+        if (model == null || !translated.add(model)) {
+            return;
+        }
+        if (model instanceof List) {
+            for (Object element : (List<?>) model) {
+                translateModel(element, offset, translated);
+            }
+        }
+        else if (model instanceof Point) {
+            ((Point) model).x += offset.x;
+            ((Point) model).y += offset.y;
+        }
+        else if (model instanceof RotatedRect) {
+            translateModel(((RotatedRect) model).center, offset, translated);
+        }
+        else if (model instanceof Rect) {
+            ((Rect) model).x += (int) offset.x;
+            ((Rect) model).y += (int) offset.y;
+        }
+        else if (model instanceof KeyPoint) {
+            translateModel(((KeyPoint) model).pt, offset, translated);
+        }
+        else if (model instanceof Result.Circle) {
+            ((Result.Circle) model).x += offset.x;
+            ((Result.Circle) model).y += offset.y;
+        }
+        else if (model instanceof Result.TemplateMatch) {
+            ((Result.TemplateMatch) model).x += offset.x;
+            ((Result.TemplateMatch) model).y += offset.y;
+        }
+        else if (model instanceof MatOfPoint || model instanceof MatOfPoint2f) {
+            Core.add((Mat) model, new Scalar(offset.x, offset.y), (Mat) model);
         }
     }
 
@@ -348,33 +976,34 @@ public class CvPipeline implements AutoCloseable {
     /**
      * Release any temporary resources associated with the processing of the pipeline. Should be
      * called when the pipeline is no longer needed. This is primarily to release retained native
-     * resources from OpenCV.
+     * resources from OpenCV. Images borrowed from the pool of the pipeline are given back to it,
+     * to be reused by the next process().
      */
     public void release() {
         if (workingImage != null) {
-            workingImage.release();
+            matPool.recycle(workingImage);
             workingImage = null;
         }
         for (Result result : results.values()) {
             if (result.image != null) {
-                result.image.release();
+                matPool.recycle(result.image);
             }
         }
         workingModel = null;
         results.clear();
+        matPool.reportLeaks();
     }
     
+    /**
+     * Releases the results like {@link #release()}, but also frees the native buffers kept in the 
+     * pool of the pipeline, instead of keeping them for the next process(). 
+     */
     @Override
     public void close() throws IOException {
         release();
+        matPool.clear();
     }
     
-    @Override
-    protected void finalize() throws Throwable {
-        release();
-        super.finalize();
-    }
-
     /**
      * Convert the pipeline to an XML string that can be read back in with #fromXmlString.
      * 
@@ -404,16 +1033,54 @@ public class CvPipeline implements AutoCloseable {
         for (CvStage stage : pipeline.getStages()) {
             add(stage);
         }
+        parallel = pipeline.parallel;
     }
 
+    /**
+     * Returns a fingerprint of the persisted content of the pipeline. Pipelines that are equal
+     * have the same fingerprint. The fingerprints of the stages are cached, see 
+     * CvStage#getFingerprint(). 
+     * 
+     * @return
+     * @throws Exception
+     */
+    public long getFingerprint() throws Exception {
+        resetToDefaults();
+        long hash = parallel ? 1 : 0;
+        for (CvStage stage : stages) {
+            hash = CvStage.fingerprint(hash, stage.getFingerprint());
+        }
+        return hash;
+    }
+
+    /**
+     * Two pipelines are equal, if they would be serialized to the same XML. The comparison is 
+     * made structurally, only falling back to the XML, if a stage has persisted values that 
+     * cannot be compared structurally. 
+     */
     @Override
     public boolean equals(Object other) {
         if (other == this) {
             return true;
         }
         else if (other instanceof CvPipeline) {
+            CvPipeline otherPipeline = (CvPipeline) other;
             try {
-                return toXmlString().equals(((CvPipeline) other).toXmlString());
+                if (parallel != otherPipeline.parallel 
+                        || stages.size() != otherPipeline.stages.size()
+                        || getFingerprint() != otherPipeline.getFingerprint()) {
+                    return false;
+                }
+                for (int i = 0; i < stages.size(); i++) {
+                    Boolean equal = stages.get(i).contentEquals(otherPipeline.stages.get(i));
+                    if (equal == null) {
+                        return toXmlString().equals(otherPipeline.toXmlString());
+                    }
+                    if (!equal) {
+                        return false;
+                    }
+                }
+                return true;
             }
             catch (Exception e) {
                 //ignore
@@ -422,6 +1089,21 @@ public class CvPipeline implements AutoCloseable {
         return false;
     }
 
+    /**
+     * Consistent with {@link #equals(Object)}, which only finds pipelines equal that have the same 
+     * fingerprint. 
+     */
+    @Override
+    public int hashCode() {
+        try {
+            return Long.hashCode(getFingerprint());
+        }
+        catch (Exception e) {
+            // Such a pipeline is only equal to itself.
+            return stages.size();
+        }
+    }
+
     private String generateUniqueName() {
         for (int i = 0;; i++) {
             String name = "" + i;
@@ -431,10 +1113,25 @@ public class CvPipeline implements AutoCloseable {
         }
     }
 
+    /**
+     * Creates a deep copy of the pipeline, without its results and properties. The stages are 
+     * copied structurally, only falling back to the XML round-trip, if a stage has persisted 
+     * values that cannot be copied structurally.
+     */
     @Override
     public CvPipeline clone() throws CloneNotSupportedException {
         try {
-            return new CvPipeline(toXmlString());
+            resetToDefaults();
+            CvPipeline pipeline = new CvPipeline();
+            pipeline.parallel = parallel;
+            for (CvStage stage : stages) {
+                CvStage copy = stage.copy();
+                if (copy == null) {
+                    return new CvPipeline(toXmlString());
+                }
+                pipeline.add(copy);
+            }
+            return pipeline;
         }
         catch (Exception e) {
             throw new CloneNotSupportedException(e.getMessage());
@@ -449,6 +1146,13 @@ public class CvPipeline implements AutoCloseable {
         properties.put(name, value);
     }
 
+    /**
+     * @return The current pipeline properties, e.g. to hand them on to a clone of the pipeline.
+     */
+    public Map<String, Object> getProperties() {
+        return Collections.unmodifiableMap(properties);
+    }
+
     public void addProperties(Map<String, Object> pipelineParameterAssignments) {
         if (pipelineParameterAssignments != null) {
             properties.putAll(pipelineParameterAssignments);
@@ -460,7 +1164,7 @@ public class CvPipeline implements AutoCloseable {
         compositeShots = new ArrayList<>();
     }
 
-    private static Serializer createSerializer() {
+    static Serializer createSerializer() {
         Style style = new HyphenStyle();
         Format format = new Format(style);
         AnnotationStrategy strategy = new AnnotationStrategy();
@@ -8,12 +8,21 @@ import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.MethodDescriptor;
 import java.beans.PropertyDescriptor;
+import java.io.File;
+import java.io.StringWriter;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.opencv.core.Mat;
 import org.openpnp.model.Area;
@@ -25,6 +34,12 @@ import org.openpnp.util.VisionUtils;
 import org.openpnp.vision.FluentCv.ColorSpace;
 import org.openpnp.vision.pipeline.ui.PipelinePropertySheetTable;
 import org.simpleframework.xml.Attribute;
+import org.simpleframework.xml.Element;
+import org.simpleframework.xml.ElementArray;
+import org.simpleframework.xml.ElementList;
+import org.simpleframework.xml.ElementMap;
+import org.simpleframework.xml.Text;
+import org.simpleframework.xml.core.Commit;
 
 /**
  * Base class for a stage in a CvPipeline. A CvStage has a unique name within a pipeline and is able
@@ -40,6 +55,20 @@ public abstract class CvStage {
 
     private Map<String, Object> propertyOverrides;
 
+    /**
+     * The String fields named like *StageName, per stage class.
+     */
+    private static final Map<Class<?>, List<Field>> stageNameFields = new ConcurrentHashMap<>();
+
+    /**
+     * The fields persisted in the XML serialization and the @Commit methods, per stage class.
+     */
+    private static final Map<Class<?>, List<Field>> persistedFields = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, List<Method>> commitMethods = new ConcurrentHashMap<>();
+
+    private Object[] fingerprintValues;
+    private long fingerprint;
+
     /**
      * Perform an operation in a pipeline. Typical implementations will call
      * CvPipeline#getWorkingImage(), perform some type of operation on the image and will return a
@@ -62,6 +91,230 @@ public abstract class CvStage {
         propertyOverrides = null;
     }
 
+    /**
+     * Get the names of the stages whose results this stage reads when processed. The default 
+     * implementation returns the non-empty values of all the String fields named like 
+     * *StageName, such as templateStageName or ImageRecall.imageStageName. Stages that read 
+     * results by other means must override this.
+     * 
+     * @return The referenced stage names, or null if the stage may read any result, such as a 
+     * script. 
+     */
+    public Collection<String> getReferencedStageNames() {
+        List<Field> fields = stageNameFields.computeIfAbsent(getClass(), (cls) -> {
+            List<Field> list = new ArrayList<>();
+            for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (field.getType() == String.class 
+                            && field.getName().endsWith("StageName")
+                            && !Modifier.isStatic(field.getModifiers())) {
+                        field.setAccessible(true);
+                        list.add(field);
+                    }
+                }
+            }
+            return list;
+        });
+        List<String> names = new ArrayList<>();
+        for (Field field : fields) {
+            try {
+                String name = (String) field.get(this);
+                if (name != null && !name.trim().isEmpty()) {
+                    names.add(name);
+                }
+            }
+            catch (IllegalAccessException e) {
+                return null;
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Tells if the stage reads the working image, model or color space left by the previous stage.
+     * A stage that creates its result from scratch or only from the results of named stages, such 
+     * as a template image or ImageRecall, starts a new branch of the pipeline, that can be 
+     * processed concurrently with the stages before it.
+     * 
+     * @return True if the stage does not read the working state. The default is false.
+     */
+    public boolean isWorkingStateIndependent() {
+        return false;
+    }
+
+    /**
+     * Tells if the stage has side effects outside of the pipeline, such as capturing camera 
+     * images, writing files or actuators. Such a stage is only processed after all the stages 
+     * before it, even if they are in other branches of the pipeline.
+     * 
+     * @return True if the stage must be processed in pipeline order. The default is false.
+     */
+    public boolean isSequential() {
+        return false;
+    }
+
+    /**
+     * Creates a deep copy of the stage, by copying its persisted fields, i.e. those annotated for
+     * XML serialization. The result is the same as serializing the stage and reading it back in,
+     * including the call of its @Commit methods, but much faster. 
+     * 
+     * @return The copy, or null if the stage has persisted values of a type that cannot be 
+     * copied structurally, in which case the caller must fall back to serialization.
+     * @throws Exception
+     */
+    public CvStage copy() throws Exception {
+        Object[] values = getPersistedValues();
+        if (values == null) {
+            return null;
+        }
+        Constructor<? extends CvStage> constructor = getClass().getDeclaredConstructor();
+        constructor.setAccessible(true);
+        CvStage copy = constructor.newInstance();
+        List<Field> fields = getPersistedFields(getClass());
+        for (int i = 0; i < values.length; i++) {
+            fields.get(i).set(copy, values[i]);
+        }
+        for (Method method : getCommitMethods(getClass())) {
+            method.invoke(copy);
+        }
+        return copy;
+    }
+
+    /**
+     * Tells if the persisted content of the stage is equal to that of the other stage, i.e. if
+     * they would be serialized to the same XML.
+     * 
+     * @param other
+     * @return True if the content is equal, false if it differs, null if the stages have persisted
+     * values of a type that cannot be compared structurally. 
+     */
+    public Boolean contentEquals(CvStage other) {
+        if (other.getClass() != getClass()) {
+            return false;
+        }
+        Object[] values = getPersistedValues();
+        Object[] otherValues = other.getPersistedValues();
+        if (values == null || otherValues == null) {
+            return null;
+        }
+        return Arrays.equals(values, otherValues);
+    }
+
+    /**
+     * Returns a fingerprint of the persisted content of the stage. Stages with equal content have 
+     * the same fingerprint. The fingerprint is cached and only computed anew when one of the 
+     * persisted values was replaced. As these are all immutable, this is mostly a reference comparison.
+     * 
+     * @return
+     * @throws Exception
+     */
+    public synchronized long getFingerprint() throws Exception {
+        Object[] values = getPersistedValues();
+        if (values == null) {
+            // Not structurally comparable, take the serialized form.
+            StringWriter writer = new StringWriter();
+            CvPipeline.createSerializer().write(this, writer);
+            fingerprintValues = null;
+            return fingerprint(getClass().getName().hashCode(), writer.toString().hashCode());
+        }
+        if (fingerprintValues != null && fingerprintValues.length == values.length) {
+            boolean changed = false;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != fingerprintValues[i] && !Objects.equals(values[i], fingerprintValues[i])) {
+                    changed = true;
+                    break;
+                }
+            }
+            if (!changed) {
+                return fingerprint;
+            }
+        }
+        long hash = getClass().getName().hashCode();
+        for (Object value : values) {
+            hash = fingerprint(hash, Objects.hashCode(value));
+        }
+        fingerprint = hash;
+        fingerprintValues = values;
+        return fingerprint;
+    }
+
+    static long fingerprint(long hash, long value) {
+        // Mix the bits, as in SplitMix64.
+        long z = (hash + value)*0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30))*0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27))*0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return The values of the persisted fields, or null if one is of a type that is not known 
+     * to be immutable. 
+     */
+    private Object[] getPersistedValues() {
+        List<Field> fields = getPersistedFields(getClass());
+        Object[] values = new Object[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            try {
+                values[i] = fields.get(i).get(this);
+            }
+            catch (IllegalAccessException e) {
+                return null;
+            }
+            if (!isImmutable(values[i])) {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    private static boolean isImmutable(Object value) {
+        return value == null 
+                || value instanceof String 
+                || value instanceof Number && value.getClass().getName().startsWith("java.lang.")
+                || value instanceof Boolean 
+                || value instanceof Character 
+                || value instanceof Enum
+                || value instanceof java.awt.Color
+                || value instanceof File;
+    }
+
+    private static List<Field> getPersistedFields(Class<?> cls) {
+        return persistedFields.computeIfAbsent(cls, (c0) -> {
+            List<Field> list = new ArrayList<>();
+            for (Class<?> c = c0; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())
+                            && (field.isAnnotationPresent(Attribute.class)
+                                    || field.isAnnotationPresent(Element.class)
+                                    || field.isAnnotationPresent(ElementList.class)
+                                    || field.isAnnotationPresent(ElementArray.class)
+                                    || field.isAnnotationPresent(ElementMap.class)
+                                    || field.isAnnotationPresent(Text.class))) {
+                        field.setAccessible(true);
+                        list.add(field);
+                    }
+                }
+            }
+            return list;
+        });
+    }
+
+    private static List<Method> getCommitMethods(Class<?> cls) {
+        return commitMethods.computeIfAbsent(cls, (c0) -> {
+            List<Method> list = new ArrayList<>();
+            // Super classes first, as the deserializer does.
+            for (Class<?> c = c0; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Method method : c.getDeclaredMethods()) {
+                    if (method.isAnnotationPresent(Commit.class) && method.getParameterCount() == 0) {
+                        method.setAccessible(true);
+                        list.add(0, method);
+                    }
+                }
+            }
+            return list;
+        });
+    }
+
     public String getName() {
         return name;
     }
@@ -594,6 +847,11 @@ public abstract class CvStage {
                         throw new Exception("Unable to convert to pixels because pipeline property \"camera\" is not set");
                     }
                     org.openpnp.model.Point p = VisionUtils.getLocationPixels(camera, (Location) pipelineProperty);
+                    org.opencv.core.Point offset = pipeline.getRegionOfInterestOffset();
+                    if (offset != null) {
+                        // The image was cropped to the region of interest.
+                        p = new org.openpnp.model.Point(p.x - offset.x, p.y - offset.y);
+                    }
                     if (parameter instanceof org.opencv.core.Point) {
                         return (T) new org.opencv.core.Point(p.x, p.y);
                     }
@@ -42,7 +42,8 @@ public class BlurGaussian extends CvStage {
         int kernelSize = getPossiblePipelinePropertyOverride(this.kernelSize, pipeline, propertyName+".kernelSize",
                 Double.class, Length.class)|1;
         Mat mat = pipeline.getWorkingImage();
-        Imgproc.GaussianBlur(mat, mat, new Size(kernelSize, kernelSize), 0);
-        return null;
+        Mat blurred = pipeline.borrowMat(mat);
+        Imgproc.GaussianBlur(mat, blurred, new Size(kernelSize, kernelSize), 0);
+        return new Result(blurred);
     }
 }
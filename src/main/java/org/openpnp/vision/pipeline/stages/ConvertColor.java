@@ -1,5 +1,8 @@
 package org.openpnp.vision.pipeline.stages;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.opencv.core.Mat;
 import org.opencv.imgproc.Imgproc;
 import org.openpnp.vision.FluentCv;
@@ -17,6 +20,8 @@ import org.simpleframework.xml.Attribute;
  * Converts the underlying numeric representation of the current working image from one color space to another.
  */
 public class ConvertColor extends CvStage {
+    private static final Map<Long, Integer> convertedTypes = new ConcurrentHashMap<>();
+
     @Attribute
     @Property(description="Selects the from/to color space conversion.")
     private FluentCv.ColorCode conversion = FluentCv.ColorCode.Bgr2Gray;
@@ -32,8 +37,33 @@ public class ConvertColor extends CvStage {
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
         Mat mat = pipeline.getWorkingImage();
-        Imgproc.cvtColor(mat, mat, conversion.getCode());
+        Mat converted = pipeline.borrowMat(mat.rows(), mat.cols(), 
+                getConvertedType(mat.type(), conversion.getCode()));
+        Imgproc.cvtColor(mat, converted, conversion.getCode());
         pipeline.setWorkingColorSpace(conversion.getResultingColorSpace());
-        return null;
+        return new Result(converted);
+    }
+
+    /**
+     * Determines the type of the converted image, so the right destination can be borrowed from 
+     * the pool. OpenCV does not tell, so a single pixel is converted once per combination.   
+     */
+    private static int getConvertedType(int type, int code) {
+        return convertedTypes.computeIfAbsent(((long) type << 32) | code, k -> {
+            Mat probe = new Mat(1, 1, type);
+            Mat converted = new Mat();
+            try {
+                Imgproc.cvtColor(probe, converted, code);
+                return converted.type();
+            }
+            catch (Exception e) {
+                // Let the conversion proper throw.
+                return type;
+            }
+            finally {
+                probe.release();
+                converted.release();
+            }
+        });
     }
 }
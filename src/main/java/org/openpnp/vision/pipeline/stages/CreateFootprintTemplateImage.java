@@ -161,6 +161,11 @@ public class CreateFootprintTemplateImage extends CvStage {
         this.propertyName = propertyName;
     }
 
+    @Override
+    public boolean isWorkingStateIndependent() {
+        return true;
+    }
+
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
         if (propertyName == null || propertyName.isEmpty()) {
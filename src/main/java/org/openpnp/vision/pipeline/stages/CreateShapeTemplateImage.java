@@ -47,6 +47,11 @@ public class CreateShapeTemplateImage extends CvStage {
         this.oversize = oversize;
     }
 
+    @Override
+    public boolean isWorkingStateIndependent() {
+        return true;
+    }
+
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
         if (templateShapeName == null || templateShapeName.trim()
@@ -24,6 +24,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import org.opencv.core.Mat;
 import org.openpnp.model.Length;
@@ -131,6 +132,11 @@ public class DetectCircularSymmetry extends CvStage {
     @Property(description = "Overlay a heat map indicating the local circular symmetry.")
     private boolean heatMap = false;
 
+    @Attribute(required = false)
+    @Property(description = "Search the candidate centers in parallel, on all CPU cores. The result is the same as "
+            + "when searching sequentially.")
+    private boolean parallelSearch = true;
+
     public int getMinDiameter() {
         return minDiameter;
     }
@@ -211,6 +217,14 @@ public class DetectCircularSymmetry extends CvStage {
         this.heatMap = heatMap;
     }
 
+    public boolean isParallelSearch() {
+        return parallelSearch;
+    }
+
+    public void setParallelSearch(boolean parallelSearch) {
+        this.parallelSearch = parallelSearch;
+    }
+
     public String getPropertyName() {
         return propertyName;
     }
@@ -305,7 +319,7 @@ public class DetectCircularSymmetry extends CvStage {
 
         List<Result.Circle> circles = findCircularSymmetry(mat, (int)center.x, (int)center.y, 
                 minDiameter, maxDiameter, maxDistance*2, searchWidth, searchHeight, maxTargetCount, minSymmetry, corrSymmetry, 
-                subSampling, superSampling, symmetryScore, diagnostics, heatMap, new ScoreRange());
+                subSampling, superSampling, symmetryScore, diagnostics, heatMap, new ScoreRange(), parallelSearch);
         return new Result(null, circles);
     }
 
@@ -355,6 +369,22 @@ public class DetectCircularSymmetry extends CvStage {
         }
     }
 
+    /**
+     * The best candidate and the scores of one row of the search. 
+     */
+    private static class SearchRow {
+        double scoreBest = Double.NEGATIVE_INFINITY;
+        double xBest;
+        double yBest;
+        int rContrastBest;
+        final double [] scores;
+        int n;
+
+        SearchRow(int size) {
+            scores = new double[size];
+        }
+    }
+
     /**
      * The detection will recurse into a local search with finer subSampling. A range of iterationRadius*subSampling 
      * pixels around the preliminary best location will be searched.  
@@ -413,6 +443,23 @@ public class DetectCircularSymmetry extends CvStage {
             int searchHeight, int maxTargetCount, double minSymmetry,
             double corrSymmetry, int subSampling, int superSampling, 
             SymmetryScore symmetryScore, boolean diagnostics, boolean heatMap, ScoreRange scoreRange) throws Exception {
+        return findCircularSymmetry(image, xCenter, yCenter, minDiameter, maxDiameter, searchDiameter, 
+                searchWidth, searchHeight, maxTargetCount, minSymmetry, corrSymmetry, subSampling, superSampling, 
+                symmetryScore, diagnostics, heatMap, scoreRange, true);
+    }
+
+    /**
+     * Same as {@link #findCircularSymmetry(Mat, int, int, int, int, int, int, int, int, double, double, int, int, SymmetryScore, boolean, boolean, ScoreRange)}, 
+     * but with the choice to search sequentially.
+     * 
+     * @param parallelSearch    If true, the rows of candidate centers are searched in parallel.
+     */
+    public static  List<Result.Circle> findCircularSymmetry(Mat image, int xCenter, int yCenter,
+            int minDiameter, int maxDiameter, int searchDiameter, int searchWidth, 
+            int searchHeight, int maxTargetCount, double minSymmetry,
+            double corrSymmetry, int subSampling, int superSampling, 
+            SymmetryScore symmetryScore, boolean diagnostics, boolean heatMap, ScoreRange scoreRange, 
+            boolean parallelSearch) throws Exception {
         boolean outermost = !Double.isFinite(scoreRange.finalScore);
         // Image properties.
         final int channels = image.channels();
@@ -498,14 +545,11 @@ public class DetectCircularSymmetry extends CvStage {
         int [] idxPixelData = new int[maxPixelDataDim]; // Index into the pixel data, relative from the left upper corner.
         int [] idxHistogram = new int[maxPixelDataDim]; // Index into the result histogram.
         int [] rRing = new int [rDim];
-        double [] segmentValues = new double[angleDim]; 
         for (int ri = 0; ri < rDim; ri++) {
             rRing[ri] = r0 + ri*subSamplingEff;
         }
         int [] histogramN = new int[histogramDim];
         double [] histogramFactor = new double[histogramDim];
-        long [] histogramSum = new long[histogramDim]; 
-        long [] histogramSumSq = new long[histogramDim]; 
 
         // Outer super-sampling loop. 
         for (double xOffset : superSamplingOffsets) {
@@ -546,7 +590,27 @@ public class DetectCircularSymmetry extends CvStage {
                 }
 
                 // Now iterate through all the pixel offsets and find the maximum circular symmetry.
-                for (int yi = 0, yis = 0; yi < hSearchRange; yi += subSamplingEff, yis++) {
+                // The rows are searched in parallel, each with its own histogram scratch arrays. The
+                // row results are then reduced in row order, so the outcome is exactly the same as
+                // when searching sequentially.
+                final int samplesFinal = samples;
+                final int minDiameterFinal = minDiameter;
+                final double [] scoreMapFinal = scoreMap;
+                final int [] radiusMapFinal = radiusMap;
+                final double [] xOffsetMapFinal = xOffsetMap;
+                final double [] yOffsetMapFinal = yOffsetMap;
+                final int rowCount = (hSearchRange + subSamplingEff - 1)/subSamplingEff;
+                SearchRow [] rows = new SearchRow[rowCount];
+                IntStream rowStream = IntStream.range(0, rowCount);
+                if (parallelSearch && rowCount > 1) {
+                    rowStream = rowStream.parallel();
+                }
+                rowStream.forEach(yis -> {
+                    final int yi = yis*subSamplingEff;
+                    SearchRow row = new SearchRow((wSearchRange + subSamplingEff - 1)/subSamplingEff);
+                    long [] histogramSum = new long[histogramDim]; 
+                    long [] histogramSumSq = new long[histogramDim]; 
+                    double [] segmentValues = new double[angleDim]; 
                     for (int xi = 0, xis = 0, idxOffset = (yi*width + x0SearchRange) * channels; 
                             xi < wSearchRange; 
                             xi += subSamplingEff, xis++, idxOffset += channels*subSamplingEff) {
@@ -554,7 +618,7 @@ public class DetectCircularSymmetry extends CvStage {
                         if (distSq <= rSearchSq) {
                             Arrays.fill(histogramSum, 0);
                             Arrays.fill(histogramSumSq, 0);
-                            for (int i = 0; i < samples; i++) {
+                            for (int i = 0; i < samplesFinal; i++) {
                                 int idxPixel = idxPixelData[i];
                                 int idxHisto = idxHistogram[i];
                                 int pixel = Byte.toUnsignedInt(pixelSamples[idxOffset + idxPixel]);
@@ -644,7 +708,7 @@ public class DetectCircularSymmetry extends CvStage {
                                     contrast += Math.pow(lastAvg[ch] - avg1, 2);
                                     lastAvg[ch] = avg1;
                                 }
-                                if (rRing[idxR]*2 >= minDiameter) {
+                                if (rRing[idxR]*2 >= minDiameterFinal) {
                                     if (contrastBest < contrast) {
                                         contrastBest = contrast;
                                         riContrastBest = rRing[idxR];
@@ -656,29 +720,41 @@ public class DetectCircularSymmetry extends CvStage {
                                 varianceAcross += (sumSqAcross[ch] - Math.pow(sumAcross[ch], 2) / nAcross[ch]);
                             }
                             score = (varianceAcross + div0Guard)/(varianceRing + div0Guard);
-                            scoreRange.add(score);
-                            if (scoreBestSampling < score) {
-                                scoreBestSampling = score;
-                                xBestSampling = xi + x0SearchRange + r + 0.5 + xOffset;
-                                yBestSampling = yi + y0SearchRange + r + 0.5 + yOffset;
-                                if (scoreBest < score) {
-                                    scoreBest = score;
-                                    xBest = xBestSampling;
-                                    yBest = yBestSampling;
-                                    rContrastBest = riContrastBest;
-                                }
+                            row.scores[row.n++] = score;
+                            if (row.scoreBest < score) {
+                                row.scoreBest = score;
+                                row.xBest = xi + x0SearchRange + r + 0.5 + xOffset;
+                                row.yBest = yi + y0SearchRange + r + 0.5 + yOffset;
+                                row.rContrastBest = riContrastBest;
                             }
-                            if (scoreMap != null) {
+                            if (scoreMapFinal != null) {
                                 int idx = yis*wSearchRangeMap + xis;
-                                if (scoreMap[idx] < score) {
-                                    scoreMap[idx] = score;
-                                    radiusMap[idx] = riContrastBest;
-                                    xOffsetMap[idx] = xOffset;
-                                    yOffsetMap[idx] = yOffset;
+                                if (scoreMapFinal[idx] < score) {
+                                    scoreMapFinal[idx] = score;
+                                    radiusMapFinal[idx] = riContrastBest;
+                                    xOffsetMapFinal[idx] = xOffset;
+                                    yOffsetMapFinal[idx] = yOffset;
                                 }
                             }
                         }
                     }
+                    rows[yis] = row;
+                });
+                for (SearchRow row : rows) {
+                    for (int i = 0; i < row.n; i++) {
+                        scoreRange.add(row.scores[i]);
+                    }
+                    if (scoreBestSampling < row.scoreBest) {
+                        scoreBestSampling = row.scoreBest;
+                        xBestSampling = row.xBest;
+                        yBestSampling = row.yBest;
+                        if (scoreBest < row.scoreBest) {
+                            scoreBest = row.scoreBest;
+                            xBest = row.xBest;
+                            yBest = row.yBest;
+                            rContrastBest = row.rContrastBest;
+                        }
+                    }
                 }
                 if (DEBUG >= 1) {
                     Logger.trace("best circular symmetry at subSampling "+subSamplingEff+", range W"+wSearchRange+" H"+hSearchRange
@@ -763,7 +839,8 @@ public class DetectCircularSymmetry extends CvStage {
                         int localSearchRange = subSamplingEff*iterationRadius;
                         List<CvStage.Result.Circle> localRet = findCircularSymmetry(image, (int)localBest.x, (int)localBest.y, minDiameter, maxDiameter, 
                                 localSearchRange, localSearchRange, localSearchRange, 1,
-                                minSymmetry, corrSymmetry, subSamplingEff/iterationDivision, superSampling, symmetryScore, diagnostics, heatMap, scoreRange);
+                                minSymmetry, corrSymmetry, subSamplingEff/iterationDivision, superSampling, symmetryScore, diagnostics, heatMap, scoreRange, 
+                                parallelSearch);
                         if (localRet.size() > 0) { 
                             samplingFiltered.add((SymmetryCircle) localRet.get(0));
                         }
@@ -792,7 +869,8 @@ public class DetectCircularSymmetry extends CvStage {
                 // Recursion into finer subSampling and local search.
                 ret = findCircularSymmetry(image, (int)(xBest), (int)(yBest), minDiameter, maxDiameter, 
                         subSamplingEff*iterationRadius, subSamplingEff*iterationRadius, subSamplingEff*iterationRadius, 1,
-                        minSymmetry, corrSymmetry, subSamplingEff/iterationDivision, superSampling, symmetryScore, diagnostics, heatMap, scoreRange);
+                        minSymmetry, corrSymmetry, subSamplingEff/iterationDivision, superSampling, symmetryScore, diagnostics, heatMap, scoreRange, 
+                        parallelSearch);
             }
         }
 
@@ -1,5 +1,6 @@
 package org.openpnp.vision.pipeline.stages;
 
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.imgproc.Imgproc;
 import org.openpnp.vision.pipeline.CvPipeline;
@@ -35,7 +36,8 @@ public class DetectEdgesCanny extends CvStage {
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
         Mat mat = pipeline.getWorkingImage();
-        Imgproc.Canny(mat, mat, threshold1, threshold2);
-        return null;
+        Mat edges = pipeline.borrowMat(mat.rows(), mat.cols(), CvType.CV_8UC1);
+        Imgproc.Canny(mat, edges, threshold1, threshold2);
+        return new Result(edges);
     }
 }
@@ -23,6 +23,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.stream.IntStream;
 
 import org.opencv.core.Mat;
 import org.opencv.core.RotatedRect;
@@ -143,6 +144,17 @@ public class DetectRectlinearSymmetry extends CvStage {
             + "This is used to remove masking imperfections, i.e. image specks and impurities up to a certain size and frequency.")
     private double minFeatureSize = 40;
 
+    @Attribute(required = false)
+    @Property(description = "Evaluate the angles on a coarser grid first, and only refine those that come close to the best. "
+            + "This is considerably faster with large search angles, but a different angle may be found, if there are several "
+            + "angles with very similar contrast.")
+    private boolean coarseToFine = false;
+
+    @Attribute(required = false)
+    @Property(description = "Evaluate the angles in parallel, on all CPU cores. The result is the same as when evaluating "
+            + "them sequentially.")
+    private boolean parallelSearch = true;
+
     @Attribute(required = false)
     @Property(description = "Display the detection with cross-hairs and bounds.")
     private boolean diagnostics = false;
@@ -293,6 +305,22 @@ public class DetectRectlinearSymmetry extends CvStage {
         this.propertyName = propertyName;
     }
 
+    public boolean isCoarseToFine() {
+        return coarseToFine;
+    }
+
+    public void setCoarseToFine(boolean coarseToFine) {
+        this.coarseToFine = coarseToFine;
+    }
+
+    public boolean isParallelSearch() {
+        return parallelSearch;
+    }
+
+    public void setParallelSearch(boolean parallelSearch) {
+        this.parallelSearch = parallelSearch;
+    }
+
     public boolean isDiagnostics() {
         return diagnostics;
     }
@@ -447,7 +475,7 @@ public class DetectRectlinearSymmetry extends CvStage {
                 (symmetricUpperLower ? getSymmetricFunction() :  getAsymmetricFunction()), 
                 minFeatureSize,
                 subSampling, superSampling, smoothing, gamma,
-                threshold, diagnostics, diagnosticsMap, new ScoreRange());
+                threshold, diagnostics, diagnosticsMap, coarseToFine, parallelSearch, new ScoreRange());
         return new Result(null, rect);
     }
 
@@ -464,6 +492,168 @@ public class DetectRectlinearSymmetry extends CvStage {
         }
     }
 
+    /**
+     * The rectlinear cross-sections of the subject at one angle. 
+     */
+    private static class CrossSections {
+        double [] xFiltered;
+        double [] yFiltered;
+        double [] xMasked;
+        double [] yMasked;
+        double contrast;
+    }
+
+    /**
+     * Samples the pixels into rectlinear cross-sections at a given angle. The sampler is immutable, so the 
+     * angles can be sampled concurrently.
+     */
+    private static class CrossSectionSampler {
+        final Mat image;
+        final byte [] pixelSamples;
+        final int channels;
+        final int width;
+        final int x0Pixels;
+        final int y0Pixels;
+        final int wPixels;
+        final int hPixels;
+        final int cxPixels;
+        final int cyPixels;
+        final int subSampling;
+        final int superSampling;
+        final int wCross;
+        final int hCross;
+        final double cxCross;
+        final double cyCross;
+        final double [] gammaTable;
+        final double thresholdLuminance;
+        final double [] kernel;
+        final double debugAngle;
+        final double angleStep;
+
+        CrossSectionSampler(Mat image, byte[] pixelSamples, int channels, int width, 
+                int x0Pixels, int y0Pixels, int wPixels, int hPixels, int cxPixels, int cyPixels, 
+                int subSampling, int superSampling, int wCross, int hCross, 
+                double[] gammaTable, double thresholdLuminance, double[] kernel, double debugAngle, double angleStep) {
+            this.image = image;
+            this.pixelSamples = pixelSamples;
+            this.channels = channels;
+            this.width = width;
+            this.x0Pixels = x0Pixels;
+            this.y0Pixels = y0Pixels;
+            this.wPixels = wPixels;
+            this.hPixels = hPixels;
+            this.cxPixels = cxPixels;
+            this.cyPixels = cyPixels;
+            this.subSampling = subSampling;
+            this.superSampling = superSampling;
+            this.wCross = wCross;
+            this.hCross = hCross;
+            this.cxCross = wCross/2;
+            this.cyCross = hCross/2;
+            this.gammaTable = gammaTable;
+            this.thresholdLuminance = thresholdLuminance;
+            this.kernel = kernel;
+            this.debugAngle = debugAngle;
+            this.angleStep = angleStep;
+        }
+
+        CrossSections sample(double angle) {
+            double [] xCrossSection = new double[wCross*channels];
+            double [] yCrossSection = new double[hCross*channels];
+            double [] xCrossSectionN = new double[wCross];
+            double [] yCrossSectionN = new double[hCross];
+            double [] xCrossSectionMasked = new double[wCross];
+            double [] yCrossSectionMasked = new double[hCross];
+            // Note, this is the reverse rotation, i.e. angle is negative.
+            double s = superSampling*Math.sin(-angle)/subSampling;
+            double c = superSampling*Math.cos(-angle)/subSampling;
+            // Calculate the cross-sections from the pixels.
+            for (int y = 0, dy = -cyPixels, iy = 0; y < hPixels; y += subSampling, dy += subSampling, iy += width*channels*subSampling) {
+                double sy = s*dy;
+                double cy = c*dy;
+                for (int x = 0, dx = -cxPixels, idx = iy + x0Pixels*channels; x < wPixels; x += subSampling, dx += subSampling, idx += channels*subSampling) {
+                    double sx = s*dx;
+                    double cx = c*dx;
+                    // Note: this is a left-handed coordinate system, i.e. y pointing down.
+                    double xCross = cx + sy + cxCross;
+                    double yCross = -sx + cy + cyCross;
+                    int ixCross = (int) Math.round(xCross);
+                    int iyCross = (int) Math.round(yCross);
+                    double xWeight1 = xCross + 0.5 - ixCross;
+                    double xWeight0 = 1 - xWeight1;
+                    double yWeight1 = yCross + 0.5 - iyCross;
+                    double yWeight0 = 1 - yWeight1;
+                    if (iyCross > 1 && iyCross < hCross) {
+                        if (ixCross > 1 && ixCross < wCross) {
+                            double luminance = 0;
+                            for (int ch = 0; ch < channels; ch++) {
+                                int xai = ixCross*channels + ch;
+                                int yai = iyCross*channels + ch;
+                                double pixel = gammaTable[Byte.toUnsignedInt(pixelSamples[idx + ch])];
+                                luminance += pixel;
+                                xCrossSection[xai] += pixel*xWeight1;
+                                xCrossSection[xai - channels] += pixel*xWeight0;
+                                yCrossSection[yai] += pixel*yWeight1;
+                                yCrossSection[yai - channels] += pixel*yWeight0;
+                                if (DEBUG >= 2) {
+                                    if (Math.abs(angle - debugAngle) < angleStep) {
+                                        byte [] pixelData = new byte[channels];
+                                        image.get(y0Pixels + y, x0Pixels + x, pixelData);
+                                        if (ch == 2) {
+                                            pixelData[ch] = (byte)(127.0*ixCross/wCross + pixelData[ch]/2);
+                                        }
+                                        else if (ch == 1) {
+                                            pixelData[ch] = (byte)(127.0*iyCross/hCross + pixelData[ch]/2);
+                                        }
+                                        image.put(y0Pixels + y, x0Pixels + x, pixelData);
+                                    }
+                                }
+                            }
+                            xCrossSectionN[ixCross] += xWeight1;
+                            xCrossSectionN[ixCross - 1] += xWeight0;
+                            yCrossSectionN[iyCross] += yWeight1;
+                            yCrossSectionN[iyCross - 1] += yWeight0;
+                            if (luminance > thresholdLuminance) {
+                                xCrossSectionMasked[ixCross] += xWeight1;
+                                xCrossSectionMasked[ixCross - 1] += xWeight0;
+                                yCrossSectionMasked[iyCross] += yWeight1;
+                                yCrossSectionMasked[iyCross - 1] += yWeight0;
+                            }
+                        }
+                    }
+                }
+            }
+            // Normalize
+            for (int x = 0; x < wCross; x++) {
+                if (xCrossSectionN[x] > 0) {
+                    for (int ch = 0; ch < channels; ch++) {
+                        xCrossSection[x*channels + ch] /= xCrossSectionN[x];
+                    }
+                }
+            }
+            for (int y = 0; y < hCross; y++) {
+                if (yCrossSectionN[y] > 0) {
+                    for (int ch = 0; ch < channels; ch++) {
+                        yCrossSection[y*channels + ch] /= yCrossSectionN[y];
+                    }
+                }
+            }
+            CrossSections sections = new CrossSections();
+            sections.xFiltered = new double[wCross*channels];
+            sections.yFiltered = new double[hCross*channels];
+            sections.xMasked = xCrossSectionMasked;
+            sections.yMasked = yCrossSectionMasked;
+            // We're using a gaussian kernel to get rid of sampling interferences especially at the 45° step angles.
+            KernelUtils.applyKernel(channels, wCross, xCrossSection, kernel, sections.xFiltered); 
+            KernelUtils.applyKernel(channels, hCross, yCrossSection, kernel, sections.yFiltered); 
+            // Analyze cross-sections contrast.
+            sections.contrast = 
+                    sumContrast(channels, wCross, sections.xFiltered, xCrossSectionN)
+                    + sumContrast(channels, hCross, sections.yFiltered, yCrossSectionN);
+            return sections;
+        }
+    }
+
     /**
      * The detection will recurse into a local search with finer subSampling. An angle of iterationAngle*step 
      * around the preliminary best angle will be searched.  
@@ -482,6 +672,19 @@ public class DetectRectlinearSymmetry extends CvStage {
      * Minimum subject size in pixels. Very small subject need to be kept larger in iteration.
      */
     static final private int iterationMinSize = 64;
+    /**
+     * In coarse-to-fine mode, the angles are first evaluated with a subSampling multiplied by coarseSubSamplingFactor.
+     */
+    static final private int coarseSubSamplingFactor = 2;
+    /**
+     * In coarse-to-fine mode, only every coarseAngleStride-th angle is evaluated in the coarse pass.
+     */
+    static final private int coarseAngleStride = 2;
+    /**
+     * In coarse-to-fine mode, the angles around coarse candidates with a contrast of at least coarsePruning times 
+     * the best coarse contrast are refined, the others are skipped.
+     */
+    static final private double coarsePruning = 0.8;
     /**
      * Some extra debugging stuff used for development, that might be useful again in the future. DEBUG has levels 1 and 2.  
      */
@@ -521,6 +724,28 @@ public class DetectRectlinearSymmetry extends CvStage {
             double minSymmetry, SymmetryFunction xSymmetryFunction, SymmetryFunction ySymmetryFunction, double minFeatureSize,
             int subSampling, int superSampling, int gaussianSmoothing, double gamma,
             int threshold, boolean diagnostics, boolean diagnosticMap, ScoreRange scoreRange) throws Exception {
+        return findReclinearSymmetry(image, xCenter, yCenter, expectedAngle, maxWidth, maxHeight, searchDistance, searchAngle, 
+                minSymmetry, xSymmetryFunction, ySymmetryFunction, minFeatureSize, subSampling, superSampling, gaussianSmoothing, gamma, 
+                threshold, diagnostics, diagnosticMap, false, true, scoreRange);
+    }
+
+    /**
+     * Find the angle, location and bounds of the subject with largest rectlinear symmetry, optionally in coarse-to-fine
+     * mode and sequentially. See {@link #findReclinearSymmetry(Mat, int, int, double, double, double, double, double, double, SymmetryFunction, 
+     * SymmetryFunction, double, int, int, int, double, int, boolean, boolean, ScoreRange)} for the other parameters.
+     * 
+     * @param coarseToFine          Evaluate the angles on a coarser grid first, and only refine the angles around those 
+     *                              coming close to the best coarse contrast.
+     * @param parallelSearch        Evaluate the angles in parallel.
+     * @return
+     * @throws Exception
+     */
+    public static RotatedRect findReclinearSymmetry(Mat image, int xCenter, int yCenter, double expectedAngle,
+            double maxWidth, double maxHeight, double searchDistance, double searchAngle,  
+            double minSymmetry, SymmetryFunction xSymmetryFunction, SymmetryFunction ySymmetryFunction, double minFeatureSize,
+            int subSampling, int superSampling, int gaussianSmoothing, double gamma,
+            int threshold, boolean diagnostics, boolean diagnosticMap, boolean coarseToFine, boolean parallelSearch, 
+            ScoreRange scoreRange) throws Exception {
         boolean innermost = subSampling <= Math.max(1, -superSampling);
         // Image properties.
         final int channels = image.channels();
@@ -560,20 +785,9 @@ public class DetectRectlinearSymmetry extends CvStage {
         int symmetryHeight = superSamplingEff*(int)maxHeight/subSamplingEff;
         final int wCross = symmetrySearch+symmetryWidth;
         final int hCross = symmetrySearch+symmetryHeight;
-        final double cxCross = wCross/2; 
-        final double cyCross = hCross/2; 
-        final double rSq = (int)Math.pow(Math.min(wPixels, hPixels), 2)/4;
         // Running best results.
         double scoreBest = Double.NEGATIVE_INFINITY;
         double angleBest = Double.NaN;
-        double [] xCrossSection = new double[wCross*channels];
-        double [] yCrossSection = new double[hCross*channels];
-        double [] xCrossSectionN = new double[wCross];
-        double [] yCrossSectionN = new double[hCross];
-        double [] xCrossSectionMasked = new double[wCross];
-        double [] yCrossSectionMasked = new double[hCross];
-        double [] xCrossSectionFiltered = new double[wCross*channels];
-        double [] yCrossSectionFiltered = new double[hCross*channels];
         double [] xBestCrossSection = new double[wCross*channels];
         double [] yBestCrossSection = new double[hCross*channels];
         double [] xBestCrossSectionMasked = new double[wCross];
@@ -588,100 +802,82 @@ public class DetectRectlinearSymmetry extends CvStage {
         }
         double[] kernel = KernelUtils.getGaussianKernel(superSamplingEff, 0, (gaussianSmoothing*superSamplingEff)|1);
         double thresholdLuminance = Math.pow(threshold, gamma)*channels;
-
-        // Determine the angle with the largest rectlinear cross-section contrast.
+        // Raising to the power of gamma is expensive, use a lookup table.
+        double [] gammaTable = new double[256];
+        for (int v = 0; v < 256; v++) {
+            gammaTable[v] = Math.pow(v, gamma);
+        }
+        int angleCount = 0;
         for (double angle = a0; angle <= a1; angle += angleStep) {
-            // Note, this is the reverse rotation, i.e. angle is negative.
-            double s = superSamplingEff*Math.sin(-angle)/subSamplingEff;
-            double c = superSamplingEff*Math.cos(-angle)/subSamplingEff;
-            // Reset cross-sections. 
-            Arrays.fill(xCrossSection, 0);
-            Arrays.fill(yCrossSection, 0);
-            Arrays.fill(xCrossSectionN, 0);
-            Arrays.fill(yCrossSectionN, 0);
-            Arrays.fill(xCrossSectionMasked, 0);
-            Arrays.fill(yCrossSectionMasked, 0);
-            // Calculate the cross-sections from the pixels.
-            for (int y = 0, dy = -cyPixels, iy = 0; y < hPixels; y += subSamplingEff, dy += subSamplingEff, iy += width*channels*subSamplingEff) {
-                double sy = s*dy;
-                double cy = c*dy;
-                for (int x = 0, dx = -cxPixels, idx = iy + x0Pixels*channels; x < wPixels; x += subSamplingEff, dx += subSamplingEff, idx += channels*subSamplingEff) {
-                    double sx = s*dx;
-                    double cx = c*dx;
-                    // Note: this is a left-handed coordinate system, i.e. y pointing down.
-                    double xCross = cx + sy + cxCross;
-                    double yCross = -sx + cy + cyCross;
-                    int ixCross = (int) Math.round(xCross);
-                    int iyCross = (int) Math.round(yCross);
-                    double xWeight1 = xCross + 0.5 - ixCross;
-                    double xWeight0 = 1 - xWeight1;
-                    double yWeight1 = yCross + 0.5 - iyCross;
-                    double yWeight0 = 1 - yWeight1;
-                    if (iyCross > 1 && iyCross < hCross) {
-                        if (ixCross > 1 && ixCross < wCross) {
-                            /*int dSq = dx*dx + dy*dy;
-                            if (dSq < rSq)*/ {
-                                double luminance = 0;
-                                for (int ch = 0; ch < channels; ch++) {
-                                    int xai = ixCross*channels + ch;
-                                    int yai = iyCross*channels + ch;
-                                    double pixel = Math.pow(Byte.toUnsignedInt(pixelSamples[idx + ch]), gamma);
-                                    luminance += pixel;
-                                    xCrossSection[xai] += pixel*xWeight1;
-                                    xCrossSection[xai - channels] += pixel*xWeight0;
-                                    yCrossSection[yai] += pixel*yWeight1;
-                                    yCrossSection[yai - channels] += pixel*yWeight0;
-                                    if (DEBUG >= 2) {
-                                        if (Math.abs(angle - (a0+a1)/2) < angleStep) {
-                                            byte [] pixelData = new byte[channels];
-                                            image.get(y0Pixels + y, x0Pixels + x, pixelData);
-                                            if (ch == 2) {
-                                                pixelData[ch] = (byte)(127.0*ixCross/wCross + pixelData[ch]/2);
-                                            }
-                                            else if (ch == 1) {
-                                                pixelData[ch] = (byte)(127.0*iyCross/hCross + pixelData[ch]/2);
-                                            }
-                                            image.put(y0Pixels + y, x0Pixels + x, pixelData);
-                                        }
-                                    }
-                                }
-                                xCrossSectionN[ixCross] += xWeight1;
-                                xCrossSectionN[ixCross - 1] += xWeight0;
-                                yCrossSectionN[iyCross] += yWeight1;
-                                yCrossSectionN[iyCross - 1] += yWeight0;
-                                if (luminance > thresholdLuminance) {
-                                    xCrossSectionMasked[ixCross] += xWeight1;
-                                    xCrossSectionMasked[ixCross - 1] += xWeight0;
-                                    yCrossSectionMasked[iyCross] += yWeight1;
-                                    yCrossSectionMasked[iyCross - 1] += yWeight0;
-                                }
-                            }
-                        }
-                    }
-                }
+            angleCount++;
+        }
+        final double [] angles = new double[angleCount];
+        angleCount = 0;
+        for (double angle = a0; angle <= a1; angle += angleStep) {
+            angles[angleCount++] = angle;
+        }
+        CrossSectionSampler sampler = new CrossSectionSampler(image, pixelSamples, channels, width, 
+                x0Pixels, y0Pixels, wPixels, hPixels, cxPixels, cyPixels, 
+                subSamplingEff, superSamplingEff, wCross, hCross, 
+                gammaTable, thresholdLuminance, kernel, (a0 + a1)/2, angleStep);
+
+        // In coarse-to-fine mode, first evaluate every coarseAngleStride-th angle on a coarser pixel and 
+        // cross-section grid. Only the angles around coarse candidates that come close enough to the best 
+        // coarse contrast are then evaluated on the fine grid, the hopeless ones are skipped. 
+        boolean [] refine = null;
+        final int subSamplingCoarse = subSamplingEff*coarseSubSamplingFactor;
+        if (coarseToFine && angles.length >= coarseAngleStride*4 && subSamplingCoarse <= maxDiagonal/16) {
+            int symmetrySearchCoarse = (superSamplingEff*searchDiameter/subSamplingCoarse/2)*2;
+            CrossSectionSampler coarseSampler = new CrossSectionSampler(image, pixelSamples, channels, width, 
+                    x0Pixels, y0Pixels, wPixels, hPixels, cxPixels, cyPixels, 
+                    subSamplingCoarse, superSamplingEff, 
+                    symmetrySearchCoarse + superSamplingEff*(int)maxWidth/subSamplingCoarse, 
+                    symmetrySearchCoarse + superSamplingEff*(int)maxHeight/subSamplingCoarse, 
+                    gammaTable, thresholdLuminance, kernel, (a0 + a1)/2, angleStep);
+            final int coarseCount = (angles.length + coarseAngleStride - 1)/coarseAngleStride;
+            double [] coarseScores = new double[coarseCount];
+            IntStream coarseStream = IntStream.range(0, coarseCount);
+            if (parallelSearch) {
+                coarseStream = coarseStream.parallel();
             }
-            // Normalize
-            for (int x = 0; x < wCross; x++) {
-                if (xCrossSectionN[x] > 0) {
-                    for (int ch = 0; ch < channels; ch++) {
-                        xCrossSection[x*channels + ch] /= xCrossSectionN[x];
-                    }
-                }
+            coarseStream.forEach(i -> 
+                coarseScores[i] = coarseSampler.sample(angles[i*coarseAngleStride]).contrast);
+            double coarseBound = Double.NEGATIVE_INFINITY;
+            for (double score : coarseScores) {
+                coarseBound = Math.max(coarseBound, score*coarsePruning);
             }
-            for (int y = 0; y < hCross; y++) {
-                if (yCrossSectionN[y] > 0) {
-                    for (int ch = 0; ch < channels; ch++) {
-                        yCrossSection[y*channels + ch] /= yCrossSectionN[y];
+            refine = new boolean[angles.length];
+            for (int i = 0; i < coarseCount; i++) {
+                if (coarseScores[i] >= coarseBound) {
+                    int center = i*coarseAngleStride;
+                    for (int j = Math.max(0, center - coarseAngleStride + 1); 
+                            j < Math.min(angles.length, center + coarseAngleStride); j++) {
+                        refine[j] = true;
                     }
                 }
             }
-            // We're using a gaussian kernel to get rid of sampling interferences especially at the 45° step angles.
-            KernelUtils.applyKernel(channels, wCross, xCrossSection, kernel, xCrossSectionFiltered); 
-            KernelUtils.applyKernel(channels, hCross, yCrossSection, kernel, yCrossSectionFiltered); 
-            // Analyze cross-sections contrast.
-            double sumContrast = 
-                    sumContrast(channels, wCross, xCrossSectionFiltered, xCrossSectionN)
-                    + sumContrast(channels, hCross, yCrossSectionFiltered, yCrossSectionN);
+        }
+
+        // Determine the angle with the largest rectlinear cross-section contrast.
+        final boolean [] refineFinal = refine;
+        CrossSections [] sections = new CrossSections[angles.length];
+        IntStream angleStream = IntStream.range(0, angles.length);
+        if (parallelSearch && DEBUG < 2) {
+            angleStream = angleStream.parallel();
+        }
+        angleStream.forEach(i -> {
+            if (refineFinal == null || refineFinal[i]) {
+                sections[i] = sampler.sample(angles[i]);
+            }
+        });
+        // Take the best, in angle order, so the result does not depend on the evaluation order.
+        for (int i = 0; i < angles.length; i++) {
+            CrossSections section = sections[i];
+            if (section == null) {
+                continue;
+            }
+            double angle = angles[i];
+            double sumContrast = section.contrast;
             if (DEBUG >= 1) {
                 System.out.print("subSampling "+subSamplingEff+(superSamplingEff > 1 ? " superSampling "+superSamplingEff : "")
                         +" angle "+Math.toDegrees(angle)+"° contrast "+sumContrast);
@@ -689,14 +885,13 @@ public class DetectRectlinearSymmetry extends CvStage {
             if (angleScore != null) {
                 angleScore.put(angle, sumContrast);
             }
-            // Take the best:
             if (scoreBest < sumContrast) {
                 scoreBest = sumContrast;
                 angleBest = angle;
-                xBestCrossSection = xCrossSectionFiltered.clone();
-                yBestCrossSection = yCrossSectionFiltered.clone();
-                xBestCrossSectionMasked = xCrossSectionMasked.clone();
-                yBestCrossSectionMasked = yCrossSectionMasked.clone();
+                xBestCrossSection = section.xFiltered;
+                yBestCrossSection = section.yFiltered;
+                xBestCrossSectionMasked = section.xMasked;
+                yBestCrossSectionMasked = section.yMasked;
                 if (DEBUG >= 1) {
                     System.out.println(" * ");
                 }
@@ -769,7 +964,7 @@ public class DetectRectlinearSymmetry extends CvStage {
                             Math.toDegrees(angleError)*iterationAngle,  
                             minSymmetry, xSymmetryFunction, ySymmetryFunction, minFeatureSize,
                             subSamplingEff/iterationDivision, superSampling, gaussianSmoothing, gamma,  
-                            threshold, diagnostics, diagnosticMap, scoreRange);
+                            threshold, diagnostics, diagnosticMap, coarseToFine, parallelSearch, scoreRange);
                 }
             }
         }
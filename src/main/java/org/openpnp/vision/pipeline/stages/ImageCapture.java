@@ -8,7 +8,7 @@ import org.opencv.core.Mat;
 import org.openpnp.spi.Actuator;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.Camera.SettleOption;
-import org.openpnp.util.OpenCvUtils;
+import org.openpnp.util.SharedFrame;
 import org.openpnp.vision.FluentCv.ColorSpace;
 import org.openpnp.vision.pipeline.CvPipeline;
 import org.openpnp.vision.pipeline.CvStage;
@@ -26,6 +26,12 @@ import org.simpleframework.xml.core.Commit;
         description="Capture an image from the pipeline camera.")
 
 public class ImageCapture extends CvStage {
+    /**
+     * Name of the pipeline property holding an image captured beforehand, see 
+     * {@link #capture(CvPipeline)}. If set, the stage takes the image over, instead of capturing.
+     */
+    public static final String CAPTURED_IMAGE_PROPERTY = "ImageCapture.capturedImage";
+
     @Attribute(required=false)
     @Property(description="Use the default camera lighting.")
     private boolean defaultLight = true;
@@ -89,49 +95,85 @@ public class ImageCapture extends CvStage {
             this.count = 1;
         }
     }
+    @Override
+    public boolean isSequential() {
+        return true;
+    }
+
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
+        Mat image = (Mat) pipeline.getProperty(CAPTURED_IMAGE_PROPERTY);
+        if (image != null) {
+            // Taken over, the image is now owned by the pipeline.
+            pipeline.setProperty(CAPTURED_IMAGE_PROPERTY, null);
+        }
+        else {
+            Camera camera = (Camera) pipeline.getProperty("camera");
+            if (camera == null) {
+                throw new Exception("No Camera set on pipeline.");
+            }
+            try {
+                image = capture(pipeline, camera);
+            }
+            catch (Exception e) {
+                // These machine exceptions are terminal to the pipeline.
+                throw new TerminalException(e);
+            }
+        }
+        return new Result(pipeline.applyRegionOfInterest(image), ColorSpace.Bgr);
+    }
+
+    /**
+     * Lights, settles and captures the image as configured in this stage, but without processing 
+     * the pipeline. This allows moving on, while the pipeline is processed with the image handed 
+     * over in the {@link #CAPTURED_IMAGE_PROPERTY}. Must be called on the machine task, like 
+     * {@link #process(CvPipeline)}. 
+     * 
+     * @param pipeline
+     * @return The captured (and possibly averaged) full camera image.
+     * @throws Exception
+     */
+    public Mat capture(CvPipeline pipeline) throws Exception {
         Camera camera = (Camera) pipeline.getProperty("camera");
         if (camera == null) {
             throw new Exception("No Camera set on pipeline.");
         }
+        return capture(pipeline, camera);
+    }
+
+    private Mat capture(CvPipeline pipeline, Camera camera) throws Exception {
+        // Light, settle and capture the image. Keep the lights on for possible averaging.
+        camera.actuateLightBeforeCapture((defaultLight ? null : getLight()));
         try {
-            // Light, settle and capture the image. Keep the lights on for possible averaging.
-            camera.actuateLightBeforeCapture((defaultLight ? null : getLight()));
-            try {
-                BufferedImage bufferedImage = camera.settleAndCapture(settleOption); 
-                // Remember the last captured image. This specifically records the native camera image, 
-                // i.e. it does not apply averaging (we want an unaltered raw image for analysis purposes).
-                pipeline.setLastCapturedImage(bufferedImage);
-                Mat image = OpenCvUtils.toMat(bufferedImage);
-                if (count <= 1) { 
-                    return new Result(image, ColorSpace.Bgr);
-                }
-                else {
-                    // Perform averaging in channel type double.
+            BufferedImage bufferedImage = camera.settleAndCapture(settleOption); 
+            // Remember the last captured image. This specifically records the native camera image, 
+            // i.e. it does not apply averaging (we want an unaltered raw image for analysis purposes).
+            pipeline.setLastCapturedImage(bufferedImage);
+            // Take over the frame's Mat, if the camera provided one.
+            Mat image = SharedFrame.toMat(bufferedImage);
+            if (count <= 1) { 
+                return image;
+            }
+            else {
+                // Perform averaging in channel type double.
+                image.convertTo(image, CvType.CV_64F);
+                Mat avgImage = image;
+                double beta = 1.0 / count;
+                Core.addWeighted(avgImage, 0, image, beta, 0, avgImage); // avgImage = image/count
+                for (int i = 1; i < count; i++) {
+                    image = SharedFrame.toMat(camera.capture());
                     image.convertTo(image, CvType.CV_64F);
-                    Mat avgImage = image;
-                    double beta = 1.0 / count;
-                    Core.addWeighted(avgImage, 0, image, beta, 0, avgImage); // avgImage = image/count
-                    for (int i = 1; i < count; i++) {
-                        image = OpenCvUtils.toMat(camera.capture());
-                        image.convertTo(image, CvType.CV_64F);
-                        Core.addWeighted(avgImage, 1, image, beta, 0, avgImage); // avgImage = avgImag + image/count
-                        // Release the additional image.
-                        image.release();
-                    }
-                    avgImage.convertTo(avgImage, CvType.CV_8U);
-                    return new Result(avgImage, ColorSpace.Bgr);
+                    Core.addWeighted(avgImage, 1, image, beta, 0, avgImage); // avgImage = avgImag + image/count
+                    // Release the additional image.
+                    image.release();
                 }
-            }
-            finally {
-                // Always switch off the light. 
-                camera.actuateLightAfterCapture();
+                avgImage.convertTo(avgImage, CvType.CV_8U);
+                return avgImage;
             }
         }
-        catch (Exception e) {
-            // These machine exceptions are terminal to the pipeline.
-            throw new TerminalException(e);
+        finally {
+            // Always switch off the light. 
+            camera.actuateLightAfterCapture();
         }
     }
 
@@ -62,6 +62,11 @@ public class ImageRead extends CvStage {
         this.handleAsCaptured = handleAsCaptured;
     }
 
+    @Override
+    public boolean isSequential() {
+        return true;
+    }
+
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
         if (!file.exists()) {
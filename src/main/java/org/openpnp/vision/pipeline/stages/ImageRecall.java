@@ -16,6 +16,11 @@ public class ImageRecall extends CvStage {
         this.imageStageName = imageStageName;
     }
 
+    @Override
+    public boolean isWorkingStateIndependent() {
+        return true;
+    }
+
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
         if (imageStageName == null || imageStageName.trim().isEmpty()) {
@@ -25,6 +30,6 @@ public class ImageRecall extends CvStage {
         if (result.image == null) {
             return null;
         }
-        return new Result(result.image.clone(), result.colorSpace);
+        return new Result(pipeline.getMatPool().borrowClone(result.image), result.colorSpace);
     }
 }
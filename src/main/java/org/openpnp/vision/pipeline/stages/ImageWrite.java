@@ -23,6 +23,11 @@ public class ImageWrite extends CvStage {
         this.file = file;
     }
 
+    @Override
+    public boolean isSequential() {
+        return true;
+    }
+
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
         Imgcodecs.imwrite(file.getAbsolutePath(), pipeline.getWorkingImage());
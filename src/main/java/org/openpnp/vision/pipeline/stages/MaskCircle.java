@@ -55,8 +55,8 @@ public class MaskCircle extends CvStage {
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
         Mat mat = pipeline.getWorkingImage();
-        Mat mask = mat.clone();
-        Mat masked = mat.clone();
+        Mat mask = pipeline.borrowMat(mat);
+        Mat masked = pipeline.borrowMat(mat);
         Scalar color = FluentCv.colorToScalar(Color.black);
         mask.setTo(color);
         masked.setTo(color);
@@ -77,7 +77,7 @@ public class MaskCircle extends CvStage {
             Core.bitwise_not(mask,mask);
         }
         mat.copyTo(masked, mask);
-        mask.release();
+        pipeline.recycleMat(mask);
         return new Result(masked);
     }
 }
@@ -46,8 +46,8 @@ public class MaskRectangle extends CvStage {
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
         Mat mat = pipeline.getWorkingImage();
-        Mat mask = mat.clone();
-        Mat masked = mat.clone();
+        Mat mask = pipeline.borrowMat(mat);
+        Mat masked = pipeline.borrowMat(mat);
         Scalar color = FluentCv.colorToScalar(Color.black);
         mask.setTo(color);
         masked.setTo(color);
@@ -58,7 +58,7 @@ public class MaskRectangle extends CvStage {
             Core.bitwise_not(mask, mask);
         }
         mat.copyTo(masked, mask);
-        mask.release();
+        pipeline.recycleMat(mask);
         return new Result(masked);
     }
 }
@@ -26,7 +26,6 @@ import java.util.Comparator;
 import java.util.List;
 
 import org.opencv.core.Core;
-import org.opencv.core.Core.MinMaxLocResult;
 import org.opencv.core.Mat;
 import org.opencv.core.Rect;
 import org.opencv.core.RotatedRect;
@@ -85,6 +84,16 @@ public class MatchPartTemplate extends CvStage {
             description = "If maximum value is below this value, then no matches will be reported. Default is 0.4.")
     private double threshold = 0.4f;
 
+    @Attribute(required = false)
+    @Property(description = "Number of image pyramid levels for coarse-to-fine matching, each halving the resolution, "
+            + "i.e. 2 matches at 1/4 and 3 at 1/8 scale first. 0 matches exhaustively at full resolution.")
+    private int pyramidLevels = 0;
+
+    @Attribute(required = false)
+    @Property(description = "Number of best coarse matches that are refined at full resolution, when matching coarse-to-fine. "
+            + "Falls back to exhaustive matching, if none of them reaches the threshold.")
+    private int pyramidCandidates = 8;
+
     public String getTemplateStageName() {
         return templateStageName;
     }
@@ -109,6 +118,22 @@ public class MatchPartTemplate extends CvStage {
         this.threshold = threshold;
     }
 
+    public int getPyramidLevels() {
+        return pyramidLevels;
+    }
+
+    public void setPyramidLevels(int pyramidLevels) {
+        this.pyramidLevels = pyramidLevels;
+    }
+
+    public int getPyramidCandidates() {
+        return pyramidCandidates;
+    }
+
+    public void setPyramidCandidates(int pyramidCandidates) {
+        this.pyramidCandidates = pyramidCandidates;
+    }
+
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
 
@@ -284,17 +309,16 @@ public class MatchPartTemplate extends CvStage {
 
         Mat result = new Mat();
 
-        Imgproc.matchTemplate(mat, template, result, Imgproc.TM_CCOEFF_NORMED);
-
-        MinMaxLocResult mmr = Core.minMaxLoc(result);
-        double maxVal = mmr.maxVal;
+        List<Rect> windows = new ArrayList<>();
+        double maxVal = OpenCvUtils.matchTemplate(mat, template, result, 
+                pyramidLevels, pyramidCandidates, threshold, windows);
 
         double rangeMax = maxVal;
 
         // Since matchTemplate type is fixed to TM_CCOEFF_NORMED, corr is not actually needed
         // Using just threshold is enought
         List<TemplateMatch> matches = new ArrayList<>();
-        for (Point point : OpenCvUtils.matMaxima(result, threshold, rangeMax)) {
+        for (Point point : OpenCvUtils.matMaxima(result, threshold, rangeMax, windows)) {
             int x = point.x;
             int y = point.y;
             TemplateMatch match =
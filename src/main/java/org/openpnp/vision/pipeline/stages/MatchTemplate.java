@@ -6,10 +6,8 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
-import org.opencv.core.Core;
-import org.opencv.core.Core.MinMaxLocResult;
 import org.opencv.core.Mat;
-import org.opencv.imgproc.Imgproc;
+import org.opencv.core.Rect;
 import org.openpnp.util.OpenCvUtils;
 import org.openpnp.vision.pipeline.CvPipeline;
 import org.openpnp.vision.pipeline.CvStage;
@@ -55,6 +53,16 @@ public class MatchTemplate extends CvStage {
     @Property(description = "Normalize results to maximum value.")
     private boolean normalize = true;
 
+    @Attribute(required = false)
+    @Property(description = "Number of image pyramid levels for coarse-to-fine matching, each halving the resolution, "
+            + "i.e. 2 matches at 1/4 and 3 at 1/8 scale first. 0 matches exhaustively at full resolution.")
+    private int pyramidLevels = 0;
+
+    @Attribute(required = false)
+    @Property(description = "Number of best coarse matches that are refined at full resolution, when matching coarse-to-fine. "
+            + "Falls back to exhaustive matching, if none of them reaches the threshold.")
+    private int pyramidCandidates = 8;
+
     public String getTemplateStageName() {
         return templateStageName;
     }
@@ -87,6 +95,22 @@ public class MatchTemplate extends CvStage {
         this.normalize = normalize;
     }
 
+    public int getPyramidLevels() {
+        return pyramidLevels;
+    }
+
+    public void setPyramidLevels(int pyramidLevels) {
+        this.pyramidLevels = pyramidLevels;
+    }
+
+    public int getPyramidCandidates() {
+        return pyramidCandidates;
+    }
+
+    public void setPyramidCandidates(int pyramidCandidates) {
+        this.pyramidCandidates = pyramidCandidates;
+    }
+
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
         if (templateStageName == null || templateStageName.trim().isEmpty()) {
@@ -97,17 +121,16 @@ public class MatchTemplate extends CvStage {
         Mat template = pipeline.getExpectedResult(templateStageName).image;
         Mat result = new Mat();
 
-        Imgproc.matchTemplate(mat, template, result, Imgproc.TM_CCOEFF_NORMED);
-
-        MinMaxLocResult mmr = Core.minMaxLoc(result);
-        double maxVal = mmr.maxVal;
+        List<Rect> windows = new ArrayList<>();
+        double maxVal = OpenCvUtils.matchTemplate(mat, template, result, 
+                pyramidLevels, pyramidCandidates, threshold, windows);
 
         double rangeMin = Math.max(threshold, corr * maxVal);
         double rangeMax = maxVal;
 
 
         List<TemplateMatch> matches = new ArrayList<>();
-        for (Point point : OpenCvUtils.matMaxima(result, rangeMin, rangeMax)) {
+        for (Point point : OpenCvUtils.matMaxima(result, rangeMin, rangeMax, windows)) {
             int x = point.x;
             int y = point.y;
             TemplateMatch match = new TemplateMatch(x, y, template.cols(), template.rows(),
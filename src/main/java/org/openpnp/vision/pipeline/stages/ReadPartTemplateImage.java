@@ -108,6 +108,11 @@ public class ReadPartTemplateImage extends CvStage {
         this.colorSpace = colorSpace;
     }
 
+    @Override
+    public boolean isWorkingStateIndependent() {
+        return true;
+    }
+
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
 
@@ -32,7 +32,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import javax.imageio.ImageIO;
 
@@ -117,6 +122,11 @@ public class SimpleOcr extends CvStage {
     @Property(description = "Write debug images and messages. Will slow down operation.")
     private boolean debug;
 
+    @Attribute(required = false)
+    @Property(description = "Match the characters of the alphabet in parallel, on all CPU cores. The result is the same "
+            + "as when matching them sequentially.")
+    private boolean parallelMatching = true;
+
     @Attribute(required = false)
     @Property(description = "Property name as controlled by the vision operation using this pipeline.<br/>"
             + "If set, these will override the properties configured here.")
@@ -187,6 +197,14 @@ public class SimpleOcr extends CvStage {
         this.debug = debug;
     }
 
+    public boolean isParallelMatching() {
+        return parallelMatching;
+    }
+
+    public void setParallelMatching(boolean parallelMatching) {
+        this.parallelMatching = parallelMatching;
+    }
+
     public String getPropertyName() {
         return propertyName;
     }
@@ -292,19 +310,40 @@ public class SimpleOcr extends CvStage {
         // Note, the following is an ugly HACK, to get this functionality within the constraints of pipeline processing
         if (autoDetectSize) {
             autoDetectSize = false;
-            // very crude and brute force 
-            OcrModel bestRes = null;
-            double bestSize = Double.NaN;
+            // Coarse to fine: the coarse pass takes every other 5% step, then the skipped neighbors of 
+            // the best coarse sizes are refined. Sizes that result in the same font pixel size and 
+            // image rescale, give the same result, and are only evaluated once.
+            List<Double> testSizes = new ArrayList<>();
             for (double testSize = getFontSizePt()*0.5;
                     testSize < getFontSizePt()*2.0;
                     testSize *= 1.05) {  // 5% steps
-                Logger.debug("["+getClass().getName()+"] auto-detecting at font size = "+testSize+"pt");
-                OcrModel res = (OcrModel)performOcr(pipeline, camera, fontName, testSize, alphabet).model;
-                if (res.overallScore > 0.0) {
+                testSizes.add(testSize);
+            }
+            double scalePt = getPointScale(camera);
+            Map<String, OcrModel> evaluated = new HashMap<>();
+            OcrModel[] results = new OcrModel[testSizes.size()];
+            List<Integer> coarse = new ArrayList<>();
+            for (int i = 0; i < results.length; i += 2) {
+                results[i] = autoDetectOcr(pipeline, camera, fontName, testSizes.get(i), alphabet, scalePt, evaluated);
+                coarse.add(i);
+            }
+            coarse.sort((i1, i2) -> Double.compare(results[i2].overallScore, results[i1].overallScore));
+            for (int i : coarse.subList(0, Math.min(autoDetectRefinedSizes, coarse.size()))) {
+                for (int j = i - 1; j <= i + 1; j++) {
+                    if (j >= 0 && j < results.length && results[j] == null) {
+                        results[j] = autoDetectOcr(pipeline, camera, fontName, testSizes.get(j), alphabet, scalePt, evaluated);
+                    }
+                }
+            }
+            OcrModel bestRes = null;
+            double bestSize = Double.NaN;
+            for (int i = 0; i < results.length; i++) {
+                OcrModel res = results[i];
+                if (res != null && res.overallScore > 0.0) {
                     if (bestRes == null ||  bestRes.overallScore < res.overallScore) {
                         bestRes = res;
-                        bestSize = testSize;
-                        Logger.debug("["+getClass().getName()+"] new best font size = "+testSize+"pt, overallScore = "+bestRes.overallScore+", text = "+bestRes.text);
+                        bestSize = testSizes.get(i);
+                        Logger.debug("["+getClass().getName()+"] new best font size = "+bestSize+"pt, overallScore = "+bestRes.overallScore+", text = "+bestRes.text);
                     }
                 }
             }
@@ -317,6 +356,47 @@ public class SimpleOcr extends CvStage {
         return performOcr(pipeline, camera, fontName, fontSizePt, alphabet);
     }
 
+    /**
+     * The number of best coarse font sizes, whose neighbors are refined when auto-detecting the size.
+     */
+    private static final int autoDetectRefinedSizes = 3;
+
+    private OcrModel autoDetectOcr(CvPipeline pipeline, Camera camera, String fontName, double testSize,
+            String alphabet, double scalePt, Map<String, OcrModel> evaluated) throws IOException {
+        double rescale = getRescale(scalePt, testSize);
+        String key = Math.round(rescale*scalePt*testSize)+"|"+rescale;
+        OcrModel res = evaluated.get(key);
+        if (res == null) {
+            Logger.debug("["+getClass().getName()+"] auto-detecting at font size = "+testSize+"pt");
+            res = (OcrModel)performOcr(pipeline, camera, fontName, testSize, alphabet).model;
+            evaluated.put(key, res);
+        }
+        return res;
+    }
+
+    /**
+     * @return The scaling factor to go from typographic points to camera pixels.
+     */
+    protected double getPointScale(Camera camera) {
+        Location unitsPerPixel = camera.getUnitsPerPixelAtZ().convertToUnits(LengthUnit.Millimeters);
+        Length l = new Length(1.0/72.0, LengthUnit.Inches);
+        l = l.convertToUnits(unitsPerPixel.getUnits());
+        return l.getValue()/unitsPerPixel.getY();
+    }
+
+    /**
+     * Automatic rescale, but don't do it if we're already too close i.e. at least a 0.5 x rescale must be achieved,
+     * otherwise the image quality suffers too much.
+     * 
+     * @return The rescale factor applied to the image.
+     */
+    protected double getRescale(double scalePt, double fontSizePt) {
+        if (fontMaxPixelSize >= 7 && fontMaxPixelSize < 0.5*scalePt*fontSizePt) {
+            return fontMaxPixelSize  / (scalePt*fontSizePt);
+        }
+        return 1.0;
+    }
+
     public static class OcrModel {
         private String text;
         private int numChars;
@@ -347,72 +427,121 @@ public class SimpleOcr extends CvStage {
         }
     }
 
-    protected Result performOcr(CvPipeline pipeline, Camera camera, String fontName, double fontSizePt, String alphabet) throws Error, IOException {
+    /**
+     * The rendered character templates of one font, pixel size, image type and alphabet.
+     * The templates are shared by all SimpleOcr stages and threads, and must not be modified.
+     * The users and evicted state are guarded by the glyphCache lock.
+     */
+    protected static class Glyphs {
+        private final int fontHeight;
+        private final char[] characters;
+        private final Mat[] templates;
+        private int users;
+        private boolean evicted;
+        private boolean released;
+
+        protected Glyphs(int fontHeight, char[] characters, Mat[] templates) {
+            this.fontHeight = fontHeight;
+            this.characters = characters;
+            this.templates = templates;
+        }
+
+        /**
+         * Marks the glyphs as no longer cached. The templates are released once no user holds them.
+         */
+        private void evict() {
+            evicted = true;
+            releaseIfUnused();
+        }
+
+        private void releaseIfUnused() {
+            if (evicted && users == 0 && !released) {
+                for (Mat template : templates) {
+                    template.release();
+                }
+                released = true;
+            }
+        }
 
-        // Determine the scaling factor to go from given LengthUnit/pt units to
-        // Camera units and pixels.
-        Location unitsPerPixel = camera.getUnitsPerPixelAtZ().convertToUnits(LengthUnit.Millimeters);
-        Length l = new Length(1.0/72.0, LengthUnit.Inches);
-        l = l.convertToUnits(unitsPerPixel.getUnits());
-        double scalePt = l.getValue()/unitsPerPixel.getY();
+        /**
+         * @return true if the templates were released.
+         */
+        public boolean isReleased() {
+            synchronized (glyphCache) {
+                return released;
+            }
+        }
+    }
 
-        // get the working image
-        Mat textImage = pipeline.getWorkingImage();
+    /**
+     * Rendering the templates costs more than matching small text images, and the same fonts are
+     * used over and over, for each feeder and while auto-detecting the size. Evicted templates are
+     * released as soon as no stage is matching with them anymore.
+     */
+    private static final int GLYPH_CACHE_SIZE = 64;
 
-        // Automatic rescale, but don't do it if we're already too close i.e. at least a 0.5 x rescale must be achieved,
-        // otherwise the image quality suffers too much.
-        double rescale = 1.0;
-        if (fontMaxPixelSize >= 7 && fontMaxPixelSize < 0.5*rescale*scalePt*fontSizePt) {
-            rescale = fontMaxPixelSize  / (rescale*scalePt*fontSizePt);
-            if (debug) {
-                Logger.debug("["+getClass().getName()+"] rescale of input = "+rescale);
+    private static final Map<String, Glyphs> glyphCache = new LinkedHashMap<String, Glyphs>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Glyphs> eldest) {
+            if (size() > GLYPH_CACHE_SIZE) {
+                eldest.getValue().evict();
+                return true;
             }
+            return false;
         }
-        if (rescale != 1.0) {
-            Mat dst = new Mat();
-            Size size = new Size(textImage.cols()*rescale, textImage.rows()*rescale);
-            Imgproc.resize(textImage, dst, size);
-            // we must NOT do a textImage.release(); It is the property of the previous stage.
-            textImage = dst;
-            scalePt *= rescale;
-            unitsPerPixel = unitsPerPixel.multiply(1.0/rescale, 1.0/rescale, 0, 0);
-        }
+    };
 
-        // get the corresponding buffered image type
-        Integer type = null;
-        if (textImage.type() == CvType.CV_8UC1) {
-            type = BufferedImage.TYPE_BYTE_GRAY;
-        }
-        else if (textImage.type() == CvType.CV_8UC3) {
-            type = BufferedImage.TYPE_3BYTE_BGR;
+    public static void clearGlyphCache() {
+        synchronized (glyphCache) {
+            for (Glyphs glyphs : glyphCache.values()) {
+                glyphs.evict();
+            }
+            glyphCache.clear();
         }
-        else if (textImage.type() == CvType.CV_32F) {
-            type = BufferedImage.TYPE_BYTE_GRAY;
-            Mat tmp = new Mat();
-            textImage.convertTo(tmp, CvType.CV_8UC1, 255);
-            textImage = tmp;
+    }
+
+    /**
+     * Gets the glyphs from the cache, or renders them. They must be handed back using 
+     * {@link #releaseGlyphs(Glyphs)}, so they can be released when evicted from the cache.
+     */
+    protected Glyphs acquireGlyphs(String fontName, int fontPixelSize, int type, String alphabet) throws IOException {
+        String key = fontName+"|"+fontPixelSize+"|"+type+"|"+alphabet;
+        synchronized (glyphCache) {
+            Glyphs glyphs = glyphCache.get(key);
+            if (glyphs == null) {
+                glyphs = renderGlyphs(fontName, fontPixelSize, type, alphabet);
+                glyphCache.put(key, glyphs);
+            }
+            glyphs.users++;
+            return glyphs;
         }
-        if (type == null) {
-            throw new Error(String.format("Unsupported Mat: type %d, channels %d, depth %d",
-                    textImage.type(), textImage.channels(), textImage.depth()));
+    }
+
+    protected void releaseGlyphs(Glyphs glyphs) {
+        synchronized (glyphCache) {
+            glyphs.users--;
+            glyphs.releaseIfUnused();
         }
+    }
 
+    protected Glyphs renderGlyphs(String fontName, int fontPixelSize, int type, String alphabet) throws IOException {
         // create the font
-        Font font = new Font(fontName, Font.PLAIN, (int)Math.round(scalePt*fontSizePt));
+        Font font = new Font(fontName, Font.PLAIN, fontPixelSize);
         // Create a pseudo graphics context to get font metrics 
         Graphics2D gfm = new BufferedImage(1, 1, type).createGraphics();
         FontMetrics fm = gfm.getFontMetrics(font);
+        gfm.dispose();
         final int maxAscent = fm.getAscent();// fm.getMaxAscent();
         final int fontHeight = maxAscent+fm.getDescent();//fm.getHeight();
         final int margin = 0; // tests have shown that no margin is best
         final int height = fontHeight+2*margin;
-        if (fontHeight < 5 || fontHeight >= textImage.rows()) {
+        if (fontHeight < 5) {
             // dud
-            return new Result(textImage, new OcrModel("", 0, 0.0));
+            return new Glyphs(fontHeight, new char[0], new Mat[0]);
         }
 
-        // try find each character of the alphabet in the text image 
-        List<CharacterMatch> matches = new ArrayList<>();
+        StringBuilder characters = new StringBuilder();
+        List<Mat> templates = new ArrayList<>();
         for (char ch : alphabet.toCharArray()) {
             if (ch == ' ' ) {
                 // we can't search for nothing :-) 
@@ -420,7 +549,6 @@ public class SimpleOcr extends CvStage {
                 continue;
             }
             String character = new String(new char[] { ch });
-            String characterTag = (Character.isLetterOrDigit(ch) ? character : String.valueOf((int)ch))+"-";
             // create a template image of the current character
             int width = fm.stringWidth(character)+2*margin;
             BufferedImage templateImage =
@@ -434,41 +562,134 @@ public class SimpleOcr extends CvStage {
             g2d.drawString(character, margin, margin+maxAscent);
             g2d.dispose();
             Mat template = OpenCvUtils.toMat(templateImage);
-            if (debug) {
-                File file = Configuration.get().createResourceFile(getClass(), "character-"+characterTag, ".png");
-                Imgcodecs.imwrite(file.getAbsolutePath(), template);
-            }
+            characters.append(ch);
+            templates.add(template);
+        }
+        return new Glyphs(fontHeight, characters.toString().toCharArray(), templates.toArray(new Mat[templates.size()]));
+    }
 
-            // do the actual template match
-            Mat matchMap = new Mat();
-            Imgproc.matchTemplate(textImage, template, matchMap, Imgproc.TM_CCOEFF_NORMED);
-
-            // determine the range
-            MinMaxLocResult mmr = Core.minMaxLoc(matchMap);
-            double maxVal = mmr.maxVal;
-            double rangeMin = threshold;
-            double rangeMax = maxVal;
-
-            // create the matches
-            for (Point point : OpenCvUtils.matMaxima(matchMap, rangeMin, rangeMax)) {
-                int x = point.x;
-                int y = point.y;
-                CharacterMatch match = new CharacterMatch(ch, 
-                        x, y, template.cols(), template.rows(),
-                        matchMap.get(y, x)[0]);
-                matches.add(match);
-            }
+    private static String getCharacterTag(char ch) {
+        return (Character.isLetterOrDigit(ch) ? String.valueOf(ch) : String.valueOf((int)ch))+"-";
+    }
 
-            if (debug) {
-                File file = Configuration.get().createResourceFile(getClass(), "match-map-"+characterTag, ".png");
+    protected List<CharacterMatch> matchCharacter(Mat textImage, char ch, Mat template) {
+        List<CharacterMatch> matches = new ArrayList<>();
+        // do the actual template match
+        Mat matchMap = new Mat();
+        Imgproc.matchTemplate(textImage, template, matchMap, Imgproc.TM_CCOEFF_NORMED);
+
+        // determine the range
+        MinMaxLocResult mmr = Core.minMaxLoc(matchMap);
+        double maxVal = mmr.maxVal;
+        double rangeMin = threshold;
+        double rangeMax = maxVal;
+
+        // create the matches
+        for (Point point : OpenCvUtils.matMaxima(matchMap, rangeMin, rangeMax)) {
+            int x = point.x;
+            int y = point.y;
+            CharacterMatch match = new CharacterMatch(ch, 
+                    x, y, template.cols(), template.rows(),
+                    matchMap.get(y, x)[0]);
+            matches.add(match);
+        }
+
+        if (debug) {
+            try {
+                File file = Configuration.get().createResourceFile(getClass(), "match-map-"+getCharacterTag(ch), ".png");
                 // this is a 3x32bit image, cannot save this as .png, need to convert to known image format first
                 BufferedImage img = OpenCvUtils.toBufferedImage(matchMap);
                 ImageIO.write(img, "png", file);
             }
+            catch (IOException e) {
+                Logger.warn(e);
+            }
+        }
+
+        // cleanup
+        matchMap.release();
+        return matches;
+    }
+
+    protected Result performOcr(CvPipeline pipeline, Camera camera, String fontName, double fontSizePt, String alphabet) throws Error, IOException {
+
+        // Determine the scaling factor to go from given LengthUnit/pt units to
+        // Camera units and pixels.
+        Location unitsPerPixel = camera.getUnitsPerPixelAtZ().convertToUnits(LengthUnit.Millimeters);
+        double scalePt = getPointScale(camera);
+
+        // get the working image
+        Mat textImage = pipeline.getWorkingImage();
+
+        // Automatic rescale.
+        double rescale = getRescale(scalePt, fontSizePt);
+        if (rescale != 1.0) {
+            if (debug) {
+                Logger.debug("["+getClass().getName()+"] rescale of input = "+rescale);
+            }
+            Mat dst = new Mat();
+            Size size = new Size(textImage.cols()*rescale, textImage.rows()*rescale);
+            Imgproc.resize(textImage, dst, size);
+            // we must NOT do a textImage.release(); It is the property of the previous stage.
+            textImage = dst;
+            scalePt *= rescale;
+            unitsPerPixel = unitsPerPixel.multiply(1.0/rescale, 1.0/rescale, 0, 0);
+        }
+
+        // get the corresponding buffered image type
+        Integer type = null;
+        if (textImage.type() == CvType.CV_8UC1) {
+            type = BufferedImage.TYPE_BYTE_GRAY;
+        }
+        else if (textImage.type() == CvType.CV_8UC3) {
+            type = BufferedImage.TYPE_3BYTE_BGR;
+        }
+        else if (textImage.type() == CvType.CV_32F) {
+            type = BufferedImage.TYPE_BYTE_GRAY;
+            Mat tmp = new Mat();
+            textImage.convertTo(tmp, CvType.CV_8UC1, 255);
+            textImage = tmp;
+        }
+        if (type == null) {
+            throw new Error(String.format("Unsupported Mat: type %d, channels %d, depth %d",
+                    textImage.type(), textImage.channels(), textImage.depth()));
+        }
+
+        // get the (cached) character templates
+        Glyphs glyphs = acquireGlyphs(fontName, (int)Math.round(scalePt*fontSizePt), type, alphabet);
+        final int height;
+        List<CharacterMatch> matches = new ArrayList<>();
+        try {
+            if (glyphs.fontHeight < 5 || glyphs.fontHeight >= textImage.rows()) {
+                // dud
+                return new Result(textImage, new OcrModel("", 0, 0.0));
+            }
+            height = glyphs.fontHeight;
+            if (debug) {
+                // the templates are cached, so write them out each time, not just when rendered
+                for (int i = 0; i < glyphs.characters.length; i++) {
+                    File file = Configuration.get().createResourceFile(getClass(), "character-"+getCharacterTag(glyphs.characters[i]), ".png");
+                    Imgcodecs.imwrite(file.getAbsolutePath(), glyphs.templates[i]);
+                }
+            }
 
-            // cleanup
-            matchMap.release();
-            template.release();
+            // try find each character of the alphabet in the text image, the characters are
+            // independent, so they can be matched in parallel
+            final Mat matchImage = textImage;
+            IntStream characterRange = IntStream.range(0, glyphs.characters.length);
+            if (parallelMatching && glyphs.characters.length > 1) {
+                characterRange = characterRange.parallel();
+            }
+            // collected in alphabet order, regardless of the order the characters were matched in
+            List<List<CharacterMatch>> characterMatches = characterRange
+                    .mapToObj(i -> matchCharacter(matchImage, glyphs.characters[i], glyphs.templates[i]))
+                    .collect(Collectors.toList());
+            for (List<CharacterMatch> list : characterMatches) {
+                matches.addAll(list);
+            }
+        }
+        finally {
+            releaseGlyphs(glyphs);
         }
 
         // ready to harvest
@@ -87,6 +87,11 @@ public class WritePartTemplateImage extends CvStage {
     }
 
     
+    @Override
+    public boolean isSequential() {
+        return true;
+    }
+
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
         /**
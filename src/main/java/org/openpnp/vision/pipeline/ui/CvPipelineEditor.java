@@ -12,6 +12,7 @@ import javax.swing.JSplitPane;
 
 import org.openpnp.util.UiUtils;
 import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.CvPipeline.ResultRetention;
 import org.openpnp.vision.pipeline.CvStage;
 import org.openpnp.vision.pipeline.stages.ActuatorWrite;
 import org.openpnp.vision.pipeline.stages.Add;
@@ -222,7 +223,8 @@ public class CvPipelineEditor extends JPanel {
     }
 
     public void process() {
-        UiUtils.messageBoxOnException(() -> getPipeline().process());
+        // Keep all the stage results, so they can be shown.
+        UiUtils.messageBoxOnException(() -> getPipeline().process(ResultRetention.All));
         resultsPanel.refresh();
     }
 
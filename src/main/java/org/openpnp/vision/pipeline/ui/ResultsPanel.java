@@ -294,6 +294,11 @@ public class ResultsPanel extends JPanel {
                 model = result.model;
             }
         }
+        org.opencv.core.Point offset = editor.getPipeline().getRegionOfInterestOffset();
+        if (offset != null) {
+            // The models are in full frame coordinates, the images cropped to the region of interest.
+            p = new Point(p.x + (int) offset.x, p.y + (int) offset.y);
+        }
 
         if (model instanceof List) {
             for (Object o : (List) model) {
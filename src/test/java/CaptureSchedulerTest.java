@@ -0,0 +1,217 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.openpnp.machine.reference.camera.CaptureScheduler;
+
+public class CaptureSchedulerTest {
+    /**
+     * A camera that takes a fixed time to capture.
+     */
+    static class TestClient implements CaptureScheduler.Client {
+        final String name;
+        final long captureMs;
+        final double fps;
+        volatile boolean priority;
+        Object group;
+        volatile boolean groupActive = true;
+        final AtomicInteger captures = new AtomicInteger();
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<>());
+        static final AtomicInteger concurrentGroupCaptures = new AtomicInteger();
+        static volatile int maxConcurrentGroupCaptures;
+
+        TestClient(String name, long captureMs, double fps) {
+            this.name = name;
+            this.captureMs = captureMs;
+            this.fps = fps;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void runCapture() {
+            threads.add(Thread.currentThread());
+            if (group != null) {
+                maxConcurrentGroupCaptures = Math.max(maxConcurrentGroupCaptures,
+                        concurrentGroupCaptures.incrementAndGet());
+            }
+            try {
+                Thread.sleep(captureMs);
+            }
+            catch (InterruptedException e) {
+            }
+            finally {
+                if (group != null) {
+                    concurrentGroupCaptures.decrementAndGet();
+                }
+            }
+            captures.incrementAndGet();
+        }
+
+        @Override
+        public double getPreviewFps() {
+            return fps;
+        }
+
+        @Override
+        public boolean isCapturePriority() {
+            return priority;
+        }
+
+        @Override
+        public Object getCaptureGroup() {
+            return group;
+        }
+
+        @Override
+        public boolean isCaptureGroupActive() {
+            return groupActive;
+        }
+    }
+
+    @Test
+    public void testLightLoad() throws Exception {
+        CaptureScheduler scheduler = new CaptureScheduler(2);
+        try {
+            List<TestClient> clients = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                TestClient client = new TestClient("Camera"+i, 1, 10);
+                clients.add(client);
+                scheduler.register(client);
+            }
+            Thread.sleep(1000);
+            Set<Thread> threads = new HashSet<>();
+            for (TestClient client : clients) {
+                // Full preview frame rate.
+                assertTrue(client.captures.get() >= 8 && client.captures.get() <= 12,
+                        client.getName()+" captures "+client.captures.get());
+                threads.addAll(client.threads);
+            }
+            assertEquals(2, threads.size());
+            assertEquals(1.0, scheduler.getDegradation());
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testHeavyLoad() throws Exception {
+        CaptureScheduler scheduler = new CaptureScheduler(2);
+        try {
+            List<TestClient> clients = new ArrayList<>();
+            // 20 cameras at 10 fps taking 20ms each would need 4 workers.
+            for (int i = 0; i < 20; i++) {
+                TestClient client = new TestClient("Camera"+i, 20, 10);
+                clients.add(client);
+            }
+            TestClient taskCamera = clients.get(0);
+            taskCamera.priority = true;
+            for (TestClient client : clients) {
+                scheduler.register(client);
+            }
+            Thread.sleep(2000);
+            double degradation = scheduler.getDegradation();
+            int previews = 0;
+            for (TestClient client : clients) {
+                if (client != taskCamera) {
+                    previews += client.captures.get();
+                }
+            }
+            assertTrue(degradation > 2, "Degradation "+degradation);
+            // The task camera keeps its frame rate.
+            assertTrue(taskCamera.captures.get() >= 14, "Task camera captures "+taskCamera.captures.get());
+            // The previews are degraded.
+            assertTrue(previews/2.0/(clients.size() - 1) < 5);
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testBlockingCamera() throws Exception {
+        CaptureScheduler scheduler = new CaptureScheduler(2);
+        try {
+            // Two disconnected cameras waiting for frames that never come.
+            TestClient blocking0 = new TestClient("Blocking0", 3000, 10);
+            TestClient blocking1 = new TestClient("Blocking1", 3000, 10);
+            TestClient taskCamera = new TestClient("Task", 5, 20);
+            taskCamera.priority = true;
+            TestClient preview = new TestClient("Preview", 5, 10);
+            scheduler.register(blocking0);
+            scheduler.register(blocking1);
+            Thread.sleep(100);
+            scheduler.register(taskCamera);
+            scheduler.register(preview);
+            Thread.sleep(1000);
+            // The blocking cameras got spare workers, the others keep their frame rate.
+            assertEquals(4, scheduler.getRunningWorkers());
+            assertTrue(taskCamera.captures.get() >= 14, "Task camera captures "+taskCamera.captures.get());
+            assertTrue(preview.captures.get() >= 7, "Preview captures "+preview.captures.get());
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testWakeAndUnregister() throws Exception {
+        CaptureScheduler scheduler = new CaptureScheduler(2);
+        try {
+            TestClient client = new TestClient("Camera", 1, 0);
+            CaptureScheduler.Entry entry = scheduler.register(client);
+            Thread.sleep(100);
+            // Only the initial capture at 0 fps.
+            assertEquals(1, client.captures.get());
+            scheduler.wake(entry);
+            Thread.sleep(100);
+            assertEquals(2, client.captures.get());
+            scheduler.unregister(entry, 200);
+            assertFalse(entry.isActive());
+            scheduler.wake(entry);
+            Thread.sleep(100);
+            assertEquals(2, client.captures.get());
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testCaptureGroup() throws Exception {
+        CaptureScheduler scheduler = new CaptureScheduler(4);
+        try {
+            TestClient switchedIn = new TestClient("Switched", 5, 20);
+            TestClient switchedOut = new TestClient("Other", 5, 20);
+            switchedIn.group = switchedOut.group = "Switcher0";
+            switchedOut.groupActive = false;
+            scheduler.register(switchedIn);
+            CaptureScheduler.Entry otherEntry = scheduler.register(switchedOut);
+            Thread.sleep(1000);
+            assertEquals(1, TestClient.maxConcurrentGroupCaptures);
+            // Previews stay with the camera switched in.
+            assertTrue(switchedIn.captures.get() >= 15, "Switched in "+switchedIn.captures.get());
+            assertTrue(switchedOut.captures.get() <= 1, "Switched out "+switchedOut.captures.get());
+            // Unless explicitly woken.
+            int captures = switchedOut.captures.get();
+            scheduler.wake(otherEntry);
+            Thread.sleep(100);
+            assertEquals(captures + 1, switchedOut.captures.get());
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+}
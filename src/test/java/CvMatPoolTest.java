@@ -0,0 +1,133 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.vision.FluentCv;
+import org.openpnp.vision.pipeline.CvMatPool;
+import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.CvPipeline.ResultRetention;
+import org.openpnp.vision.pipeline.CvStage;
+import org.openpnp.vision.pipeline.stages.BlurGaussian;
+import org.openpnp.vision.pipeline.stages.ConvertColor;
+import org.openpnp.vision.pipeline.stages.DetectEdgesCanny;
+import org.openpnp.vision.pipeline.stages.ImageRecall;
+import org.openpnp.vision.pipeline.stages.MaskCircle;
+import org.pmw.tinylog.Configurator;
+import org.pmw.tinylog.Level;
+import org.pmw.tinylog.Logger;
+
+public class CvMatPoolTest {
+    static {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    private static Mat createImage() {
+        Mat mat = new Mat(480, 640, CvType.CV_8UC3, new Scalar(0, 0, 0));
+        Core.setRNGSeed(1);
+        Core.randn(mat, 128, 40);
+        Imgproc.circle(mat, new Point(320, 240), 100, new Scalar(255, 255, 255), -1);
+        return mat;
+    }
+
+    public static class TestImage extends CvStage {
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            return new Result(createImage());
+        }
+    }
+
+    public static class LeakingStage extends CvStage {
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            pipeline.borrowMat(10, 10, CvType.CV_8UC1);
+            return null;
+        }
+    }
+
+    private CvPipeline createPipeline() {
+        CvPipeline pipeline = new CvPipeline();
+        pipeline.add("image", new TestImage());
+        BlurGaussian blur = new BlurGaussian();
+        blur.setKernelSize(5);
+        pipeline.add("blur", blur);
+        MaskCircle mask = new MaskCircle();
+        mask.setDiameter(300);
+        pipeline.add("mask", mask);
+        ConvertColor gray = new ConvertColor();
+        gray.setConversion(FluentCv.ColorCode.Bgr2Gray);
+        pipeline.add("gray", gray);
+        pipeline.add("edges", new DetectEdgesCanny());
+        ImageRecall recall = new ImageRecall();
+        recall.setImageStageName("gray");
+        pipeline.add("recall", recall);
+        return pipeline;
+    }
+
+    @Test
+    public void testReuseAcrossProcess() throws Exception {
+        // The same operations without the pool.
+        Mat expectedGray = createImage();
+        Imgproc.GaussianBlur(expectedGray, expectedGray, new Size(5, 5), 0);
+        Mat circle = new Mat(expectedGray.size(), expectedGray.type(), new Scalar(0, 0, 0));
+        Imgproc.circle(circle, new Point(320, 240), 150, new Scalar(255, 255, 255), -1);
+        Mat masked = new Mat(expectedGray.size(), expectedGray.type(), new Scalar(0, 0, 0));
+        expectedGray.copyTo(masked, circle);
+        Imgproc.cvtColor(masked, expectedGray, Imgproc.COLOR_BGR2GRAY);
+        Mat expectedEdges = new Mat();
+        Imgproc.Canny(expectedGray, expectedEdges, 40, 180);
+
+        try (CvPipeline pipeline = createPipeline()) {
+            CvMatPool pool = pipeline.getMatPool();
+            for (int i = 0; i < 5; i++) {
+                pipeline.process(ResultRetention.All);
+                assertEquals(0, Core.norm(expectedGray, pipeline.getWorkingImage(), Core.NORM_INF));
+                assertEquals(0, Core.norm(expectedEdges, pipeline.getResult("edges").image, Core.NORM_INF));
+            }
+            // The buffers of the first process() are reused by all the others.
+            long allocations = pool.getAllocations();
+            pipeline.process(ResultRetention.All);
+            assertEquals(allocations, pool.getAllocations());
+            assertTrue(pool.getReuses() >= 4 * allocations);
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        CvPipeline pipeline = createPipeline();
+        CvMatPool pool = pipeline.getMatPool();
+        pipeline.process(ResultRetention.All);
+        pipeline.release();
+        // Kept for the next process().
+        assertTrue(pool.getFreeBytes() > 0);
+        pipeline.process(ResultRetention.All);
+        pipeline.close();
+        // Freed.
+        assertEquals(0, pool.getFreeBytes());
+    }
+
+    @Test
+    public void testLeakTracking() throws Exception {
+        Level level = Logger.getLevel();
+        Configurator.currentConfig().level(Level.DEBUG).activate();
+        try (CvPipeline pipeline = new CvPipeline()) {
+            pipeline.add("image", new TestImage());
+            pipeline.add("leak", new LeakingStage());
+            pipeline.add("blur", new BlurGaussian());
+            pipeline.process(ResultRetention.All);
+            // The leaked Mat, the blurred working image and the three retained result copies.
+            assertEquals(5, pipeline.getMatPool().getOutstandingCount());
+            pipeline.release();
+            assertEquals(0, pipeline.getMatPool().getOutstandingCount());
+        }
+        finally {
+            Configurator.currentConfig().level(level).activate();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.CvStage;
+import org.openpnp.vision.pipeline.stages.BlurGaussian;
+import org.openpnp.vision.pipeline.stages.MaskCircle;
+
+public class CvPipelineCloneTest {
+    private static List<String> loadPipelines() throws Exception {
+        List<String> pipelines = new ArrayList<>();
+        try (Stream<java.nio.file.Path> paths = Files.walk(new File("src/main/resources/org/openpnp").toPath())) {
+            for (java.nio.file.Path path : paths.filter(p -> p.toString().endsWith(".xml")).collect(Collectors.toList())) {
+                String xml = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+                if (xml.contains("<cv-pipeline")) {
+                    pipelines.add(xml);
+                }
+            }
+        }
+        return pipelines;
+    }
+
+    @Test
+    public void testCloneMatchesXmlRoundTrip() throws Exception {
+        List<String> xmls = loadPipelines();
+        assertTrue(xmls.size() > 10);
+        for (String xml : xmls) {
+            CvPipeline pipeline = new CvPipeline(xml);
+            CvPipeline clone = pipeline.clone();
+            CvPipeline roundTrip = new CvPipeline(pipeline.toXmlString());
+
+            assertEquals(roundTrip.toXmlString(), clone.toXmlString());
+            for (int i = 0; i < pipeline.getStages().size(); i++) {
+                assertNotSame(pipeline.getStages().get(i), clone.getStages().get(i));
+            }
+            assertEquals(pipeline, clone);
+            assertEquals(roundTrip, clone);
+            assertEquals(pipeline.hashCode(), clone.hashCode());
+            assertEquals(roundTrip.hashCode(), clone.hashCode());
+            assertEquals(pipeline.getFingerprint(), clone.getFingerprint());
+            assertEquals(roundTrip.getFingerprint(), clone.getFingerprint());
+        }
+    }
+
+    @Test
+    public void testFingerprintInvalidation() throws Exception {
+        for (String xml : loadPipelines()) {
+            CvPipeline pipeline = new CvPipeline(xml);
+            CvPipeline clone = pipeline.clone();
+            long fingerprint = pipeline.getFingerprint();
+            for (CvStage stage : clone.getStages()) {
+                boolean enabled = stage.isEnabled();
+                stage.setEnabled(!enabled);
+                assertNotEquals(fingerprint, clone.getFingerprint());
+                assertNotEquals(pipeline, clone);
+                assertEquals(pipeline.toXmlString().equals(clone.toXmlString()), pipeline.equals(clone));
+                stage.setEnabled(enabled);
+                assertEquals(fingerprint, clone.getFingerprint());
+                assertEquals(pipeline, clone);
+                assertEquals(pipeline.hashCode(), clone.hashCode());
+            }
+            clone.setParallel(!clone.isParallel());
+            assertNotEquals(pipeline, clone);
+        }
+        CvPipeline pipeline = new CvPipeline();
+        BlurGaussian blur = new BlurGaussian();
+        pipeline.add("blur", blur);
+        CvPipeline clone = pipeline.clone();
+        blur.setKernelSize(7);
+        assertNotEquals(pipeline.getFingerprint(), clone.getFingerprint());
+        assertNotEquals(pipeline, clone);
+        ((BlurGaussian) clone.getStage("blur")).setKernelSize(7);
+        assertEquals(pipeline.getFingerprint(), clone.getFingerprint());
+        assertEquals(pipeline, clone);
+    }
+
+    @Test
+    public void testCloneCommits() throws Exception {
+        // The legacy upgrade in @Commit is applied just like when reading the XML.
+        CvPipeline pipeline = new CvPipeline();
+        MaskCircle mask = new MaskCircle();
+        mask.setDiameter(0);
+        pipeline.add("mask", mask);
+        CvPipeline clone = pipeline.clone();
+        assertEquals(new CvPipeline(pipeline.toXmlString()).toXmlString(), clone.toXmlString());
+    }
+}
@@ -0,0 +1,147 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.vision.FluentCv;
+import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.CvPipeline.ResultRetention;
+import org.openpnp.vision.pipeline.CvStage;
+import org.openpnp.vision.pipeline.stages.BlurGaussian;
+import org.openpnp.vision.pipeline.stages.ConvertColor;
+import org.openpnp.vision.pipeline.stages.ImageRecall;
+import org.openpnp.vision.pipeline.stages.MatchTemplate;
+import org.openpnp.vision.pipeline.stages.Threshold;
+
+public class CvPipelineParallelTest {
+    static {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    public static class TestImage extends CvStage {
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            Mat mat = new Mat(480, 640, CvType.CV_8UC3, new Scalar(0, 0, 0));
+            Core.setRNGSeed(1);
+            Core.randn(mat, 64, 20);
+            Imgproc.rectangle(mat, new Point(200, 100), new Point(240, 160), new Scalar(255, 255, 255), -1);
+            return new Result(mat, FluentCv.ColorSpace.Bgr);
+        }
+    }
+
+    /**
+     * Waits for the other branch to reach the barrier too, if given. If the branches are processed one
+     * after the other, the wait times out and the stage result is the TimeoutException.
+     */
+    private static void meet(CyclicBarrier barrier) throws Exception {
+        if (barrier != null) {
+            barrier.await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Simulates a slow stage on the main branch.
+     */
+    public static class Slow extends CvStage {
+        private final CyclicBarrier barrier;
+
+        public Slow(CyclicBarrier barrier) {
+            this.barrier = barrier;
+        }
+
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            meet(barrier);
+            return null;
+        }
+    }
+
+    /**
+     * Simulates a slow independent branch, such as a template image rendering.
+     */
+    public static class TestTemplate extends CvStage {
+        private final CyclicBarrier barrier;
+
+        public TestTemplate(CyclicBarrier barrier) {
+            this.barrier = barrier;
+        }
+
+        @Override
+        public boolean isWorkingStateIndependent() {
+            return true;
+        }
+
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            meet(barrier);
+            Mat mat = new Mat(80, 60, CvType.CV_8UC1, new Scalar(0));
+            Imgproc.rectangle(mat, new Point(10, 10), new Point(50, 70), new Scalar(255), -1);
+            return new Result(mat, FluentCv.ColorSpace.Gray);
+        }
+    }
+
+    private CvPipeline createPipeline(boolean parallel) {
+        CvPipeline pipeline = new CvPipeline();
+        pipeline.setParallel(parallel);
+        // The slow stage and the template must overlap to pass the barrier.
+        CyclicBarrier barrier = parallel ? new CyclicBarrier(2) : null;
+        pipeline.add("image", new TestImage());
+        pipeline.add("slow", new Slow(barrier));
+        pipeline.add("blur", new BlurGaussian());
+        ConvertColor gray = new ConvertColor();
+        gray.setConversion(FluentCv.ColorCode.Bgr2Gray);
+        pipeline.add("gray", gray);
+        Threshold threshold = new Threshold();
+        threshold.setThreshold(128);
+        pipeline.add("threshold", threshold);
+        pipeline.add("template", new TestTemplate(barrier));
+        ImageRecall recall = new ImageRecall();
+        recall.setImageStageName("threshold");
+        pipeline.add("recall", recall);
+        MatchTemplate match = new MatchTemplate();
+        match.setTemplateStageName("template");
+        pipeline.add("match", match);
+        return pipeline;
+    }
+
+    @Test
+    public void testParallelMatchesSerial() throws Exception {
+        try (CvPipeline serial = createPipeline(false); CvPipeline parallel = createPipeline(true)) {
+            // Twice, so the pipeline is reused too.
+            for (int i = 0; i < 2; i++) {
+                serial.process(ResultRetention.All);
+                parallel.process(ResultRetention.All);
+                // The slow stage and the template met at the barrier, so they were processed concurrently.
+                assertFalse(parallel.getResult("slow").model instanceof Exception, 
+                        "Branches were not processed concurrently.");
+                assertFalse(parallel.getResult("template").model instanceof Exception, 
+                        "Branches were not processed concurrently.");
+            }
+
+            for (CvStage stage : serial.getStages()) {
+                CvStage.Result expected = serial.getResult(stage.getName());
+                CvStage.Result actual = parallel.getResult(stage.getName());
+                assertNotNull(expected.image);
+                assertEquals(0, Core.norm(expected.image, actual.image, Core.NORM_INF), stage.getName());
+                assertEquals(expected.colorSpace, actual.colorSpace, stage.getName());
+            }
+            assertEquals(0, Core.norm(serial.getWorkingImage(), parallel.getWorkingImage(), Core.NORM_INF));
+            assertEquals(serial.getWorkingColorSpace(), parallel.getWorkingColorSpace());
+            List<?> expectedMatches = (List<?>) serial.getResult("match").model;
+            List<?> actualMatches = (List<?>) parallel.getResult("match").model;
+            assertNotEquals(0, expectedMatches.size());
+            assertEquals(expectedMatches.toString(), actualMatches.toString());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.vision.FluentCv;
+import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.CvStage;
+import org.openpnp.vision.pipeline.stages.BlurGaussian;
+import org.openpnp.vision.pipeline.stages.DetectCircularSymmetry;
+
+public class CvPipelineRegionOfInterestTest {
+    static {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    /**
+     * Stands in for ImageCapture, which needs a camera.
+     */
+    public static class TestCapture extends CvStage {
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            Mat mat = new Mat(600, 800, CvType.CV_8UC3, new Scalar(60, 70, 80));
+            Core.setRNGSeed(3);
+            Mat noise = new Mat(mat.size(), mat.type());
+            Core.randn(noise, 0, 12);
+            Core.add(mat, noise, mat);
+            noise.release();
+            Imgproc.circle(mat, new Point(412.3, 288.7), 30, new Scalar(230, 230, 230), -1);
+            return new Result(pipeline.applyRegionOfInterest(mat), FluentCv.ColorSpace.Bgr);
+        }
+    }
+
+    /**
+     * Marks the image center, in the coordinates of the working image.
+     */
+    public static class ImageCenter extends CvStage {
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            Mat mat = pipeline.getWorkingImage();
+            return new Result(null, Arrays.asList(
+                    new RotatedRect(new Point(mat.cols()/2, mat.rows()/2), new Size(10, 10), 0)));
+        }
+    }
+
+    private static CvPipeline createPipeline() {
+        CvPipeline pipeline = new CvPipeline();
+        pipeline.add("image", new TestCapture());
+        pipeline.add("blur", new BlurGaussian());
+        pipeline.add("center", new ImageCenter());
+        pipeline.add("results", new DetectCircularSymmetry());
+        return pipeline;
+    }
+
+    @Test
+    public void testRegionOfInterest() throws Exception {
+        try (CvPipeline full = createPipeline(); CvPipeline cropped = createPipeline()) {
+            full.process();
+            assertNull(full.getRegionOfInterestOffset());
+            assertEquals(800, full.getWorkingImage().cols());
+
+            // Symmetric around the frame center, like VisionUtils.getRegionOfInterest().
+            cropped.setProperty(CvPipeline.REGION_OF_INTEREST_PROPERTY, new Rect(230, 130, 340, 340));
+            cropped.process();
+
+            assertEquals(new Point(230, 130), cropped.getRegionOfInterestOffset());
+            assertEquals(340, cropped.getWorkingImage().cols());
+            assertEquals(340, cropped.getWorkingImage().rows());
+
+            // The models are mapped back to full frame coordinates.
+            List<?> circles = (List<?>) full.getResult("results").model;
+            List<?> croppedCircles = (List<?>) cropped.getResult("results").model;
+            assertEquals(1, circles.size());
+            assertEquals(circles.toString(), croppedCircles.toString());
+            assertEquals(412.3, ((CvStage.Result.Circle) croppedCircles.get(0)).x, 0.5);
+            assertEquals(288.7, ((CvStage.Result.Circle) croppedCircles.get(0)).y, 0.5);
+            // The working model is the same object, translated only once.
+            assertEquals(croppedCircles, cropped.getWorkingModel());
+            RotatedRect center = (RotatedRect) ((List<?>) cropped.getResult("center").model).get(0);
+            assertEquals(new Point(400, 300), center.center);
+
+            // Placed back into the full frame.
+            Mat frame = cropped.toFullFrameImage(cropped.getWorkingImage());
+            assertEquals(new Size(800, 600), frame.size());
+            Rect inner = new Rect(300, 200, 200, 200);
+            assertEquals(0, Core.norm(full.getWorkingImage().submat(inner), frame.submat(inner), Core.NORM_INF));
+            frame.release();
+
+            // Clipped to the frame, or not cropped at all, if it covers the whole frame.
+            cropped.setProperty(CvPipeline.REGION_OF_INTEREST_PROPERTY, new Rect(-10, -10, 900, 700));
+            cropped.process();
+            assertNull(cropped.getRegionOfInterestOffset());
+            assertEquals(circles.toString(), ((List<?>) cropped.getResult("results").model).toString());
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.openpnp.util.VisionUtils;
+import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.CvPipeline.ResultRetention;
+import org.openpnp.vision.pipeline.CvStage;
+import org.openpnp.vision.pipeline.stages.BlurGaussian;
+import org.openpnp.vision.pipeline.stages.ImageRecall;
+import org.openpnp.vision.pipeline.stages.ScriptRun;
+
+public class CvPipelineResultRetentionTest {
+    public static class TestImage extends CvStage {
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            // A 5 MP camera image.
+            Mat mat = new Mat(1944, 2592, CvType.CV_8UC3, new Scalar(0, 0, 0));
+            Core.randu(mat, 0, 256);
+            return new Result(mat);
+        }
+    }
+
+    public static class TestResults extends CvStage {
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            return new Result(null, "model");
+        }
+    }
+
+    private CvPipeline createPipeline() {
+        CvPipeline pipeline = new CvPipeline();
+        pipeline.add("image", new TestImage());
+        for (int i = 0; i < 10; i++) {
+            BlurGaussian blur = new BlurGaussian();
+            blur.setKernelSize(3);
+            pipeline.add("blur" + i, blur);
+        }
+        ImageRecall recall = new ImageRecall();
+        recall.setImageStageName("blur4");
+        pipeline.add("recall", recall);
+        pipeline.add(VisionUtils.PIPELINE_RESULTS_NAME, new TestResults());
+        return pipeline;
+    }
+
+    @Test
+    public void testReferencedRetention() throws Exception {
+        try (CvPipeline all = createPipeline(); CvPipeline referenced = createPipeline()) {
+            // Twice, so results of a previous run are replaced.
+            for (int i = 0; i < 2; i++) {
+                all.process(ResultRetention.All);
+                referenced.process(ResultRetention.Referenced);
+            }
+
+            // Only the referenced blur4 and the results stage keep their image.
+            assertNotNull(referenced.getResult("blur4").image);
+            assertNotNull(referenced.getResult(VisionUtils.PIPELINE_RESULTS_NAME).image);
+            assertNull(referenced.getResult("blur3").image);
+            assertNotNull(referenced.getResult("blur3").getStage());
+            assertEquals("model", referenced.getExpectedResult(VisionUtils.PIPELINE_RESULTS_NAME).model);
+            assertEquals(2 * all.getRetainedImageBytes() / 13, referenced.getRetainedImageBytes());
+            assertEquals(all.getRetainedImageBytes(),
+                    referenced.getRetainedImageBytes() + referenced.getSkippedImageBytes());
+
+            // The pipeline editor keeps all.
+            for (CvStage stage : all.getStages()) {
+                assertNotNull(all.getResult(stage).image);
+            }
+
+            // A script may read any result.
+            referenced.add("script", new ScriptRun());
+            referenced.process(ResultRetention.Referenced);
+            assertNotNull(referenced.getResult("blur3").image);
+            assertEquals(0, referenced.getSkippedImageBytes());
+            assertTrue(referenced.getRetainedImageBytes() > all.getRetainedImageBytes());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.vision.pipeline.CvStage.Result;
+import org.openpnp.vision.pipeline.stages.DetectCircularSymmetry;
+import org.openpnp.vision.pipeline.stages.DetectCircularSymmetry.ScoreRange;
+import org.openpnp.vision.pipeline.stages.DetectCircularSymmetry.SymmetryScore;
+
+public class DetectCircularSymmetryTest {
+    static {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    /**
+     * A camera-like image of a few fiducials, with noise.
+     */
+    private static Mat createImage() {
+        Mat mat = new Mat(600, 800, CvType.CV_8UC3, new Scalar(60, 70, 80));
+        Core.setRNGSeed(7);
+        Mat noise = new Mat(mat.size(), mat.type());
+        Core.randn(noise, 0, 12);
+        Core.add(mat, noise, mat);
+        Imgproc.circle(mat, new Point(412.3, 288.7), 30, new Scalar(230, 230, 230), -1);
+        Imgproc.circle(mat, new Point(200, 150), 25, new Scalar(210, 220, 200), -1);
+        Imgproc.circle(mat, new Point(620, 450), 35, new Scalar(200, 200, 220), -1);
+        Imgproc.GaussianBlur(mat, mat, new org.opencv.core.Size(5, 5), 0);
+        noise.release();
+        return mat;
+    }
+
+    private static class Search {
+        List<Result.Circle> circles;
+        ScoreRange scoreRange = new ScoreRange();
+        Mat image = createImage();
+    }
+
+    private static Search search(boolean parallel, int maxTargetCount, SymmetryScore symmetryScore, boolean heatMap) throws Exception {
+        Search search = new Search();
+        search.circles = DetectCircularSymmetry.findCircularSymmetry(search.image, 400, 300,
+                40, 90, 700, 700, 500, maxTargetCount, 1.2, 0.2,
+                8, 8, symmetryScore, heatMap, heatMap, search.scoreRange, parallel);
+        return search;
+    }
+
+    @Test
+    public void testParallelSearch() throws Exception {
+        for (SymmetryScore symmetryScore : SymmetryScore.values()) {
+            for (int maxTargetCount : new int[] { 1, 3 }) {
+                Search serial = search(false, maxTargetCount, symmetryScore, true);
+                Search parallel = search(true, maxTargetCount, symmetryScore, true);
+                assertEquals(maxTargetCount, serial.circles.size());
+                assertEquals(serial.circles.toString(), parallel.circles.toString());
+                assertEquals(serial.scoreRange.minScore, parallel.scoreRange.minScore);
+                assertEquals(serial.scoreRange.maxScore, parallel.scoreRange.maxScore);
+                assertEquals(serial.scoreRange.finalScore, parallel.scoreRange.finalScore);
+                // The diagnostics heat map.
+                assertEquals(0, Core.norm(serial.image, parallel.image, Core.NORM_INF));
+            }
+        }
+        // All found at sub-pixel accuracy.
+        List<Result.Circle> circles = search(true, 3, SymmetryScore.OverallVarianceVsRingVarianceSum, false).circles;
+        circles.sort((a, b) -> Double.compare(a.x, b.x));
+        assertEquals(200, circles.get(0).x, 0.5);
+        assertEquals(150, circles.get(0).y, 0.5);
+        assertEquals(412.3, circles.get(1).x, 0.5);
+        assertEquals(288.7, circles.get(1).y, 0.5);
+        assertEquals(620, circles.get(2).x, 0.5);
+        assertEquals(450, circles.get(2).y, 0.5);
+    }
+}
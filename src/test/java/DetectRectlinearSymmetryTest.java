@@ -0,0 +1,88 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.vision.pipeline.stages.DetectRectlinearSymmetry;
+import org.openpnp.vision.pipeline.stages.DetectRectlinearSymmetry.ScoreRange;
+import org.openpnp.vision.pipeline.stages.DetectRectlinearSymmetry.SymmetryFunction;
+
+public class DetectRectlinearSymmetryTest {
+    static {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    /**
+     * A bottom camera-like image of a rotated part, with noise.
+     */
+    private static Mat createImage(double angle) {
+        Mat mat = new Mat(600, 800, CvType.CV_8UC3, new Scalar(30, 30, 30));
+        Core.setRNGSeed(3);
+        Mat noise = new Mat(mat.size(), mat.type());
+        Core.randn(noise, 0, 10);
+        Core.add(mat, noise, mat);
+        noise.release();
+        RotatedRect body = new RotatedRect(new Point(412.5, 291.5), new Size(160, 90), angle);
+        Point [] corners = new Point[4];
+        body.points(corners);
+        Imgproc.fillConvexPoly(mat, new MatOfPoint(corners), new Scalar(200, 200, 200), Imgproc.LINE_AA);
+        Imgproc.GaussianBlur(mat, mat, new Size(3, 3), 0);
+        return mat;
+    }
+
+    private static class Search {
+        RotatedRect rect;
+        ScoreRange scoreRange = new ScoreRange();
+    }
+
+    private static Search search(double angle, boolean parallel, boolean coarseToFine) throws Exception {
+        Mat image = createImage(angle);
+        Search search = new Search();
+        search.rect = DetectRectlinearSymmetry.findReclinearSymmetry(image, 400, 300, 0, 
+                240, 240, 50, 45, 
+                1.0, SymmetryFunction.FullSymmetry, SymmetryFunction.FullSymmetry, 40, 
+                8, 2, 5, 2.5, 128, false, false, coarseToFine, parallel, search.scoreRange);
+        image.release();
+        return search;
+    }
+
+    private static String toString(RotatedRect rect) {
+        return rect.center+" "+rect.size+" "+rect.angle;
+    }
+
+    @Test
+    public void testParallelAndCoarseToFine() throws Exception {
+        for (double angle : new double[] { -20, 7.5, 33 }) {
+            Search serial = search(angle, false, false);
+            Search parallel = search(angle, true, false);
+            Search coarseToFine = search(angle, true, true);
+            assertNotNull(serial.rect);
+            // Parallel is exact.
+            assertEquals(toString(serial.rect), toString(parallel.rect));
+            assertEquals(serial.scoreRange.minScore, parallel.scoreRange.minScore);
+            assertEquals(serial.scoreRange.maxScore, parallel.scoreRange.maxScore);
+            assertEquals(serial.scoreRange.finalScore, parallel.scoreRange.finalScore);
+            // Coarse-to-fine agrees to sub-pixel.
+            assertNotNull(coarseToFine.rect);
+            assertEquals(serial.rect.center.x, coarseToFine.rect.center.x, 0.5);
+            assertEquals(serial.rect.center.y, coarseToFine.rect.center.y, 0.5);
+            assertEquals(serial.rect.angle, coarseToFine.rect.angle, 0.2);
+            assertEquals(serial.rect.size.width, coarseToFine.rect.size.width, 1.0);
+            assertEquals(serial.rect.size.height, coarseToFine.rect.size.height, 1.0);
+            // Both found the part.
+            for (Search search : new Search[] { serial, coarseToFine }) {
+                assertEquals(412.5, search.rect.center.x, 0.5);
+                assertEquals(291.5, search.rect.center.y, 0.5);
+                assertEquals(0, Math.IEEEremainder(search.rect.angle - angle, 90), 0.5);
+            }
+        }
+    }
+}
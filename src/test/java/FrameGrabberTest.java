@@ -0,0 +1,183 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.openpnp.machine.reference.camera.FrameGrabber;
+
+public class FrameGrabberTest {
+    /**
+     * Simulates a polled camera driver delivering frames at a fixed rate.
+     */
+    static class SimulatedStream {
+        final long frameIntervalNs;
+        long nextFrameTime;
+        int frames;
+        int polls;
+
+        SimulatedStream(double fps) {
+            frameIntervalNs = (long) (1e9/fps);
+            nextFrameTime = System.nanoTime() + frameIntervalNs;
+        }
+
+        synchronized boolean hasNewFrame() {
+            polls++;
+            return System.nanoTime() >= nextFrameTime;
+        }
+
+        synchronized BufferedImage capture() {
+            long t = System.nanoTime();
+            while (nextFrameTime <= t) {
+                nextFrameTime += frameIntervalNs;
+            }
+            frames++;
+            return new BufferedImage(8, 8, BufferedImage.TYPE_3BYTE_BGR);
+        }
+    }
+
+    /**
+     * The former OpenPnpCaptureCamera.internalCapture() wait.
+     */
+    private static BufferedImage spinCapture(SimulatedStream stream) {
+        long timeout = System.currentTimeMillis()+500;
+        while (!stream.hasNewFrame()) {
+            Thread.yield();
+            if (System.currentTimeMillis() > timeout) {
+                return null;
+            }
+        }
+        return stream.capture();
+    }
+
+    private static final AtomicInteger runs = new AtomicInteger();
+
+    /**
+     * Captures continuously from several cameras, like vision does.
+     *
+     * @param polls Returns the number of times each camera driver was polled.
+     * @return The CPU time consumed by the capturing and grabber threads in seconds. Other threads 
+     * in the process are not counted, as they might be busy with whatever else.
+     */
+    private static double captureCameras(int cameras, boolean grabbed, long durationMs, int [] frames, 
+            int [] polls) throws Exception {
+        List<SimulatedStream> streams = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        List<FrameGrabber> grabbers = new ArrayList<>();
+        AtomicLong cpu = new AtomicLong();
+        String grabberPrefix = "Grabber-"+runs.incrementAndGet()+"-";
+        long end = System.currentTimeMillis() + durationMs;
+        for (int i = 0; i < cameras; i++) {
+            SimulatedStream stream = new SimulatedStream(30);
+            streams.add(stream);
+            FrameGrabber grabber = grabbed ?
+                    new FrameGrabber(grabberPrefix+i, () -> stream.hasNewFrame(), () -> stream.capture())
+                    : null;
+            if (grabber != null) {
+                grabbers.add(grabber);
+            }
+            final int camera = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    while (System.currentTimeMillis() < end) {
+                        BufferedImage image = (grabber != null ? grabber.grab(500) : spinCapture(stream));
+                        if (image != null) {
+                            frames[camera]++;
+                        }
+                    }
+                }
+                catch (InterruptedException e) {
+                }
+                cpu.addAndGet(ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime());
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(grabberPrefix)) {
+                cpu.addAndGet(ManagementFactory.getThreadMXBean().getThreadCpuTime(thread.getId()));
+            }
+        }
+        for (FrameGrabber grabber : grabbers) {
+            grabber.stop();
+        }
+        for (int i = 0; i < cameras; i++) {
+            synchronized (streams.get(i)) {
+                polls[i] = streams.get(i).polls;
+            }
+        }
+        return cpu.get()/1e9;
+    }
+
+    @Test
+    public void testGrab() throws Exception {
+        SimulatedStream stream = new SimulatedStream(50);
+        FrameGrabber grabber = new FrameGrabber("Grabber", () -> stream.hasNewFrame(), () -> stream.capture());
+        try {
+            // Not polled while nobody waits.
+            Thread.sleep(100);
+            assertEquals(0, stream.frames);
+            assertNull(grabber.getFrame());
+
+            BufferedImage last = null;
+            for (int i = 0; i < 10; i++) {
+                BufferedImage image = grabber.grab(500);
+                assertNotNull(image);
+                assertTrue(image != last);
+                last = image;
+            }
+            // At most one more, if the grabber was polling when the last consumer left.
+            assertTrue(stream.frames == 10 || stream.frames == 11, "Frames "+stream.frames);
+            assertTrue(Math.abs(grabber.getFrameIntervalMs() - 20) < 5,
+                    "Frame interval "+grabber.getFrameIntervalMs());
+        }
+        finally {
+            grabber.stop();
+        }
+        // Stopped, times out.
+        assertNull(grabber.grab(50));
+    }
+
+    @Test
+    public void testCpuUsage() throws Exception {
+        final int cameras = 4;
+        final long durationMs = 1000;
+        // Warm up.
+        captureCameras(cameras, false, 200, new int[cameras], new int[cameras]);
+        captureCameras(cameras, true, 200, new int[cameras], new int[cameras]);
+
+        int [] spinFrames = new int[cameras];
+        int [] spinPolls = new int[cameras];
+        captureCameras(cameras, false, durationMs, spinFrames, spinPolls);
+        int [] grabbedFrames = new int[cameras];
+        int [] grabbedPolls = new int[cameras];
+        double grabbedCpu = captureCameras(cameras, true, durationMs, grabbedFrames, grabbedPolls);
+        int frames = 0;
+        for (int i = 0; i < cameras; i++) {
+            // Same frame rate.
+            assertTrue(Math.abs(spinFrames[i] - grabbedFrames[i]) <= 3,
+                    "Frames "+spinFrames[i]+" vs. "+grabbedFrames[i]);
+            // The CPU goes into polling the driver. Spinning polls whenever it gets the CPU, i.e. 
+            // thousands of times per frame on an idle CPU, the grabber a few times per frame.
+            double spinPollsPerFrame = (double) spinPolls[i]/spinFrames[i];
+            double grabbedPollsPerFrame = (double) grabbedPolls[i]/grabbedFrames[i];
+            assertTrue(grabbedPollsPerFrame < 20, "Grabbed polls per frame "+grabbedPollsPerFrame);
+            assertTrue(grabbedPollsPerFrame < spinPollsPerFrame, 
+                    "Polls per frame, grabbed "+grabbedPollsPerFrame+" vs. spinning "+spinPollsPerFrame);
+            frames += grabbedFrames[i];
+        }
+        // And a fixed CPU budget per frame: a tenth of what spinning takes per frame on a single core.
+        double grabbedMsPerFrame = grabbedCpu*1000/frames;
+        assertTrue(grabbedMsPerFrame < 1000.0/30/cameras/10, "Grabbed CPU "+grabbedMsPerFrame+"ms per frame");
+    }
+}
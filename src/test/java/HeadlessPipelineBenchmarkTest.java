@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.HeadlessPipelineBenchmark;
+import org.openpnp.model.AbstractVisionSettings;
+import org.openpnp.util.VisionUtils;
+import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.stages.BlurGaussian;
+import org.openpnp.vision.pipeline.stages.CreateFootprintTemplateImage;
+import org.openpnp.vision.pipeline.stages.DetectCircularSymmetry;
+import org.openpnp.vision.pipeline.stages.ImageCapture;
+
+
+public class HeadlessPipelineBenchmarkTest {
+    static {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    @Test
+    public void testBenchmark() throws Exception {
+        File directory = Files.createTempDirectory("benchmark").toFile();
+        File images = new File(directory, "images");
+        images.mkdirs();
+        for (int i = 0; i < 3; i++) {
+            Mat mat = new Mat(480, 640, CvType.CV_8UC3, new Scalar(40, 40, 40));
+            Imgproc.circle(mat, new Point(300 + i*10, 250 - i*5), 30, new Scalar(230, 230, 230), -1);
+            Imgcodecs.imwrite(new File(images, "image" + i + ".png").getAbsolutePath(), mat);
+            mat.release();
+        }
+        CvPipeline pipeline = new CvPipeline();
+        pipeline.add("image", new ImageCapture());
+        pipeline.add("blur", new BlurGaussian());
+        pipeline.add(VisionUtils.PIPELINE_RESULTS_NAME, new DetectCircularSymmetry());
+        File pipelineFile = new File(directory, "pipeline.xml");
+        Files.write(pipelineFile.toPath(), pipeline.toXmlString().getBytes(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int exitCode = HeadlessPipelineBenchmark.run(new String[] { 
+                "--warmup", "1", "--iterations", "3", "--pipeline", pipelineFile.getAbsolutePath(), images.getAbsolutePath() },
+                new PrintStream(bytes, true, "UTF-8"));
+        String report = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        assertEquals(0, exitCode);
+        assertTrue(report.contains("image2.png"));
+        assertTrue(report.contains("Circle [x=320.5"));
+        for (String stage : new String[] { "image", "blur", VisionUtils.PIPELINE_RESULTS_NAME, "Total" }) {
+            assertTrue(report.matches("(?s).*\\n" + stage + " +[0-9.]+ .*"), stage);
+        }
+        assertTrue(report.contains("Results                           stable"));
+        // No region of interest is applied, without the bottom vision preparation.
+        assertTrue(report.contains(CvPipeline.REGION_OF_INTEREST_PROPERTY));
+
+        // Pipelines that need the machine context are rejected.
+        pipeline.insert("template", new CreateFootprintTemplateImage(), 1);
+        Files.write(pipelineFile.toPath(), pipeline.toXmlString().getBytes(StandardCharsets.UTF_8));
+        assertEquals(2, HeadlessPipelineBenchmark.run(new String[] { 
+                "--warmup", "0", "--iterations", "1", "--pipeline", pipelineFile.getAbsolutePath(), images.getAbsolutePath() }, 
+                new PrintStream(new ByteArrayOutputStream())));
+
+        // No images.
+        assertEquals(2, HeadlessPipelineBenchmark.run(new String[] { 
+                "--pipeline", pipelineFile.getAbsolutePath(), directory.getAbsolutePath() }, new PrintStream(new ByteArrayOutputStream())));
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testStockBottomVision() throws Exception {
+        File directory = Files.createTempDirectory("benchmark").toFile();
+        File configuration = new File(directory, ".openpnp2");
+        configuration.mkdirs();
+        File images = new File(directory, "images");
+        images.mkdirs();
+        for (int i = 0; i < 2; i++) {
+            // A part with two bright contacts.
+            Mat mat = new Mat(480, 640, CvType.CV_8UC3, new Scalar(20, 20, 20));
+            Imgproc.rectangle(mat, new Point(240 + i*10, 200), new Point(280 + i*10, 280), new Scalar(230, 230, 230), -1);
+            Imgproc.rectangle(mat, new Point(360 + i*10, 200), new Point(400 + i*10, 280), new Scalar(230, 230, 230), -1);
+            Imgcodecs.imwrite(new File(images, "image" + i + ".png").getAbsolutePath(), mat);
+            mat.release();
+        }
+        String[] args = new String[] { "--config", configuration.getAbsolutePath(), "--warmup", "1", "--iterations", "2", 
+                "--vision-settings", AbstractVisionSettings.STOCK_BOTTOM_ID, images.getAbsolutePath() };
+
+        // The millimeters to pixels parameters need the camera.
+        assertEquals(2, HeadlessPipelineBenchmark.run(args, new PrintStream(new ByteArrayOutputStream())));
+
+        String[] uppArgs = new String[args.length + 2];
+        uppArgs[0] = "--units-per-pixel";
+        uppArgs[1] = "0.025mm";
+        System.arraycopy(args, 0, uppArgs, 2, args.length);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int exitCode = HeadlessPipelineBenchmark.run(uppArgs, new PrintStream(bytes, true, "UTF-8"));
+        String report = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        assertEquals(0, exitCode, report);
+        assertTrue(report.contains("image1.png"), report);
+        assertFalse(report.contains("Exception"), report);
+        assertTrue(report.contains("{ {330.0, 240.0} 160x80 * 0.0 }"), report);
+        assertTrue(report.contains("Results                           stable"), report);
+        FileUtils.deleteDirectory(directory);
+    }
+}
@@ -0,0 +1,90 @@
+import java.awt.geom.AffineTransform;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.openpnp.machine.reference.JobJournal;
+import org.openpnp.model.Abstract2DLocatable.Side;
+import org.openpnp.model.BoardLocation;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.model.Placement;
+import org.openpnp.spi.PnpJobProcessor.JobPlacement;
+import org.openpnp.spi.PnpJobProcessor.JobPlacement.Status;
+
+public class JobJournalTest {
+    @Test
+    public void testJournalReplay() throws Exception {
+        File file = File.createTempFile("JobJournalTest", ".journal");
+        file.delete();
+        file.deleteOnExit();
+
+        BoardLocation boardLocation = CalculateBoardLocationTests.createTestBoardLocation(Side.Top, true);
+        boardLocation.setId("B1");
+        Placement placement = boardLocation.getBoard().getPlacements().get(0);
+        AffineTransform tx = new AffineTransform(0.999, 0.01, -0.01, 1.001, 37.5, 100.25);
+
+        JobJournal journal = new JobJournal(file);
+        Assertions.assertNull(journal.read());
+        journal.open();
+        JobPlacement jobPlacement = new JobPlacement(boardLocation, placement);
+        jobPlacement.setStatus(Status.Processing);
+        journal.placementStatus(jobPlacement);
+        boardLocation.setLocalToParentTransform(tx);
+        journal.fiducialResult(boardLocation);
+        jobPlacement.setStatus(Status.Complete);
+        journal.placementStatus(jobPlacement);
+        journal.close();
+
+        // Simulate a crash in the middle of writing a record.
+        Files.write(file.toPath(), "P\tB1\tR".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        JobJournal.Replay replay = new JobJournal(file).read();
+        Assertions.assertNotNull(replay);
+        Assertions.assertEquals(Status.Complete, replay.getPlacementStatus("B1", placement.getId()));
+        Assertions.assertNull(replay.getPlacementStatus("B1", "R"));
+        JobJournal.FiducialResult fiducialResult = replay.getFiducialResult("B1");
+        Assertions.assertNotNull(fiducialResult);
+        Assertions.assertEquals(tx, fiducialResult.getLocalToParentTransform());
+        Assertions.assertTrue(fiducialResult.isValidFor(boardLocation));
+
+        // A moved board must be checked again.
+        boardLocation.setLocation(boardLocation.getLocation().add(new Location(LengthUnit.Millimeters, 1, 0, 0, 0)));
+        Assertions.assertFalse(fiducialResult.isValidFor(boardLocation));
+
+        journal.delete();
+        Assertions.assertFalse(file.exists());
+    }
+
+    @Test
+    public void testSession() throws Exception {
+        File file = File.createTempFile("JobJournalTest", ".journal");
+        file.delete();
+        file.deleteOnExit();
+
+        // Left behind in this session, e.g. by an aborted run, it must not be resumed from.
+        JobJournal journal = new JobJournal(file);
+        journal.open();
+        journal.close();
+        JobJournal.Replay replay = new JobJournal(file).read();
+        Assertions.assertNotNull(replay);
+        Assertions.assertFalse(replay.isFromEarlierSession());
+
+        // Left behind by a crashed session.
+        Files.write(file.toPath(), "OpenPnP-Job-Journal\t1\nS\tcrashed-session\n".getBytes(StandardCharsets.UTF_8));
+        replay = new JobJournal(file).read();
+        Assertions.assertTrue(replay.isFromEarlierSession());
+
+        // Reopened by this session, after resuming.
+        journal.open();
+        journal.close();
+        replay = new JobJournal(file).read();
+        Assertions.assertFalse(replay.isFromEarlierSession());
+
+        journal.delete();
+        Assertions.assertFalse(file.exists());
+    }
+}
@@ -0,0 +1,144 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.util.OpenCvUtils;
+import org.openpnp.vision.FluentCv;
+import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.CvStage;
+import org.openpnp.vision.pipeline.CvStage.Result.TemplateMatch;
+import org.openpnp.vision.pipeline.stages.MatchTemplate;
+
+public class MatchTemplateTest {
+    static {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    private static final Point[] locations = new Point[] {
+            new Point(101, 77), new Point(640, 333), new Point(1003, 702) };
+
+    private static void drawPattern(Mat mat, Point origin) {
+        Imgproc.rectangle(mat, origin, new Point(origin.x + 79, origin.y + 59), new Scalar(200), -1);
+        Imgproc.circle(mat, new Point(origin.x + 25, origin.y + 30), 14, new Scalar(40), -1);
+        Imgproc.rectangle(mat, new Point(origin.x + 50, origin.y + 10), new Point(origin.x + 70, origin.y + 22),
+                new Scalar(90), -1);
+    }
+
+    /**
+     * A large camera frame with a few instances of the pattern, and noise.
+     */
+    public static class TestImage extends CvStage {
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            Mat mat = new Mat(960, 1280, CvType.CV_8UC1, new Scalar(120));
+            for (Point location : locations) {
+                drawPattern(mat, location);
+            }
+            Core.setRNGSeed(5);
+            Mat noise = new Mat(mat.size(), CvType.CV_8SC1);
+            Core.randn(noise, 0, 10);
+            Core.add(mat, noise, mat, new Mat(), CvType.CV_8U);
+            noise.release();
+            return new Result(mat, FluentCv.ColorSpace.Gray);
+        }
+    }
+
+    public static class TestTemplate extends CvStage {
+        private boolean inverted;
+
+        public TestTemplate(boolean inverted) {
+            this.inverted = inverted;
+        }
+
+        @Override
+        public boolean isWorkingStateIndependent() {
+            return true;
+        }
+
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            Mat mat = new Mat(70, 90, CvType.CV_8UC1, new Scalar(120));
+            drawPattern(mat, new Point(5, 5));
+            if (inverted) {
+                Core.bitwise_not(mat, mat);
+            }
+            return new Result(mat, FluentCv.ColorSpace.Gray);
+        }
+    }
+
+    private static class Match {
+        List<TemplateMatch> matches;
+    }
+
+    private static Match match(int pyramidLevels, boolean inverted) throws Exception {
+        try (CvPipeline pipeline = new CvPipeline()) {
+            pipeline.setParallel(false);
+            pipeline.add("template", new TestTemplate(inverted));
+            pipeline.add("image", new TestImage());
+            MatchTemplate matchTemplate = new MatchTemplate();
+            matchTemplate.setTemplateStageName("template");
+            matchTemplate.setPyramidLevels(pyramidLevels);
+            pipeline.add("match", matchTemplate);
+            pipeline.process();
+            Match match = new Match();
+            match.matches = pipeline.getExpectedResult("match").getExpectedListModel(TemplateMatch.class, null);
+            return match;
+        }
+    }
+
+    @Test
+    public void testPyramidMatchesExhaustive() throws Exception {
+        Match exhaustive = match(0, false);
+        assertEquals(locations.length, exhaustive.matches.size());
+        for (int pyramidLevels : new int[] { 2, 3 }) {
+            Match pyramid = match(pyramidLevels, false);
+            assertEquals(exhaustive.matches.size(), pyramid.matches.size());
+            for (int i = 0; i < exhaustive.matches.size(); i++) {
+                TemplateMatch expected = exhaustive.matches.get(i);
+                TemplateMatch actual = pyramid.matches.get(i);
+                assertEquals(expected.x, actual.x);
+                assertEquals(expected.y, actual.y);
+                assertEquals(expected.score, actual.score, 1e-4);
+            }
+        }
+        // Found where drawn.
+        exhaustive.matches.sort((a, b) -> Double.compare(a.x, b.x));
+        for (int i = 0; i < locations.length; i++) {
+            assertEquals(locations[i].x - 5, exhaustive.matches.get(i).x, 1);
+            assertEquals(locations[i].y - 5, exhaustive.matches.get(i).y, 1);
+        }
+    }
+
+    @Test
+    public void testPyramidFallback() throws Exception {
+        // No good match anywhere, the pyramid falls back to exhaustive matching.
+        Match exhaustive = match(0, true);
+        Match pyramid = match(3, true);
+        assertEquals(exhaustive.matches.toString(), pyramid.matches.toString());
+
+        // The windows are reported, unless matched exhaustively.
+        Mat image = new Mat(300, 400, CvType.CV_8UC1, new Scalar(120));
+        drawPattern(image, new Point(200, 100));
+        Mat template = new Mat(70, 90, CvType.CV_8UC1, new Scalar(120));
+        drawPattern(template, new Point(5, 5));
+        Mat result = new Mat();
+        List<Rect> windows = new ArrayList<>();
+        double maxVal = OpenCvUtils.matchTemplate(image, template, result, 2, 4, 0.7, windows);
+        assertTrue(maxVal > 0.99);
+        assertTrue(!windows.isEmpty() && windows.size() <= 4);
+        assertEquals(image.cols() - template.cols() + 1, result.cols());
+        maxVal = OpenCvUtils.matchTemplate(image, template, result, 2, 4, 1.1, windows);
+        assertTrue(windows.isEmpty());
+        assertTrue(maxVal > 0.99);
+    }
+}
@@ -0,0 +1,216 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.machine.reference.camera.MjpegStreamReader;
+
+public class MjpegStreamReaderTest {
+    static {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    private static List<byte[]> createFrames(int count, int width, int height) {
+        List<byte[]> frames = new ArrayList<>();
+        Mat mat = new Mat(height, width, CvType.CV_8UC3);
+        Core.randu(mat, 0, 256);
+        Imgproc.GaussianBlur(mat, mat, new Size(0, 0), 3);
+        for (int i = 0; i < count; i++) {
+            Mat frame = mat.clone();
+            Imgproc.putText(frame, "Frame "+i, new Point(50, 100), Imgproc.FONT_HERSHEY_PLAIN, 5,
+                    new Scalar(255, 255, 255), 5);
+            MatOfByte jpeg = new MatOfByte();
+            Imgcodecs.imencode(".jpg", frame, jpeg);
+            frames.add(jpeg.toArray());
+            jpeg.release();
+            frame.release();
+        }
+        mat.release();
+        return frames;
+    }
+
+    private static byte[] createStream(List<byte[]> frames, boolean contentLength) throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (byte[] frame : frames) {
+            String header = "--myboundary\r\nContent-Type: image/jpeg\r\n"
+                    + (contentLength ? "Content-Length: "+frame.length+"\r\n" : "")
+                    + "\r\n";
+            stream.write(header.getBytes(StandardCharsets.ISO_8859_1));
+            stream.write(frame);
+            stream.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return stream.toByteArray();
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        List<byte[]> frames = createFrames(10, 320, 240);
+        for (boolean contentLength : new boolean[] { true, false }) {
+            MjpegStreamReader reader = new MjpegStreamReader(
+                    new ByteArrayInputStream(createStream(frames, contentLength)));
+            for (byte[] frame : frames) {
+                assertArrayEquals(frame, reader.readFrame());
+            }
+            reader.close();
+        }
+    }
+
+    /**
+     * Inserts an APP1 segment with a thumbnail JPEG after the start of image marker, like EXIF does.
+     */
+    private static byte[] insertThumbnail(byte[] frame, byte[] thumbnail) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(frame, 0, 2);
+        int length = 2 + thumbnail.length;
+        out.write(0xFF);
+        out.write(0xE1);
+        out.write(length >> 8);
+        out.write(length & 0xFF);
+        out.write(thumbnail, 0, thumbnail.length);
+        out.write(frame, 2, frame.length - 2);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testThumbnail() throws Exception {
+        byte[] thumbnail = createFrames(1, 32, 24).get(0);
+        List<byte[]> frames = new ArrayList<>();
+        for (byte[] frame : createFrames(3, 320, 240)) {
+            frames.add(insertThumbnail(frame, thumbnail));
+        }
+        // The end of image marker of the thumbnail does not end the frame.
+        MjpegStreamReader reader = new MjpegStreamReader(
+                new ByteArrayInputStream(createStream(frames, false)));
+        for (byte[] frame : frames) {
+            byte[] read = reader.readFrame();
+            assertArrayEquals(frame, read);
+            Mat mat = MjpegStreamReader.decode(read);
+            assertEquals(320, mat.cols());
+            mat.release();
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testResync() throws Exception {
+        List<byte[]> small = createFrames(2, 32, 24);
+        byte[] large = createFrames(1, 320, 240).get(0);
+        assertTrue(large.length > 4096);
+        // A truncated frame, a frame too large, and one without an end of image marker, each 
+        // followed by a good frame.
+        List<byte[]> frames = new ArrayList<>();
+        frames.add(Arrays.copyOf(small.get(0), small.get(0).length/2));
+        frames.add(small.get(1));
+        frames.add(large);
+        frames.add(small.get(0));
+        frames.add(Arrays.copyOf(large, large.length - 2));
+        frames.add(small.get(1));
+        MjpegStreamReader reader = new MjpegStreamReader(
+                new ByteArrayInputStream(createStream(frames, false)), 4096);
+        assertArrayEquals(small.get(1), reader.readFrame());
+        assertArrayEquals(small.get(0), reader.readFrame());
+        assertArrayEquals(small.get(1), reader.readFrame());
+        reader.close();
+    }
+
+    @Test
+    public void testNewestFrame() throws Exception {
+        List<byte[]> frames = createFrames(5, 320, 240);
+        PipedOutputStream out = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(out, 1024*1024);
+        MjpegStreamReader reader = new MjpegStreamReader(in);
+        reader.start("MjpegStreamReaderTest");
+        assertNull(reader.grab(50));
+
+        // The consumer is behind, only the newest frame is decoded.
+        out.write(createStream(frames, false));
+        out.flush();
+        long t = System.currentTimeMillis();
+        while (reader.getFrames() < frames.size() && System.currentTimeMillis() < t + 2000) {
+            Thread.sleep(10);
+        }
+        assertEquals(frames.size(), reader.getFrames());
+        Mat mat = reader.grab(500);
+        assertNotNull(mat);
+        assertEquals(CvType.CV_8UC3, mat.type());
+        Mat expected = MjpegStreamReader.decode(frames.get(frames.size() - 1));
+        assertEquals(0, Core.norm(expected, mat, Core.NORM_INF));
+        assertEquals(frames.size() - 1, reader.getDroppedFrames());
+        assertTrue(reader.getDecodeLatencyMs() > 0);
+        // Nothing new.
+        assertNull(reader.grab(50));
+        reader.close();
+    }
+
+    /**
+     * Returns the data in small pieces, so headers, markers and frames are split across reads.
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final byte[] data;
+        private final int chunkSize;
+        private int position;
+
+        ChunkedInputStream(byte[] data, int chunkSize) {
+            this.data = data;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? (data[position++] & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= data.length) {
+                return -1;
+            }
+            int n = Math.min(Math.min(len, chunkSize), data.length - position);
+            System.arraycopy(data, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+
+    @Test
+    public void testSplitReads() throws Exception {
+        List<byte[]> frames = createFrames(3, 1280, 720);
+        for (boolean contentLength : new boolean[] { true, false }) {
+            for (int chunkSize : new int[] { 1, 7, 1000 }) {
+                MjpegStreamReader reader = new MjpegStreamReader(
+                        new ChunkedInputStream(createStream(frames, contentLength), chunkSize));
+                for (byte[] frame : frames) {
+                    byte[] read = reader.readFrame();
+                    assertArrayEquals(frame, read);
+                    Mat mat = MjpegStreamReader.decode(read);
+                    assertEquals(1280, mat.cols());
+                    assertEquals(720, mat.rows());
+                    assertEquals(CvType.CV_8UC3, mat.type());
+                    mat.release();
+                }
+                reader.close();
+            }
+        }
+    }
+}
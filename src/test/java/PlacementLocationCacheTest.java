@@ -0,0 +1,76 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.openpnp.model.Abstract2DLocatable.Side;
+import org.openpnp.model.BoardLocation;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Panel;
+import org.openpnp.model.PanelLocation;
+import org.openpnp.model.Location;
+import org.openpnp.model.Placement;
+import org.openpnp.model.PlacementLocationCache;
+import org.openpnp.util.Utils2D;
+
+public class PlacementLocationCacheTest {
+    @Test
+    public void testCacheFollowsChanges() throws Exception {
+        BoardLocation boardLocation = CalculateBoardLocationTests.createTestBoardLocation(Side.Top, true);
+        Placement placement = boardLocation.getBoard().getPlacements().get(0);
+        PlacementLocationCache cache = new PlacementLocationCache();
+
+        check(cache, boardLocation, placement);
+        Location cached = cache.getGlobalLocation(boardLocation, placement);
+        Assertions.assertSame(cached, cache.getGlobalLocation(boardLocation, placement));
+        Assertions.assertEquals(1, cache.getMisses());
+
+        boardLocation.setLocation(new Location(LengthUnit.Millimeters, 10, 20, -10, 30));
+        check(cache, boardLocation, placement);
+
+        boardLocation.setGlobalSide(Side.Bottom);
+        check(cache, boardLocation, placement);
+
+        placement.setLocation(new Location(LengthUnit.Millimeters, 5, 6, 0, 90));
+        check(cache, boardLocation, placement);
+
+        boardLocation.setLocalToParentTransform(null);
+        check(cache, boardLocation, placement);
+
+        cache.invalidateAll();
+        check(cache, boardLocation, placement);
+        Assertions.assertEquals(6, cache.getMisses());
+    }
+
+    @Test
+    public void testRemovedBoardIsNotListenedTo() throws Exception {
+        PanelLocation rootPanelLocation = new PanelLocation(new Panel());
+        BoardLocation boardLocation = CalculateBoardLocationTests.createTestBoardLocation(Side.Top, true);
+        rootPanelLocation.addChild(boardLocation);
+        Placement placement = boardLocation.getBoard().getPlacements().get(0);
+        PlacementLocationCache cache = new PlacementLocationCache();
+
+        check(cache, boardLocation, placement);
+        Assertions.assertTrue(boardLocation.isListener(cache));
+        Assertions.assertTrue(boardLocation.getBoard().isListener(cache));
+        Assertions.assertTrue(rootPanelLocation.isListener(cache));
+
+        // As when the board is removed from the job.
+        cache.invalidate(boardLocation);
+        Assertions.assertFalse(boardLocation.isListener(cache));
+        Assertions.assertFalse(boardLocation.getBoard().isListener(cache));
+        Assertions.assertFalse(rootPanelLocation.isListener(cache));
+
+        // Listened to again, when cached again, until the job is closed.
+        check(cache, boardLocation, placement);
+        Assertions.assertTrue(boardLocation.isListener(cache));
+        cache.invalidateAll();
+        Assertions.assertFalse(boardLocation.isListener(cache));
+        Assertions.assertFalse(boardLocation.getBoard().isListener(cache));
+    }
+
+    private void check(PlacementLocationCache cache, BoardLocation boardLocation, Placement placement) {
+        Location expected = Utils2D.calculateBoardPlacementLocation(boardLocation, placement);
+        Location actual = cache.getGlobalLocation(boardLocation, placement);
+        Assertions.assertEquals(expected.getX(), actual.getX(), 1e-9);
+        Assertions.assertEquals(expected.getY(), actual.getY(), 1e-9);
+        Assertions.assertEquals(expected.getRotation(), actual.getRotation(), 1e-9);
+    }
+}
@@ -0,0 +1,157 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.openpnp.machine.reference.camera.AbstractBroadcastingCamera.TimestampedFrame;
+import org.openpnp.machine.reference.camera.ImageCamera;
+import org.openpnp.model.Configuration;
+import org.openpnp.util.NanosecondTime;
+import org.openpnp.util.SharedFrame;
+
+import com.google.common.io.Files;
+
+public class PlannedStillstandSettleTest {
+    @BeforeAll
+    public static void setUp() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+    }
+
+    /**
+     * A camera with a stillstand time set by the test. If the test sets the clock, the frames are stamped 
+     * by it instead of the runtime, and each capture advances it by the frame time. 
+     * The preview never captures on its own, so only the test's captures count.
+     */
+    public static class TestCamera extends ImageCamera {
+        final long frameTimeMs;
+        double stillstandTime;
+        double clock = Double.NaN;
+        int captures;
+
+        TestCamera(long frameTimeMs) {
+            this.frameTimeMs = frameTimeMs;
+            setPreviewFps(0);
+        }
+
+        @Override
+        public synchronized BufferedImage internalCapture() {
+            clock += frameTimeMs*0.001;
+            captures++;
+            return new BufferedImage(64, 48, BufferedImage.TYPE_3BYTE_BGR);
+        }
+
+        @Override
+        protected void markCaptureTime() {
+            if (Double.isNaN(clock)) {
+                super.markCaptureTime();
+            }
+            else {
+                markCaptureTime(clock);
+            }
+        }
+
+        @Override
+        public boolean hasNewFrame() {
+            return false;
+        }
+
+        @Override
+        protected double getPlannedStillstandTime() {
+            return stillstandTime;
+        }
+
+        public BufferedImage settle() throws Exception {
+            return captureAtPlannedStillstand();
+        }
+    }
+
+    @Test
+    public void testRingBuffer() throws Exception {
+        TestCamera camera = new TestCamera(0);
+        camera.setFrameBufferSize(3);
+        camera.setExposureLatencyMs(100);
+        double t0 = NanosecondTime.getRuntimeSeconds();
+        BufferedImage first = camera.captureTransformed();
+        for (int i = 0; i < 3; i++) {
+            camera.captureTransformed();
+        }
+        // The first frame was dropped from the ring buffer.
+        assertNotNull(camera.getFrameExposedAfter(t0 - 1));
+        assertTrue(camera.getFrameExposedAfter(t0 - 1).getImage() != first);
+        // Stamped with the exposure latency.
+        double exposureTime = camera.getFrameExposedAfter(t0 - 1).getExposureTime();
+        assertTrue(exposureTime >= t0 - 0.1 && exposureTime < NanosecondTime.getRuntimeSeconds() - 0.1);
+        assertNull(camera.getFrameExposedAfter(NanosecondTime.getRuntimeSeconds()));
+    }
+
+    @Test
+    public void testRingBufferReleasesFrames() throws Exception {
+        TestCamera camera = new TestCamera(0) {
+            @Override
+            public synchronized BufferedImage internalCapture() {
+                captures++;
+                return SharedFrame.toBufferedImage(new Mat(48, 64, CvType.CV_8UC3, new Scalar(captures)));
+            }
+        };
+        camera.setFrameBufferSize(2);
+        BufferedImage first = camera.captureTransformed();
+        BufferedImage taken = camera.captureTransformed();
+        Mat mat = SharedFrame.toMat(taken);
+        BufferedImage last = camera.captureTransformed();
+        // Dropped from the ring buffer, the Mat is released, but the image can still be used.
+        assertFalse(SharedFrame.getFrame(first).isOwningMat());
+        Mat copy = SharedFrame.toMat(first);
+        assertEquals(1, copy.get(0, 0)[0], 0);
+        copy.release();
+        // A taken over Mat stays valid.
+        camera.captureTransformed();
+        assertEquals(2, mat.get(0, 0)[0], 0);
+        mat.release();
+        assertTrue(SharedFrame.getFrame(last).isOwningMat());
+        // Released when the camera is closed.
+        camera.close();
+        assertFalse(SharedFrame.getFrame(last).isOwningMat());
+    }
+
+    @Test
+    public void testPlannedStillstand() throws Exception {
+        final long frameTimeMs = 50;
+        TestCamera camera = new TestCamera(frameTimeMs);
+        camera.setExposureLatencyMs(75);
+        camera.setSettleTimeMs(250);
+        camera.setSettleTimeoutMs(1000);
+        // No fallback to the fixed settle time.
+        assertTrue(camera.isExposureTimed());
+        camera.clock = NanosecondTime.getRuntimeSeconds();
+
+        // Stood still before the recent frame: it is taken without capturing.
+        camera.stillstandTime = camera.clock - 1;
+        BufferedImage recent = camera.captureTransformed();
+        int captures = camera.captures;
+        assertSame(recent, camera.settle());
+        assertEquals(captures, camera.captures);
+
+        // Stands still now: the next frame was still exposed during the motion, and is skipped.
+        camera.stillstandTime = camera.clock;
+        BufferedImage settled = camera.settle();
+        assertEquals(captures + 2, camera.captures);
+        TimestampedFrame frame = camera.getFrameExposedAfter(camera.stillstandTime);
+        assertSame(settled, frame.getImage());
+        // Captured at stillstand + 100ms, minus the exposure latency. Well before the fixed settle time.
+        assertEquals(0.025, frame.getExposureTime() - camera.stillstandTime, 1e-6);
+        assertTrue(frame.getExposureTime() - camera.stillstandTime < camera.getSettleTimeMs()*0.001);
+    }
+}
@@ -1,3 +1,5 @@
+import static org.junit.jupiter.api.Assertions.assertNull;
+
 import java.io.File;
 
 import org.junit.jupiter.api.Test;
@@ -14,6 +16,7 @@ import org.openpnp.spi.Nozzle;
 import org.openpnp.spi.NozzleTip;
 import org.openpnp.spi.PartAlignment.PartAlignmentOffset;
 import org.openpnp.util.VisionUtils;
+import org.openpnp.vision.pipeline.CvPipeline;
 
 import com.google.common.io.Files;
 
@@ -28,7 +31,16 @@ public class ReferenceBottomVisionTest {
         testError(new Location(LengthUnit.Millimeters, 0.25, 0.75, 0, -13));
     }
     
+    @Test
+    public void testRegionOfInterest() throws Exception {
+        testError(new Location(LengthUnit.Millimeters, 0.25, 0.75, 0, 13), true);
+    }
+
     public static void testError(Location error) throws Exception {
+        testError(error, false);
+    }
+
+    public static void testError(Location error, boolean cropToRegionOfInterest) throws Exception {
         Location maxError = new Location(LengthUnit.Millimeters, 0.1, 0.1, 0, 0.03);
 
         File workingDirectory = Files.createTempDir();
@@ -47,6 +59,7 @@ public class ReferenceBottomVisionTest {
         ReferenceBottomVision bottomVision = ReferenceBottomVision.getDefault();
 
         SampleJobTest.makeMachineFastest();
+        bottomVision.getBottomVisionSettings().setCropToRegionOfInterest(cropToRegionOfInterest);
 
         // Set nozzle tip pick tolerances for large offsets.
         for (NozzleTip tip : Configuration.get().getMachine().getNozzleTips()) {
@@ -63,6 +76,9 @@ public class ReferenceBottomVisionTest {
             assertMaxDelta(offsets.getX(), error.getX(), maxError.getX());
             assertMaxDelta(offsets.getY(), error.getY(), maxError.getY());
             assertMaxDelta(offsets.getRotation(), error.getRotation(), maxError.getRotation());
+            // The crop is not left on the pipeline.
+            assertNull(bottomVision.getBottomVisionSettings().getPipeline()
+                    .getProperty(CvPipeline.REGION_OF_INTEREST_PROPERTY));
             return true;
         });
     }
@@ -0,0 +1,119 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.machine.reference.camera.ImageCamera;
+import org.openpnp.model.Configuration;
+import org.openpnp.util.OpenCvUtils;
+
+import com.google.common.io.Files;
+
+public class ReferenceCameraTransformTest {
+    static {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+    }
+
+    public static class TestCamera extends ImageCamera {
+        public BufferedImage transform(BufferedImage image) {
+            return transformImage(image);
+        }
+    }
+
+    /**
+     * A smooth camera-like image with some features.
+     */
+    private static BufferedImage createImage() {
+        Mat mat = new Mat(960, 1280, CvType.CV_8UC3, new Scalar(0, 0, 0));
+        Core.setRNGSeed(11);
+        Core.randu(mat, 0, 256);
+        Imgproc.GaussianBlur(mat, mat, new Size(0, 0), 6);
+        Imgproc.circle(mat, new Point(500, 400), 60, new Scalar(250, 240, 230), -1);
+        Imgproc.rectangle(mat, new Point(800, 600), new Point(900, 700), new Scalar(10, 20, 30), -1);
+        Imgproc.GaussianBlur(mat, mat, new Size(0, 0), 1.5);
+        BufferedImage image = OpenCvUtils.toBufferedImage(mat);
+        mat.release();
+        return image;
+    }
+
+    private static TestCamera createCamera() {
+        TestCamera camera = new TestCamera();
+        camera.setCropWidth(1200);
+        camera.setCropHeight(900);
+        Mat cameraMatrix = new Mat(3, 3, CvType.CV_64FC1);
+        cameraMatrix.put(0, 0, 1000, 0, 600, 0, 1000, 450, 0, 0, 1);
+        Mat distortion = new Mat(1, 5, CvType.CV_64FC1);
+        distortion.put(0, 0, -0.1, 0.02, 0, 0, 0);
+        camera.getCalibration().setCameraMatrixMat(cameraMatrix);
+        camera.getCalibration().setDistortionCoefficientsMat(distortion);
+        camera.setUndistorted(true);
+        camera.setScaleWidth(1000);
+        camera.setScaleHeight(750);
+        camera.setRotation(10);
+        camera.setOffsetX(5);
+        camera.setOffsetY(-3);
+        camera.setFlipX(true);
+        return camera;
+    }
+
+    private static void transform(TestCamera camera, BufferedImage image, boolean fused, Mat result) {
+        camera.setFusedTransforms(fused);
+        try {
+            // Twice, the second time with the maps already built.
+            camera.transform(image);
+            BufferedImage transformed = camera.transform(image);
+            OpenCvUtils.toMat(transformed).copyTo(result);
+        }
+        finally {
+            camera.setFusedTransforms(true);
+        }
+    }
+
+    @Test
+    public void testFusedTransform() throws Exception {
+        BufferedImage image = createImage();
+        TestCamera camera = createCamera();
+        Mat separate = new Mat();
+        Mat fused = new Mat();
+        transform(camera, image, false, separate);
+        transform(camera, image, true, fused);
+        assertEquals(separate.size(), fused.size());
+
+        // Same geometry, compared away from the borders, where the separate transforms lose pixels.
+        Rect inner = new Rect(100, 100, separate.cols() - 200, separate.rows() - 200);
+        Mat difference = new Mat();
+        Core.absdiff(separate.submat(inner), fused.submat(inner), difference);
+        double meanDifference = Core.mean(difference).val[0];
+        assertTrue(meanDifference < 2.0, "Mean difference "+meanDifference);
+        // Interpolated once instead of per transform, so not identical, i.e. the fused path was taken.
+        assertTrue(meanDifference > 0, "Transforms were not fused");
+
+        // Rebuilt when a property changes.
+        camera.setRotation(-20);
+        transform(camera, image, false, separate);
+        transform(camera, image, true, fused);
+        assertEquals(separate.size(), fused.size());
+        inner = new Rect(100, 100, separate.cols() - 200, separate.rows() - 200);
+        Core.absdiff(separate.submat(inner), fused.submat(inner), difference);
+        assertTrue(Core.mean(difference).val[0] < 2.0);
+    }
+}
@@ -0,0 +1,78 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.openpnp.gui.components.reticle.CrosshairReticle;
+import org.openpnp.gui.components.reticle.FootprintReticle;
+import org.openpnp.gui.components.reticle.Reticle;
+import org.openpnp.gui.components.reticle.ReticleCache;
+import org.openpnp.model.Footprint;
+import org.openpnp.model.LengthUnit;
+
+public class ReticleCacheTest {
+    private static final int SIZE = 400;
+
+    private static BufferedImage paint(ReticleCache cache, List<Reticle> reticles, int modifications) {
+        BufferedImage view = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = view.createGraphics();
+        // 0.01mm per pixel, center of the view.
+        cache.draw(g2d, g2d.getDeviceConfiguration(), SIZE, SIZE, reticles, modifications, 
+                LengthUnit.Millimeters, 0.01, 0.01, SIZE/2, SIZE/2, SIZE, SIZE, 0);
+        g2d.dispose();
+        return view;
+    }
+
+    private static int countPixels(BufferedImage view, int x0, int x1) {
+        int count = 0;
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = x0; x < x1; x++) {
+                if ((view.getRGB(x, y) >>> 24) != 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testStaticReticle() throws Exception {
+        ReticleCache cache = new ReticleCache();
+        CrosshairReticle crosshair = new CrosshairReticle();
+        List<Reticle> reticles = Arrays.asList(crosshair);
+        paint(cache, reticles, 0);
+        paint(cache, reticles, 0);
+        assertEquals(1, cache.getRenders());
+        // Set again.
+        paint(cache, reticles, 1);
+        assertEquals(2, cache.getRenders());
+    }
+
+    @Test
+    public void testFootprintEditedInPlace() throws Exception {
+        Footprint footprint = new Footprint();
+        footprint.setUnits(LengthUnit.Millimeters);
+        Footprint.Pad pad = new Footprint.Pad();
+        pad.setWidth(1);
+        pad.setHeight(1);
+        footprint.addPad(pad);
+        ReticleCache cache = new ReticleCache();
+        List<Reticle> reticles = Arrays.asList(new CrosshairReticle(), new FootprintReticle(footprint));
+
+        // The pad spans 100 pixels around the center.
+        BufferedImage view = paint(cache, reticles, 0);
+        assertTrue(countPixels(view, 140, 160) > 50);
+        assertEquals(0, countPixels(view, 340, 360) - countPixels(view, 40, 60));
+
+        // The user edits the footprint, without setting the reticle again.
+        pad.setX(1);
+        view = paint(cache, reticles, 0);
+        assertTrue(countPixels(view, 340, 360) - countPixels(view, 40, 60) > 50);
+        // The crosshair stayed cached.
+        assertEquals(1, cache.getRenders());
+    }
+}
@@ -0,0 +1,101 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.util.OpenCvUtils;
+import org.openpnp.util.SharedFrame;
+
+public class SharedFrameTest {
+    static {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    private static Mat createFrame(int type) {
+        Mat mat = new Mat(960, 1280, type, new Scalar(0, 0, 0));
+        Core.randu(mat, 0, 256);
+        return mat;
+    }
+
+    @Test
+    public void testOwnership() throws Exception {
+        for (int type : new int[] { CvType.CV_8UC3, CvType.CV_8UC1 }) {
+            Mat mat = createFrame(type);
+            Mat expected = mat.clone();
+            long dataAddr = mat.dataAddr();
+            BufferedImage image = SharedFrame.toBufferedImage(mat);
+            assertEquals(type == CvType.CV_8UC3 ? BufferedImage.TYPE_3BYTE_BGR : BufferedImage.TYPE_BYTE_GRAY,
+                    image.getType());
+            Mat copy = OpenCvUtils.toMat(image);
+            assertEquals(0, Core.norm(expected, copy, Core.NORM_INF));
+            copy.release();
+
+            // A view shares the pixels, and stays valid.
+            Mat view = SharedFrame.viewMat(image);
+            assertEquals(dataAddr, view.dataAddr());
+            assertTrue(SharedFrame.getFrame(image).isOwningMat());
+
+            // Taken over once, without copying.
+            Mat taken = SharedFrame.toMat(image);
+            assertEquals(dataAddr, taken.dataAddr());
+            assertFalse(SharedFrame.getFrame(image).isOwningMat());
+            taken.release();
+            assertEquals(0, Core.norm(expected, view, Core.NORM_INF));
+            view.release();
+
+            // Then copied from the BufferedImage.
+            Mat again = SharedFrame.toMat(image);
+            assertEquals(0, Core.norm(expected, again, Core.NORM_INF));
+            again.release();
+            expected.release();
+        }
+        // Plain images are copied.
+        BufferedImage plain = new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB);
+        assertNull(SharedFrame.getFrame(plain));
+        assertEquals(CvType.CV_8UC3, SharedFrame.toMat(plain).type());
+    }
+
+    private static Mat source;
+
+    /**
+     * The capture → transform → pipeline path, like ReferenceCamera.transformImage() and
+     * ImageCapture.
+     */
+    private static void capturePath(boolean shared, int frames) {
+        for (int i = 0; i < frames; i++) {
+            Mat captured = source.clone();
+            BufferedImage image = shared ? SharedFrame.toBufferedImage(captured) : OpenCvUtils.toBufferedImage(captured);
+            if (!shared) {
+                captured.release();
+            }
+            Mat mat = shared ? SharedFrame.toMat(image) : OpenCvUtils.toMat(image);
+            Imgproc.GaussianBlur(mat, mat, new org.opencv.core.Size(3, 3), 0);
+            image = shared ? SharedFrame.toBufferedImage(mat) : OpenCvUtils.toBufferedImage(mat);
+            if (!shared) {
+                mat.release();
+            }
+            Mat pipelineImage = shared ? SharedFrame.toMat(image) : OpenCvUtils.toMat(image);
+            pipelineImage.release();
+        }
+    }
+
+    @Test
+    public void testCapturePath() throws Exception {
+        final int frames = 20;
+        source = createFrame(CvType.CV_8UC3);
+        capturePath(false, frames);
+        long sharedBytes = SharedFrame.getSharedBytes();
+        capturePath(true, frames);
+        sharedBytes = SharedFrame.getSharedBytes() - sharedBytes;
+        // Two toMat() copies per frame eliminated.
+        assertEquals(2L*frames*960*1280*3, sharedBytes);
+    }
+}
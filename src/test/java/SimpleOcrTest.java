@@ -0,0 +1,155 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openpnp.model.Configuration;
+import org.openpnp.util.OpenCvUtils;
+import org.openpnp.vision.FluentCv;
+import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.CvStage;
+import org.openpnp.vision.pipeline.stages.SimpleOcr;
+import org.openpnp.vision.pipeline.stages.SimpleOcr.OcrModel;
+
+import com.google.common.io.Files;
+
+public class SimpleOcrTest {
+    static {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+    }
+
+    private static final String fontName = "Liberation Mono";
+    // The test camera has 1mm per pixel, i.e. 40pt are ~14 pixels.
+    private static final double fontSizePt = 40.0;
+    private static final int fontPixelSize = 14;
+
+    /**
+     * A label with two lines of text, rendered in the font to be recognized.
+     */
+    public static class TestLabel extends CvStage {
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            BufferedImage image = new BufferedImage(200, 60, BufferedImage.TYPE_BYTE_GRAY);
+            Graphics2D g2d = image.createGraphics();
+            g2d.setColor(Color.white);
+            g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.setColor(Color.black);
+            g2d.setFont(new Font(fontName, Font.PLAIN, fontPixelSize));
+            g2d.drawString("R10K-1%", 12, 22);
+            g2d.drawString("C100nF", 12, 44);
+            g2d.dispose();
+            return new Result(OpenCvUtils.toMat(image), FluentCv.ColorSpace.Gray);
+        }
+    }
+
+    private static class Ocr {
+        OcrModel model;
+        double fontSizePt;
+    }
+
+    private static Ocr ocr(boolean parallel, double fontSizePt, boolean autoDetectSize) throws Exception {
+        try (CvPipeline pipeline = new CvPipeline()) {
+            pipeline.setProperty("camera", new VisionUtilsTest.TestCamera());
+            pipeline.add("label", new TestLabel());
+            SimpleOcr simpleOcr = new SimpleOcr();
+            simpleOcr.setFontName(fontName);
+            simpleOcr.setFontSizePt(fontSizePt);
+            simpleOcr.setAutoDetectSize(autoDetectSize);
+            simpleOcr.setDrawStyle(SimpleOcr.DrawStyle.None);
+            simpleOcr.setParallelMatching(parallel);
+            pipeline.add("ocr", simpleOcr);
+            pipeline.process();
+            Ocr ocr = new Ocr();
+            ocr.model = (OcrModel) pipeline.getResult("ocr").model;
+            ocr.fontSizePt = simpleOcr.getFontSizePt();
+            return ocr;
+        }
+    }
+
+    @Test
+    public void testCachedParallelOcr() throws Exception {
+        SimpleOcr.clearGlyphCache();
+        Ocr uncached = ocr(false, fontSizePt, false);
+        Ocr serial = ocr(false, fontSizePt, false);
+        Ocr parallel = ocr(true, fontSizePt, false);
+        assertEquals("R10K-1%\nC100nF", serial.model.getText());
+        assertEquals(uncached.model.toString(), serial.model.toString());
+        assertEquals(serial.model.toString(), parallel.model.toString());
+    }
+
+    @Test
+    public void testAutoDetectSize() throws Exception {
+        // Brute force, like the auto-detection used to.
+        double bestSize = Double.NaN;
+        double bestScore = 0.0;
+        for (double testSize = 50.0*0.5; testSize < 50.0*2.0; testSize *= 1.05) {
+            double score = ocr(true, testSize, false).model.getOverallScore();
+            if (score > bestScore) {
+                bestScore = score;
+                bestSize = testSize;
+            }
+        }
+        Ocr ocr = ocr(true, 50.0, true);
+        assertEquals(Math.round(bestSize*100.0)/100.0, ocr.fontSizePt);
+        assertEquals(bestScore, ocr.model.getOverallScore());
+        assertEquals(fontPixelSize, Math.round(ocr.fontSizePt*25.4/72));
+        assertEquals("R10K-1%\nC100nF", ocr.model.getText());
+    }
+
+    /**
+     * Exposes the glyph cache.
+     */
+    public static class TestOcr extends SimpleOcr {
+        Object acquire(int fontPixelSize) throws Exception {
+            return acquireGlyphs(fontName, fontPixelSize, BufferedImage.TYPE_BYTE_GRAY, "0123456789");
+        }
+
+        void release(Object glyphs) {
+            releaseGlyphs((Glyphs) glyphs);
+        }
+
+        boolean isReleased(Object glyphs) {
+            return ((Glyphs) glyphs).isReleased();
+        }
+    }
+
+    @Test
+    public void testGlyphCacheEviction() throws Exception {
+        SimpleOcr.clearGlyphCache();
+        TestOcr ocr = new TestOcr();
+        // Held while evicted.
+        Object held = ocr.acquire(10);
+        Object unused = ocr.acquire(11);
+        ocr.release(unused);
+        for (int size = 12; size < 100; size++) {
+            ocr.release(ocr.acquire(size));
+        }
+        assertTrue(ocr.isReleased(unused));
+        assertFalse(ocr.isReleased(held));
+        ocr.release(held);
+        assertTrue(ocr.isReleased(held));
+        // Still cached, released when cleared.
+        Object cached = ocr.acquire(99);
+        ocr.release(cached);
+        assertFalse(ocr.isReleased(cached));
+        SimpleOcr.clearGlyphCache();
+        assertTrue(ocr.isReleased(cached));
+    }
+}
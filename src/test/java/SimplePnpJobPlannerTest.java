@@ -0,0 +1,142 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.openpnp.machine.reference.ReferenceNozzle;
+import org.openpnp.machine.reference.ReferenceNozzleTip;
+import org.openpnp.machine.reference.ReferencePnpJobProcessor.SimplePnpJobPlanner;
+import org.openpnp.model.BoardLocation;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Job;
+import org.openpnp.model.Placement;
+import org.openpnp.spi.Head;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.Nozzle;
+import org.openpnp.spi.PnpJobPlanner.PlannedPlacement;
+import org.openpnp.spi.PnpJobProcessor.JobPlacement;
+
+public class SimplePnpJobPlannerTest {
+    /**
+     * The first pending placement after the loaded nozzle tip runs out can be handled by NT2 or
+     * NT3, but only NT3 can handle the rest of the job as well. Planning cycle by cycle changes to
+     * NT2 first, the schedule goes to NT3 right away.
+     */
+    @Test
+    public void testNozzleTipSchedule() throws Exception {
+        Configuration.initialize();
+        Machine machine = new ReferenceJobProcessorRetryTests.MachineBuilder()
+                .head("H1")
+                .nozzleTip("NT1")
+                .nozzleTip("NT2")
+                .nozzleTip("NT3")
+                .nozzle("N1", "NT1", "NT2", "NT3")
+                .build();
+        Job job = new ReferenceJobProcessorRetryTests.JobBuilder()
+                .board("B1", 0, 0, 0, 0)
+                .packag("PA", "NT1")
+                .packag("PB", "NT2", "NT3")
+                .packag("PC", "NT3")
+                .part("A", "PA")
+                .part("B", "PB")
+                .part("C", "PC")
+                .placement("A1", "A", 0, 0, 0)
+                .placement("B1", "B", 0, 0, 0)
+                .placement("B2", "B", 0, 0, 0)
+                .placement("C1", "C", 0, 0, 0)
+                .placement("C2", "C", 0, 0, 0)
+                .build();
+        Head head = machine.getDefaultHead();
+
+        assertEquals(2, runPlanner(head, job, false));
+        assertEquals(1, runPlanner(head, job, true));
+    }
+
+    /**
+     * Equivalent nozzle tips are scheduled together, so both nozzles keep working.
+     */
+    @Test
+    public void testEquivalentNozzleTips() throws Exception {
+        Configuration.initialize();
+        Machine machine = new ReferenceJobProcessorRetryTests.MachineBuilder()
+                .head("H1")
+                .nozzleTip("NT1a")
+                .nozzleTip("NT1b")
+                .nozzleTip("NT2")
+                .nozzle("N1", "NT1a", "NT1b", "NT2")
+                .nozzle("N2", "NT1a", "NT1b", "NT2")
+                .build();
+        ReferenceJobProcessorRetryTests.JobBuilder jobBuilder = new ReferenceJobProcessorRetryTests.JobBuilder()
+                .board("B1", 0, 0, 0, 0)
+                .packag("P1", "NT1a", "NT1b")
+                .packag("P2", "NT2")
+                .part("R1", "P1")
+                .part("R2", "P2");
+        for (int i = 0; i < 10; i++) {
+            jobBuilder.placement("R1-" + i, "R1", 0, 0, 0);
+        }
+        jobBuilder.placement("R2-1", "R2", 0, 0, 0);
+        Job job = jobBuilder.build();
+        Head head = machine.getDefaultHead();
+
+        List<Integer> cycles = new ArrayList<>();
+        int changes = runPlanner(head, job, true, cycles);
+        assertEquals(2, changes);
+        assertTrue(cycles.get(0) <= 6, "Expected both nozzles to work in parallel, took " + cycles.get(0) + " cycles.");
+    }
+
+    private int runPlanner(Head head, Job job, boolean nozzleTipSchedule) throws Exception {
+        return runPlanner(head, job, nozzleTipSchedule, new ArrayList<>());
+    }
+
+    /**
+     * Simulates the job cycle by cycle, starting with NT1 or NT1a loaded on the first nozzle,
+     * and returns the number of nozzle tip changes.
+     */
+    private int runPlanner(Head head, Job job, boolean nozzleTipSchedule, List<Integer> cycles) throws Exception {
+        for (Nozzle nozzle : head.getNozzles()) {
+            ((ReferenceNozzle) nozzle).setNozzleTip(null);
+        }
+        ReferenceNozzle n1 = (ReferenceNozzle) head.getNozzles().get(0);
+        n1.setNozzleTip((ReferenceNozzleTip) n1.getCompatibleNozzleTips()
+                .stream()
+                .filter(nt -> nt.getName().startsWith("NT1"))
+                .sorted((a, b) -> a.getName().compareTo(b.getName()))
+                .findFirst()
+                .get());
+
+        List<JobPlacement> pending = new ArrayList<>();
+        for (BoardLocation boardLocation : job.getBoardLocations()) {
+            for (Placement placement : boardLocation.getBoard().getPlacements()) {
+                pending.add(new JobPlacement(boardLocation, placement));
+            }
+        }
+
+        SimplePnpJobPlanner planner = new SimplePnpJobPlanner();
+        planner.setNozzleTipSchedule(nozzleTipSchedule);
+        planner.restart();
+        int changes = 0;
+        int cycle = 0;
+        while (!pending.isEmpty()) {
+            List<PlannedPlacement> plannedPlacements = planner.plan(head, new ArrayList<>(pending));
+            assertTrue(!plannedPlacements.isEmpty(), "Planner failed to plan any placements.");
+            for (PlannedPlacement plannedPlacement : plannedPlacements) {
+                if (plannedPlacement.nozzle.getNozzleTip() != plannedPlacement.nozzleTip) {
+                    for (Nozzle nozzle : head.getNozzles()) {
+                        if (nozzle.getNozzleTip() == plannedPlacement.nozzleTip) {
+                            ((ReferenceNozzle) nozzle).setNozzleTip(null);
+                        }
+                    }
+                    ((ReferenceNozzle) plannedPlacement.nozzle).setNozzleTip((ReferenceNozzleTip) plannedPlacement.nozzleTip);
+                    changes++;
+                }
+                pending.remove(plannedPlacement.jobPlacement);
+            }
+            cycle++;
+        }
+        cycles.add(cycle);
+        return changes;
+    }
+}
@@ -0,0 +1,169 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openpnp.machine.reference.camera.ImageCamera;
+import org.openpnp.machine.reference.camera.SimulatedUpCamera;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.model.Part;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.Nozzle;
+import org.openpnp.util.VisionUtils;
+
+import com.google.common.io.Files;
+
+public class SimulatedCameraRenderingTest {
+    @BeforeAll
+    public static void setUp() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+    }
+
+    public static class TestCamera extends ImageCamera {
+        public BufferedImage capture(Location location) {
+            return locationCapture(location, getViewWidth(), getViewHeight(), true);
+        }
+    }
+
+    private static int maxDifference(BufferedImage a, BufferedImage b) {
+        assertEquals(a.getWidth(), b.getWidth());
+        assertEquals(a.getHeight(), b.getHeight());
+        int max = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                int rgbA = a.getRGB(x, y);
+                int rgbB = b.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    max = Math.max(max, Math.abs(((rgbA >> shift) & 0xFF) - ((rgbB >> shift) & 0xFF)));
+                }
+            }
+        }
+        return max;
+    }
+
+    private static Location getLocation(int i) {
+        return new Location(LengthUnit.Millimeters, 20 + i*0.37, 15 + i*0.23, 0, 0);
+    }
+
+    /**
+     * @return The number of scenes rendered for the frames captured.
+     */
+    private static long captureImageCamera(TestCamera camera, boolean cached, boolean moving, int frames) {
+        camera.setCachedRendering(cached);
+        try {
+            camera.capture(getLocation(0));
+            long renders = camera.getRenders();
+            for (int i = 0; i < frames; i++) {
+                camera.capture(getLocation(moving ? i + 1 : 0));
+            }
+            return camera.getRenders() - renders;
+        }
+        finally {
+            camera.setCachedRendering(true);
+        }
+    }
+
+    @Test
+    public void testImageCamera() throws Exception {
+        TestCamera camera = new TestCamera();
+        camera.setPrimaryFiducial(new Location(LengthUnit.Millimeters, 22, 16, 0, 0));
+        // At a different height, rendered with focal blur.
+        camera.setSecondaryFiducial(new Location(LengthUnit.Millimeters, 19, 14, -5, 0));
+        // Load the source image, but do not broadcast, so only the test captures.
+        camera.open();
+        camera.close();
+        for (boolean distorted : new boolean[] { false, true }) {
+            camera.setSimulatedDistortion(distorted ? 5 : 0);
+            camera.setSimulatedRotation(distorted ? 3 : 0);
+            for (int i = 0; i < 3; i++) {
+                camera.setCachedRendering(false);
+                BufferedImage expected = camera.capture(getLocation(i));
+                camera.setCachedRendering(true);
+                BufferedImage cachedScene = camera.capture(getLocation(i));
+                // Rendered twice, so the second one comes from the scene cache.
+                BufferedImage cachedCapture = camera.capture(getLocation(i));
+                assertEquals(0, maxDifference(expected, cachedScene));
+                assertEquals(0, maxDifference(expected, cachedCapture));
+                assertTrue(cachedScene != cachedCapture);
+            }
+        }
+        camera.setSimulatedDistortion(0);
+        camera.setSimulatedRotation(0);
+
+        // Every frame is rendered, unless the camera stands still and the scene is cached.
+        final int frames = 20;
+        assertEquals(frames, captureImageCamera(camera, false, false, frames));
+        assertEquals(frames, captureImageCamera(camera, true, true, frames));
+        assertEquals(0, captureImageCamera(camera, true, false, frames));
+        // A changed setting renders the scene again, once.
+        long renders = camera.getRenders();
+        camera.setSimulatedInterpolation(ImageCamera.SimulatedInterpolation.Bilinear);
+        camera.capture(getLocation(0));
+        camera.capture(getLocation(0));
+        assertEquals(renders + 1, camera.getRenders());
+        camera.setSimulatedInterpolation(ImageCamera.SimulatedInterpolation.Bicubic);
+    }
+
+    /**
+     * @return The number of pixels blurred per frame.
+     */
+    private static long captureUpCamera(SimulatedUpCamera camera, boolean cached, int frames) {
+        camera.setCachedRendering(cached);
+        try {
+            camera.internalCapture();
+            long blurredPixels = camera.getBlurredPixels();
+            for (int i = 0; i < frames; i++) {
+                camera.internalCapture();
+            }
+            return (camera.getBlurredPixels() - blurredPixels)/frames;
+        }
+        finally {
+            camera.setCachedRendering(true);
+        }
+    }
+
+    @Test
+    public void testSimulatedUpCamera() throws Exception {
+        Machine machine = Configuration.get().getMachine();
+        Nozzle nozzle = machine.getDefaultHead().getDefaultNozzle();
+        SimulatedUpCamera camera = (SimulatedUpCamera) VisionUtils.getBottomVisionCamera();
+        camera.setSimulateFocalBlur(true);
+        Part part = Configuration.get().getPart("R0805-1K");
+        machine.setEnabled(true);
+        machine.home();
+        machine.execute(() -> {
+            // Above the camera, out of focus.
+            nozzle.moveTo(camera.getLocation().add(new Location(LengthUnit.Millimeters, 0.3, -0.2, 2, 15)));
+            for (boolean withPart : new boolean[] { false, true }) {
+                if (withPart) {
+                    nozzle.pick(part);
+                }
+                camera.setCachedRendering(false);
+                BufferedImage expected = camera.internalCapture();
+                camera.setCachedRendering(true);
+                BufferedImage cached = camera.internalCapture();
+                assertEquals(0, maxDifference(expected, cached));
+                // Scratch buffer reused and cleared.
+                cached = camera.internalCapture();
+                assertEquals(0, maxDifference(expected, cached));
+            }
+
+            // Uncached, the whole view is blurred for the nozzle and again for the part. Cached, only the 
+            // regions they cover.
+            final int frames = 5;
+            long uncachedPixels = captureUpCamera(camera, false, frames);
+            long cachedPixels = captureUpCamera(camera, true, frames);
+            assertTrue(cachedPixels > 0);
+            assertTrue(cachedPixels < uncachedPixels/8);
+            return true;
+        });
+    }
+}
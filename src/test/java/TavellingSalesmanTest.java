@@ -43,42 +43,22 @@ public class TavellingSalesmanTest {
      */
     @Test
     public void testTravellingSalesman() throws Exception {
+        for (TravellingSalesman.Solver solver : TravellingSalesman.Solver.values()) {
+            testTravellingSalesman(solver);
+        }
+    }
+
+    private void testTravellingSalesman(TravellingSalesman.Solver solver) throws Exception {
         for (int t = 2, scale = 100; scale > 0; t--, scale /= 10) {
-            // make this test repeatable, by seeding the random generator.
-            Random rnd = new java.util.Random(42);
-            List<Location> list = new ArrayList<Location>();
-            // add some random Locations all over 
-            for (int i = 0; i < 1*scale+10; i++) {
-                list.add(new Location(LengthUnit.Millimeters, rnd.nextDouble()*1000.0, rnd.nextDouble()*500.0, rnd.nextDouble()*20.0, 0.0));
-            }
-            // add some X-aligned rows of feeders
-            for (int i = 0; i < 3*scale; i++) {
-                list.add(new Location(LengthUnit.Millimeters, Math.floor(rnd.nextDouble()*5.0)*250.0+rnd.nextDouble()*20.0, rnd.nextDouble()*500.0, rnd.nextDouble()*10.0, 0.0));
-            }
-            // add some Y-aligned rows of feeders
-            for (int i = 0; i < 2*scale; i++) {
-                list.add(new Location(LengthUnit.Millimeters, rnd.nextDouble()*1000.0, Math.floor(rnd.nextDouble()*2.0)*500.0+rnd.nextDouble()*20.0, rnd.nextDouble()*10.0, 0.0));
-            }
+            List<Location> list = createLocations(scale);
             // create the solver
-            TravellingSalesman<Location> tsm = new TravellingSalesman<>(
-                    list, 
-                    new TravellingSalesman.Locator<Location>() { 
-                        @Override
-                        public Location getLocation(Location locatable) {
-                            return locatable;
-                        }
-                    }, 
-                    // start from origin 
-                    new Location(LengthUnit.Millimeters), 
-                    // across, loop, and no given end location respectively
-                    (t == 1 ? new Location(LengthUnit.Millimeters) : 
-                        (t == 0 ? new Location(LengthUnit.Millimeters, 1000.0, 500.0, 0.0, 0.0) : 
-                            null)));
+            TravellingSalesman<Location> tsm = createSolver(list, t);
+            tsm.setSolver(solver);
             // now solve the bugger
             double bestDistance = tsm.solve();
             // for the unit test, roughly check expected solution distance   
             double target = new double [] { 3000.0, 5100.0, 12000.0 } [t];
-            System.out.println("TavellingSalesmanTest.testTravellingSalesman() solved "+list.size()+" locations, distance: "+Math.round(bestDistance)+"mm, target: "+target+"mm, time: "+tsm.getSolverDuration()+"ms");
+            System.out.println("TavellingSalesmanTest.testTravellingSalesman() "+solver+" solved "+list.size()+" locations, distance: "+Math.round(bestDistance)+"mm, target: "+target+"mm, time: "+tsm.getSolverDuration()+"ms");
             // save the solution, so we can have a look
             File file = File.createTempFile("travelling-salesman", ".svg");
             try (PrintWriter out = new PrintWriter(file.getAbsolutePath())) {
@@ -87,8 +67,76 @@ public class TavellingSalesmanTest {
             } 
             // unit test target
             if (bestDistance > target) {
-                throw new Exception("org.openpnp.util.TravellingSalesman.solve("+list.size()+") bestDistance "+bestDistance+" is greater than " + target);
+                throw new Exception("org.openpnp.util.TravellingSalesman.solve("+list.size()+") "+solver+" bestDistance "+bestDistance+" is greater than " + target);
             }
         }
     }
+
+    /**
+     * Compares the solvers on a larger problem. The Local Search solver must find a route at least as short as 
+     * Simulated Annealing (within a small tolerance). It must also be repeatable despite its parallel restarts. 
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testLocalSearchQuality() throws Exception {
+        List<Location> list = createLocations(200);
+        double [] distance = new double [2];
+        for (TravellingSalesman.Solver solver : TravellingSalesman.Solver.values()) {
+            TravellingSalesman<Location> tsm = createSolver(list, 2);
+            tsm.setSolver(solver);
+            distance[solver.ordinal()] = tsm.solve();
+        }
+        double annealing = distance[TravellingSalesman.Solver.SimulatedAnnealing.ordinal()];
+        double localSearch = distance[TravellingSalesman.Solver.LocalSearch.ordinal()];
+        if (localSearch > annealing*1.02) {
+            throw new Exception("LocalSearch distance "+localSearch+" is worse than SimulatedAnnealing distance "+annealing);
+        }
+        // repeatability
+        TravellingSalesman<Location> tsm = createSolver(list, 2);
+        tsm.setSolver(TravellingSalesman.Solver.LocalSearch);
+        if (tsm.solve() != localSearch) {
+            throw new Exception("LocalSearch is not repeatable");
+        }
+    }
+
+    /**
+     * Generates Locations roughly arranged in X- and Y-aligned rows, like feeders would be. Plus some additional 
+     * random Locations strewn in all over. Minimal Z scattering too. The list has 6*scale+10 Locations.
+     */
+    private List<Location> createLocations(int scale) {
+        // make this test repeatable, by seeding the random generator.
+        Random rnd = new java.util.Random(42);
+        List<Location> list = new ArrayList<Location>();
+        // add some random Locations all over 
+        for (int i = 0; i < 1*scale+10; i++) {
+            list.add(new Location(LengthUnit.Millimeters, rnd.nextDouble()*1000.0, rnd.nextDouble()*500.0, rnd.nextDouble()*20.0, 0.0));
+        }
+        // add some X-aligned rows of feeders
+        for (int i = 0; i < 3*scale; i++) {
+            list.add(new Location(LengthUnit.Millimeters, Math.floor(rnd.nextDouble()*5.0)*250.0+rnd.nextDouble()*20.0, rnd.nextDouble()*500.0, rnd.nextDouble()*10.0, 0.0));
+        }
+        // add some Y-aligned rows of feeders
+        for (int i = 0; i < 2*scale; i++) {
+            list.add(new Location(LengthUnit.Millimeters, rnd.nextDouble()*1000.0, Math.floor(rnd.nextDouble()*2.0)*500.0+rnd.nextDouble()*20.0, rnd.nextDouble()*10.0, 0.0));
+        }
+        return list;
+    }
+
+    private TravellingSalesman<Location> createSolver(List<Location> list, int t) {
+        return new TravellingSalesman<>(
+                list, 
+                new TravellingSalesman.Locator<Location>() { 
+                    @Override
+                    public Location getLocation(Location locatable) {
+                        return locatable;
+                    }
+                }, 
+                // start from origin 
+                new Location(LengthUnit.Millimeters), 
+                // across, loop, and no given end location respectively
+                (t == 1 ? new Location(LengthUnit.Millimeters) : 
+                    (t == 0 ? new Location(LengthUnit.Millimeters, 1000.0, 500.0, 0.0, 0.0) : 
+                        null)));
+    }
 }
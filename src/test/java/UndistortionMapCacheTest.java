@@ -0,0 +1,152 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.File;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.openpnp.machine.reference.camera.ImageCamera;
+import org.openpnp.machine.reference.camera.calibration.UndistortionMapCache;
+import org.openpnp.model.Configuration;
+import org.openpnp.spi.Camera;
+
+import com.google.common.io.Files;
+
+public class UndistortionMapCacheTest {
+    static {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    private static File cacheDirectory;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        cacheDirectory = new File(workingDirectory, "undistortion-cache");
+        cacheDirectory.mkdirs();
+    }
+
+    private static void init(String owner, double k1, Size size, Mat map1, Mat map2) {
+        Mat cameraMatrix = new Mat(3, 3, CvType.CV_64FC1);
+        cameraMatrix.put(0, 0, 3000, 0, size.width/2, 0, 3000, size.height/2, 0, 0, 1);
+        Mat distortion = new Mat(1, 5, CvType.CV_64FC1);
+        distortion.put(0, 0, k1, 0.02, 0.001, -0.001, 0);
+        Mat rectification = Mat.eye(3, 3, CvType.CV_64FC1);
+        UndistortionMapCache.initUndistortRectifyMap(owner, cameraMatrix, distortion, rectification, cameraMatrix,
+                size, CvType.CV_16SC2, map1, map2);
+    }
+
+    /**
+     * @return The id of a new camera of the machine, to own maps.
+     */
+    private static String createOwner() throws Exception {
+        ImageCamera camera = new ImageCamera();
+        Configuration.get().getMachine().addCamera(camera);
+        return camera.getId();
+    }
+
+    private static Map<String, Object> getFileKeys() throws Exception {
+        Map<String, Object> fileKeys = new HashMap<>();
+        for (File file : cacheDirectory.listFiles()) {
+            fileKeys.put(file.getName(), java.nio.file.Files.readAttributes(file.toPath(), 
+                    BasicFileAttributes.class).fileKey());
+        }
+        return fileKeys;
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        FileUtils.cleanDirectory(cacheDirectory);
+        String cam1 = createOwner();
+        String cam2 = createOwner();
+        Size size = new Size(4000, 3000);
+        Mat computed1 = new Mat();
+        Mat computed2 = new Mat();
+        init(cam1, -0.1, size, computed1, computed2);
+        assertEquals(1, cacheDirectory.list().length);
+
+        Mat loaded1 = new Mat();
+        Mat loaded2 = new Mat();
+        init(cam1, -0.1, size, loaded1, loaded2);
+        assertEquals(computed1.size(), loaded1.size());
+        assertEquals(CvType.CV_16SC2, loaded1.type());
+        assertEquals(CvType.CV_16UC1, loaded2.type());
+        assertEquals(0, Core.norm(computed1, loaded1, Core.NORM_INF));
+        assertEquals(0, Core.norm(computed2, loaded2, Core.NORM_INF));
+
+        // Same as uncached.
+        Mat expected1 = new Mat();
+        Mat expected2 = new Mat();
+        Mat cameraMatrix = new Mat(3, 3, CvType.CV_64FC1);
+        cameraMatrix.put(0, 0, 3000, 0, size.width/2, 0, 3000, size.height/2, 0, 0, 1);
+        Mat distortion = new Mat(1, 5, CvType.CV_64FC1);
+        distortion.put(0, 0, -0.1, 0.02, 0.001, -0.001, 0);
+        Calib3d.initUndistortRectifyMap(cameraMatrix, distortion, Mat.eye(3, 3, CvType.CV_64FC1), cameraMatrix,
+                size, CvType.CV_16SC2, expected1, expected2);
+        assertEquals(0, Core.norm(expected1, loaded1, Core.NORM_INF));
+        assertEquals(0, Core.norm(expected2, loaded2, Core.NORM_INF));
+
+        // Other owner, other file.
+        Mat other1 = new Mat();
+        Mat other2 = new Mat();
+        init(cam2, -0.05, size, other1, other2);
+        assertEquals(2, cacheDirectory.list().length);
+        assertNotEquals(0, Core.norm(other1, loaded1, Core.NORM_INF));
+
+        // Recalibrated, the new file supersedes the owner's previous one.
+        init(cam1, -0.08, size, other1, other2);
+        assertEquals(2, cacheDirectory.list().length);
+        init(cam1, -0.1, size, loaded1, loaded2);
+        assertEquals(2, cacheDirectory.list().length);
+        assertEquals(0, Core.norm(expected1, loaded1, Core.NORM_INF));
+    }
+
+    @Test
+    public void testManyOwners() throws Exception {
+        FileUtils.cleanDirectory(cacheDirectory);
+        Size size = new Size(640, 480);
+        List<String> owners = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            owners.add(createOwner());
+        }
+        Mat map1 = new Mat();
+        Mat map2 = new Mat();
+        for (int i = 0; i < owners.size(); i++) {
+            init(owners.get(i), -0.1 + i*0.01, size, map1, map2);
+        }
+        // One file per owner.
+        Map<String, Object> fileKeys = getFileKeys();
+        assertEquals(owners.size(), fileKeys.size());
+
+        // Every owner hits the cache, i.e. no file is written again.
+        for (int i = 0; i < owners.size(); i++) {
+            init(owners.get(i), -0.1 + i*0.01, size, map1, map2);
+        }
+        assertEquals(fileKeys, getFileKeys());
+
+        // The files of a camera that was deleted go, with the next file written.
+        Camera deleted = Configuration.get().getMachine().getCamera(owners.get(0));
+        Configuration.get().getMachine().removeCamera(deleted);
+        init(owners.get(1), -0.2, size, map1, map2);
+        assertEquals(owners.size() - 1, cacheDirectory.list().length);
+        for (String name : cacheDirectory.list()) {
+            assertFalse(name.startsWith(owners.get(0)), name);
+        }
+    }
+}
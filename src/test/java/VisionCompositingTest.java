@@ -125,6 +125,52 @@ public class VisionCompositingTest {
         });
     }
 
+    @Test
+    public void testBackgroundShotProcessing() throws Exception {
+        Machine machine = Configuration.get().getMachine();
+        Nozzle nozzle = machine.getDefaultHead().getDefaultNozzle();
+        SimulatedUpCamera camera = (SimulatedUpCamera) VisionUtils.getBottomVisionCamera();
+        camera.setRoamingRadius(new Length(30, LengthUnit.Millimeters));
+        ReferenceBottomVision bottomVision = ReferenceBottomVision.getDefault();
+        NullDriver driver = (NullDriver) ((ReferenceMachine) machine).getDefaultDriver();
+        driver.setFeedRateMmPerMinute(0);
+        for (NozzleTip tip : Configuration.get().getMachine().getNozzleTips()) {
+            ((ReferenceNozzleTip) tip).setMaxPickTolerance(new Length(1, LengthUnit.Millimeters));
+        }
+        bottomVision.setPreRotate(false);
+        // Processing overlaps with moving and settling at the next shot, simulate a quick machine.
+        camera.setSettleTimeMs(50);
+
+        machine.setEnabled(true);
+        machine.home();
+        machine.execute(() -> {
+            try {
+                for (Part part: Configuration.get().getParts()) {
+                    if (!part.getId().startsWith("FID")) {
+                        camera.setErrorOffsets(new Location(LengthUnit.Millimeters, 0.25, 0.75, 0, -2));
+                        nozzle.pick(part);
+                        Placement placement = new Placement("Dummy");
+                        placement.setLocation(Location.origin);
+                        // Same images, so the result must be the same, whether the shots are processed 
+                        // one by one or in the background. Only the machine coordinates may differ in the 
+                        // last bits, by where the nozzle came from.
+                        bottomVision.setBackgroundShotProcessing(false);
+                        Location sequential = bottomVision.findOffsets(part, null, placement, nozzle).getLocation();
+                        bottomVision.setBackgroundShotProcessing(true);
+                        Location background = bottomVision.findOffsets(part, null, placement, nozzle).getLocation();
+                        assertMaxDelta(background.getX(), sequential.getX(), 1e-9);
+                        assertMaxDelta(background.getY(), sequential.getY(), 1e-9);
+                        assertMaxDelta(background.getRotation(), sequential.getRotation(), 1e-9);
+                    }
+                }
+            }
+            finally {
+                bottomVision.setBackgroundShotProcessing(true);
+            }
+            return true;
+        });
+    }
+
     public static void assertMaxDelta(double a, double b, double maxDelta) throws Exception {
         if (Math.abs(a - b) > maxDelta) {
             throw new Exception(String.format("abs(%f - %f) > %f", a, b, maxDelta));